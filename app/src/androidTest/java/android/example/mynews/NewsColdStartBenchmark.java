@@ -0,0 +1,134 @@
+package android.example.mynews;
+
+import android.app.Activity;
+import android.app.Instrumentation;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Launches {@link NewsActivity} over and over with a startup snapshot in place and measures
+ * how long it takes until the first frame with articles in it is drawn: from the launch
+ * intent, and from the screen being created as reported by
+ * {@link NewsMetrics#timeToFirstContent}. It also measures reading the snapshot on its own.
+ * Results are written to logcat under the tag of this class.
+ * <p>
+ * Every launch creates a new activity in the running test process, so the numbers leave out
+ * starting the process. For a whole cold start, kill the app and launch it with
+ * {@code adb shell am force-stop android.example.mynews} and
+ * {@code adb shell am start -W -n android.example.mynews/.NewsActivity}, which waits for the
+ * screen's {@code reportFullyDrawn()}.
+ * <p>
+ * Pass {@code -e launches <count>} to the instrumentation to launch another number of times.
+ */
+@RunWith(AndroidJUnit4.class)
+public class NewsColdStartBenchmark {
+
+    private static final String LOG_TAG = NewsColdStartBenchmark.class.getSimpleName();
+
+    private static final int DEFAULT_LAUNCHES = 20;
+
+    private static final int SNAPSHOT_READS = 200;
+
+    /**
+     * Longest a launch may take to show the snapshot
+     */
+    private static final long LAUNCH_TIMEOUT_MILLIS = 5000;
+
+    private Instrumentation mInstrumentation;
+
+    private NewsStartupSnapshot mSnapshot;
+
+    @Before
+    public void setUp() {
+        mInstrumentation = InstrumentationRegistry.getInstrumentation();
+        Context context = mInstrumentation.getTargetContext();
+        mSnapshot = new NewsStartupSnapshot(
+                new File(context.getFilesDir(), NewsActivity.STARTUP_SNAPSHOT_FILE));
+        List<News> feed = new ArrayList<>();
+        for (int i = 0; i < NewsStartupSnapshot.DEFAULT_MAX_ARTICLES; i++) {
+            feed.add(article(i));
+        }
+        mSnapshot.write(feed);
+    }
+
+    @After
+    public void tearDown() {
+        mSnapshot.delete();
+    }
+
+    @Test
+    public void launchToFirstContent() {
+        Bundle arguments = InstrumentationRegistry.getArguments();
+        String count = arguments != null ? arguments.getString("launches") : null;
+        int launches = count != null ? Integer.parseInt(count) : DEFAULT_LAUNCHES;
+
+        long[] readMicros = new long[SNAPSHOT_READS];
+        for (int r = 0; r < SNAPSHOT_READS; r++) {
+            long start = System.nanoTime();
+            List<News> news = mSnapshot.read();
+            readMicros[r] = (System.nanoTime() - start) / 1000;
+            assertEquals(NewsStartupSnapshot.DEFAULT_MAX_ARTICLES, news.size());
+        }
+        Arrays.sort(readMicros);
+
+        NewsMetrics.Histogram firstContent = NewsMetrics.getInstance().timeToFirstContent;
+        long[] launchMicros = new long[launches];
+        for (int i = 0; i < launches; i++) {
+            long shown = firstContent.getCount();
+            Intent intent = new Intent(mInstrumentation.getTargetContext(), NewsActivity.class)
+                    .addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+
+            long start = System.nanoTime();
+            Activity activity = mInstrumentation.startActivitySync(intent);
+            long deadline = SystemClock.uptimeMillis() + LAUNCH_TIMEOUT_MILLIS;
+            while (firstContent.getCount() == shown && SystemClock.uptimeMillis() < deadline) {
+                SystemClock.sleep(1);
+            }
+            launchMicros[i] = (System.nanoTime() - start) / 1000;
+            assertEquals(shown + 1, firstContent.getCount());
+
+            activity.finish();
+            mInstrumentation.waitForIdleSync();
+        }
+        Arrays.sort(launchMicros);
+
+        Log.i(LOG_TAG, String.format(Locale.US,
+                "%d launches, intent to first content: p50 %dus p90 %dus; created to first "
+                        + "content: p50 %dus p90 %dus; snapshot read: p50 %dus p99 %dus",
+                launches, percentile(launchMicros, 0.5), percentile(launchMicros, 0.9),
+                firstContent.getPercentile(0.5), firstContent.getPercentile(0.9),
+                percentile(readMicros, 0.5), percentile(readMicros, 0.99)));
+        assertTrue(NewsMetrics.getInstance().startupSnapshotsShown.get() >= launches);
+    }
+
+    private static long percentile(long[] sorted, double fraction) {
+        return sorted[(int) Math.ceil(fraction * sorted.length) - 1];
+    }
+
+    private static News article(int index) {
+        return new News("US news",
+                "Arizona story number " + index + " about the border, water and the desert",
+                "Tom Dart", 1560513605000L - index * 60000L,
+                "https://www.theguardian.com/us-news/2019/jun/14/arizona-story-" + index,
+                "https://media.guim.co.uk/" + Integer.toHexString(index) + "/500.jpg");
+    }
+}
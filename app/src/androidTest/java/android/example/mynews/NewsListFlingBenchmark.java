@@ -0,0 +1,295 @@
+package android.example.mynews;
+
+import android.app.Activity;
+import android.app.Instrumentation;
+import android.content.Intent;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.util.Log;
+import android.view.Choreographer;
+import android.view.View;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Measures what precomputing the layout of titles saves in the news list, with a thousand
+ * articles whose titles wrap over several lines: how long binding, measuring and laying out a
+ * row takes, and how many frames miss the display's frame budget while the list is flung from
+ * top to bottom. Both are measured once with plain titles and once with titles precomputed by
+ * {@link NewsTitlePrecomputer}. Results are written to logcat under the tag of this class.
+ * <p>
+ * The articles have no thumbnails, so nothing is loaded while scrolling and the numbers only
+ * reflect the rows themselves. Every run has a precomputer of its own, large enough to keep
+ * every title, so runs don't see each other's titles.
+ */
+@RunWith(AndroidJUnit4.class)
+public class NewsListFlingBenchmark {
+
+    private static final String LOG_TAG = NewsListFlingBenchmark.class.getSimpleName();
+
+    private static final int ARTICLES = 1000;
+
+    /**
+     * Fling velocity in pixels per second, about as fast as a thumb goes
+     */
+    private static final int FLING_VELOCITY = 12000;
+
+    /**
+     * Longest flinging the whole list may take
+     */
+    private static final long FLING_TIMEOUT_MILLIS = 60000;
+
+    private static final String[] WORDS = {
+            "Arizona", "wildfire", "forces", "evacuations", "as", "border", "towns", "brace",
+            "for", "record", "heat", "and", "the", "water", "supply", "of", "desert", "cities",
+            "runs", "low", "while", "officials", "argue", "over", "who", "should", "pay"
+    };
+
+    private Instrumentation mInstrumentation;
+
+    private Activity mActivity;
+
+    private RecyclerView mList;
+
+    @Before
+    public void setUp() {
+        mInstrumentation = InstrumentationRegistry.getInstrumentation();
+        Intent intent = new Intent(mInstrumentation.getTargetContext(), NewsActivity.class)
+                .addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+        mActivity = mInstrumentation.startActivitySync(intent);
+        mInstrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mList = (RecyclerView) mActivity.findViewById(R.id.list);
+                // Scrolling to the end mustn't fetch more pages
+                mList.clearOnScrollListeners();
+            }
+        });
+        NewsMetrics.getInstance().reset();
+    }
+
+    @After
+    public void tearDown() {
+        mActivity.finish();
+        mInstrumentation.waitForIdleSync();
+    }
+
+    @Test
+    public void bindingARow() {
+        final long[][] micros = new long[2][];
+        mInstrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                NewsTitlePrecomputer precomputer = new NewsTitlePrecomputer(ARTICLES);
+                // Creating a row tells the precomputer the metrics of the titles
+                NewsAdapter.ViewHolder holder =
+                        newAdapter(precomputer).onCreateViewHolder(mList, 0);
+                int widthSpec = View.MeasureSpec.makeMeasureSpec(mList.getWidth(),
+                        View.MeasureSpec.EXACTLY);
+                int heightSpec = View.MeasureSpec.makeMeasureSpec(0,
+                        View.MeasureSpec.UNSPECIFIED);
+                micros[0] = bindAll(holder, articles(), precomputer, widthSpec, heightSpec);
+                List<News> articles = articles();
+                precomputer.precomputeAll(articles);
+                micros[1] = bindAll(holder, articles, precomputer, widthSpec, heightSpec);
+            }
+        });
+
+        Log.i(LOG_TAG, String.format(Locale.US,
+                "%d rows bound, measured and laid out: plain titles p50 %dus p90 %dus max %dus; "
+                        + "precomputed titles p50 %dus p90 %dus max %dus",
+                ARTICLES, percentile(micros[0], 0.5), percentile(micros[0], 0.9),
+                micros[0][ARTICLES - 1], percentile(micros[1], 0.5),
+                percentile(micros[1], 0.9), micros[1][ARTICLES - 1]));
+    }
+
+    @Test
+    public void flingingTheList() {
+        int[] plain = fling(false);
+        int[] precomputed = fling(true);
+
+        Log.i(LOG_TAG, String.format(Locale.US,
+                "Flinging %d rows: plain titles %d of %d frames over budget; precomputed "
+                        + "titles %d of %d frames over budget",
+                ARTICLES, plain[1], plain[0], precomputed[1], precomputed[0]));
+        NewsMetrics metrics = NewsMetrics.getInstance();
+        assertTrue(metrics.plainTitlesBound.get() > 0);
+        assertTrue(metrics.precomputedTitlesBound.get() > 0);
+    }
+
+    /**
+     * Binds, measures and lays out the given holder for every article, and returns how long
+     * each took in microseconds, sorted.
+     */
+    private static long[] bindAll(NewsAdapter.ViewHolder holder, List<News> articles,
+                                  NewsTitlePrecomputer precomputer, int widthSpec,
+                                  int heightSpec) {
+        long[] micros = new long[articles.size()];
+        for (int i = 0; i < articles.size(); i++) {
+            News article = articles.get(i);
+            long start = System.nanoTime();
+            holder.sectionName.setText(article.getNewsArticleSectionName());
+            precomputer.bindTitle(holder.title, holder.titleParams, article);
+            holder.author.setText(article.getNewsArticleAuthor());
+            holder.publicationDate.setText(article.getNewsArticlePublicationDate());
+            holder.itemView.measure(widthSpec, heightSpec);
+            holder.itemView.layout(0, 0, holder.itemView.getMeasuredWidth(),
+                    holder.itemView.getMeasuredHeight());
+            micros[i] = (System.nanoTime() - start) / 1000;
+        }
+        Arrays.sort(micros);
+        return micros;
+    }
+
+    /**
+     * Shows the articles in the list and flings it from the top until the last row is on
+     * screen, and returns the number of frames drawn and the number over the frame budget.
+     */
+    private int[] fling(final boolean precompute) {
+        final FrameRecorder recorder = new FrameRecorder(
+                mActivity.getWindowManager().getDefaultDisplay().getRefreshRate());
+        mInstrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                NewsTitlePrecomputer precomputer = new NewsTitlePrecomputer(ARTICLES);
+                NewsAdapter adapter = newAdapter(precomputer);
+                // Creating a row tells the precomputer the metrics of the titles
+                adapter.onCreateViewHolder(mList, 0);
+                List<News> articles = articles();
+                if (precompute) {
+                    precomputer.precomputeAll(articles);
+                }
+                adapter.submitList(articles);
+                mList.setAdapter(adapter);
+                mList.scrollToPosition(0);
+            }
+        });
+        mInstrumentation.waitForIdleSync();
+
+        final LinearLayoutManager layoutManager = (LinearLayoutManager) mList.getLayoutManager();
+        final boolean[] done = new boolean[1];
+        mInstrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                Choreographer.getInstance().postFrameCallback(recorder);
+            }
+        });
+        long deadline = SystemClock.uptimeMillis() + FLING_TIMEOUT_MILLIS;
+        while (!done[0] && SystemClock.uptimeMillis() < deadline) {
+            mInstrumentation.runOnMainSync(new Runnable() {
+                @Override
+                public void run() {
+                    if (layoutManager.findLastCompletelyVisibleItemPosition() == ARTICLES - 1) {
+                        done[0] = true;
+                    } else if (mList.getScrollState() == RecyclerView.SCROLL_STATE_IDLE) {
+                        mList.fling(0, FLING_VELOCITY);
+                    }
+                }
+            });
+            SystemClock.sleep(16);
+        }
+        mInstrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                recorder.stop();
+            }
+        });
+        assertTrue("The list didn't reach its end", done[0]);
+        assertEquals(ARTICLES, mList.getAdapter().getItemCount());
+        return new int[]{recorder.mFrames, recorder.mJanky};
+    }
+
+    private NewsAdapter newAdapter(NewsTitlePrecomputer precomputer) {
+        return new NewsAdapter(new NewsAdapter.OnNewsClickListener() {
+            @Override
+            public void onNewsClick(News news) {
+            }
+        }, NewsThumbnailLoader.getInstance(mActivity), precomputer);
+    }
+
+    /**
+     * Returns the articles to show.
+     */
+    private static List<News> articles() {
+        List<News> articles = new ArrayList<>(ARTICLES);
+        for (int i = 0; i < ARTICLES; i++) {
+            articles.add(new News("US news", title(i), "Tom Dart",
+                    1560513605000L - i * 60000L,
+                    "https://www.theguardian.com/us-news/2019/jun/14/story-" + i, null));
+        }
+        return articles;
+    }
+
+    /**
+     * Returns a title of four to six lines on a phone, different for every article.
+     */
+    private static String title(int index) {
+        StringBuilder title = new StringBuilder();
+        int words = 30 + index % 15;
+        for (int w = 0; w < words; w++) {
+            if (w > 0) {
+                title.append(' ');
+            }
+            title.append(WORDS[(index * 7 + w * 3) % WORDS.length]);
+        }
+        return title.toString();
+    }
+
+    private static long percentile(long[] sorted, double fraction) {
+        return sorted[(int) Math.ceil(fraction * sorted.length) - 1];
+    }
+
+    /**
+     * Counts the frames drawn, and those that came later than a frame after the one before.
+     */
+    private static final class FrameRecorder implements Choreographer.FrameCallback {
+
+        private final long mBudgetNanos;
+
+        private long mLastFrameNanos;
+
+        private int mFrames;
+
+        private int mJanky;
+
+        private boolean mStopped;
+
+        FrameRecorder(float refreshRate) {
+            mBudgetNanos = (long) (1000000000L / refreshRate);
+        }
+
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            if (mStopped) {
+                return;
+            }
+            if (mLastFrameNanos != 0) {
+                mFrames++;
+                // A little slack for vsync jitter
+                if (frameTimeNanos - mLastFrameNanos > mBudgetNanos * 3 / 2) {
+                    mJanky++;
+                }
+            }
+            mLastFrameNanos = frameTimeNanos;
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+
+        void stop() {
+            mStopped = true;
+        }
+    }
+}
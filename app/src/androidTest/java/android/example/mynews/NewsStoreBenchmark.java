@@ -0,0 +1,139 @@
+package android.example.mynews;
+
+import android.content.Context;
+import android.os.Bundle;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Fills a {@link NewsStore} with a million articles and measures how long reading the top 50
+ * of the feed takes, overall and in one section. Results are written to logcat under the tag
+ * of this class.
+ * <p>
+ * Pass {@code -e articles <count>} to the instrumentation to use another number of articles.
+ */
+@RunWith(AndroidJUnit4.class)
+public class NewsStoreBenchmark {
+
+    private static final String LOG_TAG = NewsStoreBenchmark.class.getSimpleName();
+
+    private static final String DATABASE_NAME = "news-benchmark.db";
+
+    private static final int DEFAULT_ARTICLES = 1000000;
+
+    /**
+     * Articles written per transaction, like a large page
+     */
+    private static final int BATCH_SIZE = 1000;
+
+    private static final int FEED_SIZE = 50;
+
+    private static final int READS = 200;
+
+    private static final String[] SECTIONS = {
+            "US news", "World news", "Environment", "Sport", "Politics", "Business",
+            "Opinion", "Technology", "Culture", "Travel"
+    };
+
+    private Context mContext;
+
+    private NewsStore mStore;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mContext.deleteDatabase(DATABASE_NAME);
+        mStore = new NewsStore(mContext, DATABASE_NAME, Integer.MAX_VALUE, Long.MAX_VALUE / 2,
+                NewsClock.SYSTEM);
+    }
+
+    @After
+    public void tearDown() {
+        mStore.close();
+        mContext.deleteDatabase(DATABASE_NAME);
+    }
+
+    @Test
+    public void readTopOfFeed() {
+        Bundle arguments = InstrumentationRegistry.getArguments();
+        String count = arguments != null ? arguments.getString("articles") : null;
+        int articles = count != null ? Integer.parseInt(count) : DEFAULT_ARTICLES;
+
+        long insertStart = System.nanoTime();
+        List<News> batch = new ArrayList<>(BATCH_SIZE);
+        for (int i = 0; i < articles; i++) {
+            batch.add(article(i));
+            if (batch.size() == BATCH_SIZE || i == articles - 1) {
+                mStore.putAll(batch);
+                batch.clear();
+            }
+        }
+        long insertMillis = (System.nanoTime() - insertStart) / 1000000;
+        assertEquals(articles, mStore.count());
+
+        long[] feedMicros = readTimes(null);
+        long[] sectionMicros = readTimes("Environment");
+
+        Log.i(LOG_TAG, String.format(Locale.US,
+                "%d articles inserted in %dms (%.1fus each)", articles, insertMillis,
+                insertMillis * 1000.0 / articles));
+        Log.i(LOG_TAG, String.format(Locale.US,
+                "top %d of the feed: p50 %dus p99 %dus; of one section: p50 %dus p99 %dus",
+                FEED_SIZE, percentile(feedMicros, 0.5), percentile(feedMicros, 0.99),
+                percentile(sectionMicros, 0.5), percentile(sectionMicros, 0.99)));
+    }
+
+    /**
+     * Read the top of the feed, into articles, over and over and return how long each read
+     * took, sorted.
+     */
+    private long[] readTimes(String section) {
+        long[] micros = new long[READS];
+        for (int r = 0; r < READS; r++) {
+            long start = System.nanoTime();
+            NewsStore.Feed feed = mStore.readNewest(section, FEED_SIZE);
+            int read = 0;
+            try {
+                while (feed.next() != null) {
+                    read++;
+                }
+            } finally {
+                feed.close();
+            }
+            micros[r] = (System.nanoTime() - start) / 1000;
+            assertEquals(FEED_SIZE, read);
+        }
+        Arrays.sort(micros);
+        return micros;
+    }
+
+    private static long percentile(long[] sorted, double fraction) {
+        return sorted[(int) Math.ceil(fraction * sorted.length) - 1];
+    }
+
+    /**
+     * Returns the article with the given index. Articles are a minute apart, but the index is
+     * scrambled into the time so batches don't arrive in publication order.
+     */
+    private static News article(int index) {
+        long published = 1560513605000L - (index * 7919L % 1000003L) * 60000L;
+        return new News(SECTIONS[index % SECTIONS.length],
+                "Arizona story number " + index + " about the border, water and the desert",
+                "Tom Dart", published,
+                "https://www.theguardian.com/us-news/2019/jun/14/arizona-story-" + index,
+                "https://media.guim.co.uk/" + Integer.toHexString(index) + "/500.jpg");
+    }
+}
@@ -0,0 +1,126 @@
+package android.example.mynews;
+
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Checks that {@link NewsStore} replaces articles by web URL, reads them back newest first
+ * and keeps within its budgets.
+ */
+@RunWith(AndroidJUnit4.class)
+public class NewsStoreTest {
+
+    private static final long DAY_MILLIS = 24L * 60 * 60 * 1000;
+
+    private final FakeClock mClock = new FakeClock();
+
+    private NewsStore mStore;
+
+    @Before
+    public void setUp() {
+        // Kept in memory only
+        mStore = new NewsStore(InstrumentationRegistry.getTargetContext(), null, 5,
+                7 * DAY_MILLIS, mClock);
+    }
+
+    @After
+    public void tearDown() {
+        mStore.close();
+    }
+
+    @Test
+    public void readNewest_streamsInPublicationOrder() {
+        mStore.putAll(Arrays.asList(news("a", "US news", 1000), news("b", "Sport", 3000),
+                news("c", "US news", 2000)));
+
+        assertEquals(Arrays.asList("b", "c", "a"), urls(mStore.readNewest(null, 10)));
+        assertEquals(Arrays.asList("b", "c"), urls(mStore.readNewest(null, 2)));
+        assertEquals(Arrays.asList("c", "a"), urls(mStore.readNewest("US news", 10)));
+    }
+
+    @Test
+    public void putAll_replacesArticlesWithTheSameUrl() {
+        mStore.putAll(Arrays.asList(news("a", "US news", 1000)));
+        mStore.putAll(Arrays.asList(
+                new News("US news", "Updated", "Tom Dart", 1000L, "a", "https://media/a.jpg")));
+
+        NewsStore.Feed feed = mStore.readNewest(null, 10);
+        News stored = feed.next();
+        assertNull(feed.next());
+        feed.close();
+        assertEquals("Updated", stored.getNewsArticleTitle());
+        assertEquals("https://media/a.jpg", stored.getNewsArticleThumbnailUrl());
+        assertEquals(1, mStore.count());
+    }
+
+    @Test
+    public void putAll_keepsDatesItCouldNotParse() {
+        mStore.putAll(Arrays.asList(
+                new News("US news", "Title", "Tom Dart", "June 14th", "a")));
+
+        NewsStore.Feed feed = mStore.readNewest(null, 10);
+        assertEquals("June 14th", feed.next().getNewsArticlePublicationDate());
+        feed.close();
+    }
+
+    @Test
+    public void compact_dropsTheOldestOverBudget() {
+        List<News> news = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            news.add(news("u" + i, "US news", i * 1000L));
+        }
+        mStore.putAll(news);
+
+        mStore.compact();
+
+        assertEquals(5, mStore.count());
+        assertEquals(Arrays.asList("u7", "u6", "u5", "u4", "u3"), urls(mStore.readNewest(null, 10)));
+    }
+
+    @Test
+    public void compact_dropsArticlesNotWrittenWithinTheAgeBudget() {
+        mStore.putAll(Arrays.asList(news("old", "US news", 5000)));
+        mClock.mNow += 6 * DAY_MILLIS;
+        mStore.putAll(Arrays.asList(news("new", "US news", 1000)));
+        mClock.mNow += 2 * DAY_MILLIS;
+
+        mStore.compact();
+
+        assertEquals(Arrays.asList("new"), urls(mStore.readNewest(null, 10)));
+    }
+
+    private static News news(String url, String section, long publicationTime) {
+        return new News(section, "Title " + url, "Tom Dart", publicationTime, url);
+    }
+
+    private static List<String> urls(NewsStore.Feed feed) {
+        List<String> urls = new ArrayList<>();
+        News news;
+        while ((news = feed.next()) != null) {
+            urls.add(news.getNewsArticleUrl());
+        }
+        feed.close();
+        return urls;
+    }
+
+    private static final class FakeClock implements NewsClock {
+        long mNow = 1560513605000L;
+
+        @Override
+        public long currentTimeMillis() {
+            return mNow;
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package android.example.mynews;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Measures the thumbnail pipeline on a device: the share of thumbnails served from memory
+ * while scrolling up and down a list, and how long decoding a full size image down to the
+ * thumbnail takes.
+ * <p>
+ * The images are generated JPEGs the size of the Guardian's 500px thumbnails, put straight
+ * into the disk cache, so nothing is downloaded and the numbers only reflect caching and
+ * decoding. Results are written to logcat under the tag of this class.
+ */
+@RunWith(AndroidJUnit4.class)
+public class NewsThumbnailLoaderBenchmark {
+
+    private static final String LOG_TAG = NewsThumbnailLoaderBenchmark.class.getSimpleName();
+
+    private static final int IMAGES = 60;
+
+    private static final int IMAGE_WIDTH = 500;
+
+    private static final int IMAGE_HEIGHT = 300;
+
+    /**
+     * Rows on screen at once
+     */
+    private static final int VISIBLE_ROWS = 8;
+
+    private static final int SCROLLS = 3;
+
+    private NewsThumbnailLoader mLoader;
+
+    private int mTargetSize;
+
+    @Before
+    public void setUp() throws IOException {
+        Context context = InstrumentationRegistry.getTargetContext();
+        File directory = new File(context.getCacheDir(), "thumbnail-benchmark");
+        File[] leftovers = directory.listFiles();
+        if (leftovers != null) {
+            for (File leftover : leftovers) {
+                leftover.delete();
+            }
+        }
+        NewsThumbnailDiskCache diskCache =
+                new NewsThumbnailDiskCache(directory, 64 * 1024 * 1024);
+        for (int i = 0; i < IMAGES; i++) {
+            diskCache.put(url(i), new ByteArrayInputStream(jpeg(i)));
+        }
+        mTargetSize = context.getResources().getDimensionPixelSize(R.dimen.thumbnail_size);
+        mLoader = new NewsThumbnailLoader(diskCache, mTargetSize);
+        NewsMetrics.getInstance().reset();
+    }
+
+    @Test
+    public void scrollingUpAndDown() {
+        NewsMetrics metrics = NewsMetrics.getInstance();
+        int loads = 0;
+        for (int scroll = 0; scroll < SCROLLS; scroll++) {
+            // Down to the end one row at a time, binding the row coming into view, then back up
+            for (int top = 0; top + VISIBLE_ROWS <= IMAGES; top++) {
+                loads += load(top == 0 ? 0 : top + VISIBLE_ROWS - 1, top == 0 ? VISIBLE_ROWS : 1);
+            }
+            for (int top = IMAGES - VISIBLE_ROWS - 1; top >= 0; top--) {
+                loads += load(top, 1);
+            }
+        }
+
+        long memoryHits = metrics.thumbnailMemoryHits.get();
+        long diskHits = metrics.thumbnailDiskHits.get();
+        assertEquals(loads, memoryHits + diskHits);
+        assertEquals(0, metrics.thumbnailDownloads.get());
+        // Every image has to be decoded once, and only once while they all fit in memory
+        assertTrue(diskHits >= IMAGES);
+
+        String report = String.format(Locale.US,
+                "%d loads at %dpx: memory hit ratio %.2f, %d decodes, decode p50 %dus p99 %dus,"
+                        + " %d bitmaps reused",
+                loads, mTargetSize, memoryHits / (double) loads, diskHits,
+                metrics.thumbnailDecodeTime.getPercentile(0.5),
+                metrics.thumbnailDecodeTime.getPercentile(0.99),
+                metrics.thumbnailBitmapsReused.get());
+        Log.i(LOG_TAG, report);
+    }
+
+    @Test
+    public void decodesDownToTheThumbnailSize() {
+        Bitmap bitmap = mLoader.loadSync(url(0));
+
+        assertNotNull(bitmap);
+        assertEquals(Bitmap.Config.RGB_565, bitmap.getConfig());
+        // Power of two sampling keeps both sides between one and two times the target
+        assertTrue(bitmap.getHeight() >= mTargetSize && bitmap.getHeight() < 2 * mTargetSize);
+        assertTrue(bitmap.getWidth() >= mTargetSize);
+    }
+
+    /**
+     * Load the thumbnails of count rows from the given one, and return how many were loaded.
+     */
+    private int load(int first, int count) {
+        for (int i = first; i < first + count; i++) {
+            assertNotNull(mLoader.loadSync(url(i)));
+        }
+        return count;
+    }
+
+    private static String url(int index) {
+        return "https://media.guim.co.uk/benchmark/" + index + "/500.jpg";
+    }
+
+    /**
+     * Returns a JPEG with a different pattern for every index, so none compress alike.
+     */
+    private static byte[] jpeg(int index) {
+        Bitmap bitmap = Bitmap.createBitmap(IMAGE_WIDTH, IMAGE_HEIGHT, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmap);
+        canvas.drawColor(Color.rgb(index * 37 % 256, index * 71 % 256, index * 113 % 256));
+        Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        for (int i = 0; i < 40; i++) {
+            paint.setColor(Color.rgb((index + i) * 53 % 256, i * 29 % 256, (index * i) % 256));
+            canvas.drawCircle((index * 31 + i * 47) % IMAGE_WIDTH,
+                    (index * 17 + i * 23) % IMAGE_HEIGHT, 10 + i % 30, paint);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        bitmap.compress(Bitmap.CompressFormat.JPEG, 85, out);
+        bitmap.recycle();
+        return out.toByteArray();
+    }
+}
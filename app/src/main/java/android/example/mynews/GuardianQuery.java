@@ -0,0 +1,383 @@
+package android.example.mynews;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+/**
+ * A search of the Guardian content API.
+ * <p>
+ * Queries are built from typed fields rather than pasted together as strings, and always turn
+ * into the same canonical URL: multi-valued parameters sorted and de-duplicated, values
+ * percent-encoded the same way, and the whole URL normalized by
+ * {@link NewsRequestCoalescer#normalize(String)}. Two queries that mean the same thing
+ * therefore share their entries in the disk cache, the request coalescer and the sync
+ * schedule.
+ * <p>
+ * By default a query asks only for what the list renders: the contributor tags, for the
+ * author, and the thumbnail field. Everything else the API can attach to a result is left
+ * out of the response.
+ */
+final class GuardianQuery {
+
+    static final String DEFAULT_BASE_URL = "https://content.guardianapis.com/search";
+
+    /**
+     * Tag types asked for by default: contributors, for the author's name
+     */
+    static final String TAG_CONTRIBUTOR = "contributor";
+
+    /**
+     * Fields asked for by default: the thumbnail shown next to each article
+     */
+    static final String FIELD_THUMBNAIL = "thumbnail";
+
+    /**
+     * Largest page size the API accepts
+     */
+    static final int MAX_PAGE_SIZE = 200;
+
+    /**
+     * Order of the results.
+     */
+    enum Order {
+        NEWEST("newest"),
+        OLDEST("oldest"),
+        RELEVANCE("relevance");
+
+        final String value;
+
+        Order(String value) {
+            this.value = value;
+        }
+    }
+
+    private final String mBaseUrl;
+    private final String mApiKey;
+    private final String mTerms;
+    private final SortedSet<String> mSections;
+    private final long mFromDateMillis;
+    private final long mToDateMillis;
+    private final Order mOrder;
+    private final int mPageSize;
+    private final int mPage;
+    private final SortedSet<String> mFields;
+    private final SortedSet<String> mTags;
+
+    /**
+     * The canonical URL, built once
+     */
+    private final String mUrl;
+
+    private GuardianQuery(Builder builder) {
+        mBaseUrl = builder.mBaseUrl;
+        mApiKey = builder.mApiKey;
+        mTerms = builder.mTerms;
+        mSections = Collections.unmodifiableSortedSet(new TreeSet<>(builder.mSections));
+        mFromDateMillis = builder.mFromDateMillis;
+        mToDateMillis = builder.mToDateMillis;
+        mOrder = builder.mOrder;
+        mPageSize = builder.mPageSize;
+        mPage = builder.mPage;
+        mFields = Collections.unmodifiableSortedSet(new TreeSet<>(builder.mFields));
+        mTags = Collections.unmodifiableSortedSet(new TreeSet<>(builder.mTags));
+        mUrl = buildUrl();
+    }
+
+    String getTerms() {
+        return mTerms;
+    }
+
+    SortedSet<String> getSections() {
+        return mSections;
+    }
+
+    /**
+     * Returns the earliest publication day asked for, or {@link NewsTimestamps#UNKNOWN}.
+     */
+    long getFromDateMillis() {
+        return mFromDateMillis;
+    }
+
+    /**
+     * Returns the latest publication day asked for, or {@link NewsTimestamps#UNKNOWN}.
+     */
+    long getToDateMillis() {
+        return mToDateMillis;
+    }
+
+    Order getOrder() {
+        return mOrder;
+    }
+
+    int getPageSize() {
+        return mPageSize;
+    }
+
+    int getPage() {
+        return mPage;
+    }
+
+    SortedSet<String> getFields() {
+        return mFields;
+    }
+
+    SortedSet<String> getTags() {
+        return mTags;
+    }
+
+    /**
+     * Returns the canonical request URL of this query.
+     */
+    String toUrl() {
+        return mUrl;
+    }
+
+    /**
+     * Returns the same query for another page of results.
+     */
+    GuardianQuery withPage(int page) {
+        return page == mPage ? this : toBuilder().page(page).build();
+    }
+
+    /**
+     * Returns a builder holding every field of this query.
+     */
+    Builder toBuilder() {
+        Builder builder = new Builder(mApiKey)
+                .baseUrl(mBaseUrl)
+                .terms(mTerms)
+                .fromDate(mFromDateMillis)
+                .toDate(mToDateMillis)
+                .orderBy(mOrder)
+                .pageSize(mPageSize)
+                .page(mPage);
+        builder.mSections.addAll(mSections);
+        builder.mFields.clear();
+        builder.mFields.addAll(mFields);
+        builder.mTags.clear();
+        builder.mTags.addAll(mTags);
+        return builder;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof GuardianQuery && mUrl.equals(((GuardianQuery) other).mUrl);
+    }
+
+    @Override
+    public int hashCode() {
+        return mUrl.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return mUrl;
+    }
+
+    /**
+     * Returns the request URL, normalized the way the coalescer normalizes any URL, so both
+     * put the parameters in the same order.
+     */
+    private String buildUrl() {
+        List<String> parameters = new ArrayList<>();
+        add(parameters, "q", mTerms);
+        add(parameters, "section", join(mSections, "|"));
+        if (mFromDateMillis != NewsTimestamps.UNKNOWN) {
+            add(parameters, "from-date", day(mFromDateMillis));
+        }
+        if (mToDateMillis != NewsTimestamps.UNKNOWN) {
+            add(parameters, "to-date", day(mToDateMillis));
+        }
+        add(parameters, "order-by", mOrder != null ? mOrder.value : null);
+        if (mPageSize > 0) {
+            add(parameters, "page-size", String.valueOf(mPageSize));
+        }
+        add(parameters, "page", String.valueOf(mPage));
+        add(parameters, "show-fields", join(mFields, ","));
+        add(parameters, "show-tags", join(mTags, ","));
+        add(parameters, "api-key", mApiKey);
+
+        StringBuilder url = new StringBuilder(mBaseUrl);
+        for (int i = 0; i < parameters.size(); i++) {
+            url.append(i == 0 ? '?' : '&').append(parameters.get(i));
+        }
+        return NewsRequestCoalescer.normalize(url.toString());
+    }
+
+    private static void add(List<String> parameters, String name, String value) {
+        if (value != null && !value.isEmpty()) {
+            parameters.add(name + "=" + encode(value));
+        }
+    }
+
+    private static String join(SortedSet<String> values, String separator) {
+        StringBuilder joined = new StringBuilder();
+        for (String value : values) {
+            if (joined.length() > 0) {
+                joined.append(separator);
+            }
+            joined.append(value);
+        }
+        return joined.toString();
+    }
+
+    /**
+     * Returns the UTC day of the given time, which is all the API looks at.
+     */
+    private static String day(long timeMillis) {
+        return NewsTimestamps.format(timeMillis).substring(0, "yyyy-MM-dd".length());
+    }
+
+    /**
+     * Percent-encode a parameter value, with spaces as %20 rather than +.
+     */
+    private static String encode(String value) {
+        try {
+            return URLEncoder.encode(value, "UTF-8").replace("+", "%20");
+        } catch (UnsupportedEncodingException e) {
+            // Every Java platform is required to support UTF-8
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * Builds {@link GuardianQuery} objects. Only the API key is required; a new builder asks
+     * for the first page of the newest results with the contributor tags and thumbnails.
+     */
+    static final class Builder {
+        private String mBaseUrl = DEFAULT_BASE_URL;
+        private final String mApiKey;
+        private String mTerms;
+        private final SortedSet<String> mSections = new TreeSet<>();
+        private long mFromDateMillis = NewsTimestamps.UNKNOWN;
+        private long mToDateMillis = NewsTimestamps.UNKNOWN;
+        private Order mOrder = Order.NEWEST;
+        private int mPageSize;
+        private int mPage = 1;
+        private final SortedSet<String> mFields = new TreeSet<>();
+        private final SortedSet<String> mTags = new TreeSet<>();
+
+        /**
+         * @param apiKey is the key the API is called with
+         */
+        Builder(String apiKey) {
+            if (apiKey == null || apiKey.isEmpty()) {
+                throw new IllegalArgumentException("An API key is required");
+            }
+            mApiKey = apiKey;
+            mFields.add(FIELD_THUMBNAIL);
+            mTags.add(TAG_CONTRIBUTOR);
+        }
+
+        /**
+         * Send the query somewhere other than the Guardian's search endpoint, e.g. a test
+         * server.
+         */
+        Builder baseUrl(String baseUrl) {
+            int queryStart = baseUrl.indexOf('?');
+            if (queryStart >= 0) {
+                throw new IllegalArgumentException("The base URL can't have a query: " + baseUrl);
+            }
+            mBaseUrl = baseUrl;
+            return this;
+        }
+
+        /**
+         * Search for the given terms, which may use the API's AND, OR and NOT operators.
+         */
+        Builder terms(String terms) {
+            mTerms = terms != null ? terms.trim() : null;
+            return this;
+        }
+
+        /**
+         * Only return articles from the given section, or any of the sections given so far.
+         */
+        Builder section(String sectionId) {
+            mSections.add(sectionId.trim().toLowerCase(Locale.US));
+            return this;
+        }
+
+        /**
+         * Only return articles published on or after the UTC day of the given time.
+         */
+        Builder fromDate(long timeMillis) {
+            mFromDateMillis = timeMillis;
+            return this;
+        }
+
+        /**
+         * Only return articles published on or before the UTC day of the given time.
+         */
+        Builder toDate(long timeMillis) {
+            mToDateMillis = timeMillis;
+            return this;
+        }
+
+        /**
+         * Order the results; null leaves it to the API, which orders by relevance when there
+         * are search terms and newest first otherwise.
+         */
+        Builder orderBy(Order order) {
+            mOrder = order;
+            return this;
+        }
+
+        /**
+         * Ask for the given number of results per page, or the API's default of 10 for 0.
+         */
+        Builder pageSize(int pageSize) {
+            if (pageSize < 0 || pageSize > MAX_PAGE_SIZE) {
+                throw new IllegalArgumentException("Page size out of range: " + pageSize);
+            }
+            mPageSize = pageSize;
+            return this;
+        }
+
+        /**
+         * Ask for the given page of results, counting from 1.
+         */
+        Builder page(int page) {
+            if (page < 1) {
+                throw new IllegalArgumentException("Pages count from 1: " + page);
+            }
+            mPage = page;
+            return this;
+        }
+
+        /**
+         * Ask for the given field of each result on top of the thumbnail, e.g. "trailText".
+         */
+        Builder showField(String field) {
+            mFields.add(field);
+            return this;
+        }
+
+        /**
+         * Ask for the given type of tag of each result on top of the contributors, e.g.
+         * "keyword".
+         */
+        Builder showTag(String tagType) {
+            mTags.add(tagType);
+            return this;
+        }
+
+        /**
+         * Don't ask for any fields, not even the thumbnail.
+         */
+        Builder clearFields() {
+            mFields.clear();
+            return this;
+        }
+
+        GuardianQuery build() {
+            return new GuardianQuery(this);
+        }
+    }
+}
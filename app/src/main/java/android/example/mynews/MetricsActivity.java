@@ -0,0 +1,26 @@
+package android.example.mynews;
+
+import android.os.Bundle;
+import android.support.v7.app.AppCompatActivity;
+import android.widget.TextView;
+
+/**
+ * Debug screen showing the {@link NewsMetrics} recorded since the app started.
+ */
+public class MetricsActivity extends AppCompatActivity {
+
+    private TextView mMetricsTextView;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.metrics_activity);
+        mMetricsTextView = (TextView) findViewById(R.id.metrics_text);
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        mMetricsTextView.setText(NewsMetrics.getInstance().toString());
+    }
+}
@@ -1,33 +1,69 @@
 package android.example.mynews;
 
 
+import java.nio.charset.Charset;
+
 /**
  * A {@LINK News} object has info related to a single arizona news article.
+ * <p>
+ * Lists of articles can run to thousands of entries, so the fields are kept compact: section
+ * and author names are shared through {@link NewsStringPool}, the publication date is held as
+ * epoch milliseconds, and the title and URL are stored as UTF-8 bytes that are only decoded
+ * once asked for.
  */
 public class News {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
     /**
      * the name of the guardian section with the Arizona news in it
      */
-    private String mNewsArticleSectionName;
+    private final String mNewsArticleSectionName;
 
     /**
-     * title of the article
+     * title of the article, UTF-8 encoded
      */
-    private String mNewsArticleTitle;
+    private final byte[] mNewsArticleTitle;
 
     /**
      * the author
      */
-    private String mNewsArticleAuthor;
+    private final String mNewsArticleAuthor;
+
+    /**
+     * Publication date in milliseconds since the epoch, or {@link NewsTimestamps#UNKNOWN}
+     */
+    private final long mNewsArticlePublicationTime;
+
+    /**
+     * Publication date as sent by the server, only kept when it couldn't be parsed
+     */
+    private final String mNewsArticleRawPublicationDate;
 
     /**
-     * Publication date
+     * web url, UTF-8 encoded
      */
-    private String mNewsArticlePublicationDate;
+    private final byte[] mNewsArticleUrl;
+
     /**
-     * web url
+     * URL of the article's thumbnail image, UTF-8 encoded, or null if it has none
      */
-    private String mNewsArticleUrl;
+    private final byte[] mNewsArticleThumbnailUrl;
+
+    /**
+     * Publication date formatted for display, set off the UI thread by the loader. Articles are
+     * shared between loaders and the list, so it is volatile for the UI thread to see each new
+     * value whole.
+     */
+    private volatile String mNewsArticleDisplayDate;
+
+    /**
+     * The title and web URL decoded, once something asks for them; sorting, diffing and
+     * deduplicating ask for them over and over. Strings are immutable, so a thread that still
+     * sees null here only decodes a copy of its own.
+     */
+    private String mDecodedTitle;
+    private String mDecodedUrl;
 
     /**
      * @param NewsArticleSectionName is the name of The Guardian section that the
@@ -41,11 +77,65 @@ public class News {
 
     public News(String NewsArticleSectionName, String NewsArticleTitle, String NewsArticleAuthor,
                 String NewsArticlePublicationDate, String NewsArticleUrl) {
-        mNewsArticleSectionName = NewsArticleSectionName;
-        mNewsArticleTitle = NewsArticleTitle;
-        mNewsArticleAuthor = NewsArticleAuthor;
-        mNewsArticlePublicationDate = NewsArticlePublicationDate;
-        mNewsArticleUrl = NewsArticleUrl;
+        this(NewsArticleSectionName, NewsArticleTitle, NewsArticleAuthor,
+                NewsArticlePublicationDate, NewsArticleUrl, null);
+    }
+
+    /**
+     * @param NewsArticleThumbnailUrl is the URL of the article's thumbnail image, or null
+     */
+    public News(String NewsArticleSectionName, String NewsArticleTitle, String NewsArticleAuthor,
+                String NewsArticlePublicationDate, String NewsArticleUrl,
+                String NewsArticleThumbnailUrl) {
+        mNewsArticleSectionName = NewsStringPool.intern(NewsArticleSectionName);
+        mNewsArticleTitle = encode(NewsArticleTitle);
+        mNewsArticleAuthor = NewsStringPool.intern(NewsArticleAuthor);
+        mNewsArticlePublicationTime = NewsTimestamps.parse(NewsArticlePublicationDate);
+        mNewsArticleRawPublicationDate =
+                mNewsArticlePublicationTime == NewsTimestamps.UNKNOWN ? NewsArticlePublicationDate : null;
+        mNewsArticleUrl = encode(NewsArticleUrl);
+        mNewsArticleThumbnailUrl = encode(NewsArticleThumbnailUrl);
+    }
+
+    /**
+     * @param NewsArticlePublicationTime is when the news article was published, in
+     *                                   milliseconds since the epoch
+     */
+    public News(String NewsArticleSectionName, String NewsArticleTitle, String NewsArticleAuthor,
+                long NewsArticlePublicationTime, String NewsArticleUrl) {
+        this(NewsArticleSectionName, NewsArticleTitle, NewsArticleAuthor,
+                NewsArticlePublicationTime, NewsArticleUrl, null);
+    }
+
+    public News(String NewsArticleSectionName, String NewsArticleTitle, String NewsArticleAuthor,
+                long NewsArticlePublicationTime, String NewsArticleUrl,
+                String NewsArticleThumbnailUrl) {
+        mNewsArticleSectionName = NewsStringPool.intern(NewsArticleSectionName);
+        mNewsArticleTitle = encode(NewsArticleTitle);
+        mNewsArticleAuthor = NewsStringPool.intern(NewsArticleAuthor);
+        mNewsArticlePublicationTime = NewsArticlePublicationTime;
+        mNewsArticleRawPublicationDate = null;
+        mNewsArticleUrl = encode(NewsArticleUrl);
+        mNewsArticleThumbnailUrl = encode(NewsArticleThumbnailUrl);
+    }
+
+    /**
+     * Builds an article from fields as they are stored, without encoding the title and URLs
+     * again; used by {@link NewsSnapshotCodec}. The arrays are kept, not copied.
+     *
+     * @param rawPublicationDate is the date as sent by the server if publicationTime is
+     *                           {@link NewsTimestamps#UNKNOWN}, and ignored otherwise
+     */
+    News(String sectionName, byte[] title, String author, long publicationTime,
+         String rawPublicationDate, byte[] url, byte[] thumbnailUrl) {
+        mNewsArticleSectionName = NewsStringPool.intern(sectionName);
+        mNewsArticleTitle = title;
+        mNewsArticleAuthor = NewsStringPool.intern(author);
+        mNewsArticlePublicationTime = publicationTime;
+        mNewsArticleRawPublicationDate =
+                publicationTime == NewsTimestamps.UNKNOWN ? rawPublicationDate : null;
+        mNewsArticleUrl = url;
+        mNewsArticleThumbnailUrl = thumbnailUrl;
     }
 
 
@@ -61,7 +151,12 @@ public class News {
      * Returns the title of the news article.
      */
     public String getNewsArticleTitle() {
-        return mNewsArticleTitle;
+        String title = mDecodedTitle;
+        if (title == null && mNewsArticleTitle != null) {
+            title = decode(mNewsArticleTitle);
+            mDecodedTitle = title;
+        }
+        return title;
     }
 
     /**
@@ -75,13 +170,84 @@ public class News {
      * Returns the news_article_publication_date the news article was published.
      */
     public String getNewsArticlePublicationDate() {
-        return mNewsArticlePublicationDate;
+        if (mNewsArticlePublicationTime == NewsTimestamps.UNKNOWN) {
+            return mNewsArticleRawPublicationDate;
+        }
+        return NewsTimestamps.format(mNewsArticlePublicationTime);
+    }
+
+    /**
+     * Returns when the news article was published in milliseconds since the epoch, or
+     * {@link NewsTimestamps#UNKNOWN} if the server sent a date that couldn't be parsed.
+     */
+    public long getNewsArticlePublicationTime() {
+        return mNewsArticlePublicationTime;
+    }
+
+    /**
+     * Returns the publication date formatted for display by {@link NewsDateFormatter}, or null
+     * if it hasn't been formatted yet.
+     */
+    public String getNewsArticleDisplayDate() {
+        return mNewsArticleDisplayDate;
+    }
+
+    void setNewsArticleDisplayDate(String displayDate) {
+        mNewsArticleDisplayDate = displayDate;
+    }
+
+    /**
+     * Returns the publication date as sent by the server if it couldn't be parsed, or null.
+     */
+    String getNewsArticleRawPublicationDate() {
+        return mNewsArticleRawPublicationDate;
+    }
+
+    /**
+     * Returns the title as UTF-8 bytes, which must not be modified.
+     */
+    byte[] getNewsArticleTitleBytes() {
+        return mNewsArticleTitle;
+    }
+
+    /**
+     * Returns the website URL as UTF-8 bytes, which must not be modified.
+     */
+    byte[] getNewsArticleUrlBytes() {
+        return mNewsArticleUrl;
+    }
+
+    /**
+     * Returns the thumbnail URL as UTF-8 bytes, which must not be modified, or null.
+     */
+    byte[] getNewsArticleThumbnailUrlBytes() {
+        return mNewsArticleThumbnailUrl;
     }
 
     /**
      * Returns the website URL for the article.
      */
     public String getNewsArticleUrl() {
-        return mNewsArticleUrl;
+        String url = mDecodedUrl;
+        if (url == null && mNewsArticleUrl != null) {
+            url = decode(mNewsArticleUrl);
+            mDecodedUrl = url;
+        }
+        return url;
+    }
+
+    /**
+     * Returns the URL of the article's thumbnail image, or null if it has none.
+     */
+    public String getNewsArticleThumbnailUrl() {
+        return decode(mNewsArticleThumbnailUrl);
+    }
+
+    private static byte[] encode(String value) {
+        return value == null ? null : value.getBytes(UTF_8);
+    }
+
+    private static String decode(byte[] value) {
+        return value == null ? null : new String(value, UTF_8);
     }
 }
@@ -9,103 +9,544 @@ import android.content.SharedPreferences;
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
 import android.net.Uri;
+import android.os.Build;
 import android.os.Bundle;
 import android.preference.PreferenceManager;
+import android.support.v4.widget.SwipeRefreshLayout;
 import android.support.v7.app.AppCompatActivity;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.support.v7.widget.SearchView;
+import android.text.TextUtils;
+import android.util.Log;
+import android.view.Menu;
+import android.view.MenuItem;
 import android.view.View;
-import android.widget.AdapterView;
-import android.widget.ListView;
+import android.view.ViewTreeObserver;
 import android.widget.TextView;
 
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.List;
-
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Shows the news feed.
+ * <p>
+ * The list is drawn from the {@link NewsFeedRepository}, whatever published to it: the loaders
+ * publish the pages they load as they are parsed, and the background sync what it finds. The
+ * loader's own results only move the {@link NewsPageWindow}, and the repository is trimmed to
+ * the pages in the window, so it holds no more than the list.
+ * <p>
+ * While the search box is open the list shows the articles fetched so far that match the
+ * query instead, found in the {@link NewsSearchIndex} without a round trip.
+ */
 public class NewsActivity extends AppCompatActivity
-        implements LoaderCallbacks<List<News>> {
+        implements LoaderCallbacks<List<News>>, NewsAdapter.OnNewsClickListener {
 
     private static final String LOG_TAG = NewsActivity.class.getName();
 
     /**
-     * URL news articles from the Guardian's website
+     * Key the Guardian API is called with
      */
-    private static final String GUARDIAN_NEWS_REQUEST_URL =
-            "https://content.guardianapis.com/search?q=arizona&from-news_article_publication_date=2012-02-01&show-tags=contributor&order-by=newest&show-references=author&api-key=377a2754-15b7-4f84-9f54-30b3a9443f79";
-
+    private static final String GUARDIAN_API_KEY = "377a2754-15b7-4f84-9f54-30b3a9443f79";
 
     private static final int NEWS_LOADER_ID = 1;
 
+    /**
+     * File in the app's files directory the top of the feed is kept in between launches
+     */
+    static final String STARTUP_SNAPSHOT_FILE = "startup.snapshot";
+
+    /**
+     * Loader argument holding the Guardian page number to load
+     */
+    private static final String ARG_PAGE = "page";
+
+    /**
+     * Loader argument that is true when the user asked for fresh results
+     */
+    private static final String ARG_REFRESH = "refresh";
+
+    /**
+     * Number of news articles requested per page until the network has been measured
+     */
+    private static final int PAGE_SIZE = NewsFetchPolicy.FULL_PAGE_SIZE;
+
+    /**
+     * News articles about Arizona from the Guardian's website, newest first. Only the
+     * contributor tags and thumbnails the list shows are asked for. The page size and fields
+     * actually asked for depend on the network, see {@link NewsFetchPolicy}.
+     */
+    private static final GuardianQuery GUARDIAN_NEWS_QUERY =
+            new GuardianQuery.Builder(GUARDIAN_API_KEY)
+                    .terms("arizona")
+                    .fromDate(NewsTimestamps.parse("2012-02-01T00:00:00Z"))
+                    .orderBy(GuardianQuery.Order.NEWEST)
+                    .pageSize(PAGE_SIZE)
+                    .build();
+
+    /**
+     * Number of pages kept in the adapter at once
+     */
+    private static final int MAX_PAGES_IN_MEMORY = 5;
+
+    /**
+     * Most search results listed
+     */
+    private static final int MAX_SEARCH_RESULTS = 100;
+
     /**
      * Adapter for the list of  news articles
      */
     private NewsAdapter mAdapter;
 
+    /**
+     * Lays out the rows of the news list
+     */
+    private LinearLayoutManager mLayoutManager;
+
+    /**
+     * Pull-to-refresh container around the news list
+     */
+    private SwipeRefreshLayout mSwipeRefreshLayout;
+
+    /**
+     * The query pages are loaded with, sized and trimmed to suit the network
+     */
+    private GuardianQuery mQuery = GUARDIAN_NEWS_QUERY;
+
+    /**
+     * Pages of news articles currently in the adapter
+     */
+    private NewsPageWindow mPageWindow = newPageWindow(PAGE_SIZE);
+
+    /**
+     * The articles of the feed, grouped into stories so each is listed once. Articles that
+     * left the feed are forgotten once they are as many as those still in it.
+     */
+    private final NewsDeduplicator mDeduplicator = new NewsDeduplicator();
+
+    /**
+     * Page currently being loaded, or 0 if no load is in progress
+     */
+    private int mLoadingPage;
+
     /**
      * TextView that is displayed when the list is empty
      */
     private TextView mEmptyStateTextView;
 
+    /**
+     * The news list
+     */
+    private RecyclerView mNewsListView;
+
+    /**
+     * When the current loader was created, or 0 once its first frame has been recorded
+     */
+    private long mLoadStartNanos;
+
+    /**
+     * When this screen was created, or 0 once the first frame showing articles was drawn
+     */
+    private long mCreateNanos;
+
+    /**
+     * The top of the feed as last shown, written when the screen stops and shown by the next
+     * cold start before anything is loaded
+     */
+    private NewsStartupSnapshot mStartupSnapshot;
+
+    /**
+     * Articles last handed to the adapter
+     */
+    private List<News> mShownNews;
+
+    /**
+     * Version of the feed snapshot last handed to the adapter, or -1
+     */
+    private long mShownVersion = -1;
+
+    /**
+     * True while the search box is open and the list shows search results, not the feed
+     */
+    private boolean mSearching;
+
+    /**
+     * True while showing the latest snapshot is posted to the main thread
+     */
+    private final AtomicBoolean mFeedChangePosted = new AtomicBoolean();
+
+    /**
+     * Shows the latest snapshot of the feed, on the main thread
+     */
+    private final Runnable mShowFeed = new Runnable() {
+        @Override
+        public void run() {
+            mFeedChangePosted.set(false);
+            showFeed(NewsFeedRepository.getInstance().getSnapshot());
+        }
+    };
+
+    /**
+     * Told about every snapshot of the feed, on whichever thread published it
+     */
+    private final NewsFeedRepository.Listener mFeedListener = new NewsFeedRepository.Listener() {
+        @Override
+        public void onFeedChanged(NewsFeedRepository.Snapshot snapshot) {
+            // Only the latest snapshot is worth showing, so one post covers every snapshot
+            // published while it waits
+            if (mFeedChangePosted.compareAndSet(false, true)) {
+                runOnUiThread(mShowFeed);
+            }
+        }
+    };
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        mCreateNanos = System.nanoTime();
         setContentView(R.layout.news_activity);
 
-        // Find a reference to the {@link ListView} in the layout
-        ListView newsListView = (ListView) findViewById(R.id.list);
+        // Find a reference to the {@link RecyclerView} in the layout
+        mNewsListView = (RecyclerView) findViewById(R.id.list);
 
         mEmptyStateTextView = (TextView) findViewById(R.id.empty_view);
-        newsListView.setEmptyView(mEmptyStateTextView);
 
-        // Create a new adapter that takes an empty list of entertainment news articles as an input
-        mAdapter = new NewsAdapter(this, new ArrayList<News>());
+        // Create a new adapter that starts with an empty list of entertainment news articles,
+        // and sends an intent to a web browser when one of them is clicked
+        mAdapter = new NewsAdapter(this, NewsThumbnailLoader.getInstance(this));
 
-        // Set the adapter on the {@link ListView}
+        // Set the adapter on the {@link RecyclerView}
         // so the list can be populated in the user interface
-        newsListView.setAdapter(mAdapter);
+        mLayoutManager = new LinearLayoutManager(this);
+        mNewsListView.setLayoutManager(mLayoutManager);
+        mNewsListView.setAdapter(mAdapter);
+
+        // Fetch the neighbouring page as the list is scrolled towards either end of the window
+        mNewsListView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                int firstVisibleItem = mLayoutManager.findFirstVisibleItemPosition();
+                if (firstVisibleItem != RecyclerView.NO_POSITION) {
+                    loadPageIfNeeded(firstVisibleItem, recyclerView.getChildCount());
+                }
+            }
+        });
 
-        // Set an item click listener on the ListView, which sends an intent to a web browser
-        // to open a website with more information about the selected entertainment news article.
-        newsListView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+        // Pulling the list down reloads the first page
+        mSwipeRefreshLayout = (SwipeRefreshLayout) findViewById(R.id.swipe_refresh);
+        mSwipeRefreshLayout.setOnRefreshListener(new SwipeRefreshLayout.OnRefreshListener() {
+            @Override
+            public void onRefresh() {
+                refresh();
+            }
+        });
+
+        // Show the top of the feed as it was last left straight away, so the very first frame
+        // has articles in it. The snapshot is a few kilobytes, and the adapter takes the first
+        // list it is given without diffing, so this costs well under a frame. A new screen
+        // starts the feed over from the top; one recreated after a configuration change shows
+        // the feed as it was.
+        mStartupSnapshot = new NewsStartupSnapshot(new File(getFilesDir(), STARTUP_SNAPSHOT_FILE));
+        NewsFeedRepository repository = NewsFeedRepository.getInstance();
+        if (savedInstanceState == null || repository.getSnapshot().isEmpty()) {
+            repository.clear();
+            List<News> lastShown = mStartupSnapshot.read();
+            if (!lastShown.isEmpty()) {
+                repository.publish(lastShown);
+                NewsMetrics.getInstance().startupSnapshotsShown.increment();
+            }
+        }
+        // No page is prefetched while the snapshot is showing
+        mLoadingPage = 1;
+        showFeed(repository.getSnapshot());
+        recordTimeToFirstContent();
+
+        // Nothing else is needed for the first frame, so starting the loader, with the disk
+        // and network work and the connectivity check it leads to, waits until it is drawn.
+        runAfterFirstDraw(new Runnable() {
             @Override
-            public void onItemClick(AdapterView<?> adapterView, View view, int position, long l) {
-                // Find the current entertainment news article that was clicked on
-                News currentNews = mAdapter.getItem(position);
+            public void run() {
+                if (!isFinishing()) {
+                    startLoading();
+                }
+            }
+        });
+    }
+
+    /**
+     * Start the loader of the first page, or reconnect to it after a configuration change, and
+     * keep the first page synced in the background.
+     */
+    private void startLoading() {
+        applyFetchPlan();
+
+        // Get a reference to the LoaderManager, in order to interact with loaders.
+        LoaderManager loaderManager = getLoaderManager();
+
+        // Initialize the loader. Pass in the int ID constant defined above and pass in null for
+        // the bundle. Pass in this activity for the LoaderCallbacks parameter (which is valid
+        // because this activity implements the LoaderCallbacks interface).
+        // The loader is started even without a connection, so the last cached results still show.
+        loaderManager.initLoader(NEWS_LOADER_ID, null, this);
+
+        syncFirstPage();
+    }
+
+    /**
+     * Keep the first page fresh in the background, so next time it opens straight from the
+     * cache. Every fetch plan asks for it with another URL, so only the current plan's is
+     * synced; a metered session mustn't leave the full page with thumbnails polled, nor the
+     * other way round.
+     */
+    private void syncFirstPage() {
+        String url = buildPageUrl(1);
+        List<String> otherPlans = new ArrayList<>();
+        for (NewsFetchPolicy.Plan plan : NewsFetchPolicy.PLANS) {
+            otherPlans.add(plan.applyTo(GUARDIAN_NEWS_QUERY).withPage(1).toUrl());
+        }
+        NewsSyncService.subscribe(this, url, otherPlans);
+    }
+
+    /**
+     * Choose the page size, the fields and the number of thumbnail downloads at once from how
+     * the network has been behaving. Only called before the first page is loaded, since the
+     * pages in the window all have to be of the same size.
+     */
+    private void applyFetchPlan() {
+        NewsFetchPolicy.Plan plan = QueryUtils.getFetchPolicy().plan(isMetered());
+        mQuery = plan.applyTo(GUARDIAN_NEWS_QUERY);
+        if (plan.pageSize != mPageWindow.getPageSize()) {
+            mPageWindow = newPageWindow(plan.pageSize);
+        }
+        NewsThumbnailLoader.getInstance(this)
+                .setMaxConcurrentDownloads(plan.maxConcurrentDownloads);
+        Log.d(LOG_TAG, "Fetching " + plan + " over a " + QueryUtils.getFetchPolicy()
+                .getLinkQuality() + " link");
+    }
+
+    /**
+     * Returns an empty window of pages of the given size, which fetches the neighbouring page
+     * half a page before either end of it.
+     */
+    private static NewsPageWindow newPageWindow(int pageSize) {
+        return new NewsPageWindow(pageSize, MAX_PAGES_IN_MEMORY, pageSize / 2);
+    }
+
+    /**
+     * Run the given task once the next frame has been drawn.
+     */
+    private void runAfterFirstDraw(final Runnable task) {
+        mNewsListView.getViewTreeObserver().addOnPreDrawListener(
+                new ViewTreeObserver.OnPreDrawListener() {
+                    @Override
+                    public boolean onPreDraw() {
+                        mNewsListView.getViewTreeObserver().removeOnPreDrawListener(this);
+                        // Posted from here, it runs after this frame's traversal has drawn it
+                        mNewsListView.post(task);
+                        return true;
+                    }
+                });
+    }
+
+    /**
+     * Record the time from creating this screen until the first frame with articles in it,
+     * whether they come from the startup snapshot or the first load, and tell the system the
+     * app has fully drawn then.
+     */
+    private void recordTimeToFirstContent() {
+        mNewsListView.getViewTreeObserver().addOnPreDrawListener(
+                new ViewTreeObserver.OnPreDrawListener() {
+                    @Override
+                    public boolean onPreDraw() {
+                        if (mAdapter.getItemCount() == 0) {
+                            return true;
+                        }
+                        mNewsListView.getViewTreeObserver().removeOnPreDrawListener(this);
+                        NewsMetrics.getInstance().timeToFirstContent.record(
+                                (System.nanoTime() - mCreateNanos) / 1000);
+                        mCreateNanos = 0;
+                        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+                            // Ends the time "am start -W" and the launch logs report
+                            reportFullyDrawn();
+                        }
+                        return true;
+                    }
+                });
+    }
+
+    @Override
+    protected void onStart() {
+        super.onStart();
+        NewsFeedRepository.getInstance().addListener(mFeedListener);
+        // Catch up with whatever was published while stopped
+        showFeed(NewsFeedRepository.getInstance().getSnapshot());
+    }
+
+    @Override
+    protected void onStop() {
+        super.onStop();
+        NewsFeedRepository.getInstance().removeListener(mFeedListener);
+        // Keep the top of the feed for the next cold start, unless the window has moved past it
+        if (mShownNews != null && !mShownNews.isEmpty() && mPageWindow.getFirstPage() == 1) {
+            mStartupSnapshot.writeAsync(mShownNews);
+        }
+    }
+
+    @Override
+    protected void onDestroy() {
+        // Rows still on screen are never recycled otherwise, and would keep their thumbnails
+        // from ever being reused
+        mNewsListView.setAdapter(null);
+        super.onDestroy();
+    }
 
-                // Convert the String URL into a URI object (to pass into the Intent constructor)
-                Uri newsUri = Uri.parse(currentNews.getNewsArticleUrl());
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        getMenuInflater().inflate(R.menu.toolbar_menu, menu);
+        menu.findItem(R.id.metrics).setVisible(BuildConfig.DEBUG);
+
+        // Results are updated as the query is typed
+        MenuItem searchItem = menu.findItem(R.id.search);
+        final SearchView searchView = (SearchView) searchItem.getActionView();
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                showSearchResults(query);
+                searchView.clearFocus();
+                return true;
+            }
 
-                // Create a new intent to view the entertainment news article URI
-                Intent websiteIntent = new Intent(Intent.ACTION_VIEW, newsUri);
+            @Override
+            public boolean onQueryTextChange(String query) {
+                showSearchResults(query);
+                return true;
+            }
+        });
+        searchItem.setOnActionExpandListener(new MenuItem.OnActionExpandListener() {
+            @Override
+            public boolean onMenuItemActionExpand(MenuItem item) {
+                mSearching = true;
+                return true;
+            }
 
-                // Send the intent to launch a new activity
-                startActivity(websiteIntent);
+            @Override
+            public boolean onMenuItemActionCollapse(MenuItem item) {
+                mSearching = false;
+                showFeedAgain();
+                return true;
             }
         });
+        return true;
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        if (item.getItemId() == R.id.refresh) {
+            mSwipeRefreshLayout.setRefreshing(true);
+            refresh();
+            return true;
+        }
+        if (item.getItemId() == R.id.metrics) {
+            startActivity(new Intent(this, MetricsActivity.class));
+            return true;
+        }
+        return super.onOptionsItemSelected(item);
+    }
+
+    /**
+     * Adds the load metrics, as JSON, to
+     * {@code adb shell dumpsys activity android.example.mynews/.NewsActivity}.
+     */
+    @Override
+    public void dump(String prefix, FileDescriptor fd, PrintWriter writer, String[] args) {
+        super.dump(prefix, fd, writer, args);
+        writer.print(prefix);
+        writer.print("NewsMetrics: ");
+        writer.println(NewsMetrics.getInstance().toJson());
+    }
+
+    @Override
+    public void onNewsClick(News currentNews) {
+        // Convert the String URL into a URI object (to pass into the Intent constructor)
+        Uri newsUri = Uri.parse(currentNews.getNewsArticleUrl());
+
+        // Create a new intent to view the entertainment news article URI
+        Intent websiteIntent = new Intent(Intent.ACTION_VIEW, newsUri);
+
+        // Send the intent to launch a new activity
+        startActivity(websiteIntent);
+    }
+
+    /**
+     * Start loading the page next to the visible rows, if they are close enough to either end
+     * of the loaded pages and no other page is being loaded.
+     */
+    private void loadPageIfNeeded(int firstVisibleItem, int visibleItemCount) {
+        // Search results aren't pages of the feed
+        if (mSearching || mLoadingPage != 0 || mAdapter.getItemCount() == 0) {
+            return;
+        }
+        int page = mPageWindow.getPageToPrefetch(firstVisibleItem, visibleItemCount,
+                mAdapter.getItemCount());
+        if (page > 0) {
+            loadPage(page);
+        }
+    }
+
+    /**
+     * Restart the loader on the given page.
+     */
+    private void loadPage(int page) {
+        loadPage(page, false);
+    }
+
+    /**
+     * Reload the first page from the network, even if it was synced recently.
+     */
+    private void refresh() {
+        applyFetchPlan();
+        syncFirstPage();
+        loadPage(1, true);
+    }
+
+    private void loadPage(int page, boolean refresh) {
+        mLoadingPage = page;
+        Bundle args = new Bundle();
+        args.putInt(ARG_PAGE, page);
+        args.putBoolean(ARG_REFRESH, refresh);
+        getLoaderManager().restartLoader(NEWS_LOADER_ID, args, this);
+    }
 
+    /**
+     * Returns true if there is a network connection to fetch data over.
+     */
+    private boolean isConnected() {
         // Get a reference to the ConnectivityManager to check state of network connectivity
         ConnectivityManager connMgr = (ConnectivityManager)
                 getSystemService(Context.CONNECTIVITY_SERVICE);
 
         // Get details on the currently active default data network
         NetworkInfo networkInfo = connMgr.getActiveNetworkInfo();
+        return networkInfo != null && networkInfo.isConnected();
+    }
 
-        // If there is a network connection, fetch data
-        if (networkInfo != null && networkInfo.isConnected()) {
-            // Get a reference to the LoaderManager, in order to interact with loaders.
-            LoaderManager loaderManager = getLoaderManager();
-
-            // Initialize the loader. Pass in the int ID constant defined above and pass in null for
-            // the bundle. Pass in this activity for the LoaderCallbacks parameter (which is valid
-            // because this activity implements the LoaderCallbacks interface).
-            loaderManager.initLoader(NEWS_LOADER_ID, null, this);
-        } else {
-            // Otherwise, display error
-            // First, hide loading indicator so error message will be visible
-            View loadingIndicator = findViewById(R.id.loading_indicator);
-            loadingIndicator.setVisibility(View.GONE);
-
-            // Update empty state with no connection error message
-            mEmptyStateTextView.setText(R.string.no_network_available);
+    /**
+     * Returns true if the data sent over the active network is paid for.
+     */
+    private boolean isMetered() {
+        ConnectivityManager connMgr = (ConnectivityManager)
+                getSystemService(Context.CONNECTIVITY_SERVICE);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            return connMgr.isActiveNetworkMetered();
         }
+        // Before that, only mobile data counts as metered
+        NetworkInfo networkInfo = connMgr.getActiveNetworkInfo();
+        return networkInfo != null && networkInfo.getType() == ConnectivityManager.TYPE_MOBILE;
     }
 
     @Override
@@ -113,15 +554,18 @@ public class NewsActivity extends AppCompatActivity
         // Create a new loader for the given URL
        // return new NewsLoader(this, GUARDIAN_NEWS_REQUEST_URL);
 
+        int page = bundle != null ? bundle.getInt(ARG_PAGE, 1) : 1;
+        boolean refresh = bundle != null && bundle.getBoolean(ARG_REFRESH);
+        mLoadStartNanos = System.nanoTime();
 
-        Uri baseUri = Uri.parse(GUARDIAN_NEWS_REQUEST_URL);
-        Uri.Builder uriBuilder = baseUri.buildUpon();
-
-        uriBuilder.appendQueryParameter("API_KEY","api-key");
-        uriBuilder.appendQueryParameter("DATE","date");
-
+        return new NewsLoader(this, mQuery.withPage(page), refresh);
+    }
 
-        return new NewsLoader(this, uriBuilder.toString());
+    /**
+     * Returns the request URL of the given page of results.
+     */
+    private String buildPageUrl(int page) {
+        return mQuery.withPage(page).toUrl();
     }
 
     @Override
@@ -130,19 +574,142 @@ public class NewsActivity extends AppCompatActivity
         View loadingIndicator = findViewById(R.id.loading_indicator);
         loadingIndicator.setVisibility(View.GONE);
 
-        // Set empty state text to display text stating no news articles have been found.
-        mEmptyStateTextView.setText(R.string.no_news_available);
+        // The loader delivers cached articles first and then the revalidated ones, so the page
+        // replaces any earlier copy of itself in the window. Its articles were published to
+        // the repository as they were loaded, and are in the list already.
+        NewsLoader newsLoader = (NewsLoader) loader;
+        mLoadingPage = 0;
+        mPageWindow.setPage(newsLoader.getPage(), news);
+        if (!newsLoader.isRevalidating()) {
+            mSwipeRefreshLayout.setRefreshing(false);
+        }
+        trimFeedToWindow();
+        showFeed(NewsFeedRepository.getInstance().getSnapshot());
+        if (!mSearching) {
+            showEmptyFeedState();
+        }
+
+        if (mLoadStartNanos != 0) {
+            recordLoadToFirstFrame(mLoadStartNanos);
+            mLoadStartNanos = 0;
+        }
+    }
 
-        // If there is a valid list of {@link News}s, then add them to the adapter's
-        // data set. This will trigger the ListView to update.
-        if (news != null && !news.isEmpty()) {
-            mAdapter.addAll(news);
+    /**
+     * Drop the articles of the pages the window has moved away from, or that came before a
+     * refresh, from the feed. Articles newer than the window are kept while it starts at the
+     * top of the feed, e.g. ones the sync just found.
+     */
+    private void trimFeedToWindow() {
+        List<News> windowNews = mPageWindow.getNews();
+        if (windowNews.isEmpty()) {
+            return;
+        }
+        long oldest = Long.MAX_VALUE;
+        long newest = Long.MIN_VALUE;
+        for (News article : windowNews) {
+            oldest = Math.min(oldest, article.getNewsArticlePublicationTime());
+            newest = Math.max(newest, article.getNewsArticlePublicationTime());
         }
+        NewsFeedRepository.getInstance().retainPublishedBetween(oldest,
+                mPageWindow.getFirstPage() == 1 ? Long.MAX_VALUE : newest);
+    }
+
+    /**
+     * Hand the given snapshot of the feed to the adapter, each story once however many
+     * sections or updates it came in, unless it was handed over already. The adapter works
+     * out on a background thread which rows were inserted, moved or changed, and only
+     * updates those.
+     */
+    private void showFeed(NewsFeedRepository.Snapshot snapshot) {
+        if (snapshot.getVersion() <= mShownVersion) {
+            return;
+        }
+        mShownVersion = snapshot.getVersion();
+        List<News> news = mDeduplicator.dedupe(snapshot);
+        if (mDeduplicator.size() > 2 * snapshot.size()) {
+            mDeduplicator.retain(snapshot);
+        }
+        NewsMetrics.getInstance().duplicatesDropped.add(snapshot.size() - news.size());
+        mShownNews = news;
+        if (mSearching) {
+            // Shown once the search box is closed
+            return;
+        }
+        mAdapter.submitList(news);
+        if (!news.isEmpty()) {
+            findViewById(R.id.loading_indicator).setVisibility(View.GONE);
+            mEmptyStateTextView.setVisibility(View.GONE);
+        }
+    }
+
+    /**
+     * Show the articles fetched so far that match the given query, best first, or the feed
+     * if the query is blank.
+     */
+    private void showSearchResults(String query) {
+        if (!mSearching) {
+            // The search box clears its query as it closes
+            return;
+        }
+        if (TextUtils.getTrimmedLength(query) == 0) {
+            showFeedAgain();
+            return;
+        }
+        List<News> results = QueryUtils.getSearchIndex().search(query, MAX_SEARCH_RESULTS);
+        mAdapter.submitList(results);
+        mEmptyStateTextView.setText(R.string.no_search_results);
+        mEmptyStateTextView.setVisibility(results.isEmpty() ? View.VISIBLE : View.GONE);
+    }
+
+    /**
+     * Show the feed in the list again, instead of search results.
+     */
+    private void showFeedAgain() {
+        mAdapter.submitList(mShownNews);
+        if (mShownNews != null && !mShownNews.isEmpty()) {
+            mEmptyStateTextView.setVisibility(View.GONE);
+        } else if (mLoadingPage == 0) {
+            showEmptyFeedState();
+        }
+    }
+
+    /**
+     * Say why the feed is empty if it is: no news articles have been found, or there is no
+     * connection to find them over.
+     */
+    private void showEmptyFeedState() {
+        if (isConnected()) {
+            mEmptyStateTextView.setText(R.string.no_news_available);
+        } else {
+            mEmptyStateTextView.setText(R.string.no_network_available);
+        }
+        boolean empty = mShownNews == null || mShownNews.isEmpty();
+        mEmptyStateTextView.setVisibility(empty ? View.VISIBLE : View.GONE);
+    }
+
+    /**
+     * Record the time from the given start until the next frame of the list is drawn.
+     */
+    private void recordLoadToFirstFrame(final long loadStartNanos) {
+        mNewsListView.getViewTreeObserver().addOnPreDrawListener(
+                new ViewTreeObserver.OnPreDrawListener() {
+                    @Override
+                    public boolean onPreDraw() {
+                        mNewsListView.getViewTreeObserver().removeOnPreDrawListener(this);
+                        NewsMetrics.getInstance().loadToFirstFrameTime.record(
+                                (System.nanoTime() - loadStartNanos) / 1000);
+                        return true;
+                    }
+                });
     }
 
     @Override
     public void onLoaderReset(Loader<List<News>> loader) {
         // Loader reset, so we can clear out our existing data.
-        mAdapter.clear();
+        mPageWindow.clear();
+        mAdapter.submitList(null);
+        mShownNews = null;
+        mShownVersion = -1;
     }
 }
\ No newline at end of file
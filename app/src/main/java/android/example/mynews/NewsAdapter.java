@@ -1,78 +1,217 @@
 package android.example.mynews;
 
-import android.content.Context;
+import android.support.annotation.NonNull;
+import android.support.v4.text.PrecomputedTextCompat;
+import android.support.v7.recyclerview.extensions.ListAdapter;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.widget.RecyclerView;
+import android.text.TextUtils;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.ArrayAdapter;
+import android.widget.ImageView;
 import android.widget.TextView;
 
-import java.util.List;
-
 /**
  * An {@link NewsAdapter} knows how to create a list item layout for each news article
  * in the data source (a list of {@link News} objects).
  * <p>
- * These list item layouts will be provided to an adapter view like ListView
- * to be displayed to the user.
+ * These list item layouts will be provided to a RecyclerView to be displayed to the user.
+ * Each new list is diffed against the current one on a background thread, keyed by the
+ * articles' web URLs, so a refresh only inserts, moves and rebinds the rows that changed.
+ * Thumbnails are loaded by a {@link NewsThumbnailLoader}, and the load for a row is cancelled
+ * as soon as the row is recycled. Titles are shown with the text layout the loader measured
+ * for them through {@link NewsTitlePrecomputer}, so binding a row measures no text.
  */
-public class NewsAdapter extends ArrayAdapter<News> {
+public class NewsAdapter extends ListAdapter<News, NewsAdapter.ViewHolder> {
+
+    /**
+     * Receives clicks on news articles.
+     */
+    public interface OnNewsClickListener {
+        void onNewsClick(News news);
+    }
+
+    /**
+     * Two articles are the same item if they have the same web URL, and need rebinding only if
+     * something the row displays has changed.
+     */
+    private static final DiffUtil.ItemCallback<News> DIFF_CALLBACK =
+            new DiffUtil.ItemCallback<News>() {
+                @Override
+                public boolean areItemsTheSame(@NonNull News oldNews, @NonNull News newNews) {
+                    return oldNews == newNews
+                            || oldNews.getNewsArticleUrl().equals(newNews.getNewsArticleUrl());
+                }
+
+                @Override
+                public boolean areContentsTheSame(@NonNull News oldNews, @NonNull News newNews) {
+                    return oldNews == newNews
+                            || (TextUtils.equals(oldNews.getNewsArticleSectionName(),
+                            newNews.getNewsArticleSectionName())
+                            && TextUtils.equals(oldNews.getNewsArticleTitle(),
+                            newNews.getNewsArticleTitle())
+                            && TextUtils.equals(oldNews.getNewsArticleAuthor(),
+                            newNews.getNewsArticleAuthor())
+                            && TextUtils.equals(displayDate(oldNews), displayDate(newNews))
+                            && TextUtils.equals(oldNews.getNewsArticleThumbnailUrl(),
+                            newNews.getNewsArticleThumbnailUrl()));
+                }
+            };
+
+    /**
+     * Timings of every row bind
+     */
+    private final NewsBindStats mBindStats = new NewsBindStats();
+
+    /**
+     * Told when an article is clicked
+     */
+    private final OnNewsClickListener mClickListener;
+
+    /**
+     * Loads the thumbnails of the rows
+     */
+    private final NewsThumbnailLoader mThumbnailLoader;
+
+    /**
+     * Told the text metrics of the rows' titles, so the loader measures titles for them, and
+     * asked for the measured titles when binding
+     */
+    private final NewsTitlePrecomputer mTitlePrecomputer;
+
+    private final NewsMetrics mMetrics = NewsMetrics.getInstance();
 
     /**
      * Constructs a new {@link NewsAdapter}.
      *
-     * @param context of the app
-     * @param news    is the list of news, which is the data source of the adapter
+     * @param clickListener   is told when a news article is clicked
+     * @param thumbnailLoader loads the thumbnails of the rows
      */
-    public NewsAdapter(Context context, List<News> news) {
-        super(context, 0, news);
+    public NewsAdapter(OnNewsClickListener clickListener, NewsThumbnailLoader thumbnailLoader) {
+        this(clickListener, thumbnailLoader, NewsTitlePrecomputer.getInstance());
     }
 
     /**
-     * Returns a list item view that displays information about th news article
-     * at the given position in the list of articles.
+     * Constructs a new {@link NewsAdapter} that shows titles measured by the given
+     * precomputer rather than the one the loaders share.
      */
+    NewsAdapter(OnNewsClickListener clickListener, NewsThumbnailLoader thumbnailLoader,
+                NewsTitlePrecomputer titlePrecomputer) {
+        super(DIFF_CALLBACK);
+        mClickListener = clickListener;
+        mThumbnailLoader = thumbnailLoader;
+        mTitlePrecomputer = titlePrecomputer;
+    }
+
+    @NonNull
     @Override
-    public View getView(int position, View convertView, ViewGroup parent) {
-        // Check if there is an existing list item view (called convertView) that we can reuse,
-        // otherwise, if convertView is null, then inflate a new list item layout.
-        View listItemView = convertView;
-        if (listItemView == null) {
-            listItemView = LayoutInflater.from(getContext()).inflate(
-                    R.layout.news_list_item, parent, false);
-        }
+    public ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        View listItemView = LayoutInflater.from(parent.getContext()).inflate(
+                R.layout.news_list_item, parent, false);
+        ViewHolder holder = new ViewHolder(listItemView);
+        mTitlePrecomputer.setParams(holder.titleParams);
+        return holder;
+    }
+
+    /**
+     * Displays information about the news article at the given position in the list of
+     * articles.
+     */
+    @Override
+    public void onBindViewHolder(@NonNull ViewHolder holder, int position) {
+        mBindStats.beginBind();
 
         // Find the entertainment news article at the given position in the list of articles
         News currentNews = getItem(position);
+        holder.news = currentNews;
 
-        // Find the TextView with view ID news_article_section_name
-        TextView NewsArticleSectionNameView = (TextView) listItemView.findViewById(R.id.news_article_section_name);
-        String ArticleSectionName = currentNews.getNewsArticleSectionName();
-        // Display the section name of the current entertainment news article in that TextView
-        NewsArticleSectionNameView.setText(ArticleSectionName);
+        // Display the section name of the current entertainment news article
+        holder.sectionName.setText(currentNews.getNewsArticleSectionName());
 
-        // Find the TextView with view ID news_article_title
-        TextView NewsArticleTitleView = (TextView) listItemView.findViewById(R.id.news_article_title);
-        String ArticleTitle = currentNews.getNewsArticleTitle();
-        // Display the title of the current entertainment news article in that TextView
-        NewsArticleTitleView.setText(ArticleTitle);
+        // Display the title of the current entertainment news article, laid out off the UI
+        // thread if the loader got to it
+        if (mTitlePrecomputer.bindTitle(holder.title, holder.titleParams, currentNews)) {
+            mMetrics.precomputedTitlesBound.increment();
+        } else {
+            mMetrics.plainTitlesBound.increment();
+        }
 
-        // Find the TextView with view ID news_article_author
-        TextView NewsArticleAuthorView = (TextView) listItemView.findViewById(R.id.news_article_author);
-        String ArticleAuthor = currentNews.getNewsArticleAuthor();
-        // Display the author of the current entertainment news article in that TextView
-        NewsArticleAuthorView.setText(ArticleAuthor);
+        // Display the author of the current entertainment news article
+        holder.author.setText(currentNews.getNewsArticleAuthor());
 
-        // Find the TextView with view ID news_article_publication_date
-        TextView NewsArticlePublicationDateView = (TextView) listItemView.findViewById(R.id.news_article_publication_date);
+        // Display the publication date of the current entertainment news article. It was
+        // formatted by the loader off the UI thread
+        holder.publicationDate.setText(displayDate(currentNews));
 
-        String formattedArticlePublicationDate = (currentNews.getNewsArticlePublicationDate());
+        // Display the thumbnail of the current article, or the newspaper icon until it loads
+        mThumbnailLoader.load(currentNews.getNewsArticleThumbnailUrl(), holder.thumbnail);
 
-        // Display the publication date of the current entertainment news article in that TextView
-        NewsArticlePublicationDateView.setText(formattedArticlePublicationDate);
+        mBindStats.endBind();
+    }
+
+    /**
+     * Stops loading the thumbnail of a row that scrolled away, and lets its bitmap be reused.
+     */
+    @Override
+    public void onViewRecycled(@NonNull ViewHolder holder) {
+        mThumbnailLoader.cancel(holder.thumbnail);
+        holder.news = null;
+    }
 
-        // Return the list item view that is now showing the appropriate data
-        return listItemView;
+    /**
+     * Lets go of the thumbnails of rows that went away without being recycled.
+     */
+    @Override
+    public void onDetachedFromRecyclerView(@NonNull RecyclerView recyclerView) {
+        mThumbnailLoader.cancelAll();
+    }
+
+    /**
+     * Returns the date formatted by the loader, or the raw date if it hasn't been formatted.
+     */
+    private static String displayDate(News news) {
+        String displayDate = news.getNewsArticleDisplayDate();
+        return displayDate != null ? displayDate : news.getNewsArticlePublicationDate();
+    }
+
+    /**
+     * The views of a list item, looked up once when it is inflated.
+     */
+    final class ViewHolder extends RecyclerView.ViewHolder implements View.OnClickListener {
+        final ImageView thumbnail;
+        final TextView sectionName;
+        final TextView title;
+        final TextView author;
+        final TextView publicationDate;
+
+        /**
+         * Text metrics of the title view, which titles have to be measured with
+         */
+        final PrecomputedTextCompat.Params titleParams;
+
+        /**
+         * Article currently bound to this row
+         */
+        News news;
+
+        ViewHolder(View listItemView) {
+            super(listItemView);
+            thumbnail = (ImageView) listItemView.findViewById(R.id.ninja_icon);
+            sectionName = (TextView) listItemView.findViewById(R.id.news_article_section_name);
+            title = (TextView) listItemView.findViewById(R.id.news_article_title);
+            author = (TextView) listItemView.findViewById(R.id.news_article_author);
+            publicationDate = (TextView) listItemView.findViewById(R.id.news_article_publication_date);
+            titleParams = NewsTitlePrecomputer.paramsOf(title);
+            listItemView.setOnClickListener(this);
+        }
+
+        @Override
+        public void onClick(View view) {
+            if (news != null) {
+                mClickListener.onNewsClick(news);
+            }
+        }
     }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,48 @@
+package android.example.mynews;
+
+import android.os.Build;
+import android.os.Trace;
+
+/**
+ * Measures how long the adapter spends binding each row, so dropped frames can be tied to
+ * adapter work.
+ * <p>
+ * Every bind is wrapped in a systrace section named {@value #TRACE_SECTION}, which lines it up
+ * with the frames around it in a trace, and its duration is recorded in {@link NewsMetrics},
+ * where {@link MetricsActivity} shows it with the other timings. Binds slower than
+ * {@value #SLOW_BIND_NANOS} nanoseconds (a tenth of a 60fps frame) are counted separately.
+ */
+final class NewsBindStats {
+
+    static final String TRACE_SECTION = "NewsAdapter.bind";
+
+    private static final long SLOW_BIND_NANOS = 1666666;
+
+    private final NewsMetrics mMetrics = NewsMetrics.getInstance();
+
+    private long mStartNanos;
+
+    /**
+     * Call on the UI thread just before binding a row.
+     */
+    void beginBind() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            Trace.beginSection(TRACE_SECTION);
+        }
+        mStartNanos = System.nanoTime();
+    }
+
+    /**
+     * Call on the UI thread right after binding a row.
+     */
+    void endBind() {
+        long elapsed = System.nanoTime() - mStartNanos;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            Trace.endSection();
+        }
+        mMetrics.bindTime.record(elapsed / 1000);
+        if (elapsed > SLOW_BIND_NANOS) {
+            mMetrics.slowBinds.increment();
+        }
+    }
+}
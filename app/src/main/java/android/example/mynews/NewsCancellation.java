@@ -0,0 +1,205 @@
+package android.example.mynews;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tells a fetch to stop early, because its caller lost interest or because it ran out of time.
+ * <p>
+ * The loop reading a response checks it between reads and between parsed articles. A fetch
+ * blocked waiting for bytes can't check anything, so it also registers a listener that
+ * aborts the connection, which makes the blocked read fail straight away. Aborting a
+ * connection can itself block, so listeners run on a background thread and {@link #cancel()}
+ * is safe to call from the main thread. A fetch that is stopped by its deadline returns the
+ * articles parsed so far; one that is cancelled is abandoned. Call {@link #release()} once the
+ * fetch is over, so its deadline doesn't stay on the timer.
+ */
+final class NewsCancellation {
+
+    /**
+     * Never stops, for fetches nobody will abandon
+     */
+    static final NewsCancellation NONE = new NewsCancellation(0);
+
+    private static ScheduledThreadPoolExecutor sTimer;
+
+    /**
+     * {@link System#nanoTime()} at the deadline, or 0 for no deadline
+     */
+    private final long mDeadlineNanos;
+
+    private volatile boolean mCancelled;
+
+    private volatile boolean mDeadlineReached;
+
+    /**
+     * Expires this at the deadline, or null once released; guarded by this
+     */
+    private ScheduledFuture<?> mExpiry;
+
+    /**
+     * Aborts whatever the fetch is blocked on; guarded by this
+     */
+    private Runnable mOnStopListener;
+
+    /**
+     * Constructs a new {@link NewsCancellation} without a deadline.
+     */
+    NewsCancellation() {
+        this(0);
+    }
+
+    private NewsCancellation(long deadlineNanos) {
+        mDeadlineNanos = deadlineNanos;
+    }
+
+    /**
+     * Returns a {@link NewsCancellation} that stops by itself after the given time.
+     */
+    static NewsCancellation withTimeout(long timeoutMillis) {
+        final NewsCancellation cancellation = new NewsCancellation(
+                System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Math.max(timeoutMillis, 1)));
+        ScheduledFuture<?> expiry = getTimer().schedule(new Runnable() {
+            @Override
+            public void run() {
+                cancellation.expire();
+            }
+        }, timeoutMillis, TimeUnit.MILLISECONDS);
+        synchronized (cancellation) {
+            cancellation.mExpiry = expiry;
+        }
+        return cancellation;
+    }
+
+    /**
+     * Take the deadline off the timer, once the fetch is over, along with the listener it would
+     * have run. The deadline is still reported by {@link #isDeadlineReached()} when it passes.
+     */
+    void release() {
+        ScheduledFuture<?> expiry;
+        synchronized (this) {
+            expiry = mExpiry;
+            mExpiry = null;
+            mOnStopListener = null;
+        }
+        if (expiry != null && expiry.cancel(false)) {
+            // Cancelled tasks otherwise wait in the queue until they would have run
+            getTimer().purge();
+        }
+    }
+
+    /**
+     * Stop the fetch and abandon its results. Has no effect on {@link #NONE}.
+     */
+    void cancel() {
+        if (this == NONE || mCancelled) {
+            return;
+        }
+        mCancelled = true;
+        notifyStopped();
+    }
+
+    /**
+     * Returns true if {@link #cancel()} was called.
+     */
+    boolean isCancelled() {
+        return mCancelled;
+    }
+
+    /**
+     * Returns true once the deadline has passed.
+     */
+    boolean isDeadlineReached() {
+        if (!mDeadlineReached && mDeadlineNanos != 0 && System.nanoTime() - mDeadlineNanos >= 0) {
+            // The timer may not have run yet
+            expire();
+        }
+        return mDeadlineReached;
+    }
+
+    /**
+     * Returns true if the fetch should stop, for either reason.
+     */
+    boolean isStopped() {
+        return mCancelled || isDeadlineReached();
+    }
+
+    /**
+     * Throw if the fetch should stop.
+     */
+    void throwIfStopped() throws InterruptedIOException {
+        if (mCancelled) {
+            throw new InterruptedIOException("Cancelled");
+        }
+        if (isDeadlineReached()) {
+            throw new InterruptedIOException("Deadline reached");
+        }
+    }
+
+    /**
+     * Returns the given timeout, shortened to the time left until the deadline. Never returns
+     * less than 1, as a timeout of 0 waits forever.
+     */
+    int clampTimeoutMillis(int timeoutMillis) {
+        if (mDeadlineNanos == 0) {
+            return timeoutMillis;
+        }
+        long remaining = TimeUnit.NANOSECONDS.toMillis(mDeadlineNanos - System.nanoTime());
+        return (int) Math.max(1, Math.min(timeoutMillis, remaining));
+    }
+
+    /**
+     * Set what to run, on a background thread once the fetch stops, to abort a blocked read; null
+     * clears it. Runs it at once if the fetch has already been stopped. Ignored by
+     * {@link #NONE}, which never stops.
+     */
+    void setOnStopListener(Runnable listener) {
+        if (this == NONE) {
+            return;
+        }
+        synchronized (this) {
+            mOnStopListener = listener;
+        }
+        if (listener != null && isStopped()) {
+            notifyStopped();
+        }
+    }
+
+    private void expire() {
+        synchronized (this) {
+            if (mDeadlineReached) {
+                return;
+            }
+            mDeadlineReached = true;
+        }
+        notifyStopped();
+    }
+
+    private void notifyStopped() {
+        Runnable listener;
+        synchronized (this) {
+            listener = mOnStopListener;
+            mOnStopListener = null;
+        }
+        if (listener != null) {
+            getTimer().execute(listener);
+        }
+    }
+
+    private static synchronized ScheduledThreadPoolExecutor getTimer() {
+        if (sTimer == null) {
+            sTimer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "NewsCancellation");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return sTimer;
+    }
+}
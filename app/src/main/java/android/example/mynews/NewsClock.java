@@ -0,0 +1,23 @@
+package android.example.mynews;
+
+/**
+ * Source of the current time, so components that schedule or expire things can be tested
+ * with a clock that only moves when told to.
+ */
+interface NewsClock {
+
+    /**
+     * The system wall clock
+     */
+    NewsClock SYSTEM = new NewsClock() {
+        @Override
+        public long currentTimeMillis() {
+            return System.currentTimeMillis();
+        }
+    };
+
+    /**
+     * Returns the current time in milliseconds since the epoch.
+     */
+    long currentTimeMillis();
+}
@@ -0,0 +1,71 @@
+package android.example.mynews;
+
+import android.content.Context;
+import android.text.format.DateUtils;
+
+import java.text.DateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Formats the publication date of {@link News} articles for display, in the user's locale
+ * and time zone: the absolute date and time, followed by the relative time for recent
+ * articles (e.g. "14 Jun 2019 12:00 | 3 hours ago").
+ * <p>
+ * Formatting is done by the loader on its background thread and the result is kept on the
+ * article, so binding a row doesn't parse or format anything on the UI thread.
+ */
+final class NewsDateFormatter {
+
+    /**
+     * Articles younger than this also show how long ago they were published
+     */
+    private static final long RELATIVE_TIME_LIMIT_MILLIS = DateUtils.WEEK_IN_MILLIS;
+
+    private final DateFormat mDateFormat;
+
+    private final String mSeparator;
+
+    /**
+     * Constructs a new {@link NewsDateFormatter} for the locale of the given context.
+     */
+    NewsDateFormatter(Context context) {
+        Locale locale = context.getResources().getConfiguration().locale;
+        mDateFormat = DateFormat.getDateTimeInstance(DateFormat.MEDIUM, DateFormat.SHORT, locale);
+        mSeparator = " " + context.getString(R.string.separator_line) + " ";
+    }
+
+    /**
+     * Format the date of every article, refreshing the relative times of ones formatted before.
+     */
+    void formatAll(List<News> news) {
+        if (news == null) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        for (News article : news) {
+            article.setNewsArticleDisplayDate(format(article, now));
+        }
+    }
+
+    /**
+     * Returns the display date of the given article as of the given time.
+     */
+    String format(News news, long now) {
+        long time = news.getNewsArticlePublicationTime();
+        if (time == NewsTimestamps.UNKNOWN) {
+            return news.getNewsArticlePublicationDate();
+        }
+        // DateFormat isn't thread safe
+        String absolute;
+        synchronized (mDateFormat) {
+            absolute = mDateFormat.format(new Date(time));
+        }
+        if (now - time < 0 || now - time >= RELATIVE_TIME_LIMIT_MILLIS) {
+            return absolute;
+        }
+        return absolute + mSeparator
+                + DateUtils.getRelativeTimeSpanString(time, now, DateUtils.MINUTE_IN_MILLIS);
+    }
+}
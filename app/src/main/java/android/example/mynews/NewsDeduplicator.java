@@ -0,0 +1,414 @@
+package android.example.mynews;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Groups the {@link News} articles of a feed into stories, so the same story is shown once.
+ * <p>
+ * Articles with the same canonical web URL are the same article, e.g. one listed under two
+ * sections or linked with tracking parameters. Articles whose titles share most of their
+ * words, e.g. an updated version of a story under a reworded headline, are near duplicates
+ * and join the story of the first of them seen.
+ * <p>
+ * Near duplicates are found with MinHash: every title is reduced to a signature of
+ * {@link #SIGNATURE_SIZE} minimum hashes of its words, and the share of positions where two
+ * signatures agree estimates the Jaccard similarity of the two titles' word sets. Signatures
+ * are split into {@link #BANDS} bands, and an article is only compared with earlier articles
+ * that agree with it on a whole band, found through a hash table. Titles above the threshold
+ * are almost certain to share a band and unrelated ones very unlikely to, so adding an
+ * article costs about the same however many have been seen.
+ * <p>
+ * Articles stay until {@link #retain(List)} drops the ones no longer in the feed. Adding,
+ * looking up and dropping are synchronized.
+ */
+final class NewsDeduplicator {
+
+    /**
+     * Hashes in a title's signature
+     */
+    static final int SIGNATURE_SIZE = 64;
+
+    /**
+     * Bands the signature is split into for lookups; with 4 hashes in each, titles with a
+     * similarity of 0.6 share a band 9 times out of 10, and of 0.3 once in 10
+     */
+    static final int BANDS = 16;
+
+    private static final int ROWS = SIGNATURE_SIZE / BANDS;
+
+    /**
+     * Estimated share of words two titles must have in common to be the same story
+     */
+    static final double DEFAULT_SIMILARITY = 0.6;
+
+    /**
+     * Titles with fewer words than this are too short to tell apart by their words, and are
+     * only matched by URL
+     */
+    private static final int MIN_WORDS = 3;
+
+    /**
+     * Words too common in headlines to say anything about the story
+     */
+    private static final Set<String> STOP_WORDS = new HashSet<>(Arrays.asList(
+            "a", "an", "and", "as", "at", "after", "by", "for", "from", "in", "is", "it", "of",
+            "on", "or", "over", "the", "to", "with"));
+
+    private final int mMinMatchingRows;
+
+    /**
+     * Id of every canonical URL added; ids count up from 0 in the order articles were added
+     */
+    private final Map<String, Integer> mIds = new HashMap<>();
+
+    /**
+     * Signature of every article, {@link #SIGNATURE_SIZE} hashes each, by id
+     */
+    private int[] mSignatures = new int[SIGNATURE_SIZE * 16];
+
+    /**
+     * Story of every article, i.e. the id of the first article of the story, by id
+     */
+    private int[] mStories = new int[16];
+
+    /**
+     * True for every article whose title had enough words for a signature, by id
+     */
+    private boolean[] mSigned = new boolean[16];
+
+    /**
+     * Last article added with each band key. Together with {@link #mNextInBand} this chains
+     * the articles sharing a band key without allocating a list per key.
+     */
+    private final Map<Long, Integer> mBandHeads = new HashMap<>();
+
+    /**
+     * Previous article added with the same band key, or -1, by id times {@link #BANDS} plus
+     * band
+     */
+    private int[] mNextInBand = new int[BANDS * 16];
+
+    private int mSize;
+
+    private int mStoryCount;
+
+    /**
+     * Signatures compared so far, to check lookups stay cheap
+     */
+    private long mComparisons;
+
+    /**
+     * Constructs a new {@link NewsDeduplicator} with the {@link #DEFAULT_SIMILARITY}.
+     */
+    NewsDeduplicator() {
+        this(DEFAULT_SIMILARITY);
+    }
+
+    /**
+     * Constructs a new {@link NewsDeduplicator}.
+     *
+     * @param similarity is the estimated share of words two titles must have in common to be
+     *                   the same story, between 0 and 1
+     */
+    NewsDeduplicator(double similarity) {
+        if (similarity <= 0 || similarity > 1) {
+            throw new IllegalArgumentException("Similarity out of range: " + similarity);
+        }
+        mMinMatchingRows = (int) Math.ceil(similarity * SIGNATURE_SIZE);
+    }
+
+    /**
+     * Add the given article, unless its canonical URL was added before, and return the id of
+     * its story: the id of the first article added of that story.
+     */
+    synchronized int add(News news) {
+        String url = canonicalUrl(news.getNewsArticleUrl());
+        Integer known = mIds.get(url);
+        if (known != null) {
+            return mStories[known];
+        }
+
+        int id = mSize++;
+        ensureCapacity(mSize);
+        mIds.put(url, id);
+        boolean hasSignature = signature(news.getNewsArticleTitle(), mSignatures,
+                id * SIGNATURE_SIZE);
+        int story = hasSignature ? findSimilar(id) : -1;
+        if (story < 0) {
+            story = id;
+            mStoryCount++;
+        }
+        mStories[id] = story;
+        mSigned[id] = hasSignature;
+        if (hasSignature) {
+            addToBands(id);
+        }
+        return story;
+    }
+
+    /**
+     * Returns the story of the given article if it, or a near duplicate of it, was added,
+     * and -1 otherwise. Doesn't add it.
+     */
+    synchronized int find(News news) {
+        Integer known = mIds.get(canonicalUrl(news.getNewsArticleUrl()));
+        if (known != null) {
+            return mStories[known];
+        }
+        // Use the slot after the last article as scratch space
+        ensureCapacity(mSize + 1);
+        if (!signature(news.getNewsArticleTitle(), mSignatures, mSize * SIGNATURE_SIZE)) {
+            return -1;
+        }
+        return findSimilar(mSize);
+    }
+
+    /**
+     * Add the given articles, and return them without any article whose story already has an
+     * article earlier in the list. Articles keep their order.
+     * <p>
+     * What is dropped only depends on the list given and on which article of each story was
+     * added first, so handing over the same list again gives the same result.
+     */
+    synchronized List<News> dedupe(List<News> news) {
+        List<News> unique = new ArrayList<>(news.size());
+        Set<Integer> stories = new HashSet<>();
+        for (News article : news) {
+            if (stories.add(add(article))) {
+                unique.add(article);
+            }
+        }
+        return unique;
+    }
+
+    /**
+     * Forget every article not in the given list, e.g. ones that are no longer in the feed.
+     * The articles kept stay in their stories, and a story whose first article went is led by
+     * the first one left. Signatures are kept rather than worked out again.
+     */
+    synchronized void retain(List<News> news) {
+        Set<String> live = new HashSet<>(news.size() * 2);
+        for (News article : news) {
+            live.add(canonicalUrl(article.getNewsArticleUrl()));
+        }
+        String[] urls = new String[mSize];
+        for (Map.Entry<String, Integer> entry : mIds.entrySet()) {
+            urls[entry.getValue()] = entry.getKey();
+        }
+
+        // Ids only ever move down, so everything is moved in place in the order it was added
+        int[] leaders = new int[mSize];
+        Arrays.fill(leaders, -1);
+        int size = 0;
+        mIds.clear();
+        mBandHeads.clear();
+        mStoryCount = 0;
+        for (int id = 0; id < urls.length; id++) {
+            if (!live.contains(urls[id])) {
+                continue;
+            }
+            int newId = size++;
+            int story = mStories[id];
+            if (leaders[story] < 0) {
+                leaders[story] = newId;
+                mStoryCount++;
+            }
+            mIds.put(urls[id], newId);
+            mStories[newId] = leaders[story];
+            mSigned[newId] = mSigned[id];
+            System.arraycopy(mSignatures, id * SIGNATURE_SIZE, mSignatures,
+                    newId * SIGNATURE_SIZE, SIGNATURE_SIZE);
+            if (mSigned[newId]) {
+                addToBands(newId);
+            }
+        }
+        mSize = size;
+    }
+
+    /**
+     * Returns the number of distinct articles added.
+     */
+    synchronized int size() {
+        return mSize;
+    }
+
+    /**
+     * Returns the number of stories the articles added make up.
+     */
+    synchronized int getStoryCount() {
+        return mStoryCount;
+    }
+
+    /**
+     * Returns the number of signatures compared so far.
+     */
+    synchronized long getComparisonCount() {
+        return mComparisons;
+    }
+
+    /**
+     * Returns the story of the earlier article most similar to the article with the given
+     * id, which has a signature but may not be added yet, or -1 if none is similar enough.
+     */
+    private int findSimilar(int id) {
+        int best = -1;
+        int bestRows = mMinMatchingRows - 1;
+        for (int band = 0; band < BANDS; band++) {
+            Integer head = mBandHeads.get(bandKey(id, band));
+            for (int other = head != null ? head : -1; other >= 0;
+                 other = mNextInBand[other * BANDS + band]) {
+                if (other == id) {
+                    continue;
+                }
+                mComparisons++;
+                int rows = matchingRows(id, other);
+                // The oldest wins a tie, so a story keeps its first article
+                if (rows > bestRows || (rows == bestRows && best >= 0 && other < best)) {
+                    best = other;
+                    bestRows = rows;
+                }
+            }
+        }
+        return best >= 0 ? mStories[best] : -1;
+    }
+
+    /**
+     * Chain the article with the given id, which has a signature, to the last article added
+     * with each of its band keys.
+     */
+    private void addToBands(int id) {
+        for (int band = 0; band < BANDS; band++) {
+            Integer previous = mBandHeads.put(bandKey(id, band), id);
+            mNextInBand[id * BANDS + band] = previous != null ? previous : -1;
+        }
+    }
+
+    private int matchingRows(int a, int b) {
+        int offsetA = a * SIGNATURE_SIZE;
+        int offsetB = b * SIGNATURE_SIZE;
+        int matching = 0;
+        for (int i = 0; i < SIGNATURE_SIZE; i++) {
+            if (mSignatures[offsetA + i] == mSignatures[offsetB + i]) {
+                matching++;
+            }
+        }
+        return matching;
+    }
+
+    /**
+     * Returns the hash table key of one band of an article's signature; the band number is
+     * part of it, so equal hashes in different bands don't collide.
+     */
+    private long bandKey(int id, int band) {
+        int offset = id * SIGNATURE_SIZE + band * ROWS;
+        long key = band;
+        for (int i = 0; i < ROWS; i++) {
+            key = key * 0x9E3779B97F4A7C15L + mSignatures[offset + i];
+        }
+        return key;
+    }
+
+    private void ensureCapacity(int size) {
+        if (mStories.length < size) {
+            int capacity = Math.max(size, mStories.length * 2);
+            mSignatures = Arrays.copyOf(mSignatures, capacity * SIGNATURE_SIZE);
+            mStories = Arrays.copyOf(mStories, capacity);
+            mSigned = Arrays.copyOf(mSigned, capacity);
+            mNextInBand = Arrays.copyOf(mNextInBand, capacity * BANDS);
+        }
+    }
+
+    /**
+     * Write the MinHash signature of the given title at the given offset, and return true, or
+     * return false if the title has too few words for one.
+     * <p>
+     * Each of the signature's hash functions is derived from two hashes of a word, as
+     * {@code h1 + i * h2} run through a finalizer, which is as good as independent hashes for
+     * MinHash and far cheaper.
+     */
+    static boolean signature(String title, int[] signature, int offset) {
+        List<String> words = NewsSearchIndex.tokenize(title);
+        Set<String> distinct = new HashSet<>(words.size() * 2);
+        for (String word : words) {
+            if (!STOP_WORDS.contains(word)) {
+                distinct.add(word);
+            }
+        }
+        if (distinct.size() < MIN_WORDS) {
+            return false;
+        }
+
+        Arrays.fill(signature, offset, offset + SIGNATURE_SIZE, Integer.MAX_VALUE);
+        for (String word : distinct) {
+            int h1 = mix(word.hashCode());
+            int h2 = mix(h1 ^ 0x5bd1e995) | 1;
+            for (int i = 0; i < SIGNATURE_SIZE; i++) {
+                int hash = mix(h1 + i * h2);
+                if (hash < signature[offset + i]) {
+                    signature[offset + i] = hash;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The 32-bit finalizer of MurmurHash3, which spreads every input bit over the whole hash.
+     */
+    private static int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    /**
+     * Returns the given article URL in a canonical form: https, a lower case host, no query or
+     * fragment, no trailing slash, and the Guardian's AMP pages mapped to the articles.
+     */
+    static String canonicalUrl(String url) {
+        int end = url.length();
+        int fragment = url.indexOf('#');
+        if (fragment >= 0) {
+            end = fragment;
+        }
+        int query = url.indexOf('?');
+        if (query >= 0 && query < end) {
+            end = query;
+        }
+        while (end > 0 && url.charAt(end - 1) == '/') {
+            end--;
+        }
+        url = url.substring(0, end);
+
+        int authorityStart = url.indexOf("://");
+        if (authorityStart < 0) {
+            return url;
+        }
+        int pathStart = url.indexOf('/', authorityStart + 3);
+        if (pathStart < 0) {
+            pathStart = url.length();
+        }
+        String scheme = url.substring(0, authorityStart).toLowerCase(Locale.ROOT);
+        String host = url.substring(authorityStart + 3, pathStart).toLowerCase(Locale.ROOT);
+        if ("http".equals(scheme)) {
+            scheme = "https";
+            if (host.endsWith(":80")) {
+                host = host.substring(0, host.length() - 3);
+            }
+        }
+        if ("amp.theguardian.com".equals(host)) {
+            host = "www.theguardian.com";
+        }
+        return scheme + "://" + host + url.substring(pathStart);
+    }
+}
@@ -0,0 +1,284 @@
+package android.example.mynews;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Persistent store of the last {@link News} articles fetched for each request URL, together
+ * with the validators (ETag and Last-Modified) needed to revalidate them.
+ * <p>
+ * Every URL is kept in its own small binary file, so reading the cached page for one query
+ * never touches the others. Writes go to a temporary file of their own that is renamed into
+ * place, so a crash mid-write leaves the previous entry intact.
+ * <p>
+ * Everything in the app that reads or writes a cache directory shares the instance
+ * {@link #getInstance(File)} returns for it, so writes to one entry don't interleave.
+ */
+final class NewsDiskCache {
+
+    private static final String LOG_TAG = NewsDiskCache.class.getSimpleName();
+
+    /**
+     * Bumped whenever the file layout changes; entries with another version are ignored.
+     */
+    private static final int FORMAT_VERSION = 3;
+
+    private static final String FILE_SUFFIX = ".news";
+
+    private static final String TMP_SUFFIX = ".tmp";
+
+    /**
+     * Number of URLs kept before the least recently written entries are dropped.
+     */
+    private static final int DEFAULT_MAX_ENTRIES = 64;
+
+    /**
+     * A cached response.
+     */
+    static final class Entry {
+        /**
+         * ETag sent by the server, or null
+         */
+        final String etag;
+
+        /**
+         * Last-Modified header sent by the server, or null
+         */
+        final String lastModified;
+
+        /**
+         * When the entry was last fetched or revalidated, in milliseconds since the epoch
+         */
+        final long fetchedAtMillis;
+
+        final List<News> news;
+
+        Entry(String etag, String lastModified, long fetchedAtMillis, List<News> news) {
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.fetchedAtMillis = fetchedAtMillis;
+            this.news = news;
+        }
+    }
+
+    /**
+     * Instances shared by the app, by absolute directory path
+     */
+    private static final Map<String, NewsDiskCache> sInstances = new HashMap<>();
+
+    private final File mDirectory;
+
+    private final int mMaxEntries;
+
+    /**
+     * Returns the cache shared by the app for the given directory.
+     */
+    static NewsDiskCache getInstance(File directory) {
+        synchronized (sInstances) {
+            String path = directory.getAbsolutePath();
+            NewsDiskCache cache = sInstances.get(path);
+            if (cache == null) {
+                cache = new NewsDiskCache(directory);
+                sInstances.put(path, cache);
+            }
+            return cache;
+        }
+    }
+
+    NewsDiskCache(File directory) {
+        this(directory, DEFAULT_MAX_ENTRIES);
+    }
+
+    NewsDiskCache(File directory, int maxEntries) {
+        mDirectory = directory;
+        mMaxEntries = maxEntries;
+    }
+
+    /**
+     * Returns the cached entry for the given URL, or null if there is none or it can't be read.
+     */
+    synchronized Entry get(String url) {
+        File file = fileFor(url);
+        if (!file.exists()) {
+            return null;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (in.readInt() != FORMAT_VERSION || !url.equals(in.readUTF())) {
+                return null;
+            }
+            String etag = readNullableUTF(in);
+            String lastModified = readNullableUTF(in);
+            long fetchedAtMillis = in.readLong();
+            int count = in.readInt();
+            List<News> news = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                news.add(readNews(in));
+            }
+            return new Entry(etag, lastModified, fetchedAtMillis, news);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Problem reading the cached news articles.", e);
+            return null;
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    /**
+     * Store the entry for the given URL, replacing any previous one.
+     */
+    synchronized void put(String url, Entry entry) {
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            Log.e(LOG_TAG, "Unable to create the news cache directory " + mDirectory);
+            return;
+        }
+        File file = fileFor(url);
+        File tmp = null;
+        DataOutputStream out = null;
+        try {
+            // Unique, in case another instance writes the same entry at the same time
+            tmp = File.createTempFile(file.getName(), TMP_SUFFIX, mDirectory);
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            out.writeInt(FORMAT_VERSION);
+            out.writeUTF(url);
+            writeNullableUTF(out, entry.etag);
+            writeNullableUTF(out, entry.lastModified);
+            out.writeLong(entry.fetchedAtMillis);
+            out.writeInt(entry.news.size());
+            for (News news : entry.news) {
+                writeNews(out, news);
+            }
+            out.close();
+            out = null;
+            if (!tmp.renameTo(file)) {
+                Log.e(LOG_TAG, "Unable to move the cached news articles into place.");
+            }
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Problem writing the cached news articles.", e);
+        } finally {
+            closeQuietly(out);
+            if (tmp != null && tmp.exists()) {
+                tmp.delete();
+            }
+        }
+        trim();
+    }
+
+    /**
+     * Drop the least recently written entries until at most mMaxEntries remain.
+     */
+    private void trim() {
+        // Only whole entries, never a temporary file still being written
+        File[] files = mDirectory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File directory, String name) {
+                return name.endsWith(FILE_SUFFIX);
+            }
+        });
+        if (files == null || files.length <= mMaxEntries) {
+            return;
+        }
+        List<File> entries = new ArrayList<>(Arrays.asList(files));
+        Collections.sort(entries, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long difference = a.lastModified() - b.lastModified();
+                return difference < 0 ? -1 : (difference > 0 ? 1 : 0);
+            }
+        });
+        for (int i = 0; i < entries.size() - mMaxEntries; i++) {
+            entries.get(i).delete();
+        }
+    }
+
+    private File fileFor(String url) {
+        return new File(mDirectory, sha1(url) + FILE_SUFFIX);
+    }
+
+    /**
+     * Returns the SHA-1 of the given string in hex, which makes any URL a safe file name.
+     */
+    static String sha1(String value) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1")
+                    .digest(value.getBytes(Charset.forName("UTF-8")));
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xf, 16))
+                        .append(Character.forDigit(b & 0xf, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-1
+            throw new AssertionError(e);
+        }
+    }
+
+    private static News readNews(DataInputStream in) throws IOException {
+        String sectionName = in.readUTF();
+        String title = in.readUTF();
+        String author = in.readUTF();
+        long publicationTime = in.readLong();
+        String rawPublicationDate = readNullableUTF(in);
+        String url = in.readUTF();
+        String thumbnailUrl = readNullableUTF(in);
+        if (rawPublicationDate != null) {
+            return new News(sectionName, title, author, rawPublicationDate, url, thumbnailUrl);
+        }
+        return new News(sectionName, title, author, publicationTime, url, thumbnailUrl);
+    }
+
+    private static void writeNews(DataOutputStream out, News news) throws IOException {
+        out.writeUTF(news.getNewsArticleSectionName());
+        out.writeUTF(news.getNewsArticleTitle());
+        out.writeUTF(news.getNewsArticleAuthor());
+        long publicationTime = news.getNewsArticlePublicationTime();
+        out.writeLong(publicationTime);
+        // Dates the server sent in an unexpected layout are kept as they were
+        writeNullableUTF(out, publicationTime == NewsTimestamps.UNKNOWN
+                ? news.getNewsArticlePublicationDate() : null);
+        out.writeUTF(news.getNewsArticleUrl());
+        writeNullableUTF(out, news.getNewsArticleThumbnailUrl());
+    }
+
+    private static String readNullableUTF(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static void writeNullableUTF(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package android.example.mynews;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fetches several Guardian queries at once and merges their results.
+ * <p>
+ * Queries run in parallel on a bounded pool of threads, so fetching several topics takes
+ * about as long as the slowest of them rather than the sum of all of them. Each query has
+ * its own deadline, kept by a {@link NewsCancellation} that drops its connection when the time
+ * is up; a query that misses it is abandoned and the others are still returned.
+ */
+final class NewsFanOutFetcher {
+
+    private static final String LOG_TAG = NewsFanOutFetcher.class.getSimpleName();
+
+    /**
+     * Orders articles newest first; articles with an unknown date go last.
+     */
+    static final Comparator<News> NEWEST_FIRST = new Comparator<News>() {
+        @Override
+        public int compare(News a, News b) {
+            long timeA = a.getNewsArticlePublicationTime();
+            long timeB = b.getNewsArticlePublicationTime();
+            return timeA < timeB ? 1 : (timeA > timeB ? -1 : 0);
+        }
+    };
+
+    /**
+     * How long past its deadline a query is waited for, before it is cancelled and abandoned
+     */
+    private static final long STOP_GRACE_MILLIS = 1000;
+
+    private final ExecutorService mExecutor;
+
+    /**
+     * Optional on-disk cache the queries are revalidated against, may be null
+     */
+    private final NewsDiskCache mCache;
+
+    /**
+     * Constructs a new {@link NewsFanOutFetcher}.
+     *
+     * @param maxConcurrency is the largest number of queries fetched at the same time
+     * @param cache          is the cache queries are revalidated against, or null
+     */
+    NewsFanOutFetcher(int maxConcurrency, NewsDiskCache cache) {
+        mExecutor = new ThreadPoolExecutor(maxConcurrency, maxConcurrency,
+                30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            private final AtomicInteger mCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "NewsFanOut #" + mCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        ((ThreadPoolExecutor) mExecutor).allowCoreThreadTimeOut(true);
+        mCache = cache;
+    }
+
+    /**
+     * Fetch every request URL in parallel and return their articles merged into one list,
+     * without duplicate web URLs and sorted newest first.
+     *
+     * @param requestUrls     are the Guardian query URLs to fetch
+     * @param deadlineMillis  is how long each query may take, counted from when this method is
+     *                        called; queries that take longer are left out of the result
+     */
+    List<News> fetch(List<String> requestUrls, long deadlineMillis) {
+        // Keep the first copy of every article, keyed by its web URL
+        Map<String, News> merged = new LinkedHashMap<>();
+        for (List<News> news : fetchEach(requestUrls, deadlineMillis)) {
+            if (news == null) {
+                continue;
+            }
+            for (News article : news) {
+                if (!merged.containsKey(article.getNewsArticleUrl())) {
+                    merged.put(article.getNewsArticleUrl(), article);
+                }
+            }
+        }
+
+        List<News> result = new ArrayList<>(merged.values());
+        Collections.sort(result, NEWEST_FIRST);
+        return result;
+    }
+
+    /**
+     * Fetch every request URL in parallel and return the articles of each, in the order of the
+     * URLs, with null for the queries that failed or missed their deadline.
+     *
+     * @param requestUrls     are the Guardian query URLs to fetch
+     * @param deadlineMillis  is how long each query may take, counted from when this method is
+     *                        called
+     */
+    List<List<News>> fetchEach(List<String> requestUrls, long deadlineMillis) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(deadlineMillis);
+
+        List<NewsCancellation> cancellations = new ArrayList<>(requestUrls.size());
+        List<Future<List<News>>> futures = new ArrayList<>(requestUrls.size());
+        for (final String requestUrl : requestUrls) {
+            final NewsCancellation cancellation = NewsCancellation.withTimeout(deadlineMillis);
+            cancellations.add(cancellation);
+            futures.add(mExecutor.submit(new Callable<List<News>>() {
+                @Override
+                public List<News> call() {
+                    try {
+                        List<News> news =
+                                QueryUtils.fetchNewsArticleData(requestUrl, mCache, cancellation);
+                        // Cut short by its deadline, the page is missing articles
+                        return cancellation.isStopped() ? null : news;
+                    } finally {
+                        cancellation.release();
+                    }
+                }
+            }));
+        }
+
+        List<List<News>> results = new ArrayList<>(futures.size());
+        for (int i = 0; i < futures.size(); i++) {
+            // The deadline stops a query by itself, this only guards against one that doesn't
+            long timeout = deadline - System.nanoTime()
+                    + TimeUnit.MILLISECONDS.toNanos(STOP_GRACE_MILLIS);
+            List<News> news = null;
+            try {
+                news = futures.get(i).get(Math.max(0, timeout), TimeUnit.NANOSECONDS);
+                if (news == null && cancellations.get(i).isDeadlineReached()) {
+                    Log.e(LOG_TAG, "Query missed its deadline: " + requestUrls.get(i));
+                }
+            } catch (TimeoutException e) {
+                Log.e(LOG_TAG, "Query didn't stop at its deadline: " + requestUrls.get(i));
+                cancellations.get(i).cancel();
+            } catch (ExecutionException e) {
+                Log.e(LOG_TAG, "Problem fetching " + requestUrls.get(i), e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                for (int j = i; j < cancellations.size(); j++) {
+                    cancellations.get(j).cancel();
+                }
+                break;
+            }
+            results.add(news);
+        }
+        while (results.size() < requestUrls.size()) {
+            results.add(null);
+        }
+        return results;
+    }
+
+    /**
+     * Stop the worker threads. Queries still running are abandoned.
+     */
+    void shutdown() {
+        mExecutor.shutdownNow();
+    }
+}
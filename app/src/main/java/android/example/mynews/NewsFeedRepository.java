@@ -0,0 +1,323 @@
+package android.example.mynews;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The articles the app currently knows about, shared by every loader, background fetcher and
+ * screen.
+ * <p>
+ * The feed is held as an immutable {@link Snapshot}, newest first and keyed by web URL,
+ * behind an {@link AtomicReference}. Readers take the current snapshot with a single volatile
+ * read, never block and never see a half applied update. Writers merge their articles into a
+ * copy of the current snapshot and swap it in with a compare-and-set, retrying the merge if
+ * another writer got there first, so any number of threads can publish at once without a
+ * lock and without losing each other's articles.
+ * <p>
+ * Only the newest articles up to a budget are kept, and the screen showing the feed drops the
+ * ones it has scrolled away from. Listeners are told about every new snapshot on the thread
+ * that published it.
+ */
+final class NewsFeedRepository {
+
+    /**
+     * Articles kept by default
+     */
+    static final int DEFAULT_MAX_ARTICLES = 1000;
+
+    private static final NewsFeedRepository sInstance =
+            new NewsFeedRepository(DEFAULT_MAX_ARTICLES);
+
+    /**
+     * Returns the repository shared by the app.
+     */
+    static NewsFeedRepository getInstance() {
+        return sInstance;
+    }
+
+    /**
+     * Told about every new snapshot.
+     */
+    interface Listener {
+        /**
+         * Called on the publishing thread. Snapshots published by different threads may
+         * arrive out of order; compare {@link Snapshot#getVersion()} to drop stale ones.
+         */
+        void onFeedChanged(Snapshot snapshot);
+    }
+
+    /**
+     * The feed at one point in time. Never changes once published.
+     */
+    static final class Snapshot extends AbstractList<News> implements RandomAccess {
+
+        private final long mVersion;
+
+        /**
+         * Articles newest first, then by web URL, with distinct web URLs
+         */
+        private final News[] mNews;
+
+        /**
+         * Web URL of every article, so merges don't decode them again
+         */
+        private final String[] mUrls;
+
+        private Snapshot(long version, News[] news, String[] urls) {
+            mVersion = version;
+            mNews = news;
+            mUrls = urls;
+        }
+
+        /**
+         * Returns the number of snapshots published before this one.
+         */
+        long getVersion() {
+            return mVersion;
+        }
+
+        @Override
+        public News get(int index) {
+            return mNews[index];
+        }
+
+        @Override
+        public int size() {
+            return mNews.length;
+        }
+    }
+
+    private final int mMaxArticles;
+
+    private final AtomicReference<Snapshot> mSnapshot =
+            new AtomicReference<>(new Snapshot(0, new News[0], new String[0]));
+
+    private final List<Listener> mListeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * Merges redone because another writer published first
+     */
+    private final AtomicLong mRetries = new AtomicLong();
+
+    /**
+     * Constructs a new {@link NewsFeedRepository}.
+     *
+     * @param maxArticles is the number of the newest articles kept
+     */
+    NewsFeedRepository(int maxArticles) {
+        mMaxArticles = maxArticles;
+    }
+
+    /**
+     * Returns the current feed. Never blocks.
+     */
+    Snapshot getSnapshot() {
+        return mSnapshot.get();
+    }
+
+    /**
+     * Merge the given articles into the feed, replacing any with the same web URL, and return
+     * the snapshot that includes them. If nothing changed, no snapshot is published and the
+     * current one is returned.
+     */
+    Snapshot publish(List<News> news) {
+        if (news == null || news.isEmpty()) {
+            return mSnapshot.get();
+        }
+        Snapshot batch = sortedBatch(news);
+        while (true) {
+            Snapshot current = mSnapshot.get();
+            Snapshot next = merge(current, batch);
+            if (next == null) {
+                return current;
+            }
+            if (mSnapshot.compareAndSet(current, next)) {
+                notifyListeners(next);
+                return next;
+            }
+            mRetries.incrementAndGet();
+        }
+    }
+
+    /**
+     * Drop every article published before the oldest or after the newest of the given times,
+     * e.g. the pages of results a list has scrolled away from. Articles with an unknown date
+     * are only kept if the oldest time is {@link NewsTimestamps#UNKNOWN}.
+     */
+    void retainPublishedBetween(long oldestMillis, long newestMillis) {
+        while (true) {
+            Snapshot current = mSnapshot.get();
+            int keptCount = 0;
+            int[] kept = new int[current.mNews.length];
+            for (int i = 0; i < current.mNews.length; i++) {
+                long time = current.mNews[i].getNewsArticlePublicationTime();
+                if (time >= oldestMillis && time <= newestMillis) {
+                    kept[keptCount++] = i;
+                }
+            }
+            if (keptCount == current.mNews.length) {
+                return;
+            }
+            News[] news = new News[keptCount];
+            String[] urls = new String[keptCount];
+            for (int i = 0; i < keptCount; i++) {
+                news[i] = current.mNews[kept[i]];
+                urls[i] = current.mUrls[kept[i]];
+            }
+            Snapshot next = new Snapshot(current.mVersion + 1, news, urls);
+            if (mSnapshot.compareAndSet(current, next)) {
+                notifyListeners(next);
+                return;
+            }
+            mRetries.incrementAndGet();
+        }
+    }
+
+    /**
+     * Forget every article.
+     */
+    void clear() {
+        while (true) {
+            Snapshot current = mSnapshot.get();
+            if (current.mNews.length == 0) {
+                return;
+            }
+            Snapshot next = new Snapshot(current.mVersion + 1, new News[0], new String[0]);
+            if (mSnapshot.compareAndSet(current, next)) {
+                notifyListeners(next);
+                return;
+            }
+        }
+    }
+
+    void addListener(Listener listener) {
+        mListeners.add(listener);
+    }
+
+    void removeListener(Listener listener) {
+        mListeners.remove(listener);
+    }
+
+    /**
+     * Returns the number of merges redone because another writer published first.
+     */
+    long getRetryCount() {
+        return mRetries.get();
+    }
+
+    private void notifyListeners(Snapshot snapshot) {
+        for (Listener listener : mListeners) {
+            listener.onFeedChanged(snapshot);
+        }
+    }
+
+    /**
+     * Returns the given articles newest first, keeping the last of any with the same web URL.
+     * Done once per publish, outside the retry loop.
+     */
+    private static Snapshot sortedBatch(List<News> news) {
+        Map<String, News> byUrl = new HashMap<>(news.size() * 2);
+        for (News article : news) {
+            byUrl.put(article.getNewsArticleUrl(), article);
+        }
+        List<Map.Entry<String, News>> entries = new ArrayList<>(byUrl.entrySet());
+        Collections.sort(entries, new Comparator<Map.Entry<String, News>>() {
+            @Override
+            public int compare(Map.Entry<String, News> a, Map.Entry<String, News> b) {
+                int byTime = NewsFanOutFetcher.NEWEST_FIRST.compare(a.getValue(), b.getValue());
+                return byTime != 0 ? byTime : a.getKey().compareTo(b.getKey());
+            }
+        });
+        News[] sorted = new News[entries.size()];
+        String[] urls = new String[entries.size()];
+        for (int i = 0; i < sorted.length; i++) {
+            sorted[i] = entries.get(i).getValue();
+            urls[i] = entries.get(i).getKey();
+        }
+        return new Snapshot(0, sorted, urls);
+    }
+
+    /**
+     * Returns the next snapshot: the newest of the current and new articles, a new article
+     * replacing a current one with the same web URL. Returns null if that is the current
+     * snapshot already.
+     */
+    private Snapshot merge(Snapshot current, Snapshot batch) {
+        Map<String, News> replaced = new HashMap<>(batch.mNews.length * 2);
+        for (int i = 0; i < batch.mNews.length; i++) {
+            replaced.put(batch.mUrls[i], batch.mNews[i]);
+        }
+        int unchanged = 0;
+        int keptCount = 0;
+        int[] kept = new int[current.mNews.length];
+        for (int i = 0; i < current.mNews.length; i++) {
+            News replacement = replaced.get(current.mUrls[i]);
+            if (replacement == null) {
+                kept[keptCount++] = i;
+            } else if (sameContents(current.mNews[i], replacement)) {
+                unchanged++;
+            }
+        }
+        if (unchanged == batch.mNews.length) {
+            return null;
+        }
+
+        int size = Math.min(mMaxArticles, keptCount + batch.mNews.length);
+        News[] news = new News[size];
+        String[] urls = new String[size];
+        int k = 0;
+        int b = 0;
+        boolean changed = size != current.mNews.length;
+        for (int i = 0; i < size; i++) {
+            if (b == batch.mNews.length || (k < keptCount
+                    && compare(current, kept[k], batch, b) <= 0)) {
+                news[i] = current.mNews[kept[k]];
+                urls[i] = current.mUrls[kept[k++]];
+            } else {
+                news[i] = batch.mNews[b];
+                urls[i] = batch.mUrls[b++];
+            }
+            if (!changed && news[i] != current.mNews[i]) {
+                changed = true;
+            }
+        }
+        // Articles older than everything kept fall straight off the end again
+        return changed ? new Snapshot(current.mVersion + 1, news, urls) : null;
+    }
+
+    /**
+     * Orders articles of two snapshots newest first, and articles published at the same time
+     * by web URL, using the URLs the snapshots already hold.
+     */
+    private static int compare(Snapshot a, int indexA, Snapshot b, int indexB) {
+        int byTime = NewsFanOutFetcher.NEWEST_FIRST.compare(a.mNews[indexA], b.mNews[indexB]);
+        return byTime != 0 ? byTime : a.mUrls[indexA].compareTo(b.mUrls[indexB]);
+    }
+
+    private static boolean sameContents(News a, News b) {
+        if (a == b) {
+            return true;
+        }
+        long time = a.getNewsArticlePublicationTime();
+        return time == b.getNewsArticlePublicationTime()
+                && (time != NewsTimestamps.UNKNOWN || equal(a.getNewsArticlePublicationDate(),
+                b.getNewsArticlePublicationDate()))
+                && equal(a.getNewsArticleTitle(), b.getNewsArticleTitle())
+                && equal(a.getNewsArticleSectionName(), b.getNewsArticleSectionName())
+                && equal(a.getNewsArticleAuthor(), b.getNewsArticleAuthor())
+                && equal(a.getNewsArticleThumbnailUrl(), b.getNewsArticleThumbnailUrl());
+    }
+
+    private static boolean equal(Object a, Object b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
@@ -0,0 +1,295 @@
+package android.example.mynews;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Decides how much to ask the Guardian for, and how many thumbnails to download at once,
+ * from how the network has been behaving.
+ * <p>
+ * Every finished request, for a page or a thumbnail, is fed in with
+ * {@link #onResponse(NewsHttpClient.RequestStats, int)}. The time until the response headers
+ * arrived is taken as the latency of the link, and the body bytes over the time spent waiting
+ * for them, times the number of transfers sharing the link, as its bandwidth. A gzipped page
+ * is only a couple of kilobytes, which arrive in one go, so in practice the bandwidth is
+ * learnt from thumbnails. Both are smoothed with an exponentially weighted moving average, so
+ * one slow request doesn't change the plan but a link that got slower does within a few.
+ * <p>
+ * Text only plans download no thumbnails, so the bandwidth would never be measured again.
+ * After {@link #BANDWIDTH_SAMPLE_LIFETIME} responses without a new measurement it is no
+ * longer trusted, and the link is judged on its latency until thumbnails measure it again.
+ * <p>
+ * {@link #plan(boolean)} turns the estimates into a {@link Plan}:
+ * <ul>
+ * <li>on a fast link, full pages with thumbnails, downloaded {@link #FAST_DOWNLOADS} at a
+ * time;</li>
+ * <li>on a moderate link, or one not measured yet, the same pages with fewer downloads at a
+ * time, so the thumbnails at the top of the screen don't share the bandwidth with the ones
+ * further down;</li>
+ * <li>on a slow or metered link, half pages of text only: without the thumbnail field the
+ * response is smaller and no images are downloaded at all.</li>
+ * </ul>
+ * This class has no Android dependencies; whether the link is metered is up to the caller.
+ */
+final class NewsFetchPolicy {
+
+    /**
+     * Results per page on a fast or moderate link
+     */
+    static final int FULL_PAGE_SIZE = 20;
+
+    /**
+     * Results per page on a slow or metered link
+     */
+    static final int SMALL_PAGE_SIZE = 10;
+
+    /**
+     * Thumbnails downloaded at once on a fast link
+     */
+    static final int FAST_DOWNLOADS = 4;
+
+    /**
+     * Thumbnails downloaded at once on a moderate link
+     */
+    static final int MODERATE_DOWNLOADS = 2;
+
+    /**
+     * Thumbnails downloaded at once on a slow or metered link, where there are none to
+     * download unless something else asks for them
+     */
+    static final int SLOW_DOWNLOADS = 1;
+
+    /**
+     * A link is fast from this bandwidth up, in bits per second...
+     */
+    static final long FAST_MIN_BITS_PER_SECOND = 2000000;
+
+    /**
+     * ...and this latency down, in microseconds
+     */
+    static final long FAST_MAX_LATENCY_MICROS = 300000;
+
+    /**
+     * A link is slow below this bandwidth, in bits per second, about what EDGE manages...
+     */
+    static final long SLOW_MAX_BITS_PER_SECOND = 250000;
+
+    /**
+     * ...or from this latency up, in microseconds
+     */
+    static final long SLOW_MIN_LATENCY_MICROS = 1000000;
+
+    /**
+     * Smallest body, in bytes on the wire, whose read time says anything about the bandwidth
+     * rather than the latency
+     */
+    static final long MIN_BANDWIDTH_SAMPLE_BYTES = 16 * 1024;
+
+    /**
+     * Responses after which a bandwidth estimate that hasn't been measured again is stale
+     */
+    static final int BANDWIDTH_SAMPLE_LIFETIME = 10;
+
+    /**
+     * Weight of the newest sample in the moving averages
+     */
+    private static final double SMOOTHING = 0.3;
+
+    /**
+     * How the link has been behaving.
+     */
+    enum LinkQuality {
+        FAST,
+        MODERATE,
+        SLOW,
+        /**
+         * Nothing measured yet
+         */
+        UNKNOWN
+    }
+
+    /**
+     * What to fetch over the link.
+     */
+    static final class Plan {
+        /**
+         * Results to ask for per page
+         */
+        final int pageSize;
+
+        /**
+         * True to leave the thumbnail field, and so the images, out
+         */
+        final boolean textOnly;
+
+        /**
+         * Thumbnails to download at the same time
+         */
+        final int maxConcurrentDownloads;
+
+        Plan(int pageSize, boolean textOnly, int maxConcurrentDownloads) {
+            this.pageSize = pageSize;
+            this.textOnly = textOnly;
+            this.maxConcurrentDownloads = maxConcurrentDownloads;
+        }
+
+        /**
+         * Returns the given query asking for this plan's page size and fields.
+         */
+        GuardianQuery applyTo(GuardianQuery query) {
+            GuardianQuery.Builder builder = query.toBuilder().pageSize(pageSize);
+            if (textOnly) {
+                builder.clearFields();
+            }
+            return builder.build();
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Plan)) {
+                return false;
+            }
+            Plan plan = (Plan) other;
+            return pageSize == plan.pageSize && textOnly == plan.textOnly
+                    && maxConcurrentDownloads == plan.maxConcurrentDownloads;
+        }
+
+        @Override
+        public int hashCode() {
+            return (pageSize * 31 + (textOnly ? 1 : 0)) * 31 + maxConcurrentDownloads;
+        }
+
+        @Override
+        public String toString() {
+            return pageSize + " results" + (textOnly ? " text only" : " with thumbnails")
+                    + ", " + maxConcurrentDownloads + " downloads at once";
+        }
+    }
+
+    static final Plan FAST_PLAN = new Plan(FULL_PAGE_SIZE, false, FAST_DOWNLOADS);
+
+    static final Plan MODERATE_PLAN = new Plan(FULL_PAGE_SIZE, false, MODERATE_DOWNLOADS);
+
+    static final Plan SLOW_PLAN = new Plan(SMALL_PAGE_SIZE, true, SLOW_DOWNLOADS);
+
+    /**
+     * Every plan {@link #plan(boolean)} can return
+     */
+    static final List<Plan> PLANS = Collections.unmodifiableList(
+            Arrays.asList(FAST_PLAN, MODERATE_PLAN, SLOW_PLAN));
+
+    /**
+     * Smoothed latency in microseconds, or -1 until a response has been seen
+     */
+    private double mLatencyMicros = -1;
+
+    /**
+     * Smoothed bandwidth in bits per second, or -1 until a large enough body has been read
+     */
+    private double mBitsPerSecond = -1;
+
+    /**
+     * Responses seen since the bandwidth was last measured
+     */
+    private int mResponsesSinceBandwidth;
+
+    /**
+     * Take the timings of a finished request that had the link to itself into account.
+     */
+    void onResponse(NewsHttpClient.RequestStats stats) {
+        onResponse(stats, 1);
+    }
+
+    /**
+     * Take the timings of a finished request into account. Requests that failed before the
+     * headers arrived are ignored.
+     *
+     * @param sharing is the number of transfers, this one included, that were running at the
+     *                same time and so shared the bandwidth
+     */
+    synchronized void onResponse(NewsHttpClient.RequestStats stats, int sharing) {
+        if (stats.responseCode <= 0) {
+            return;
+        }
+        mLatencyMicros = smooth(mLatencyMicros, stats.firstByteMicros);
+        if (stats.bytesReceived >= MIN_BANDWIDTH_SAMPLE_BYTES && stats.readMicros > 0) {
+            mBitsPerSecond = smooth(mBitsPerSecond, stats.bytesReceived * 8 * 1000000.0
+                    * Math.max(1, sharing) / stats.readMicros);
+            mResponsesSinceBandwidth = 0;
+        } else {
+            mResponsesSinceBandwidth++;
+        }
+    }
+
+    private static double smooth(double average, double sample) {
+        return average < 0 ? sample : average + SMOOTHING * (sample - average);
+    }
+
+    /**
+     * Returns the estimated latency in microseconds, or -1 if nothing was measured yet.
+     */
+    synchronized long getLatencyMicros() {
+        return Math.round(mLatencyMicros);
+    }
+
+    /**
+     * Returns the estimated bandwidth in bits per second, or -1 if nothing was measured yet or
+     * the estimate is stale.
+     */
+    synchronized long getBitsPerSecond() {
+        return isBandwidthKnown() ? Math.round(mBitsPerSecond) : -1;
+    }
+
+    private boolean isBandwidthKnown() {
+        return mBitsPerSecond >= 0 && mResponsesSinceBandwidth < BANDWIDTH_SAMPLE_LIFETIME;
+    }
+
+    /**
+     * Returns how the link has been behaving. A link whose latency has been measured but not
+     * its bandwidth, or not lately, is judged on its latency alone.
+     */
+    synchronized LinkQuality getLinkQuality() {
+        if (mLatencyMicros < 0) {
+            return LinkQuality.UNKNOWN;
+        }
+        boolean bandwidthKnown = isBandwidthKnown();
+        if (mLatencyMicros >= SLOW_MIN_LATENCY_MICROS
+                || (bandwidthKnown && mBitsPerSecond < SLOW_MAX_BITS_PER_SECOND)) {
+            return LinkQuality.SLOW;
+        }
+        if (bandwidthKnown && mBitsPerSecond >= FAST_MIN_BITS_PER_SECOND
+                && mLatencyMicros < FAST_MAX_LATENCY_MICROS) {
+            return LinkQuality.FAST;
+        }
+        return LinkQuality.MODERATE;
+    }
+
+    /**
+     * Returns what to fetch next.
+     *
+     * @param metered is true if the data sent over the link is paid for
+     */
+    Plan plan(boolean metered) {
+        if (metered) {
+            return SLOW_PLAN;
+        }
+        switch (getLinkQuality()) {
+            case FAST:
+                return FAST_PLAN;
+            case SLOW:
+                return SLOW_PLAN;
+            default:
+                return MODERATE_PLAN;
+        }
+    }
+
+    /**
+     * Forget everything measured, e.g. after switching networks.
+     */
+    synchronized void reset() {
+        mLatencyMicros = -1;
+        mBitsPerSecond = -1;
+        mResponsesSinceBandwidth = 0;
+    }
+}
@@ -0,0 +1,392 @@
+package android.example.mynews;
+
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Small HTTP client for the Guardian API built on {@link HttpURLConnection}.
+ * <p>
+ * Connections are never disconnected explicitly: a response body that has been read to the
+ * end and closed hands its connection back to the platform's keep-alive pool, so the next
+ * request to the same host skips the TCP and TLS handshakes. Bodies are requested gzipped
+ * and decoded on the fly, requests can be made conditional on an ETag or Last-Modified date,
+ * and every response records how many bytes it moved and how long each phase took.
+ * <p>
+ * A request can be given a {@link NewsCancellation}. Stopping it disconnects the connection,
+ * so a read blocked on the network fails at once, and the rest of the body is never
+ * downloaded; the connection isn't reused.
+ */
+final class NewsHttpClient {
+
+    /**
+     * Default milliseconds to wait for a connection to be established
+     */
+    static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 15000;
+
+    /**
+     * Default milliseconds to wait for data while reading the response
+     */
+    static final int DEFAULT_READ_TIMEOUT_MILLIS = 10000;
+
+    /**
+     * Bytes of an unread response body that are drained on close so that its connection can
+     * be reused; anything larger isn't worth downloading just to save a handshake.
+     */
+    private static final int MAX_DRAIN_BYTES = 64 * 1024;
+
+    /**
+     * Byte and time counters for one request.
+     */
+    static final class RequestStats {
+        /**
+         * HTTP status code of the response
+         */
+        int responseCode;
+
+        /**
+         * True if the body was sent gzipped
+         */
+        boolean gzipped;
+
+        /**
+         * Body bytes read off the network
+         */
+        long bytesReceived;
+
+        /**
+         * Body bytes after decompression
+         */
+        long bytesDecoded;
+
+        /**
+         * Microseconds spent connecting, including resolving the host name and the TLS
+         * handshake; close to 0 when a pooled connection was reused
+         */
+        long connectMicros;
+
+        /**
+         * Microseconds from sending the request until the response headers arrived
+         */
+        long firstByteMicros;
+
+        /**
+         * Microseconds spent waiting for body bytes to arrive, not counting decoding them
+         */
+        long readMicros;
+
+        /**
+         * Milliseconds from opening the connection until the response headers arrived
+         */
+        long headersMillis;
+
+        /**
+         * Milliseconds from opening the connection until the response was closed
+         */
+        long totalMillis;
+
+        @Override
+        public String toString() {
+            return "HTTP " + responseCode + (gzipped ? " gzip" : "") + ", " + bytesReceived
+                    + " bytes received, " + bytesDecoded + " bytes decoded, connect "
+                    + connectMicros + "us, first byte " + firstByteMicros
+                    + "us, body read " + readMicros + "us, headers after " + headersMillis
+                    + "ms, done after " + totalMillis + "ms";
+        }
+    }
+
+    /**
+     * A response whose body can be streamed. It must be closed once done with, which finishes
+     * its {@link RequestStats} and returns the connection to the pool.
+     */
+    static final class Response implements Closeable {
+        private final HttpURLConnection mConnection;
+        private final NewsCancellation mCancellation;
+        private final long mStartNanos;
+        private final RequestStats mStats;
+        private final CountingInputStream mWireStream;
+        private final CountingInputStream mBody;
+        private boolean mClosed;
+
+        private Response(HttpURLConnection connection, NewsCancellation cancellation,
+                         long startNanos, RequestStats stats) throws IOException {
+            mConnection = connection;
+            mCancellation = cancellation;
+            mStartNanos = startNanos;
+            mStats = stats;
+            if (stats.responseCode == HttpURLConnection.HTTP_OK) {
+                mWireStream = new CountingInputStream(connection.getInputStream(), cancellation);
+                mBody = new CountingInputStream(stats.gzipped
+                        ? new GZIPInputStream(mWireStream) : mWireStream, NewsCancellation.NONE);
+            } else {
+                mWireStream = null;
+                mBody = null;
+            }
+        }
+
+        int getResponseCode() {
+            return mStats.responseCode;
+        }
+
+        /**
+         * Returns true if the server answered 304 Not Modified to a conditional request.
+         */
+        boolean isNotModified() {
+            return mStats.responseCode == HttpURLConnection.HTTP_NOT_MODIFIED;
+        }
+
+        String getEtag() {
+            return mConnection.getHeaderField("ETag");
+        }
+
+        String getLastModified() {
+            return mConnection.getHeaderField("Last-Modified");
+        }
+
+        /**
+         * Returns the decoded body of a 200 response, or null for any other status.
+         */
+        InputStream getBody() {
+            return mBody;
+        }
+
+        /**
+         * Returns the counters for this request; they are final once the response is closed.
+         */
+        RequestStats getStats() {
+            return mStats;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (mClosed) {
+                return;
+            }
+            mClosed = true;
+            mCancellation.setOnStopListener(null);
+            try {
+                if (mCancellation.isStopped()) {
+                    // Whatever is left isn't wanted, so don't download it to save the connection
+                    mConnection.disconnect();
+                    if (mBody != null) {
+                        closeQuietly(mBody);
+                    }
+                } else if (mBody != null) {
+                    // A parser may already have closed the body once done with it
+                    if (!mWireStream.isClosed()) {
+                        drain(mWireStream);
+                    }
+                    mBody.close();
+                } else {
+                    InputStream error = mConnection.getErrorStream();
+                    if (error != null) {
+                        drain(error);
+                        error.close();
+                    }
+                }
+            } finally {
+                if (mWireStream != null) {
+                    mStats.bytesReceived = mWireStream.getCount();
+                    mStats.bytesDecoded = mBody.getCount();
+                    mStats.readMicros = mWireStream.getReadNanos() / 1000;
+                }
+                mStats.totalMillis = (System.nanoTime() - mStartNanos) / 1000000;
+            }
+        }
+
+        private static void closeQuietly(Closeable closeable) {
+            try {
+                closeable.close();
+            } catch (IOException ignored) {
+                // The connection is gone already
+            }
+        }
+
+        /**
+         * Read what is left of a small body so the connection goes back to the pool.
+         */
+        private static void drain(InputStream in) throws IOException {
+            byte[] buffer = new byte[4096];
+            int drained = 0;
+            int read;
+            while (drained < MAX_DRAIN_BYTES && (read = in.read(buffer)) != -1) {
+                drained += read;
+            }
+        }
+    }
+
+    private final int mConnectTimeoutMillis;
+
+    private final int mReadTimeoutMillis;
+
+    private final AtomicLong mRequestCount = new AtomicLong();
+
+    /**
+     * Constructs a new {@link NewsHttpClient}.
+     *
+     * @param connectTimeoutMillis is how long to wait for a connection
+     * @param readTimeoutMillis    is how long to wait for data while reading
+     */
+    NewsHttpClient(int connectTimeoutMillis, int readTimeoutMillis) {
+        mConnectTimeoutMillis = connectTimeoutMillis;
+        mReadTimeoutMillis = readTimeoutMillis;
+    }
+
+    /**
+     * Make a GET request to the given URL. If etag or lastModified is non-null the request is
+     * conditional, and a 304 response means the caller's copy is still current.
+     */
+    Response get(URL url, String etag, String lastModified) throws IOException {
+        return get(url, etag, lastModified, NewsCancellation.NONE);
+    }
+
+    /**
+     * Make a GET request to the given URL that stops when the given cancellation does, with
+     * an {@link java.io.InterruptedIOException} from whichever call is in progress. Timeouts
+     * are shortened to the cancellation's deadline.
+     */
+    Response get(URL url, String etag, String lastModified, NewsCancellation cancellation)
+            throws IOException {
+        cancellation.throwIfStopped();
+        RequestStats stats = new RequestStats();
+        long startNanos = System.nanoTime();
+
+        final HttpURLConnection urlConnection = (HttpURLConnection) url.openConnection();
+        urlConnection.setConnectTimeout(cancellation.clampTimeoutMillis(mConnectTimeoutMillis));
+        urlConnection.setReadTimeout(cancellation.clampTimeoutMillis(mReadTimeoutMillis));
+        urlConnection.setRequestMethod("GET");
+        // Asking for gzip explicitly turns off the platform's transparent decoding,
+        // which is what lets us count compressed and decoded bytes separately
+        urlConnection.setRequestProperty("Accept-Encoding", "gzip");
+        if (etag != null) {
+            urlConnection.setRequestProperty("If-None-Match", etag);
+        }
+        if (lastModified != null) {
+            urlConnection.setRequestProperty("If-Modified-Since", lastModified);
+        }
+
+        cancellation.setOnStopListener(new Runnable() {
+            @Override
+            public void run() {
+                urlConnection.disconnect();
+            }
+        });
+        Response response = null;
+        try {
+            urlConnection.connect();
+            long connectedNanos = System.nanoTime();
+            stats.connectMicros = (connectedNanos - startNanos) / 1000;
+
+            stats.responseCode = urlConnection.getResponseCode();
+            long headersNanos = System.nanoTime();
+            stats.firstByteMicros = (headersNanos - connectedNanos) / 1000;
+            stats.headersMillis = (headersNanos - startNanos) / 1000000;
+            stats.gzipped = "gzip".equalsIgnoreCase(urlConnection.getContentEncoding());
+            mRequestCount.incrementAndGet();
+            response = new Response(urlConnection, cancellation, startNanos, stats);
+            return response;
+        } catch (IOException e) {
+            // A failure caused by stopping says so, rather than e.g. "socket closed"
+            cancellation.throwIfStopped();
+            throw e;
+        } finally {
+            if (response == null) {
+                cancellation.setOnStopListener(null);
+                // Nothing will close a response, so let go of the connection here
+                urlConnection.disconnect();
+            }
+        }
+    }
+
+    /**
+     * Returns the number of requests made by this client.
+     */
+    long getRequestCount() {
+        return mRequestCount.get();
+    }
+
+    /**
+     * An {@link InputStream} that counts the bytes read through it and the time spent waiting
+     * for them, and that stops reading once its cancellation stops.
+     */
+    private static final class CountingInputStream extends FilterInputStream {
+        private final NewsCancellation mCancellation;
+        private long mCount;
+        private long mReadNanos;
+        private boolean mClosed;
+
+        CountingInputStream(InputStream in, NewsCancellation cancellation) {
+            super(in);
+            mCancellation = cancellation;
+        }
+
+        long getCount() {
+            return mCount;
+        }
+
+        long getReadNanos() {
+            return mReadNanos;
+        }
+
+        boolean isClosed() {
+            return mClosed;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!mClosed) {
+                mClosed = true;
+                super.close();
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            mCancellation.throwIfStopped();
+            long start = System.nanoTime();
+            int b;
+            try {
+                b = super.read();
+            } catch (IOException e) {
+                mCancellation.throwIfStopped();
+                throw e;
+            }
+            mReadNanos += System.nanoTime() - start;
+            if (b != -1) {
+                mCount++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            mCancellation.throwIfStopped();
+            long start = System.nanoTime();
+            int read;
+            try {
+                read = super.read(buffer, offset, length);
+            } catch (IOException e) {
+                mCancellation.throwIfStopped();
+                throw e;
+            }
+            mReadNanos += System.nanoTime() - start;
+            if (read > 0) {
+                mCount += read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            mCancellation.throwIfStopped();
+            long skipped = super.skip(n);
+            mCount += skipped;
+            return skipped;
+        }
+    }
+}
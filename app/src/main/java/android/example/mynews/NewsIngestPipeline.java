@@ -0,0 +1,222 @@
+package android.example.mynews;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Feeds the articles of a search response to everything downstream of the network, in
+ * batches, as they are parsed.
+ * <p>
+ * Each result is parsed and checked on its own by {@link NewsJsonStreamParser}: a malformed
+ * one is counted and skipped, and never costs the results after it. Valid articles are
+ * collected into batches of {@link #DEFAULT_BATCH_SIZE}, and every full batch is handed to
+ * each {@link Consumer} straight away, so the search index, the store and the screens get
+ * the top of a large page while the rest of it is still arriving. A consumer that throws is
+ * logged and counted, and the other consumers still get the batch.
+ * <p>
+ * Ingestion is resumable: the pipeline remembers how many results of the response have been
+ * handed on, so if reading the body fails half way, ingesting the same response again from
+ * the start skips those results instead of handing them on twice.
+ * <p>
+ * A pipeline is meant for one response, read on one thread.
+ */
+final class NewsIngestPipeline implements NewsJsonStreamParser.ResultListener {
+
+    private static final String LOG_TAG = NewsIngestPipeline.class.getSimpleName();
+
+    /**
+     * Articles in a batch by default, a couple of screens' worth
+     */
+    static final int DEFAULT_BATCH_SIZE = 50;
+
+    /**
+     * Receives the articles of a response in batches, in the order they were parsed.
+     */
+    interface Consumer {
+        /**
+         * Called on the thread the response is ingested on. The batch can't be modified.
+         */
+        void onBatch(List<News> batch);
+    }
+
+    private final int mBatchSize;
+
+    private final List<Consumer> mConsumers = new CopyOnWriteArrayList<>();
+
+    /**
+     * Every valid article handed on, in order
+     */
+    private final List<News> mNews = new ArrayList<>();
+
+    /**
+     * Valid articles parsed but not handed on yet
+     */
+    private List<News> mPending;
+
+    /**
+     * Results, valid or not, handed on or skipped in earlier passes over the response
+     */
+    private int mCommitted;
+
+    /**
+     * Results seen so far in the current pass
+     */
+    private int mPosition;
+
+    /**
+     * Results seen so far in the current pass that are also pending
+     */
+    private int mPendingResults;
+
+    private int mMalformed;
+
+    private int mBatches;
+
+    private int mConsumerFailures;
+
+    NewsIngestPipeline() {
+        this(DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * Constructs a new {@link NewsIngestPipeline}.
+     *
+     * @param batchSize is the number of articles handed to the consumers at once
+     */
+    NewsIngestPipeline(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be positive: " + batchSize);
+        }
+        mBatchSize = batchSize;
+        mPending = new ArrayList<>(batchSize);
+    }
+
+    /**
+     * Add a consumer of the articles ingested from now on.
+     */
+    NewsIngestPipeline addConsumer(Consumer consumer) {
+        mConsumers.add(consumer);
+        return this;
+    }
+
+    /**
+     * Parse the given response, handing its valid articles on in batches, until the end of
+     * the response or until the given cancellation stops, and return every article handed on
+     * so far, in this pass and earlier ones. Results handed on by an earlier pass are
+     * skipped. The last, partial batch is handed on before returning, even if reading the
+     * response failed.
+     *
+     * @throws IOException if the response couldn't be read to the end and the cancellation
+     *                     didn't stop; what was parsed before is still handed on
+     */
+    List<News> ingest(InputStream inputStream, NewsCancellation cancellation)
+            throws IOException {
+        mPosition = 0;
+        mPendingResults = 0;
+        try {
+            NewsJsonStreamParser.parse(inputStream, this, cancellation);
+        } catch (IOException e) {
+            // Stopping fails whichever read was in progress; what was parsed before is good
+            if (!cancellation.isStopped()) {
+                throw e;
+            }
+        } finally {
+            flush();
+        }
+        return getNews();
+    }
+
+    @Override
+    public void onNews(News news) {
+        if (skip()) {
+            return;
+        }
+        mPending.add(news);
+        mPendingResults++;
+        if (mPending.size() >= mBatchSize) {
+            flush();
+        }
+    }
+
+    @Override
+    public void onMalformedResult(int position, String reason) {
+        if (skip()) {
+            return;
+        }
+        mMalformed++;
+        mPendingResults++;
+    }
+
+    /**
+     * Moves on to the next result of the current pass, and returns true if it was handed on
+     * or skipped by an earlier pass.
+     */
+    private boolean skip() {
+        return mPosition++ < mCommitted;
+    }
+
+    /**
+     * Hand the pending articles to every consumer.
+     */
+    private void flush() {
+        mCommitted += mPendingResults;
+        mPendingResults = 0;
+        if (mPending.isEmpty()) {
+            return;
+        }
+        List<News> batch = Collections.unmodifiableList(mPending);
+        mPending = new ArrayList<>(mBatchSize);
+        mNews.addAll(batch);
+        mBatches++;
+        for (Consumer consumer : mConsumers) {
+            try {
+                consumer.onBatch(batch);
+            } catch (RuntimeException e) {
+                mConsumerFailures++;
+                Log.e(LOG_TAG, "Problem handing on a batch of news articles.", e);
+            }
+        }
+    }
+
+    /**
+     * Returns every article handed on so far, in order.
+     */
+    List<News> getNews() {
+        return new ArrayList<>(mNews);
+    }
+
+    /**
+     * Returns the number of results of the response handed on or skipped so far; a later
+     * pass starts after them.
+     */
+    int getCommittedCount() {
+        return mCommitted;
+    }
+
+    /**
+     * Returns the number of malformed results skipped.
+     */
+    int getMalformedCount() {
+        return mMalformed;
+    }
+
+    /**
+     * Returns the number of batches handed on.
+     */
+    int getBatchCount() {
+        return mBatches;
+    }
+
+    /**
+     * Returns the number of times a consumer threw while handling a batch.
+     */
+    int getConsumerFailureCount() {
+        return mConsumerFailures;
+    }
+}
@@ -0,0 +1,327 @@
+package android.example.mynews;
+
+import android.util.Log;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Pull-based parser for Guardian search responses.
+ * <p>
+ * Reads {@code response.results[]} straight from an {@link InputStream} and emits one
+ * {@link News} object at a time, skipping every field we don't display without ever
+ * materializing it. Unlike {@link QueryUtils#extractFeatureFromJson(String)}, the whole
+ * payload is never copied into a String or a JSON tree.
+ * <p>
+ * Every result is read and checked on its own: one missing a required field, or holding a
+ * value of the wrong type, is skipped and counted, and the results after it are still read.
+ * Only a response that isn't JSON at all ends the parse early.
+ */
+final class NewsJsonStreamParser {
+
+    private static final String LOG_TAG = NewsJsonStreamParser.class.getSimpleName();
+
+    /**
+     * Receives each {@link News} article as soon as it has been parsed.
+     */
+    interface Listener {
+        void onNews(News news);
+    }
+
+    /**
+     * A {@link Listener} that is also told about every result skipped.
+     */
+    interface ResultListener extends Listener {
+        /**
+         * Called instead of {@link #onNews(News)} for a result that is skipped.
+         *
+         * @param position is the position of the result in the "results" array
+         * @param reason   says what is wrong with it
+         */
+        void onMalformedResult(int position, String reason);
+    }
+
+    private NewsJsonStreamParser() {
+    }
+
+    /**
+     * Parse the given stream and return the list of {@link News} articles it contains.
+     */
+    static List<News> parse(InputStream inputStream) throws IOException {
+        return parse(inputStream, NewsCancellation.NONE);
+    }
+
+    /**
+     * Parse the given stream until the given cancellation stops, and return the list of
+     * {@link News} articles read until then: all of them if it never stopped.
+     */
+    static List<News> parse(InputStream inputStream, NewsCancellation cancellation)
+            throws IOException {
+        final List<News> news = new ArrayList<>();
+        try {
+            parse(inputStream, new Listener() {
+                @Override
+                public void onNews(News article) {
+                    news.add(article);
+                }
+            }, cancellation);
+        } catch (IOException e) {
+            // Stopping fails whichever read was in progress; what was parsed before is good
+            if (!cancellation.isStopped()) {
+                throw e;
+            }
+        }
+        return news;
+    }
+
+    /**
+     * Parse the given stream, handing every {@link News} article to the listener as it is read.
+     * Returns the number of articles emitted.
+     */
+    static int parse(InputStream inputStream, Listener listener) throws IOException {
+        return parse(inputStream, listener, NewsCancellation.NONE);
+    }
+
+    /**
+     * Parse the given stream, handing every {@link News} article to the listener as it is read,
+     * and throw an {@link java.io.InterruptedIOException} between two articles once the given
+     * cancellation stops. Returns the number of articles emitted.
+     */
+    static int parse(InputStream inputStream, Listener listener, NewsCancellation cancellation)
+            throws IOException {
+        JsonReader reader = new JsonReader(
+                new InputStreamReader(inputStream, Charset.forName("UTF-8")));
+        try {
+            return readRoot(reader, listener, cancellation);
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Walk the top level object until the "response" object is found.
+     */
+    private static int readRoot(JsonReader reader, Listener listener,
+                                NewsCancellation cancellation) throws IOException {
+        int count = 0;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if ("response".equals(reader.nextName())) {
+                count += readResponse(reader, listener, cancellation);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return count;
+    }
+
+    /**
+     * Walk the "response" object until the "results" array is found.
+     */
+    private static int readResponse(JsonReader reader, Listener listener,
+                                    NewsCancellation cancellation) throws IOException {
+        int count = 0;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if ("results".equals(reader.nextName())) {
+                count += readResults(reader, listener, cancellation);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return count;
+    }
+
+    /**
+     * Emit every valid entry of the "results" array, and skip and count every other one.
+     */
+    private static int readResults(JsonReader reader, Listener listener,
+                                   NewsCancellation cancellation) throws IOException {
+        int count = 0;
+        int position = 0;
+        String[] problem = new String[1];
+        reader.beginArray();
+        while (reader.hasNext()) {
+            cancellation.throwIfStopped();
+            problem[0] = null;
+            News news = readResult(reader, problem);
+            if (news != null) {
+                listener.onNews(news);
+                count++;
+            } else {
+                Log.w(LOG_TAG, "Skipping news article JSON result " + position + ": "
+                        + problem[0]);
+                NewsMetrics.getInstance().malformedResults.increment();
+                if (listener instanceof ResultListener) {
+                    ((ResultListener) listener).onMalformedResult(position, problem[0]);
+                }
+            }
+            position++;
+        }
+        reader.endArray();
+        return count;
+    }
+
+    /**
+     * Read a single result, or skip it and return null, with what is wrong with it in
+     * problem[0], if it isn't an object or one of the required fields is missing.
+     */
+    private static News readResult(JsonReader reader, String[] problem) throws IOException {
+        if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+            problem[0] = "not an object";
+            reader.skipValue();
+            return null;
+        }
+
+        String sectionName = null;
+        String title = null;
+        String publicationDate = null;
+        String url = null;
+        String author = null;
+        String thumbnailUrl = null;
+        boolean hasTags = false;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            switch (name) {
+                case "sectionName":
+                    sectionName = nextStringOrNull(reader);
+                    break;
+                case "webTitle":
+                    title = nextStringOrNull(reader);
+                    break;
+                case "webPublicationDate":
+                    publicationDate = nextStringOrNull(reader);
+                    break;
+                case "webUrl":
+                    url = nextStringOrNull(reader);
+                    break;
+                case "tags":
+                    if (reader.peek() == JsonToken.BEGIN_ARRAY) {
+                        hasTags = true;
+                        author = readFirstTagTitle(reader);
+                    } else {
+                        reader.skipValue();
+                    }
+                    break;
+                case "fields":
+                    if (reader.peek() == JsonToken.BEGIN_OBJECT) {
+                        thumbnailUrl = readThumbnail(reader);
+                    } else {
+                        reader.skipValue();
+                    }
+                    break;
+                default:
+                    reader.skipValue();
+                    break;
+            }
+        }
+        reader.endObject();
+
+        problem[0] = missingField(sectionName, title, publicationDate, url, hasTags);
+        if (problem[0] != null) {
+            return null;
+        }
+        if (author == null) {
+            author = "No Author Listed";
+        }
+        return new News(sectionName, title, author, publicationDate, url, thumbnailUrl);
+    }
+
+    /**
+     * Return the "thumbnail" of a "fields" object, which is only sent when asked for with
+     * {@code show-fields=thumbnail}, and skip every other field.
+     */
+    private static String readThumbnail(JsonReader reader) throws IOException {
+        String thumbnailUrl = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if ("thumbnail".equals(reader.nextName())) {
+                thumbnailUrl = nextStringOrNull(reader);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return thumbnailUrl;
+    }
+
+    /**
+     * Return the "webTitle" of the first tag, which holds the author's name, and skip
+     * every other tag.
+     */
+    private static String readFirstTagTitle(JsonReader reader) throws IOException {
+        String author = null;
+        boolean first = true;
+        reader.beginArray();
+        while (reader.hasNext()) {
+            if (first && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    if ("webTitle".equals(reader.nextName())) {
+                        author = nextStringOrNull(reader);
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else {
+                reader.skipValue();
+            }
+            first = false;
+        }
+        reader.endArray();
+        return author;
+    }
+
+    /**
+     * Returns what is wrong with a result holding the given fields, or null if it can be
+     * shown. The tree parser in {@link QueryUtils} checks results the same way.
+     */
+    static String missingField(String sectionName, String title, String publicationDate,
+                               String url, boolean hasTags) {
+        if (isEmpty(sectionName)) {
+            return "no sectionName";
+        }
+        if (isEmpty(title)) {
+            return "no webTitle";
+        }
+        if (isEmpty(publicationDate)) {
+            return "no webPublicationDate";
+        }
+        if (isEmpty(url)) {
+            return "no webUrl";
+        }
+        if (!hasTags) {
+            return "no tags";
+        }
+        return null;
+    }
+
+    private static boolean isEmpty(String value) {
+        return value == null || value.isEmpty();
+    }
+
+    /**
+     * Returns the next value as a string if it is a string or a number, and skips it and
+     * returns null otherwise.
+     */
+    private static String nextStringOrNull(JsonReader reader) throws IOException {
+        JsonToken token = reader.peek();
+        if (token == JsonToken.STRING || token == JsonToken.NUMBER) {
+            return reader.nextString();
+        }
+        reader.skipValue();
+        return null;
+    }
+}
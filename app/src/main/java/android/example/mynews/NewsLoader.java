@@ -2,12 +2,31 @@ package android.example.mynews;
 
 import android.content.AsyncTaskLoader;
 import android.content.Context;
+import android.os.Build;
 
+import java.io.File;
+import java.util.ArrayList;
 import java.util.List;
 
 /**
  * Loads a list of news articles by the guardian by using an AsyncTask to perform the
  * network request to the given URL.
+ * <p>
+ * The first page is the newest articles in the {@link NewsStore}, which every page fetched and
+ * every background sync write into. Other pages, and the first one while the store is still
+ * empty, are first read from the cache of a previous fetch of the same URL. Either way the
+ * loader then revalidates them against the network in the background and delivers again,
+ * unless the background sync refreshed them recently and no refresh is asked for. Whatever
+ * is loaded is also published to the {@link NewsFeedRepository}, which the list is drawn
+ * from, a batch at a time as the response is parsed; the loader's own results only tell the
+ * list which pages it has.
+ * <p>
+ * A load that takes longer than {@link #LOAD_DEADLINE_MILLIS} cuts its fetch short and delivers
+ * the articles it had parsed by then. Restarting or destroying the loader cancels a load in
+ * progress: one still reading the cache or the store never goes to the network, and one
+ * fetching drops its connection rather than downloading the rest of the response;
+ * that needs API 16, where {@link #cancelLoadInBackground()} was added, and older platforms
+ * let the fetch run until its deadline.
  */
 public class NewsLoader extends AsyncTaskLoader<List<News>> {
 
@@ -16,11 +35,87 @@ public class NewsLoader extends AsyncTaskLoader<List<News>> {
      */
     private static final String LOG_TAG = NewsLoader.class.getName();
 
+    /**
+     * Name of the directory, under the app's files directory, that holds cached articles
+     */
+    static final String CACHE_DIRECTORY = "news_cache";
+
+    /**
+     * Cached articles fetched or synced more recently than this are shown without going to
+     * the network, unless a refresh was asked for
+     */
+    private static final long MAX_FRESH_AGE_MILLIS = NewsSyncScheduler.DEFAULT_INTERVAL_MILLIS / 2;
+
+    /**
+     * Number of the newest stored articles in the first page, when its page size isn't known
+     */
+    private static final int DEFAULT_FEED_SIZE = 50;
+
+    /**
+     * Longest a network fetch may take before the articles parsed so far are delivered
+     */
+    static final long LOAD_DEADLINE_MILLIS = 10 * 1000L;
+
     /**
      * Query URL
      */
     private String mUrl;
 
+    /**
+     * Guardian page number the URL asks for
+     */
+    private final int mPage;
+
+    /**
+     * Number of articles on the first page
+     */
+    private final int mFeedSize;
+
+    /**
+     * On-disk copy of the last results for each URL
+     */
+    private final NewsDiskCache mCache;
+
+    /**
+     * Every article fetched so far
+     */
+    private final NewsStore mStore;
+
+    /**
+     * Formats publication dates on the loader thread, so rows don't have to while binding
+     */
+    private final NewsDateFormatter mDateFormatter;
+
+    /**
+     * Lays out the titles of the loaded articles for the list
+     */
+    private final NewsTitlePrecomputer mTitlePrecomputer = NewsTitlePrecomputer.getInstance();
+
+    /**
+     * Last list of articles delivered
+     */
+    private List<News> mNews;
+
+    /**
+     * True if cached articles must be revalidated however recent they are
+     */
+    private final boolean mRefresh;
+
+    /**
+     * True until the cache has been consulted for this loader
+     */
+    private boolean mReadCache = true;
+
+    /**
+     * True when the delivered articles came from the cache and still need revalidating
+     */
+    private boolean mRevalidate;
+
+    /**
+     * Stops the load in progress, if any
+     */
+    private volatile NewsCancellation mCancellation;
+
     /**
      * Constructs a new {@link NewsLoader}.
      *
@@ -28,13 +123,77 @@ public class NewsLoader extends AsyncTaskLoader<List<News>> {
      * @param url     to load data from
      */
     public NewsLoader(Context context, String url) {
+        this(context, url, 1);
+    }
+
+    /**
+     * Constructs a new {@link NewsLoader} for one page of results.
+     *
+     * @param context of the activity
+     * @param url     to load data from
+     * @param page    is the Guardian page number the URL asks for
+     */
+    public NewsLoader(Context context, String url, int page) {
+        this(context, url, page, false);
+    }
+
+    /**
+     * Constructs a new {@link NewsLoader} for one page of results.
+     *
+     * @param context of the activity
+     * @param url     to load data from
+     * @param page    is the Guardian page number the URL asks for
+     * @param refresh is true to revalidate cached articles even if they were recently synced
+     */
+    public NewsLoader(Context context, String url, int page, boolean refresh) {
+        this(context, url, page, DEFAULT_FEED_SIZE, refresh);
+    }
+
+    /**
+     * Constructs a new {@link NewsLoader} for the page of results a query asks for.
+     *
+     * @param context of the activity
+     * @param query   is the Guardian query to load
+     * @param refresh is true to revalidate cached articles even if they were recently synced
+     */
+    public NewsLoader(Context context, GuardianQuery query, boolean refresh) {
+        this(context, query.toUrl(), query.getPage(), query.getPageSize(), refresh);
+    }
+
+    private NewsLoader(Context context, String url, int page, int feedSize, boolean refresh) {
         super(context);
         mUrl = url;
+        mPage = page;
+        mFeedSize = feedSize;
+        mRefresh = refresh;
+        mCache = NewsDiskCache.getInstance(new File(context.getFilesDir(), CACHE_DIRECTORY));
+        mStore = NewsStore.getInstance(context);
+        mDateFormatter = new NewsDateFormatter(context);
+    }
+
+    /**
+     * Returns the Guardian page number this loader fetches.
+     */
+    public int getPage() {
+        return mPage;
+    }
+
+    /**
+     * Returns true while the articles being delivered came from the cache and are about to be
+     * revalidated over the network, i.e. another delivery will follow.
+     */
+    public boolean isRevalidating() {
+        return mRevalidate;
     }
 
     @Override
     protected void onStartLoading() {
-        forceLoad();
+        if (mNews != null) {
+            deliverResult(mNews);
+        }
+        if (mNews == null || takeContentChanged()) {
+            forceLoad();
+        }
     }
 
     /**
@@ -46,8 +205,144 @@ public class NewsLoader extends AsyncTaskLoader<List<News>> {
             return null;
         }
 
+        // Set up before anything is read, so a cancel that comes while the cache or the store is
+        // being read isn't lost
+        NewsCancellation cancellation = NewsCancellation.withTimeout(LOAD_DEADLINE_MILLIS);
+        mCancellation = cancellation;
+        try {
+            return load(cancellation);
+        } finally {
+            mCancellation = null;
+            cancellation.release();
+        }
+    }
+
+    private List<News> load(NewsCancellation cancellation) {
+        // Show whatever we fetched last time straight away, and go to the network afterwards
+        // unless it was fetched or synced recently enough
+        if (mReadCache) {
+            mReadCache = false;
+            NewsDiskCache.Entry cached = QueryUtils.readCachedNewsArticleData(mUrl, mCache);
+            List<News> news = mPage == 1 ? readStoredFeed() : null;
+            if (news == null && cached != null) {
+                news = cached.news;
+            }
+            if (news != null) {
+                // Only the cache knows when the page was last fetched or synced
+                long age = cached == null ? -1
+                        : System.currentTimeMillis() - cached.fetchedAtMillis;
+                mRevalidate = mRefresh || age < 0 || age >= MAX_FRESH_AGE_MILLIS;
+                mDateFormatter.formatAll(news);
+                mTitlePrecomputer.precomputeAll(news);
+                NewsFeedRepository.getInstance().publish(news);
+                return news;
+            }
+        }
+
+        // A refresh the user asked for shouldn't be answered from memory
+        if (mRefresh) {
+            QueryUtils.invalidateRecentNewsArticleData(mUrl);
+        }
+
+        if (isCancelled(cancellation)) {
+            return null;
+        }
+
         // Perform the network request, parse the response, and extract a list of news from the Guardian.
-        List<News> news = QueryUtils.fetchNewsArticleData(mUrl);
+        // Articles parsed from the response are stored and published a batch at a time as they
+        // arrive, so a large page reaches the store and the feed before it is all read
+        final int[] ingested = new int[1];
+        List<News> news = QueryUtils.fetchNewsArticleData(mUrl, mCache, cancellation,
+                new NewsIngestPipeline.Consumer() {
+                    @Override
+                    public void onBatch(List<News> batch) {
+                        mStore.putAll(batch);
+                        mDateFormatter.formatAll(batch);
+                        mTitlePrecomputer.precomputeAll(batch);
+                        NewsFeedRepository.getInstance().publish(batch);
+                        ingested[0] += batch.size();
+                    }
+                });
+        if (isCancelled(cancellation)) {
+            // Nobody is waiting for these any more
+            return null;
+        }
+        if (news != null && ingested[0] == 0) {
+            // Answered from memory, the cache or a 304, without going through the batches
+            mStore.putAll(news);
+        }
+        if (mPage == 1) {
+            // The store has the page just fetched along with whatever the sync added since, or
+            // the last articles seen if the fetch failed
+            List<News> stored = readStoredFeed();
+            if (stored != null) {
+                news = stored;
+            }
+        }
+        mDateFormatter.formatAll(news);
+        mTitlePrecomputer.precomputeAll(news);
+        // The list shows the repository's feed, so whatever the batches didn't publish goes
+        // there too; articles already published are left alone
+        NewsFeedRepository.getInstance().publish(news);
         return news;
     }
+
+    /**
+     * Returns true if the load was cancelled, whether or not the cancel came before
+     * {@link #mCancellation} was set.
+     */
+    private boolean isCancelled(NewsCancellation cancellation) {
+        return cancellation.isCancelled()
+                || (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN
+                && isLoadInBackgroundCanceled());
+    }
+
+    /**
+     * Returns the newest stored articles, or null if there are none, and indexes them for
+     * search.
+     */
+    private List<News> readStoredFeed() {
+        NewsStore.Feed feed = mStore.readNewest(null, mFeedSize);
+        try {
+            List<News> news = new ArrayList<>(feed.getCount());
+            News article;
+            while ((article = feed.next()) != null) {
+                news.add(article);
+            }
+            // Searchable like the articles fetched or read from the cache
+            QueryUtils.getSearchIndex().addAll(news);
+            return news.isEmpty() ? null : news;
+        } finally {
+            feed.close();
+        }
+    }
+
+    /**
+     * Called on the main thread when the load is cancelled, from API 16 on.
+     */
+    @Override
+    public void cancelLoadInBackground() {
+        NewsCancellation cancellation = mCancellation;
+        if (cancellation != null) {
+            cancellation.cancel();
+        }
+    }
+
+    @Override
+    public void deliverResult(List<News> news) {
+        mNews = news;
+        super.deliverResult(news);
+
+        // The cached articles are on screen, now check them against the network
+        if (mRevalidate && isStarted()) {
+            mRevalidate = false;
+            forceLoad();
+        }
+    }
+
+    @Override
+    protected void onReset() {
+        super.onReset();
+        mNews = null;
+    }
 }
@@ -0,0 +1,357 @@
+package android.example.mynews;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Aggregated timings and counts of every load, so a slow load can be pinned on connecting,
+ * time to first byte, body read, parsing or showing the results.
+ * <p>
+ * Recording is lock free and allocation free: a timing is one bucket increment in a
+ * histogram of logarithmic buckets, each at most 25% wide, and a count is one atomic add.
+ * {@link #toJson()} snapshots everything for {@link MetricsActivity} and for
+ * {@code adb shell dumpsys activity android.example.mynews}.
+ */
+final class NewsMetrics {
+
+    private static final NewsMetrics sInstance = new NewsMetrics();
+
+    /**
+     * Returns the metrics shared by the app.
+     */
+    static NewsMetrics getInstance() {
+        return sInstance;
+    }
+
+    private final List<Histogram> mHistograms = new ArrayList<>();
+
+    private final List<Counter> mCounters = new ArrayList<>();
+
+    /**
+     * Whole of {@link QueryUtils#fetchNewsArticleData(String, NewsDiskCache)}
+     */
+    final Histogram fetchTime = histogram("fetch.total", "us");
+
+    /**
+     * Phases of a request, as measured by {@link NewsHttpClient}
+     */
+    final Histogram connectTime = histogram("http.connect", "us");
+    final Histogram firstByteTime = histogram("http.first_byte", "us");
+    final Histogram readTime = histogram("http.body_read", "us");
+
+    /**
+     * Time spent parsing a response body, excluding time waiting for it to arrive
+     */
+    final Histogram parseTime = histogram("parse", "us");
+
+    final Histogram bytesReceived = histogram("http.bytes_received", "bytes");
+
+    final Histogram resultCount = histogram("parse.results", "articles");
+
+    /**
+     * Time from creating a loader until the first frame drawn after it delivered
+     */
+    final Histogram loadToFirstFrameTime = histogram("ui.load_to_first_frame", "us");
+
+    /**
+     * Time the adapter spent binding each row of the news list
+     */
+    final Histogram bindTime = histogram("list.bind", "us");
+
+    /**
+     * Time from the news screen being created until the first frame showing articles, from
+     * the startup snapshot or the first load
+     */
+    final Histogram timeToFirstContent = histogram("startup.time_to_first_content", "us");
+
+    /**
+     * Time to decode a downloaded thumbnail down to the size it is shown at
+     */
+    final Histogram thumbnailDecodeTime = histogram("thumbnail.decode", "us");
+
+    final Counter requests = counter("http.requests");
+    final Counter requestFailures = counter("http.failures");
+    final Counter notModified = counter("http.not_modified");
+    final Counter cacheHits = counter("cache.hits");
+    final Counter cacheMisses = counter("cache.misses");
+    final Counter offlineFallbacks = counter("cache.offline_fallbacks");
+    final Counter memoryCacheHits = counter("coalescer.memory_hits");
+    final Counter coalescedRequests = counter("coalescer.joined_in_flight");
+    final Counter cancelledRequests = counter("fetch.cancelled");
+    final Counter deadlinesReached = counter("fetch.deadline_reached");
+    final Counter malformedResults = counter("parse.malformed_results");
+    final Counter duplicatesDropped = counter("feed.duplicates_dropped");
+    final Counter startupSnapshotsShown = counter("startup.snapshots_shown");
+    final Counter precomputedTitlesBound = counter("list.precomputed_titles_bound");
+    final Counter plainTitlesBound = counter("list.plain_titles_bound");
+    final Counter slowBinds = counter("list.slow_binds");
+    final Counter thumbnailMemoryHits = counter("thumbnail.memory_hits");
+    final Counter thumbnailDiskHits = counter("thumbnail.disk_hits");
+    final Counter thumbnailDownloads = counter("thumbnail.downloads");
+    final Counter thumbnailCancellations = counter("thumbnail.cancellations");
+    final Counter thumbnailBitmapsReused = counter("thumbnail.bitmaps_reused");
+
+    private Histogram histogram(String name, String unit) {
+        Histogram histogram = new Histogram(name, unit);
+        mHistograms.add(histogram);
+        return histogram;
+    }
+
+    private Counter counter(String name) {
+        Counter counter = new Counter(name);
+        mCounters.add(counter);
+        return counter;
+    }
+
+    /**
+     * Record the phases of a finished request whose body was parsed into the given number of
+     * articles.
+     *
+     * @param stats       are the counters of the closed response
+     * @param bodyMicros  is how long it took to read and parse the body
+     * @param results     is the number of articles parsed
+     */
+    void recordResponse(NewsHttpClient.RequestStats stats, long bodyMicros, int results) {
+        connectTime.record(stats.connectMicros);
+        firstByteTime.record(stats.firstByteMicros);
+        readTime.record(stats.readMicros);
+        parseTime.record(Math.max(0, bodyMicros - stats.readMicros));
+        bytesReceived.record(stats.bytesReceived);
+        resultCount.record(results);
+    }
+
+    /**
+     * Forget everything recorded so far.
+     */
+    void reset() {
+        for (Histogram histogram : mHistograms) {
+            histogram.reset();
+        }
+        for (Counter counter : mCounters) {
+            counter.reset();
+        }
+    }
+
+    /**
+     * Returns every histogram and counter as JSON.
+     */
+    JSONObject toJson() {
+        try {
+            JSONObject histograms = new JSONObject();
+            for (Histogram histogram : mHistograms) {
+                histograms.put(histogram.getName(), histogram.toJson());
+            }
+            JSONObject counters = new JSONObject();
+            for (Counter counter : mCounters) {
+                counters.put(counter.getName(), counter.get());
+            }
+            JSONObject json = new JSONObject();
+            json.put("histograms", histograms);
+            json.put("counters", counters);
+            return json;
+        } catch (JSONException e) {
+            // Only thrown for non-finite numbers, which are never put
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Returns a plain text table of every histogram and counter.
+     */
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder();
+        for (Histogram histogram : mHistograms) {
+            text.append(histogram).append('\n');
+        }
+        text.append('\n');
+        for (Counter counter : mCounters) {
+            text.append(counter).append('\n');
+        }
+        return text.toString();
+    }
+
+    /**
+     * A thread safe count.
+     */
+    static final class Counter {
+        private final String mName;
+        private final AtomicLong mValue = new AtomicLong();
+
+        Counter(String name) {
+            mName = name;
+        }
+
+        String getName() {
+            return mName;
+        }
+
+        void increment() {
+            mValue.incrementAndGet();
+        }
+
+        void add(long delta) {
+            mValue.addAndGet(delta);
+        }
+
+        long get() {
+            return mValue.get();
+        }
+
+        void reset() {
+            mValue.set(0);
+        }
+
+        @Override
+        public String toString() {
+            return mName + ": " + mValue.get();
+        }
+    }
+
+    /**
+     * A thread safe histogram of non-negative values in logarithmic buckets: four per power
+     * of two, so every reported percentile is within 25% of the true value.
+     */
+    static final class Histogram {
+
+        /**
+         * Buckets per power of two, as a number of bits
+         */
+        private static final int SUB_BUCKET_BITS = 2;
+
+        private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+        private static final int BUCKETS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+        private final String mName;
+        private final String mUnit;
+        private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKETS);
+        private final AtomicLong mCount = new AtomicLong();
+        private final AtomicLong mSum = new AtomicLong();
+        private final AtomicLong mMax = new AtomicLong();
+
+        Histogram(String name, String unit) {
+            mName = name;
+            mUnit = unit;
+        }
+
+        String getName() {
+            return mName;
+        }
+
+        String getUnit() {
+            return mUnit;
+        }
+
+        /**
+         * Add a value; negative values are recorded as 0.
+         */
+        void record(long value) {
+            if (value < 0) {
+                value = 0;
+            }
+            mBuckets.incrementAndGet(bucketOf(value));
+            mCount.incrementAndGet();
+            mSum.addAndGet(value);
+            long max = mMax.get();
+            while (value > max && !mMax.compareAndSet(max, value)) {
+                max = mMax.get();
+            }
+        }
+
+        long getCount() {
+            return mCount.get();
+        }
+
+        long getMax() {
+            return mMax.get();
+        }
+
+        long getMean() {
+            long count = mCount.get();
+            return count == 0 ? 0 : mSum.get() / count;
+        }
+
+        /**
+         * Returns the value below which the given fraction of the recorded values fall, e.g.
+         * 0.99 for the 99th percentile, or 0 if nothing was recorded.
+         */
+        long getPercentile(double fraction) {
+            long count = mCount.get();
+            if (count == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(fraction * count);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += mBuckets.get(i);
+                if (seen >= Math.max(1, rank)) {
+                    return Math.min(upperBoundOf(i), mMax.get());
+                }
+            }
+            return mMax.get();
+        }
+
+        void reset() {
+            for (int i = 0; i < BUCKETS; i++) {
+                mBuckets.set(i, 0);
+            }
+            mCount.set(0);
+            mSum.set(0);
+            mMax.set(0);
+        }
+
+        JSONObject toJson() throws JSONException {
+            JSONObject json = new JSONObject();
+            json.put("unit", mUnit);
+            json.put("count", getCount());
+            json.put("mean", getMean());
+            json.put("p50", getPercentile(0.5));
+            json.put("p90", getPercentile(0.9));
+            json.put("p99", getPercentile(0.99));
+            json.put("max", getMax());
+            return json;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%-24s n=%-6d p50=%-8d p90=%-8d p99=%-8d max=%-8d %s",
+                    mName, getCount(), getPercentile(0.5), getPercentile(0.9),
+                    getPercentile(0.99), getMax(), mUnit);
+        }
+
+        /**
+         * Values below {@link #SUB_BUCKETS} get a bucket each; above that, the highest set bit
+         * picks the power of two and the next {@link #SUB_BUCKET_BITS} bits the bucket in it.
+         */
+        static int bucketOf(long value) {
+            if (value < SUB_BUCKETS) {
+                return (int) value;
+            }
+            int highestBit = 63 - Long.numberOfLeadingZeros(value);
+            int subBucket = (int) (value >>> (highestBit - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+            return (highestBit - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+        }
+
+        /**
+         * Returns the largest value that falls in the given bucket.
+         */
+        static long upperBoundOf(int bucket) {
+            if (bucket < SUB_BUCKETS) {
+                return bucket;
+            }
+            int highestBit = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+            long subBucket = bucket % SUB_BUCKETS;
+            long lowerBound = (1L << highestBit) | (subBucket << (highestBit - SUB_BUCKET_BITS));
+            long width = 1L << (highestBit - SUB_BUCKET_BITS);
+            return highestBit == 63 && subBucket == SUB_BUCKETS - 1
+                    ? Long.MAX_VALUE : lowerBound + width - 1;
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package android.example.mynews;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * A sliding window over the pages of a Guardian search, holding at most a fixed number of
+ * consecutive pages of {@link News} articles.
+ * <p>
+ * Pages are added as the list is scrolled; once the window is full, adding a page at one
+ * end drops the page at the other end, so memory stays bounded however far the user scrolls.
+ */
+final class NewsPageWindow {
+
+    /**
+     * A single page of results
+     */
+    private static final class Page {
+        final int number;
+        final List<News> news;
+
+        Page(int number, List<News> news) {
+            this.number = number;
+            this.news = news;
+        }
+    }
+
+    /**
+     * Number of results requested per page
+     */
+    private final int mPageSize;
+
+    /**
+     * Maximum number of pages kept at once
+     */
+    private final int mMaxPages;
+
+    /**
+     * Number of rows from either end of the window at which the neighbouring page is fetched
+     */
+    private final int mPrefetchDistance;
+
+    /**
+     * The pages in the window, in ascending page order
+     */
+    private final LinkedList<Page> mPages = new LinkedList<>();
+
+    /**
+     * True once a page came back shorter than the page size, or couldn't be loaded
+     */
+    private boolean mLastPageReached;
+
+    /**
+     * Constructs a new {@link NewsPageWindow}.
+     *
+     * @param pageSize         is the number of results requested per page
+     * @param maxPages         is the number of pages kept in memory at once
+     * @param prefetchDistance is how many rows before either end of the window the next page
+     *                         is requested
+     */
+    NewsPageWindow(int pageSize, int maxPages, int prefetchDistance) {
+        if (maxPages < 2) {
+            throw new IllegalArgumentException("The window must hold at least two pages");
+        }
+        mPageSize = pageSize;
+        mMaxPages = maxPages;
+        mPrefetchDistance = prefetchDistance;
+    }
+
+    int getPageSize() {
+        return mPageSize;
+    }
+
+    /**
+     * Put a loaded page into the window. A page next to the window extends it, evicting the
+     * page at the other end when the window is full; a page already in the window replaces
+     * its old contents; any other page starts a new window.
+     *
+     * @param number is the 1-based Guardian page number
+     * @param news   is the content of the page, or null if it couldn't be loaded
+     */
+    void setPage(int number, List<News> news) {
+        if (news == null) {
+            // Stop paging forward past a page we can't load, until the next refresh
+            if (mPages.isEmpty() || number > mPages.getLast().number) {
+                mLastPageReached = true;
+            }
+            return;
+        }
+        if (number >= getLastPage() && news.size() < mPageSize) {
+            mLastPageReached = true;
+        }
+
+        Page page = new Page(number, news);
+        if (mPages.isEmpty()) {
+            mPages.add(page);
+        } else if (number == mPages.getLast().number + 1) {
+            mPages.addLast(page);
+            if (mPages.size() > mMaxPages) {
+                mPages.removeFirst();
+            }
+        } else if (number == mPages.getFirst().number - 1) {
+            mPages.addFirst(page);
+            if (mPages.size() > mMaxPages) {
+                mPages.removeLast();
+                mLastPageReached = false;
+            }
+        } else if (number >= mPages.getFirst().number && number <= mPages.getLast().number) {
+            mPages.set(number - mPages.getFirst().number, page);
+        } else {
+            mPages.clear();
+            mPages.add(page);
+        }
+    }
+
+    /**
+     * Forget every page, e.g. before a refresh.
+     */
+    void clear() {
+        mPages.clear();
+        mLastPageReached = false;
+    }
+
+    /**
+     * Returns the articles of every page in the window, in order.
+     */
+    List<News> getNews() {
+        if (mPages.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<News> news = new ArrayList<>(mPages.size() * mPageSize);
+        for (Page page : mPages) {
+            news.addAll(page.news);
+        }
+        return news;
+    }
+
+    /**
+     * Returns the number of the first page in the window, or 0 if it is empty.
+     */
+    int getFirstPage() {
+        return mPages.isEmpty() ? 0 : mPages.getFirst().number;
+    }
+
+    /**
+     * Returns the number of the last page in the window, or 0 if it is empty.
+     */
+    int getLastPage() {
+        return mPages.isEmpty() ? 0 : mPages.getLast().number;
+    }
+
+    /**
+     * Returns the number of the page holding the row at the given position, or 0 if the
+     * position is outside the window.
+     */
+    int getPageAt(int position) {
+        int start = 0;
+        for (Page page : mPages) {
+            if (position < start + page.news.size()) {
+                return position >= start ? page.number : 0;
+            }
+            start += page.news.size();
+        }
+        return 0;
+    }
+
+    /**
+     * Returns the position of the first row of the given page, or -1 if it isn't in the window.
+     */
+    int getPageStart(int number) {
+        int start = 0;
+        for (Page page : mPages) {
+            if (page.number == number) {
+                return start;
+            }
+            start += page.news.size();
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the page that should be fetched next for the given visible rows, or 0 if the
+     * rows on screen are far enough from both ends of the list.
+     * <p>
+     * The list showing the window needn't have a row for every article in it, e.g. once
+     * duplicates are dropped, so positions are only compared with the list's own size.
+     *
+     * @param firstVisible is the position of the first row on screen
+     * @param visibleCount is the number of rows on screen
+     * @param itemCount    is the number of rows in the list
+     */
+    int getPageToPrefetch(int firstVisible, int visibleCount, int itemCount) {
+        if (mPages.isEmpty()) {
+            return 1;
+        }
+        if (!mLastPageReached && firstVisible + visibleCount >= itemCount - mPrefetchDistance) {
+            return getLastPage() + 1;
+        }
+        if (getFirstPage() > 1 && firstVisible <= mPrefetchDistance) {
+            return getFirstPage() - 1;
+        }
+        return 0;
+    }
+}
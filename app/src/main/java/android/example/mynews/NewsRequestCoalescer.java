@@ -0,0 +1,284 @@
+package android.example.mynews;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Makes identical queries share one fetch.
+ * <p>
+ * Request URLs are normalized first, so the same query with its parameters in another order
+ * is still the same query. A call for a query that is already being fetched waits for that
+ * fetch instead of starting another, and a query fetched in the last few seconds is answered
+ * from memory. Rotations, re-entries and several screens asking for the same page at once
+ * therefore make a single request.
+ * <p>
+ * Calls can be given a scope, e.g. the disk cache the fetch revalidates and writes to. Only
+ * calls with the same scope, compared by identity, share a fetch or its results, so a fetch
+ * made for one cache never stands in for a fetch that had to update another.
+ * <p>
+ * The lists handed out are shared between callers and can't be modified.
+ */
+final class NewsRequestCoalescer {
+
+    /**
+     * How long fetched results are answered from memory
+     */
+    static final long DEFAULT_TTL_MILLIS = 10 * 1000L;
+
+    /**
+     * Number of queries whose results are kept in memory
+     */
+    static final int DEFAULT_MAX_ENTRIES = 16;
+
+    /**
+     * Fetched results and when they were fetched.
+     */
+    private static final class RecentResult {
+        final long fetchedAtMillis;
+        final List<News> news;
+
+        RecentResult(long fetchedAtMillis, List<News> news) {
+            this.fetchedAtMillis = fetchedAtMillis;
+            this.news = news;
+        }
+    }
+
+    /**
+     * A normalized URL and the scope it was fetched in.
+     */
+    private static final class Key {
+        final String url;
+        final Object scope;
+
+        Key(String url, Object scope) {
+            this.url = url;
+            this.scope = scope;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) other;
+            return url.equals(key.url) && scope == key.scope;
+        }
+
+        @Override
+        public int hashCode() {
+            return url.hashCode() * 31 + System.identityHashCode(scope);
+        }
+    }
+
+    private final long mTtlMillis;
+
+    private final NewsClock mClock;
+
+    /**
+     * Fetches in progress, by normalized URL and scope
+     */
+    private final ConcurrentMap<Key, FutureTask<List<News>>> mInFlight =
+            new ConcurrentHashMap<>();
+
+    /**
+     * Recently fetched results by normalized URL and scope, least recently used first
+     */
+    private final Map<Key, RecentResult> mRecent;
+
+    /**
+     * Constructs a new {@link NewsRequestCoalescer}.
+     *
+     * @param ttlMillis  is how long fetched results are answered from memory
+     * @param maxEntries is the number of queries whose results are kept in memory
+     * @param clock      tells the current time
+     */
+    NewsRequestCoalescer(long ttlMillis, final int maxEntries, NewsClock clock) {
+        mTtlMillis = ttlMillis;
+        mClock = clock;
+        mRecent = new LinkedHashMap<Key, RecentResult>(maxEntries, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, RecentResult> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Returns the results for the given request URL: from memory if they were fetched
+     * recently, from a fetch already in progress if there is one, and otherwise from calling
+     * the given fetcher on this thread. Returns null if the fetch failed or was interrupted.
+     */
+    List<News> fetch(String url, Callable<List<News>> fetcher) {
+        return fetch(url, null, fetcher);
+    }
+
+    /**
+     * Like {@link #fetch(String, Callable)}, but only shares fetches and results with calls
+     * given the same scope, which may be null.
+     */
+    List<News> fetch(String url, Object scope, final Callable<List<News>> fetcher) {
+        final Key key = new Key(normalize(url), scope);
+        List<News> recent = getRecent(key);
+        if (recent != null) {
+            NewsMetrics.getInstance().memoryCacheHits.increment();
+            return recent;
+        }
+
+        FutureTask<List<News>> task = new FutureTask<>(new Callable<List<News>>() {
+            @Override
+            public List<News> call() throws Exception {
+                // Another fetch may have finished since this call looked
+                List<News> recent = getRecent(key);
+                if (recent != null) {
+                    return recent;
+                }
+                List<News> news = fetcher.call();
+                if (news == null) {
+                    return null;
+                }
+                news = Collections.unmodifiableList(news);
+                putRecent(key, news);
+                return news;
+            }
+        });
+        FutureTask<List<News>> inFlight = mInFlight.putIfAbsent(key, task);
+        if (inFlight == null) {
+            inFlight = task;
+            try {
+                task.run();
+            } finally {
+                mInFlight.remove(key, task);
+            }
+        } else {
+            NewsMetrics.getInstance().coalescedRequests.increment();
+        }
+
+        try {
+            return inFlight.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    /**
+     * Returns the results fetched recently for the given request URL in the given scope, or
+     * null if there are none. Doesn't wait for a fetch in progress.
+     */
+    List<News> peek(String url, Object scope) {
+        return getRecent(new Key(normalize(url), scope));
+    }
+
+    /**
+     * Keep results fetched in the given scope without going through this coalescer, and
+     * return them as they will be handed out.
+     */
+    List<News> put(String url, Object scope, List<News> news) {
+        news = Collections.unmodifiableList(news);
+        putRecent(new Key(normalize(url), scope), news);
+        return news;
+    }
+
+    /**
+     * Forget the results kept for the given request URL in every scope, so the next call
+     * fetches again.
+     */
+    synchronized void invalidate(String url) {
+        String normalized = normalize(url);
+        Iterator<Key> keys = mRecent.keySet().iterator();
+        while (keys.hasNext()) {
+            if (keys.next().url.equals(normalized)) {
+                keys.remove();
+            }
+        }
+    }
+
+    private synchronized List<News> getRecent(Key key) {
+        RecentResult result = mRecent.get(key);
+        if (result == null) {
+            return null;
+        }
+        long age = mClock.currentTimeMillis() - result.fetchedAtMillis;
+        if (age < 0 || age >= mTtlMillis) {
+            mRecent.remove(key);
+            return null;
+        }
+        return result.news;
+    }
+
+    private synchronized void putRecent(Key key, List<News> news) {
+        mRecent.put(key, new RecentResult(mClock.currentTimeMillis(), news));
+    }
+
+    /**
+     * Returns the given URL with its scheme and host in lower case, without a default port or
+     * fragment, and with its query parameters sorted.
+     */
+    static String normalize(String url) {
+        int fragment = url.indexOf('#');
+        if (fragment >= 0) {
+            url = url.substring(0, fragment);
+        }
+        int queryStart = url.indexOf('?');
+        String base = queryStart >= 0 ? url.substring(0, queryStart) : url;
+        String query = queryStart >= 0 ? url.substring(queryStart + 1) : "";
+
+        // Scheme and authority are case insensitive, the path isn't
+        int authorityStart = base.indexOf("://");
+        if (authorityStart >= 0) {
+            int pathStart = base.indexOf('/', authorityStart + 3);
+            if (pathStart < 0) {
+                pathStart = base.length();
+            }
+            String scheme = base.substring(0, authorityStart).toLowerCase(Locale.ROOT);
+            String authority = base.substring(authorityStart + 3, pathStart)
+                    .toLowerCase(Locale.ROOT);
+            if (("http".equals(scheme) && authority.endsWith(":80"))
+                    || ("https".equals(scheme) && authority.endsWith(":443"))) {
+                authority = authority.substring(0, authority.lastIndexOf(':'));
+            }
+            String path = base.substring(pathStart);
+            base = scheme + "://" + authority + (path.isEmpty() ? "/" : path);
+        }
+
+        List<String> parameters = new ArrayList<>();
+        for (String parameter : query.split("&")) {
+            if (!parameter.isEmpty()) {
+                parameters.add(parameter);
+            }
+        }
+        if (parameters.isEmpty()) {
+            return base;
+        }
+        // Sorting whole parameters keeps repeated keys in a stable order too
+        Collections.sort(parameters);
+        StringBuilder normalized = new StringBuilder(url.length());
+        normalized.append(base).append('?');
+        for (int i = 0; i < parameters.size(); i++) {
+            if (i > 0) {
+                normalized.append('&');
+            }
+            normalized.append(parameters.get(i));
+        }
+        return normalized.toString();
+    }
+}
@@ -0,0 +1,404 @@
+package android.example.mynews;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * In-memory inverted index over the titles, sections and authors of every {@link News}
+ * article fetched, so they can be searched offline without a Guardian round trip.
+ * <p>
+ * Every word of a query is matched as a prefix ("wildf" finds "wildfire") and an article
+ * must match all of them. Results are ranked by where the words were found (title over
+ * author over section, whole words over prefixes) and then by recency.
+ * <p>
+ * Articles are identified by their web URL. One added again with another title, author or
+ * section is indexed again, and otherwise only the article kept is replaced. Only the
+ * {@link #DEFAULT_MAX_ARTICLES} most recently indexed articles are kept, the way
+ * {@link NewsStore} keeps its budget: the oldest are removed from the index as new ones
+ * arrive, and the posting lists are rebuilt once removed articles outnumber the rest.
+ * <p>
+ * Adding and searching are synchronized, so the index can be fed from loader threads while
+ * the UI queries it.
+ */
+final class NewsSearchIndex {
+
+    /**
+     * Articles kept by default, before the oldest indexed are dropped
+     */
+    static final int DEFAULT_MAX_ARTICLES = 5000;
+
+    /**
+     * Weights of a word found in each field
+     */
+    private static final int TITLE_WEIGHT = 3;
+    private static final int AUTHOR_WEIGHT = 2;
+    private static final int SECTION_WEIGHT = 1;
+
+    /**
+     * A query word that matches a whole indexed word scores this many times more than one that
+     * only matches its beginning
+     */
+    private static final int EXACT_MATCH_FACTOR = 2;
+
+    /**
+     * Orders candidate documents from best to worst.
+     */
+    private final Comparator<Integer> mBestFirst = new Comparator<Integer>() {
+        @Override
+        public int compare(Integer a, Integer b) {
+            if (mScores[a] != mScores[b]) {
+                return mScores[a] > mScores[b] ? -1 : 1;
+            }
+            long timeA = mDocuments.get(a).getNewsArticlePublicationTime();
+            long timeB = mDocuments.get(b).getNewsArticlePublicationTime();
+            return timeA > timeB ? -1 : (timeA < timeB ? 1 : 0);
+        }
+    };
+
+    private final int mMaxArticles;
+
+    /**
+     * Indexed articles, oldest first; an article's position in this list is its document id,
+     * and removed articles are null until the index is rebuilt
+     */
+    private final List<News> mDocuments = new ArrayList<>();
+
+    /**
+     * Number of articles in mDocuments that haven't been removed
+     */
+    private int mLiveCount;
+
+    /**
+     * No article before this document id is still indexed
+     */
+    private int mOldest;
+
+    /**
+     * Document id of every indexed web URL
+     */
+    private final Map<String, Integer> mDocumentIds = new HashMap<>();
+
+    /**
+     * Posting list of every indexed word, sorted so prefixes can be looked up as ranges
+     */
+    private final TreeMap<String, Postings> mPostings = new TreeMap<>();
+
+    /**
+     * Scratch space for searches, indexed by document id and grown with the index
+     */
+    private int[] mScores = new int[0];
+    private int[] mTermScores = new int[0];
+    private short[] mMatchedTerms = new short[0];
+
+    NewsSearchIndex() {
+        this(DEFAULT_MAX_ARTICLES);
+    }
+
+    /**
+     * Constructs a new {@link NewsSearchIndex}.
+     *
+     * @param maxArticles is the number of the most recently indexed articles kept
+     */
+    NewsSearchIndex(int maxArticles) {
+        mMaxArticles = maxArticles;
+    }
+
+    /**
+     * Index the given articles, skipping any already in the index unchanged.
+     */
+    synchronized void addAll(List<News> news) {
+        if (news == null) {
+            return;
+        }
+        for (News article : news) {
+            add(article);
+        }
+    }
+
+    /**
+     * Index the given article. If an article with the same web URL is indexed already, it is
+     * replaced, and only indexed again if its title, author or section changed.
+     */
+    synchronized void add(News news) {
+        String url = news.getNewsArticleUrl();
+        if (url == null) {
+            return;
+        }
+        Integer indexed = mDocumentIds.get(url);
+        if (indexed != null) {
+            if (sameWords(mDocuments.get(indexed), news)) {
+                mDocuments.set(indexed, news);
+                return;
+            }
+            remove(indexed);
+        }
+        index(news);
+        while (mLiveCount > mMaxArticles) {
+            while (mDocuments.get(mOldest) == null) {
+                mOldest++;
+            }
+            remove(mOldest);
+        }
+        if (mDocuments.size() - mLiveCount > mLiveCount) {
+            rebuild();
+        }
+    }
+
+    /**
+     * Add the given article to the posting lists as a new document.
+     */
+    private void index(News news) {
+        int id = mDocuments.size();
+        mDocuments.add(news);
+        mDocumentIds.put(news.getNewsArticleUrl(), id);
+        mLiveCount++;
+
+        // Sum the weights of every field a word appears in
+        Map<String, Integer> weights = new HashMap<>();
+        addWords(weights, news.getNewsArticleTitle(), TITLE_WEIGHT);
+        addWords(weights, news.getNewsArticleAuthor(), AUTHOR_WEIGHT);
+        addWords(weights, news.getNewsArticleSectionName(), SECTION_WEIGHT);
+        for (Map.Entry<String, Integer> entry : weights.entrySet()) {
+            Postings postings = mPostings.get(entry.getKey());
+            if (postings == null) {
+                postings = new Postings();
+                mPostings.put(entry.getKey(), postings);
+            }
+            postings.add(id, entry.getValue());
+        }
+    }
+
+    /**
+     * Drop the given document. Its postings stay until the next rebuild, and searches skip
+     * them.
+     */
+    private void remove(int id) {
+        News news = mDocuments.set(id, null);
+        mDocumentIds.remove(news.getNewsArticleUrl());
+        mLiveCount--;
+    }
+
+    /**
+     * Index the articles still kept again from scratch, which drops the postings of removed
+     * ones and numbers the documents from 0 again.
+     */
+    private void rebuild() {
+        List<News> live = new ArrayList<>(mLiveCount);
+        for (int i = mOldest; i < mDocuments.size(); i++) {
+            if (mDocuments.get(i) != null) {
+                live.add(mDocuments.get(i));
+            }
+        }
+        mDocuments.clear();
+        mDocumentIds.clear();
+        mPostings.clear();
+        mLiveCount = 0;
+        mOldest = 0;
+        for (News news : live) {
+            index(news);
+        }
+    }
+
+    private static boolean sameWords(News a, News b) {
+        return equal(a.getNewsArticleTitle(), b.getNewsArticleTitle())
+                && equal(a.getNewsArticleAuthor(), b.getNewsArticleAuthor())
+                && equal(a.getNewsArticleSectionName(), b.getNewsArticleSectionName());
+    }
+
+    private static boolean equal(Object a, Object b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    /**
+     * Returns the number of articles indexed.
+     */
+    synchronized int size() {
+        return mLiveCount;
+    }
+
+    /**
+     * Returns at most limit articles matching every word of the query, best first.
+     */
+    synchronized List<News> search(String query, int limit) {
+        List<String> terms = tokenize(query);
+        if (terms.isEmpty() || limit <= 0) {
+            return Collections.emptyList();
+        }
+        ensureScratchCapacity();
+
+        // Start from the rarest word, so the first pass touches as few documents as possible
+        final Map<String, Integer> sizes = new HashMap<>();
+        for (String term : terms) {
+            sizes.put(term, matchCount(term));
+        }
+        Collections.sort(terms, new Comparator<String>() {
+            @Override
+            public int compare(String a, String b) {
+                return sizes.get(a) - sizes.get(b);
+            }
+        });
+
+        IntList candidates = new IntList();
+        IntList termMatches = new IntList();
+        for (int t = 0; t < terms.size(); t++) {
+            String term = terms.get(t);
+            termMatches.clear();
+            for (Map.Entry<String, Postings> entry : prefixRange(term).entrySet()) {
+                int factor = entry.getKey().equals(term) ? EXACT_MATCH_FACTOR : 1;
+                Postings postings = entry.getValue();
+                for (int i = 0; i < postings.mSize; i++) {
+                    int doc = postings.mDocuments[i];
+                    // Only documents that matched every earlier word are still candidates,
+                    // and removed ones never are
+                    if (mMatchedTerms[doc] != t || mDocuments.get(doc) == null) {
+                        continue;
+                    }
+                    int score = postings.mWeights[i] * factor;
+                    if (mTermScores[doc] == 0) {
+                        termMatches.add(doc);
+                    }
+                    if (score > mTermScores[doc]) {
+                        mTermScores[doc] = score;
+                    }
+                }
+            }
+            for (int i = 0; i < termMatches.mSize; i++) {
+                int doc = termMatches.mValues[i];
+                if (t == 0) {
+                    candidates.add(doc);
+                }
+                mScores[doc] += mTermScores[doc];
+                mTermScores[doc] = 0;
+                mMatchedTerms[doc]++;
+            }
+        }
+
+        // Keep the best matches of every word in a bounded heap, worst on top
+        PriorityQueue<Integer> best = new PriorityQueue<>(Math.min(limit, 64) + 1,
+                Collections.reverseOrder(mBestFirst));
+        for (int i = 0; i < candidates.mSize; i++) {
+            int doc = candidates.mValues[i];
+            if (mMatchedTerms[doc] == terms.size()) {
+                best.add(doc);
+                if (best.size() > limit) {
+                    best.poll();
+                }
+            }
+        }
+        Integer[] ranked = best.toArray(new Integer[best.size()]);
+        Arrays.sort(ranked, mBestFirst);
+        List<News> results = new ArrayList<>(ranked.length);
+        for (Integer doc : ranked) {
+            results.add(mDocuments.get(doc));
+        }
+
+        // Reset the scratch space for the next search
+        for (int i = 0; i < candidates.mSize; i++) {
+            int doc = candidates.mValues[i];
+            mScores[doc] = 0;
+            mMatchedTerms[doc] = 0;
+        }
+        return results;
+    }
+
+    /**
+     * Returns the number of postings of every indexed word starting with the given prefix.
+     */
+    private int matchCount(String prefix) {
+        int count = 0;
+        for (Postings postings : prefixRange(prefix).values()) {
+            count += postings.mSize;
+        }
+        return count;
+    }
+
+    private SortedMap<String, Postings> prefixRange(String prefix) {
+        return mPostings.subMap(prefix, prefix + Character.MAX_VALUE);
+    }
+
+    private void ensureScratchCapacity() {
+        int size = mDocuments.size();
+        if (mScores.length < size) {
+            int capacity = Math.max(size, mScores.length * 3 / 2);
+            mScores = Arrays.copyOf(mScores, capacity);
+            mTermScores = Arrays.copyOf(mTermScores, capacity);
+            mMatchedTerms = Arrays.copyOf(mMatchedTerms, capacity);
+        }
+    }
+
+    private static void addWords(Map<String, Integer> weights, String text, int weight) {
+        for (String word : tokenize(text)) {
+            Integer current = weights.get(word);
+            weights.put(word, current == null ? weight : current + weight);
+        }
+    }
+
+    /**
+     * Split the given text into lower case words of letters and digits.
+     */
+    static List<String> tokenize(String text) {
+        List<String> words = new ArrayList<>();
+        if (text == null) {
+            return words;
+        }
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean wordChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                words.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+                start = -1;
+            }
+        }
+        return words;
+    }
+
+    /**
+     * Documents containing a word, in ascending document id order, with the word's weight in
+     * each of them.
+     */
+    private static final class Postings {
+        int[] mDocuments = new int[2];
+        byte[] mWeights = new byte[2];
+        int mSize;
+
+        void add(int document, int weight) {
+            if (mSize == mDocuments.length) {
+                mDocuments = Arrays.copyOf(mDocuments, mSize * 2);
+                mWeights = Arrays.copyOf(mWeights, mSize * 2);
+            }
+            mDocuments[mSize] = document;
+            mWeights[mSize] = (byte) Math.min(weight, Byte.MAX_VALUE);
+            mSize++;
+        }
+    }
+
+    /**
+     * Growable list of ints that doesn't box them.
+     */
+    private static final class IntList {
+        int[] mValues = new int[16];
+        int mSize;
+
+        void add(int value) {
+            if (mSize == mValues.length) {
+                mValues = Arrays.copyOf(mValues, mSize * 2);
+            }
+            mValues[mSize++] = value;
+        }
+
+        void clear() {
+            mSize = 0;
+        }
+    }
+}
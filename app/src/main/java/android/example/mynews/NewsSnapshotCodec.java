@@ -0,0 +1,387 @@
+package android.example.mynews;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+/**
+ * A compact, versioned binary encoding of lists of {@link News} articles, for keeping them
+ * in files or handing them between components without going through JSON.
+ * <p>
+ * Section names and authors repeat from article to article, so each is written once in a
+ * string table and records refer to it by index. Publication times are written as variable
+ * length differences from a base time in the header, usually three to five bytes instead of
+ * eight. Titles and URLs are written as the UTF-8 bytes {@link News} already keeps them in.
+ * <p>
+ * The header ends with a table of record offsets, so a {@link Snapshot} only decodes the
+ * header and string table up front, and each record when it is asked for. Opened with
+ * {@link #map(File)}, a large snapshot is memory-mapped and its records read straight from
+ * the page cache: showing the top of ten thousand articles costs about the same as showing
+ * the top of twenty.
+ * <p>
+ * Layout, big-endian, varints are unsigned LEB128:
+ * <pre>
+ * int     magic, "NWSN"
+ * byte    format version
+ * varint  string count, then for each: varint length, UTF-8 bytes
+ * varint  record count
+ * long    base time, in milliseconds since the epoch
+ * int[]   offset of each record from the end of this table
+ * records section index + 1, author index + 1 (0 for none),
+ *         publication time (0 if unknown, else zigzag(time - base) + 1),
+ *         raw publication date, title, url, thumbnail url
+ *         (each as varint length + 1, 0 for null, then UTF-8 bytes)
+ * </pre>
+ */
+final class NewsSnapshotCodec {
+
+    /**
+     * "NWSN"
+     */
+    static final int MAGIC = 0x4e57534e;
+
+    /**
+     * Bumped whenever the layout changes; snapshots with another version can't be opened.
+     */
+    static final int FORMAT_VERSION = 1;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private NewsSnapshotCodec() {
+    }
+
+    /**
+     * Returns the given articles encoded as a snapshot.
+     */
+    static byte[] encode(List<News> news) {
+        List<String> strings = new ArrayList<>();
+        Map<String, Integer> indexes = new HashMap<>();
+        long baseTime = 0;
+        for (News article : news) {
+            indexOf(article.getNewsArticleSectionName(), strings, indexes);
+            indexOf(article.getNewsArticleAuthor(), strings, indexes);
+            long publicationTime = article.getNewsArticlePublicationTime();
+            if (baseTime == 0 && publicationTime != NewsTimestamps.UNKNOWN) {
+                // Feeds are sorted by time, so the first one is close to the others
+                baseTime = publicationTime;
+            }
+        }
+
+        int[] offsets = new int[news.size()];
+        Output records = new Output(news.size() * 160);
+        for (int i = 0; i < offsets.length; i++) {
+            offsets[i] = records.size();
+            News article = news.get(i);
+            records.writeVarint(indexOf(article.getNewsArticleSectionName(), strings, indexes));
+            records.writeVarint(indexOf(article.getNewsArticleAuthor(), strings, indexes));
+            long publicationTime = article.getNewsArticlePublicationTime();
+            records.writeVarint(publicationTime == NewsTimestamps.UNKNOWN
+                    ? 0 : zigzag(publicationTime - baseTime) + 1);
+            records.writeNullableBytes(encode(article.getNewsArticleRawPublicationDate()));
+            records.writeNullableBytes(article.getNewsArticleTitleBytes());
+            records.writeNullableBytes(article.getNewsArticleUrlBytes());
+            records.writeNullableBytes(article.getNewsArticleThumbnailUrlBytes());
+        }
+
+        Output out = new Output(64 + strings.size() * 16 + offsets.length * 4 + records.size());
+        out.writeInt(MAGIC);
+        out.write(FORMAT_VERSION);
+        out.writeVarint(strings.size());
+        for (String string : strings) {
+            byte[] bytes = string.getBytes(UTF_8);
+            out.writeVarint(bytes.length);
+            out.write(bytes, 0, bytes.length);
+        }
+        out.writeVarint(offsets.length);
+        out.writeLong(baseTime);
+        for (int offset : offsets) {
+            out.writeInt(offset);
+        }
+        records.writeTo(out);
+        return out.toByteArray();
+    }
+
+    /**
+     * Returns the snapshot held in the given buffer, from its position to its limit. Only the
+     * header is read; the buffer must not change while the snapshot is in use.
+     *
+     * @throws IOException if the buffer doesn't hold a snapshot of this format version, or
+     *                     its header is damaged
+     */
+    static Snapshot decode(ByteBuffer buffer) throws IOException {
+        return new Snapshot(buffer.slice());
+    }
+
+    /**
+     * Returns the snapshot in the given file, memory-mapped, so records are read from the
+     * page cache as they are asked for rather than copied into the heap up front.
+     *
+     * @throws IOException if the file can't be read, or doesn't hold a snapshot of this format
+     *                     version
+     */
+    static Snapshot map(File file) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            FileChannel channel = in.getChannel();
+            // The mapping outlives the channel
+            return decode(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Returns one more than the index of the given string in the table, adding it if it isn't
+     * there yet, or 0 for null.
+     */
+    private static int indexOf(String string, List<String> strings,
+                               Map<String, Integer> indexes) {
+        if (string == null) {
+            return 0;
+        }
+        Integer index = indexes.get(string);
+        if (index == null) {
+            index = strings.size();
+            indexes.put(string, index);
+            strings.add(string);
+        }
+        return index + 1;
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static byte[] encode(String value) {
+        return value == null ? null : value.getBytes(UTF_8);
+    }
+
+    /**
+     * A list of articles read from an encoded snapshot. Each call to {@link #get(int)}
+     * decodes the record anew and returns a new {@link News}, so copy the articles into a
+     * list of their own if they are read more than once, e.g. to show them.
+     * <p>
+     * Reading a damaged record throws {@link IndexOutOfBoundsException}. Snapshots are safe
+     * to read from several threads.
+     */
+    static final class Snapshot extends AbstractList<News> implements RandomAccess {
+
+        private final ByteBuffer mBuffer;
+
+        /**
+         * The string table, interned
+         */
+        private final String[] mStrings;
+
+        private final int mCount;
+
+        private final long mBaseTime;
+
+        /**
+         * Position of the record offsets in the buffer
+         */
+        private final int mOffsetsPosition;
+
+        /**
+         * Position of the first record in the buffer
+         */
+        private final int mRecordsPosition;
+
+        private Snapshot(ByteBuffer buffer) throws IOException {
+            mBuffer = buffer;
+            try {
+                Input in = new Input(buffer, 0);
+                if (buffer.remaining() < 5 || in.readInt() != MAGIC) {
+                    throw new IOException("Not a news snapshot");
+                }
+                int version = in.read();
+                if (version != FORMAT_VERSION) {
+                    throw new IOException("Unknown news snapshot version " + version);
+                }
+                mStrings = new String[in.readLength()];
+                for (int i = 0; i < mStrings.length; i++) {
+                    mStrings[i] = NewsStringPool.intern(new String(in.readBytes(in.readLength()),
+                            UTF_8));
+                }
+                mCount = in.readLength();
+                mBaseTime = in.readLong();
+                mOffsetsPosition = in.position();
+                if (mCount > (buffer.limit() - mOffsetsPosition) / 4) {
+                    throw new IOException("Truncated news snapshot");
+                }
+                mRecordsPosition = mOffsetsPosition + mCount * 4;
+            } catch (IndexOutOfBoundsException e) {
+                throw new IOException("Truncated news snapshot", e);
+            }
+        }
+
+        @Override
+        public int size() {
+            return mCount;
+        }
+
+        /**
+         * Decodes and returns the article at the given index.
+         */
+        @Override
+        public News get(int index) {
+            if (index < 0 || index >= mCount) {
+                throw new IndexOutOfBoundsException("Index " + index + ", size " + mCount);
+            }
+            Input in = new Input(mBuffer,
+                    mRecordsPosition + mBuffer.getInt(mOffsetsPosition + index * 4));
+            String sectionName = string(in.readVarint());
+            String author = string(in.readVarint());
+            long time = in.readVarint();
+            long publicationTime = time == 0
+                    ? NewsTimestamps.UNKNOWN : mBaseTime + unzigzag(time - 1);
+            byte[] rawPublicationDate = in.readNullableBytes();
+            byte[] title = in.readNullableBytes();
+            byte[] url = in.readNullableBytes();
+            byte[] thumbnailUrl = in.readNullableBytes();
+            return new News(sectionName, title, author, publicationTime,
+                    rawPublicationDate != null ? new String(rawPublicationDate, UTF_8) : null,
+                    url, thumbnailUrl);
+        }
+
+        private String string(long reference) {
+            if (reference < 0 || reference > mStrings.length) {
+                throw new IndexOutOfBoundsException("No string " + reference);
+            }
+            return reference == 0 ? null : mStrings[(int) reference - 1];
+        }
+    }
+
+    /**
+     * Reads fields from a buffer, starting at the given position, without moving the
+     * position of the buffer itself.
+     */
+    private static final class Input {
+        private final ByteBuffer mBuffer;
+
+        Input(ByteBuffer buffer, int position) {
+            mBuffer = buffer.duplicate();
+            if (position < 0 || position > mBuffer.limit()) {
+                throw new IndexOutOfBoundsException("Position " + position);
+            }
+            mBuffer.position(position);
+        }
+
+        int position() {
+            return mBuffer.position();
+        }
+
+        int read() {
+            if (!mBuffer.hasRemaining()) {
+                throw new IndexOutOfBoundsException("Past the end of the snapshot");
+            }
+            return mBuffer.get() & 0xff;
+        }
+
+        int readInt() {
+            return (read() << 24) | (read() << 16) | (read() << 8) | read();
+        }
+
+        long readLong() {
+            return ((long) readInt() << 32) | (readInt() & 0xffffffffL);
+        }
+
+        long readVarint() {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = read();
+                value |= (long) (b & 0x7f) << shift;
+                if (b < 0x80) {
+                    return value;
+                }
+            }
+            throw new IndexOutOfBoundsException("Varint too long");
+        }
+
+        /**
+         * Reads a varint that counts something in the rest of the snapshot. A damaged varint
+         * can decode to anything, negative included, so it is checked against what is left.
+         */
+        int readLength() {
+            long length = readVarint();
+            if (length < 0 || length > mBuffer.remaining()) {
+                throw new IndexOutOfBoundsException("Length " + length + " past the end");
+            }
+            return (int) length;
+        }
+
+        byte[] readBytes(int length) {
+            byte[] bytes = new byte[length];
+            mBuffer.get(bytes);
+            return bytes;
+        }
+
+        byte[] readNullableBytes() {
+            long length = readVarint();
+            if (length == 0) {
+                return null;
+            }
+            if (length < 0 || length - 1 > mBuffer.remaining()) {
+                throw new IndexOutOfBoundsException("Length " + (length - 1) + " past the end");
+            }
+            return readBytes((int) length - 1);
+        }
+    }
+
+    /**
+     * A byte array output stream with the writes the format needs.
+     */
+    private static final class Output extends ByteArrayOutputStream {
+
+        Output(int size) {
+            super(size);
+        }
+
+        void writeInt(int value) {
+            write(value >>> 24);
+            write(value >>> 16);
+            write(value >>> 8);
+            write(value);
+        }
+
+        void writeLong(long value) {
+            writeInt((int) (value >>> 32));
+            writeInt((int) value);
+        }
+
+        void writeVarint(long value) {
+            while ((value & ~0x7fL) != 0) {
+                write((int) ((value & 0x7f) | 0x80));
+                value >>>= 7;
+            }
+            write((int) value);
+        }
+
+        void writeNullableBytes(byte[] bytes) {
+            if (bytes == null) {
+                writeVarint(0);
+                return;
+            }
+            writeVarint(bytes.length + 1L);
+            write(bytes, 0, bytes.length);
+        }
+
+        void writeTo(Output out) {
+            out.write(buf, 0, count);
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package android.example.mynews;
+
+import android.util.Log;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * The top of the feed as it was last shown, kept in one small file so the next cold start can
+ * show it in its first frame, before the loader has read the disk cache or the network.
+ * <p>
+ * Only the first {@link #DEFAULT_MAX_ARTICLES} articles, about a screenful, are kept, encoded
+ * with {@link NewsSnapshotCodec}. The file is a few kilobytes, small enough to read on the
+ * main thread; it is read whole rather than memory-mapped, which costs more than it saves
+ * for a file this size.
+ * Writes go to a temporary file that is renamed into place, so a crash mid-write leaves the
+ * previous snapshot intact.
+ */
+final class NewsStartupSnapshot {
+
+    private static final String LOG_TAG = NewsStartupSnapshot.class.getSimpleName();
+
+    /**
+     * Articles kept by default, more than fit on one screen
+     */
+    static final int DEFAULT_MAX_ARTICLES = 20;
+
+    private static Executor sWriter;
+
+    private final File mFile;
+
+    private final int mMaxArticles;
+
+    NewsStartupSnapshot(File file) {
+        this(file, DEFAULT_MAX_ARTICLES);
+    }
+
+    /**
+     * Constructs a new {@link NewsStartupSnapshot}.
+     *
+     * @param file        is where the snapshot is kept
+     * @param maxArticles is the number of articles from the top of the feed kept
+     */
+    NewsStartupSnapshot(File file, int maxArticles) {
+        mFile = file;
+        mMaxArticles = maxArticles;
+    }
+
+    /**
+     * Returns the articles last written, or an empty list if there are none or they can't be
+     * read.
+     */
+    synchronized List<News> read() {
+        if (!mFile.exists()) {
+            return Collections.emptyList();
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new FileInputStream(mFile));
+            byte[] bytes = new byte[(int) mFile.length()];
+            in.readFully(bytes);
+            NewsSnapshotCodec.Snapshot snapshot = NewsSnapshotCodec.decode(ByteBuffer.wrap(bytes));
+            // Decoded once here, since the adapter reads each article many times. By index,
+            // as iterators turn a damaged record into another exception.
+            List<News> news = new ArrayList<>(snapshot.size());
+            for (int i = 0; i < snapshot.size(); i++) {
+                news.add(snapshot.get(i));
+            }
+            return news;
+        } catch (IOException | IndexOutOfBoundsException e) {
+            Log.e(LOG_TAG, "Problem reading the startup snapshot.", e);
+            return Collections.emptyList();
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    /**
+     * Keep the top of the given feed, replacing the previous snapshot.
+     */
+    synchronized void write(List<News> news) {
+        File directory = mFile.getParentFile();
+        if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+            Log.e(LOG_TAG, "Unable to create the startup snapshot directory " + directory);
+            return;
+        }
+        byte[] bytes = NewsSnapshotCodec.encode(
+                news.subList(0, Math.min(mMaxArticles, news.size())));
+
+        File tmp = new File(mFile.getPath() + ".tmp");
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(tmp);
+            out.write(bytes);
+            out.close();
+            out = null;
+            if (!tmp.renameTo(mFile)) {
+                Log.e(LOG_TAG, "Unable to move the startup snapshot into place.");
+            }
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Problem writing the startup snapshot.", e);
+        } finally {
+            closeQuietly(out);
+            if (tmp.exists()) {
+                tmp.delete();
+            }
+        }
+    }
+
+    /**
+     * Keep the top of the given feed on a background thread, so the main thread never waits
+     * for the disk while the app is going away. The articles are copied first, so the caller
+     * may change the list afterwards.
+     */
+    void writeAsync(List<News> news) {
+        final List<News> top = new ArrayList<>(
+                news.subList(0, Math.min(mMaxArticles, news.size())));
+        getWriter().execute(new Runnable() {
+            @Override
+            public void run() {
+                write(top);
+            }
+        });
+    }
+
+    /**
+     * Forget the snapshot.
+     */
+    synchronized void delete() {
+        mFile.delete();
+    }
+
+    private static synchronized Executor getWriter() {
+        if (sWriter == null) {
+            sWriter = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "NewsStartupSnapshot");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return sWriter;
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
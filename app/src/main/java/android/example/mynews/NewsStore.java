@@ -0,0 +1,299 @@
+package android.example.mynews;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Build;
+import android.util.Log;
+
+import java.io.Closeable;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Durable store of every article fetched, keyed by web URL, for reading the feed back while
+ * offline and after the loaders are gone.
+ * <p>
+ * Articles are written a page at a time in one transaction, replacing any stored copy of the
+ * same article. The table is indexed on publication time, and on section then publication
+ * time, so the newest articles overall or in one section are read straight off an index and
+ * streamed from the cursor rather than loaded into a list.
+ * <p>
+ * The store is bounded by a number of articles and an age. Every so many writes it is
+ * compacted on a background thread: articles not written for longer than the age budget go,
+ * then the oldest by publication time until the count is within budget, and the database file
+ * is vacuumed once a quarter of it is free pages.
+ */
+final class NewsStore extends SQLiteOpenHelper {
+
+    private static final String LOG_TAG = NewsStore.class.getSimpleName();
+
+    static final String DATABASE_NAME = "news.db";
+
+    private static final int DATABASE_VERSION = 1;
+
+    /**
+     * Articles kept by default, a few megabytes' worth
+     */
+    static final int DEFAULT_MAX_ARTICLES = 10000;
+
+    /**
+     * How long an article is kept by default after it was last fetched
+     */
+    static final long DEFAULT_MAX_AGE_MILLIS = 30L * 24 * 60 * 60 * 1000;
+
+    /**
+     * Number of articles written between compactions
+     */
+    private static final int COMPACT_EVERY_WRITES = 500;
+
+    private static final String TABLE = "articles";
+
+    private static final String COLUMNS =
+            "url, section, title, author, published, raw_date, thumbnail";
+
+    private static NewsStore sInstance;
+
+    /**
+     * Returns the store shared by the app.
+     */
+    static synchronized NewsStore getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new NewsStore(context.getApplicationContext(), DATABASE_NAME,
+                    DEFAULT_MAX_ARTICLES, DEFAULT_MAX_AGE_MILLIS, NewsClock.SYSTEM);
+        }
+        return sInstance;
+    }
+
+    /**
+     * Articles read off a cursor one at a time, newest first. Must be closed.
+     */
+    static final class Feed implements Closeable {
+        private final Cursor mCursor;
+
+        private Feed(Cursor cursor) {
+            mCursor = cursor;
+        }
+
+        /**
+         * Returns the number of articles in the feed.
+         */
+        int getCount() {
+            return mCursor.getCount();
+        }
+
+        /**
+         * Returns the next article, or null once there are no more.
+         */
+        News next() {
+            if (!mCursor.moveToNext()) {
+                return null;
+            }
+            String url = mCursor.getString(0);
+            String section = mCursor.getString(1);
+            String title = mCursor.getString(2);
+            String author = mCursor.getString(3);
+            String thumbnail = mCursor.isNull(6) ? null : mCursor.getString(6);
+            if (!mCursor.isNull(5)) {
+                return new News(section, title, author, mCursor.getString(5), url, thumbnail);
+            }
+            return new News(section, title, author, mCursor.getLong(4), url, thumbnail);
+        }
+
+        @Override
+        public void close() {
+            mCursor.close();
+        }
+    }
+
+    private final int mMaxArticles;
+
+    private final long mMaxAgeMillis;
+
+    private final NewsClock mClock;
+
+    /**
+     * Runs compactions, one at a time
+     */
+    private final ExecutorService mCompactor = Executors.newSingleThreadExecutor();
+
+    private final AtomicInteger mWritesSinceCompaction = new AtomicInteger();
+
+    private final AtomicBoolean mCompactionQueued = new AtomicBoolean();
+
+    /**
+     * Constructs a new {@link NewsStore}.
+     *
+     * @param context      of the app
+     * @param name         is the database file name, or null for a store only kept in memory
+     * @param maxArticles  is the number of articles kept
+     * @param maxAgeMillis is how long an article is kept after it was last written
+     * @param clock        tells the current time
+     */
+    NewsStore(Context context, String name, int maxArticles, long maxAgeMillis,
+              NewsClock clock) {
+        super(context, name, null, DATABASE_VERSION);
+        mMaxArticles = maxArticles;
+        mMaxAgeMillis = maxAgeMillis;
+        mClock = clock;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            // Lets the feed be read while a page is being written
+            setWriteAheadLoggingEnabled(true);
+        }
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE + " ("
+                + "url TEXT PRIMARY KEY NOT NULL, "
+                + "section TEXT NOT NULL, "
+                + "title TEXT NOT NULL, "
+                + "author TEXT NOT NULL, "
+                // Milliseconds since the epoch, or NewsTimestamps.UNKNOWN with the date as
+                // the server sent it in raw_date
+                + "published INTEGER NOT NULL, "
+                + "raw_date TEXT, "
+                + "thumbnail TEXT, "
+                // When the article was last written, for the age budget
+                + "stored_at INTEGER NOT NULL)");
+        db.execSQL("CREATE INDEX articles_published ON " + TABLE + " (published)");
+        db.execSQL("CREATE INDEX articles_section_published ON " + TABLE
+                + " (section, published)");
+        db.execSQL("CREATE INDEX articles_stored_at ON " + TABLE + " (stored_at)");
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        // Everything in here can be fetched again
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE);
+        onCreate(db);
+    }
+
+    /**
+     * Store the given articles in a single transaction, replacing stored copies of the same
+     * articles. Queues a compaction every so many articles.
+     */
+    void putAll(List<News> news) {
+        if (news == null || news.isEmpty()) {
+            return;
+        }
+        SQLiteDatabase db = getWritableDatabase();
+        long now = mClock.currentTimeMillis();
+        SQLiteStatement insert = db.compileStatement("INSERT OR REPLACE INTO " + TABLE
+                + " (" + COLUMNS + ", stored_at) VALUES (?, ?, ?, ?, ?, ?, ?, ?)");
+        db.beginTransactionNonExclusive();
+        try {
+            for (News article : news) {
+                long published = article.getNewsArticlePublicationTime();
+                insert.bindString(1, article.getNewsArticleUrl());
+                insert.bindString(2, article.getNewsArticleSectionName());
+                insert.bindString(3, article.getNewsArticleTitle());
+                insert.bindString(4, article.getNewsArticleAuthor());
+                insert.bindLong(5, published);
+                bindNullable(insert, 6, published == NewsTimestamps.UNKNOWN
+                        ? article.getNewsArticlePublicationDate() : null);
+                bindNullable(insert, 7, article.getNewsArticleThumbnailUrl());
+                insert.bindLong(8, now);
+                insert.executeInsert();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            insert.close();
+        }
+
+        if (mWritesSinceCompaction.addAndGet(news.size()) >= COMPACT_EVERY_WRITES
+                && mCompactionQueued.compareAndSet(false, true)) {
+            mCompactor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    mCompactionQueued.set(false);
+                    mWritesSinceCompaction.set(0);
+                    compact();
+                }
+            });
+        }
+    }
+
+    /**
+     * Returns up to limit of the newest articles, in the given section or in any section if
+     * it is null. The feed must be closed.
+     */
+    Feed readNewest(String section, int limit) {
+        SQLiteDatabase db = getReadableDatabase();
+        Cursor cursor;
+        if (section == null) {
+            cursor = db.rawQuery("SELECT " + COLUMNS + " FROM " + TABLE
+                    + " ORDER BY published DESC LIMIT " + limit, null);
+        } else {
+            cursor = db.rawQuery("SELECT " + COLUMNS + " FROM " + TABLE
+                    + " WHERE section = ? ORDER BY published DESC LIMIT " + limit,
+                    new String[]{section});
+        }
+        return new Feed(cursor);
+    }
+
+    /**
+     * Returns the number of articles stored.
+     */
+    long count() {
+        return DatabaseUtils.queryNumEntries(getReadableDatabase(), TABLE);
+    }
+
+    /**
+     * Drop the articles over the age and count budgets, and give the space they took back to
+     * the file system if enough of the file is free. Blocks, so never call it on the main
+     * thread.
+     */
+    void compact() {
+        SQLiteDatabase db = getWritableDatabase();
+        int deleted;
+        db.beginTransactionNonExclusive();
+        try {
+            deleted = db.delete(TABLE, "stored_at < ?", new String[]{
+                    String.valueOf(mClock.currentTimeMillis() - mMaxAgeMillis)});
+            long excess = DatabaseUtils.queryNumEntries(db, TABLE) - mMaxArticles;
+            if (excess > 0) {
+                // Articles without a parsed date sort oldest, and go first
+                deleted += db.delete(TABLE, "rowid IN (SELECT rowid FROM " + TABLE
+                        + " ORDER BY published ASC LIMIT " + excess + ")", null);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        if (deleted > 0) {
+            long freePages = pragma(db, "freelist_count");
+            long pages = pragma(db, "page_count");
+            if (freePages * 4 > pages) {
+                db.execSQL("VACUUM");
+            }
+            Log.d(LOG_TAG, "Compacted " + deleted + " articles, " + freePages + " of " + pages
+                    + " pages were free");
+        }
+    }
+
+    private static long pragma(SQLiteDatabase db, String name) {
+        SQLiteStatement pragma = db.compileStatement("PRAGMA " + name);
+        try {
+            return pragma.simpleQueryForLong();
+        } finally {
+            pragma.close();
+        }
+    }
+
+    private static void bindNullable(SQLiteStatement statement, int index, String value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else {
+            statement.bindString(index, value);
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package android.example.mynews;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Dictionary of the strings that repeat across many {@link News} articles, like section and
+ * author names, so that every article from the same section shares one String instance.
+ */
+final class NewsStringPool {
+
+    /**
+     * Upper bound on the number of distinct strings kept; past it strings are no longer
+     * pooled, so an unusual feed can't grow the pool without limit.
+     */
+    private static final int MAX_SIZE = 4096;
+
+    private static final ConcurrentHashMap<String, String> sPool = new ConcurrentHashMap<>();
+
+    private NewsStringPool() {
+    }
+
+    /**
+     * Returns the pooled instance equal to the given string.
+     */
+    static String intern(String value) {
+        if (value == null) {
+            return null;
+        }
+        String pooled = sPool.get(value);
+        if (pooled != null) {
+            return pooled;
+        }
+        if (sPool.size() >= MAX_SIZE) {
+            return value;
+        }
+        pooled = sPool.putIfAbsent(value, value);
+        return pooled != null ? pooled : value;
+    }
+}
@@ -0,0 +1,19 @@
+package android.example.mynews;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+
+/**
+ * Receives the sync alarm and hands the work to {@link NewsSyncService}.
+ * <p>
+ * Alarms don't survive a reboot or an update of the app, so it also receives those. The pass
+ * it queues then syncs whatever fell due in the meantime and sets the alarm again.
+ */
+public class NewsSyncReceiver extends BroadcastReceiver {
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        NewsSyncService.enqueueSync(context);
+    }
+}
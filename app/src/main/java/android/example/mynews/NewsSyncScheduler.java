@@ -0,0 +1,460 @@
+package android.example.mynews;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Decides when each subscribed Guardian query is refreshed in the background, and refreshes
+ * the ones that are due into the {@link NewsDiskCache} the loader reads from, so opening the
+ * app shows recent articles without waiting for the network.
+ * <p>
+ * Once a query has been fetched, later syncs only ask for what was published since: the
+ * request gets a {@code from-date} of the day of the newest cached article (the API only
+ * takes whole days) and anything not newer than that article is dropped. The new articles
+ * are merged into the cached page, handed to the store the feed is read from, and published
+ * to the {@link NewsFeedRepository}.
+ * <p>
+ * Every query that is due, or will be within a quarter of the sync interval, is synced in
+ * the same pass, so queries line up and the radio wakes once per interval rather than once
+ * per query. The queries of a pass are fetched in parallel by a {@link NewsFanOutFetcher}, so
+ * the radio stays up about as long as the slowest of them takes. A failed query is retried
+ * after a backoff that doubles with every failure.
+ * <p>
+ * This class has no Android dependencies; {@link NewsSyncService} runs it from an alarm.
+ */
+final class NewsSyncScheduler {
+
+    private static final String LOG_TAG = NewsSyncScheduler.class.getSimpleName();
+
+    /**
+     * Time between two syncs of the same query
+     */
+    static final long DEFAULT_INTERVAL_MILLIS = 30 * 60 * 1000L;
+
+    /**
+     * Delay before retrying a query that failed once; doubled with every further failure
+     */
+    static final long INITIAL_BACKOFF_MILLIS = 60 * 1000L;
+
+    /**
+     * Longest delay before retrying a failing query
+     */
+    static final long MAX_BACKOFF_MILLIS = 6 * 60 * 60 * 1000L;
+
+    /**
+     * Most queries of a pass fetched at the same time
+     */
+    private static final int MAX_CONCURRENT_SYNCS = 4;
+
+    /**
+     * Longest each query of a pass may take
+     */
+    private static final long SYNC_DEADLINE_MILLIS = 30 * 1000L;
+
+    /**
+     * Bumped whenever the state file layout changes; files with another version are ignored.
+     * Version 2 drops the subscriptions to hand-built URLs made before {@link GuardianQuery}.
+     */
+    private static final int FORMAT_VERSION = 2;
+
+    /**
+     * Outcome of a sync pass.
+     */
+    static final class Result {
+        /**
+         * Number of queries synced successfully
+         */
+        int synced;
+
+        /**
+         * Number of queries that failed and were rescheduled with a backoff
+         */
+        int failed;
+
+        /**
+         * Number of articles that weren't cached before
+         */
+        int newArticles;
+    }
+
+    /**
+     * Sync state of one subscribed query.
+     */
+    private static final class Subscription {
+        final String mUrl;
+        long mNextSyncAtMillis;
+        int mFailures;
+
+        Subscription(String url, long nextSyncAtMillis, int failures) {
+            mUrl = url;
+            mNextSyncAtMillis = nextSyncAtMillis;
+            mFailures = failures;
+        }
+    }
+
+    private final NewsDiskCache mCache;
+
+    private final File mStateFile;
+
+    private final long mIntervalMillis;
+
+    private final NewsClock mClock;
+
+    /**
+     * Writes new articles to the store the feed is read from, may be null
+     */
+    private final NewsIngestPipeline.Consumer mStore;
+
+    /**
+     * Fetches the queries of a pass. Deltas aren't what the server sends for the subscribed
+     * URL, so it doesn't go through the cache; {@link #merge} writes the cache itself.
+     */
+    private final NewsFanOutFetcher mFetcher = new NewsFanOutFetcher(MAX_CONCURRENT_SYNCS, null);
+
+    /**
+     * Subscribed queries by request URL, in the order they were subscribed
+     */
+    private final Map<String, Subscription> mSubscriptions = new LinkedHashMap<>();
+
+    /**
+     * Constructs a new {@link NewsSyncScheduler}, restoring the subscriptions saved in the
+     * given state file.
+     *
+     * @param cache          is where synced articles are stored
+     * @param stateFile      is where subscriptions and their schedule are kept
+     * @param intervalMillis is the time between two syncs of the same query
+     * @param clock          tells the current time
+     */
+    NewsSyncScheduler(NewsDiskCache cache, File stateFile, long intervalMillis, NewsClock clock) {
+        this(cache, stateFile, intervalMillis, clock, null);
+    }
+
+    /**
+     * Constructs a new {@link NewsSyncScheduler}, restoring the subscriptions saved in the
+     * given state file.
+     *
+     * @param cache          is where synced articles are stored
+     * @param stateFile      is where subscriptions and their schedule are kept
+     * @param intervalMillis is the time between two syncs of the same query
+     * @param clock          tells the current time
+     * @param store          is given the new articles of every sync, or null
+     */
+    NewsSyncScheduler(NewsDiskCache cache, File stateFile, long intervalMillis, NewsClock clock,
+                      NewsIngestPipeline.Consumer store) {
+        mCache = cache;
+        mStateFile = stateFile;
+        mIntervalMillis = intervalMillis;
+        mClock = clock;
+        mStore = store;
+        readState();
+    }
+
+    /**
+     * Sync the given request URL in the background from now on. Its first sync is one
+     * interval away, as whoever subscribes has usually just fetched it.
+     */
+    synchronized void subscribe(String url) {
+        if (mSubscriptions.containsKey(url)) {
+            return;
+        }
+        mSubscriptions.put(url,
+                new Subscription(url, mClock.currentTimeMillis() + mIntervalMillis, 0));
+        writeState();
+    }
+
+    /**
+     * Sync the given request URL in the background from now on, instead of any of the given
+     * others, e.g. the same query asked for with another page size. Nothing changes if the
+     * URL is subscribed already and none of the others are.
+     */
+    synchronized void subscribe(String url, Collection<String> replaced) {
+        boolean changed = false;
+        for (String other : replaced) {
+            if (!other.equals(url) && mSubscriptions.remove(other) != null) {
+                changed = true;
+            }
+        }
+        if (!mSubscriptions.containsKey(url)) {
+            mSubscriptions.put(url,
+                    new Subscription(url, mClock.currentTimeMillis() + mIntervalMillis, 0));
+            changed = true;
+        }
+        if (changed) {
+            writeState();
+        }
+    }
+
+    /**
+     * Stop syncing the given request URL.
+     */
+    synchronized void unsubscribe(String url) {
+        if (mSubscriptions.remove(url) != null) {
+            writeState();
+        }
+    }
+
+    /**
+     * Returns the subscribed request URLs.
+     */
+    synchronized List<String> getSubscriptions() {
+        return new ArrayList<>(mSubscriptions.keySet());
+    }
+
+    /**
+     * Returns when the next sync is due in milliseconds since the epoch, or
+     * {@link Long#MAX_VALUE} if nothing is subscribed.
+     */
+    synchronized long getNextSyncTime() {
+        long next = Long.MAX_VALUE;
+        for (Subscription subscription : mSubscriptions.values()) {
+            next = Math.min(next, subscription.mNextSyncAtMillis);
+        }
+        return next;
+    }
+
+    /**
+     * Sync every query that is due, or nearly due, and reschedule them. This is on a
+     * background thread.
+     */
+    Result syncDue() {
+        List<String> due = new ArrayList<>();
+        synchronized (this) {
+            long batchUntil = mClock.currentTimeMillis() + mIntervalMillis / 4;
+            for (Subscription subscription : mSubscriptions.values()) {
+                if (subscription.mNextSyncAtMillis <= batchUntil) {
+                    due.add(subscription.mUrl);
+                }
+            }
+        }
+
+        // Ask for the whole page of queries never fetched, and only what's new for the others
+        List<NewsDiskCache.Entry> cached = new ArrayList<>(due.size());
+        List<String> requestUrls = new ArrayList<>(due.size());
+        for (String url : due) {
+            NewsDiskCache.Entry entry = mCache.get(url);
+            long lastSeen = newestPublicationTime(entry);
+            cached.add(lastSeen == NewsTimestamps.UNKNOWN ? null : entry);
+            requestUrls.add(lastSeen == NewsTimestamps.UNKNOWN ? url : withFromDate(url, lastSeen));
+        }
+        List<List<News>> fetched = mFetcher.fetchEach(requestUrls, SYNC_DEADLINE_MILLIS);
+
+        Result result = new Result();
+        for (int i = 0; i < due.size(); i++) {
+            String url = due.get(i);
+            int newArticles = merge(url, cached.get(i), fetched.get(i));
+            long now = mClock.currentTimeMillis();
+            synchronized (this) {
+                Subscription subscription = mSubscriptions.get(url);
+                if (newArticles < 0) {
+                    result.failed++;
+                } else {
+                    result.synced++;
+                    result.newArticles += newArticles;
+                }
+                if (subscription == null) {
+                    // Unsubscribed while it was being synced
+                    continue;
+                }
+                if (newArticles < 0) {
+                    subscription.mFailures++;
+                    subscription.mNextSyncAtMillis = now + backoffMillis(subscription.mFailures);
+                } else {
+                    subscription.mFailures = 0;
+                    subscription.mNextSyncAtMillis = now + mIntervalMillis;
+                }
+            }
+        }
+        if (!due.isEmpty()) {
+            synchronized (this) {
+                writeState();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Merge what was fetched for the given query into its cached page.
+     * Returns the number of new articles, or -1 if the query failed.
+     *
+     * @param cached  is the cached page the delta was asked against, or null if the whole page
+     *                was fetched
+     * @param fetched is the fetched page or delta, or null if the query failed
+     */
+    private int merge(String url, NewsDiskCache.Entry cached, List<News> fetched) {
+        if (fetched == null) {
+            return -1;
+        }
+        if (cached == null) {
+            // Nothing to take a delta from, the whole page was fetched. Its validators weren't
+            // kept, so the loader's first revalidation downloads it again.
+            mCache.put(url, new NewsDiskCache.Entry(null, null, mClock.currentTimeMillis(),
+                    fetched));
+            store(fetched);
+            return fetched.size();
+        }
+
+        long lastSeen = newestPublicationTime(cached);
+        List<News> delta = fetched;
+        Set<String> known = new HashSet<>();
+        for (News news : cached.news) {
+            known.add(news.getNewsArticleUrl());
+        }
+        List<News> merged = new ArrayList<>(delta.size() + cached.news.size());
+        for (News news : delta) {
+            if (news.getNewsArticlePublicationTime() > lastSeen
+                    && known.add(news.getNewsArticleUrl())) {
+                merged.add(news);
+            }
+        }
+        int newArticles = merged.size();
+        store(merged);
+        long now = mClock.currentTimeMillis();
+        if (newArticles == 0) {
+            // Still current, only remember that it was checked
+            mCache.put(url, new NewsDiskCache.Entry(cached.etag, cached.lastModified, now,
+                    cached.news));
+            return 0;
+        }
+
+        // Keep the page the size it was, newest first. The merged page no longer matches what
+        // the server would send for the URL, so its validators are dropped.
+        merged.addAll(cached.news);
+        Collections.sort(merged, NewsFanOutFetcher.NEWEST_FIRST);
+        merged = new ArrayList<>(merged.subList(0, cached.news.size()));
+        mCache.put(url, new NewsDiskCache.Entry(null, null, now, merged));
+        Log.d(LOG_TAG, newArticles + " new articles for " + url);
+        return newArticles;
+    }
+
+    /**
+     * Hand new articles to the store and publish them.
+     */
+    private void store(List<News> news) {
+        if (mStore != null && !news.isEmpty()) {
+            mStore.onBatch(Collections.unmodifiableList(news));
+        }
+        NewsFeedRepository.getInstance().publish(news);
+    }
+
+    /**
+     * Returns the delay before retrying a query that failed the given number of times in a row.
+     */
+    static long backoffMillis(int failures) {
+        long backoff = INITIAL_BACKOFF_MILLIS;
+        for (int i = 1; i < failures && backoff < MAX_BACKOFF_MILLIS; i++) {
+            backoff *= 2;
+        }
+        return Math.min(backoff, MAX_BACKOFF_MILLIS);
+    }
+
+    /**
+     * Returns the given request URL asking only for articles published on or after the day of
+     * the given time, replacing any from-date it already had.
+     */
+    static String withFromDate(String url, long timeMillis) {
+        String fromDate = "from-date=" + NewsTimestamps.format(timeMillis).substring(0, 10);
+        int queryStart = url.indexOf('?');
+        if (queryStart < 0) {
+            return url + "?" + fromDate;
+        }
+        StringBuilder result = new StringBuilder(url.length() + fromDate.length() + 1);
+        result.append(url, 0, queryStart + 1);
+        for (String parameter : url.substring(queryStart + 1).split("&")) {
+            if (!parameter.isEmpty() && !parameter.startsWith("from-date=")) {
+                result.append(parameter).append('&');
+            }
+        }
+        return result.append(fromDate).toString();
+    }
+
+    private static long newestPublicationTime(NewsDiskCache.Entry entry) {
+        long newest = NewsTimestamps.UNKNOWN;
+        if (entry != null) {
+            for (News news : entry.news) {
+                newest = Math.max(newest, news.getNewsArticlePublicationTime());
+            }
+        }
+        return newest;
+    }
+
+    private void readState() {
+        if (!mStateFile.exists()) {
+            return;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(mStateFile)));
+            if (in.readInt() != FORMAT_VERSION) {
+                return;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String url = in.readUTF();
+                mSubscriptions.put(url, new Subscription(url, in.readLong(), in.readInt()));
+            }
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Problem reading the sync state.", e);
+            mSubscriptions.clear();
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    private void writeState() {
+        File directory = mStateFile.getParentFile();
+        if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+            Log.e(LOG_TAG, "Unable to create the sync state directory " + directory);
+            return;
+        }
+        File tmp = new File(mStateFile.getPath() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(mSubscriptions.size());
+            for (Subscription subscription : mSubscriptions.values()) {
+                out.writeUTF(subscription.mUrl);
+                out.writeLong(subscription.mNextSyncAtMillis);
+                out.writeInt(subscription.mFailures);
+            }
+            out.close();
+            out = null;
+            if (!tmp.renameTo(mStateFile)) {
+                Log.e(LOG_TAG, "Unable to move the sync state into place.");
+            }
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Problem writing the sync state.", e);
+        } finally {
+            closeQuietly(out);
+            if (tmp.exists()) {
+                tmp.delete();
+            }
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
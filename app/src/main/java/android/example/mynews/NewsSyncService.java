@@ -0,0 +1,104 @@
+package android.example.mynews;
+
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.support.annotation.NonNull;
+import android.support.v4.app.JobIntentService;
+import android.util.Log;
+
+import java.io.File;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Runs the {@link NewsSyncScheduler} in the background and sets the alarm for its next pass.
+ * <p>
+ * The alarm doesn't wake the device: a due sync runs the next time the device is awake
+ * anyway, which lets the system batch it with other apps' work.
+ */
+public class NewsSyncService extends JobIntentService {
+
+    private static final String LOG_TAG = NewsSyncService.class.getSimpleName();
+
+    /**
+     * Identifies sync work to the job scheduler
+     */
+    private static final int JOB_ID = 1001;
+
+    /**
+     * Name of the file, under the app's files directory, that holds the sync schedule
+     */
+    private static final String STATE_FILE = "news_sync";
+
+    private static NewsSyncScheduler sScheduler;
+
+    /**
+     * Returns the scheduler shared by the app.
+     */
+    static synchronized NewsSyncScheduler getScheduler(Context context) {
+        if (sScheduler == null) {
+            File filesDir = context.getApplicationContext().getFilesDir();
+            final NewsStore store = NewsStore.getInstance(context);
+            final NewsDateFormatter dateFormatter =
+                    new NewsDateFormatter(context.getApplicationContext());
+            sScheduler = new NewsSyncScheduler(
+                    NewsDiskCache.getInstance(new File(filesDir, NewsLoader.CACHE_DIRECTORY)),
+                    new File(filesDir, STATE_FILE),
+                    NewsSyncScheduler.DEFAULT_INTERVAL_MILLIS, NewsClock.SYSTEM,
+                    new NewsIngestPipeline.Consumer() {
+                        @Override
+                        public void onBatch(List<News> batch) {
+                            // The home feed is read from the store, and the list draws the
+                            // published articles as they are
+                            dateFormatter.formatAll(batch);
+                            store.putAll(batch);
+                        }
+                    });
+        }
+        return sScheduler;
+    }
+
+    /**
+     * Sync the given request URL in the background from now on, instead of any of the given
+     * others.
+     */
+    static void subscribe(Context context, String url, Collection<String> replaced) {
+        getScheduler(context).subscribe(url, replaced);
+        scheduleNextSync(context);
+    }
+
+    /**
+     * Queue a sync pass now.
+     */
+    static void enqueueSync(Context context) {
+        enqueueWork(context, NewsSyncService.class, JOB_ID,
+                new Intent(context, NewsSyncService.class));
+    }
+
+    /**
+     * Set the alarm for the next sync pass, replacing any set before.
+     */
+    static void scheduleNextSync(Context context) {
+        AlarmManager alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+        PendingIntent operation = PendingIntent.getBroadcast(context, 0,
+                new Intent(context, NewsSyncReceiver.class), PendingIntent.FLAG_UPDATE_CURRENT);
+        long next = getScheduler(context).getNextSyncTime();
+        if (next == Long.MAX_VALUE) {
+            alarmManager.cancel(operation);
+        } else {
+            alarmManager.set(AlarmManager.RTC, next, operation);
+        }
+    }
+
+    @Override
+    protected void onHandleWork(@NonNull Intent intent) {
+        NewsSyncScheduler.Result result = getScheduler(this).syncDue();
+        Log.d(LOG_TAG, "Synced " + result.synced + " queries, " + result.failed + " failed, "
+                + result.newArticles + " new articles");
+        // A good moment to keep the article store within its budget, off the UI thread
+        NewsStore.getInstance(this).compact();
+        scheduleNextSync(this);
+    }
+}
@@ -0,0 +1,184 @@
+package android.example.mynews;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Persistent store of downloaded thumbnail images, bounded by their total size in bytes.
+ * <p>
+ * Each image is kept as it was downloaded, in a file named after the SHA-1 of its URL. The
+ * least recently used images are deleted once the total goes over the budget; use is tracked
+ * in memory and through the files' modification times, so the order survives restarts.
+ * Downloads are written to a temporary file that is renamed into place, so a half finished
+ * download is never served.
+ */
+final class NewsThumbnailDiskCache {
+
+    private static final String LOG_TAG = NewsThumbnailDiskCache.class.getSimpleName();
+
+    private static final String FILE_SUFFIX = ".img";
+
+    private static final String TMP_SUFFIX = ".tmp";
+
+    private final File mDirectory;
+
+    private final long mMaxBytes;
+
+    /**
+     * Size of every cached image by file name, least recently used first. Filled from the
+     * directory on first use.
+     */
+    private final LinkedHashMap<String, Long> mSizes = new LinkedHashMap<>(64, 0.75f, true);
+
+    private long mTotalBytes;
+
+    private boolean mInitialized;
+
+    /**
+     * Constructs a new {@link NewsThumbnailDiskCache}.
+     *
+     * @param directory is where the images are kept; nothing else should be stored in it
+     * @param maxBytes  is the total size of the images kept before the least recently used
+     *                  ones are deleted
+     */
+    NewsThumbnailDiskCache(File directory, long maxBytes) {
+        mDirectory = directory;
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * Returns the file holding the image downloaded from the given URL, or null if it isn't
+     * cached.
+     */
+    synchronized File get(String url) {
+        initialize();
+        String name = fileName(url);
+        if (mSizes.get(name) == null) {
+            return null;
+        }
+        File file = new File(mDirectory, name);
+        if (!file.exists()) {
+            // Deleted behind our back, e.g. by the system clearing the cache directory
+            mTotalBytes -= mSizes.remove(name);
+            return null;
+        }
+        file.setLastModified(System.currentTimeMillis());
+        return file;
+    }
+
+    /**
+     * Store the image read from the given stream as the one for the given URL, replacing any
+     * previous one, and return its file. The stream is read to its end but not closed.
+     */
+    File put(String url, InputStream in) throws IOException {
+        synchronized (this) {
+            initialize();
+            if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+                throw new IOException("Unable to create the thumbnail directory " + mDirectory);
+            }
+        }
+        // Several downloads can be written at once, each to a temporary file of its own
+        String name = fileName(url);
+        File tmp = File.createTempFile(name, TMP_SUFFIX, mDirectory);
+        OutputStream out = null;
+        try {
+            out = new FileOutputStream(tmp);
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            out.close();
+            out = null;
+
+            synchronized (this) {
+                File file = new File(mDirectory, name);
+                if (!tmp.renameTo(file)) {
+                    throw new IOException("Unable to move the thumbnail into place.");
+                }
+                Long previous = mSizes.put(name, file.length());
+                mTotalBytes += file.length() - (previous != null ? previous : 0);
+                trim();
+                return file;
+            }
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException ignored) {
+                }
+            }
+            if (tmp.exists()) {
+                tmp.delete();
+            }
+        }
+    }
+
+    /**
+     * Returns the total size of the cached images in bytes.
+     */
+    synchronized long size() {
+        initialize();
+        return mTotalBytes;
+    }
+
+    /**
+     * Delete the least recently used images until the total is within the budget.
+     */
+    private void trim() {
+        Iterator<Map.Entry<String, Long>> eldest = mSizes.entrySet().iterator();
+        while (mTotalBytes > mMaxBytes && eldest.hasNext()) {
+            Map.Entry<String, Long> entry = eldest.next();
+            if (!new File(mDirectory, entry.getKey()).delete()) {
+                Log.w(LOG_TAG, "Unable to delete the thumbnail " + entry.getKey());
+            }
+            mTotalBytes -= entry.getValue();
+            eldest.remove();
+        }
+    }
+
+    /**
+     * Read what is already on disk, oldest first, and delete what earlier runs left half
+     * written.
+     */
+    private void initialize() {
+        if (mInitialized) {
+            return;
+        }
+        mInitialized = true;
+        File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long difference = a.lastModified() - b.lastModified();
+                return difference < 0 ? -1 : (difference > 0 ? 1 : 0);
+            }
+        });
+        for (File file : files) {
+            if (file.getName().endsWith(FILE_SUFFIX)) {
+                mSizes.put(file.getName(), file.length());
+                mTotalBytes += file.length();
+            } else if (file.getName().endsWith(TMP_SUFFIX)) {
+                file.delete();
+            }
+        }
+        trim();
+    }
+
+    private static String fileName(String url) {
+        return NewsDiskCache.sha1(url) + FILE_SUFFIX;
+    }
+}
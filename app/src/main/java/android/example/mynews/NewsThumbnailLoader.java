@@ -0,0 +1,519 @@
+package android.example.mynews;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.util.LruCache;
+import android.widget.ImageView;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Loads article thumbnails into the rows of the news list.
+ * <p>
+ * Images are looked up in a memory cache of decoded bitmaps bounded by their size in bytes,
+ * then in a {@link NewsThumbnailDiskCache} of downloaded files, and only then downloaded.
+ * They are decoded straight down to the size of the thumbnail view, a power of two at a time
+ * and at two bytes per pixel, into the memory of bitmaps that are no longer shown where
+ * possible. Downloads run on a small pool of threads, and only a couple of decodes run at
+ * once so decoding never competes with the UI thread for every core.
+ * <p>
+ * Every method except {@link #loadSync(String)} must be called on the main thread. A load
+ * for a view replaces any earlier one for the same view, so a recycled row never shows the
+ * thumbnail of the article it showed before.
+ */
+final class NewsThumbnailLoader {
+
+    private static final String LOG_TAG = NewsThumbnailLoader.class.getSimpleName();
+
+    /**
+     * Name of the directory, in the app's cache directory, where downloads are kept
+     */
+    private static final String CACHE_DIRECTORY = "thumbnails";
+
+    private static final long DISK_CACHE_BYTES = 16 * 1024 * 1024;
+
+    /**
+     * Share of the heap given to decoded thumbnails
+     */
+    private static final int MEMORY_CACHE_FRACTION = 16;
+
+    /**
+     * Thumbnails downloaded at once unless told otherwise
+     */
+    private static final int DOWNLOAD_THREADS = 4;
+
+    private static final int MAX_CONCURRENT_DECODES = 2;
+
+    /**
+     * Number of unused bitmaps kept around for decoding into
+     */
+    private static final int MAX_REUSABLE_BITMAPS = 8;
+
+    private static NewsThumbnailLoader sInstance;
+
+    /**
+     * Returns the loader shared by the app.
+     */
+    static synchronized NewsThumbnailLoader getInstance(Context context) {
+        if (sInstance == null) {
+            Context appContext = context.getApplicationContext();
+            sInstance = new NewsThumbnailLoader(
+                    new NewsThumbnailDiskCache(
+                            new File(appContext.getCacheDir(), CACHE_DIRECTORY), DISK_CACHE_BYTES),
+                    appContext.getResources().getDimensionPixelSize(R.dimen.thumbnail_size));
+        }
+        return sInstance;
+    }
+
+    /**
+     * A pending load into a view.
+     */
+    private final class Request implements Runnable {
+        final String url;
+        final ImageView view;
+        volatile boolean cancelled;
+        Future<?> future;
+
+        Request(String url, ImageView view) {
+            this.url = url;
+            this.view = view;
+        }
+
+        @Override
+        public void run() {
+            if (cancelled) {
+                return;
+            }
+            final Bitmap bitmap = loadSync(url, this);
+            if (bitmap == null) {
+                return;
+            }
+            if (cancelled) {
+                release(bitmap);
+                return;
+            }
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    // The row may have been recycled while this was posted
+                    if (!cancelled && mRequests.get(view) == Request.this) {
+                        mRequests.remove(view);
+                        show(view, bitmap);
+                    } else {
+                        release(bitmap);
+                    }
+                }
+            });
+        }
+    }
+
+    private final NewsMetrics mMetrics = NewsMetrics.getInstance();
+
+    private final NewsThumbnailDiskCache mDiskCache;
+
+    private final NewsHttpClient mHttpClient = new NewsHttpClient(
+            NewsHttpClient.DEFAULT_CONNECT_TIMEOUT_MILLIS, NewsHttpClient.DEFAULT_READ_TIMEOUT_MILLIS);
+
+    /**
+     * Width and height of the thumbnail view in pixels
+     */
+    private final int mTargetSize;
+
+    private final LruCache<String, Bitmap> mMemoryCache;
+
+    private final ThreadPoolExecutor mExecutor;
+
+    private final Semaphore mDecodePermits = new Semaphore(MAX_CONCURRENT_DECODES);
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Pending load of each view, only touched on the main thread
+     */
+    private final Map<ImageView, Request> mRequests = new WeakHashMap<>();
+
+    /**
+     * Bitmap each view shows, only touched on the main thread
+     */
+    private final Map<ImageView, Bitmap> mShown = new WeakHashMap<>();
+
+    /**
+     * Number of views showing each bitmap; guarded by itself, as are the two below
+     */
+    private final Map<Bitmap, Integer> mShowCounts = new IdentityHashMap<>();
+
+    /**
+     * Bitmaps dropped from the memory cache while still shown, to reuse once they aren't
+     */
+    private final Set<Bitmap> mDroppedWhileShown =
+            Collections.newSetFromMap(new IdentityHashMap<Bitmap, Boolean>());
+
+    /**
+     * Bitmaps no longer cached or shown, whose memory the next decodes can reuse
+     */
+    private final List<Bitmap> mReusable = new ArrayList<>();
+
+    /**
+     * Constructs a new {@link NewsThumbnailLoader}.
+     *
+     * @param diskCache  keeps downloaded images
+     * @param targetSize is the width and height of the thumbnail view in pixels
+     */
+    NewsThumbnailLoader(NewsThumbnailDiskCache diskCache, int targetSize) {
+        mDiskCache = diskCache;
+        mTargetSize = targetSize;
+        int maxKilobytes = (int) (Runtime.getRuntime().maxMemory() / 1024 / MEMORY_CACHE_FRACTION);
+        mMemoryCache = new LruCache<String, Bitmap>(maxKilobytes) {
+            @Override
+            protected int sizeOf(String url, Bitmap bitmap) {
+                return Math.max(1, bitmap.getByteCount() / 1024);
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, String url, Bitmap oldBitmap,
+                                        Bitmap newBitmap) {
+                if (oldBitmap != newBitmap) {
+                    onDropped(oldBitmap);
+                }
+            }
+        };
+        mExecutor = (ThreadPoolExecutor) Executors.newFixedThreadPool(DOWNLOAD_THREADS,
+                new ThreadFactory() {
+            private final AtomicInteger mCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "thumbnail-" + mCount.incrementAndGet());
+                thread.setPriority(Thread.MIN_PRIORITY);
+                // Downloads are only ever for the UI, they mustn't keep the process alive
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Download at most the given number of thumbnails at once from now on. Downloads already
+     * running finish first.
+     */
+    void setMaxConcurrentDownloads(int downloads) {
+        if (downloads < 1) {
+            throw new IllegalArgumentException("At least one download at a time: " + downloads);
+        }
+        // The core size may never be larger than the maximum, not even for a moment
+        if (downloads < mExecutor.getCorePoolSize()) {
+            mExecutor.setCorePoolSize(downloads);
+            mExecutor.setMaximumPoolSize(downloads);
+        } else {
+            mExecutor.setMaximumPoolSize(downloads);
+            mExecutor.setCorePoolSize(downloads);
+        }
+    }
+
+    /**
+     * Show the thumbnail at the given URL in the given view, or the placeholder if the URL is
+     * null or until the thumbnail is ready.
+     */
+    void load(String url, ImageView view) {
+        cancel(view);
+        if (url == null) {
+            return;
+        }
+        Bitmap cached = getCached(url, true);
+        if (cached != null) {
+            show(view, cached);
+            return;
+        }
+        Request request = new Request(url, view);
+        mRequests.put(view, request);
+        request.future = mExecutor.submit(request);
+    }
+
+    /**
+     * Stop any load into the given view and show the placeholder, e.g. because its row was
+     * recycled. The bitmap it showed can then be reused for other thumbnails.
+     */
+    void cancel(ImageView view) {
+        Request request = mRequests.remove(view);
+        if (request != null) {
+            request.cancelled = true;
+            request.future.cancel(false);
+            mMetrics.thumbnailCancellations.increment();
+        }
+        Bitmap shown = mShown.remove(view);
+        view.setImageResource(R.drawable.ninja);
+        if (shown != null) {
+            release(shown);
+        }
+    }
+
+    /**
+     * Stop every load and show the placeholder in every view, e.g. because the list they are in
+     * is going away. Their bitmaps can then be reused for other thumbnails.
+     */
+    void cancelAll() {
+        Set<ImageView> views = Collections.newSetFromMap(new IdentityHashMap<ImageView, Boolean>());
+        views.addAll(mRequests.keySet());
+        views.addAll(mShown.keySet());
+        for (ImageView view : views) {
+            cancel(view);
+        }
+    }
+
+    /**
+     * Returns the thumbnail at the given URL from memory, disk or the network, decoded to the
+     * thumbnail size, or null if it can't be had. Blocks, so never call it on the main thread.
+     */
+    Bitmap loadSync(String url) {
+        return loadSync(url, null);
+    }
+
+    /**
+     * Loads for a view keep the bitmap from being reused until the view lets go of it.
+     */
+    private Bitmap loadSync(String url, Request request) {
+        boolean forView = request != null;
+        Bitmap bitmap = getCached(url, forView);
+        if (bitmap != null) {
+            return bitmap;
+        }
+
+        File file = mDiskCache.get(url);
+        if (file != null) {
+            mMetrics.thumbnailDiskHits.increment();
+        } else {
+            file = download(url);
+            if (file == null) {
+                return null;
+            }
+            mMetrics.thumbnailDownloads.increment();
+        }
+        if (forView && request.cancelled) {
+            // Downloaded for next time, but not worth decoding now
+            return null;
+        }
+
+        mDecodePermits.acquireUninterruptibly();
+        try {
+            bitmap = decode(file);
+        } finally {
+            mDecodePermits.release();
+        }
+        if (bitmap != null) {
+            if (forView) {
+                retain(bitmap);
+            }
+            mMemoryCache.put(url, bitmap);
+        }
+        return bitmap;
+    }
+
+    /**
+     * Returns the bitmap cached in memory for the given URL, or null. If retain is set it
+     * counts as shown from then on, so it can't be handed out for reuse even if the cache
+     * drops it before it reaches its view.
+     */
+    private Bitmap getCached(String url, boolean retain) {
+        Bitmap bitmap;
+        synchronized (mShowCounts) {
+            bitmap = mMemoryCache.get(url);
+            if (bitmap != null && retain) {
+                retain(bitmap);
+            }
+        }
+        if (bitmap != null) {
+            mMetrics.thumbnailMemoryHits.increment();
+        }
+        return bitmap;
+    }
+
+    private File download(String url) {
+        NewsHttpClient.Response response = null;
+        try {
+            response = mHttpClient.get(new URL(url), null, null);
+            if (response.getResponseCode() != HttpURLConnection.HTTP_OK) {
+                Log.e(LOG_TAG, "Error response code: " + response.getResponseCode());
+                return null;
+            }
+            return mDiskCache.put(url, response.getBody());
+        } catch (MalformedURLException e) {
+            Log.e(LOG_TAG, "Bad thumbnail URL " + url, e);
+            return null;
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Problem downloading the thumbnail " + url, e);
+            return null;
+        } finally {
+            if (response != null) {
+                try {
+                    response.close();
+                } catch (IOException ignored) {
+                }
+                // Thumbnails are large enough to tell how fast the network is
+                QueryUtils.getFetchPolicy().onResponse(response.getStats(),
+                        mExecutor.getActiveCount());
+            }
+        }
+    }
+
+    /**
+     * Decode the given image file down to the thumbnail size, into an unused bitmap where one
+     * fits.
+     */
+    private Bitmap decode(File file) {
+        long startNanos = System.nanoTime();
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(file.getPath(), options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            Log.e(LOG_TAG, "Unable to read the size of the thumbnail " + file);
+            return null;
+        }
+
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize(options.outWidth, options.outHeight, mTargetSize);
+        options.inPreferredConfig = Bitmap.Config.RGB_565;
+        options.inMutable = true;
+        options.inBitmap = takeReusable(options);
+        Bitmap bitmap;
+        try {
+            bitmap = BitmapFactory.decodeFile(file.getPath(), options);
+        } catch (IllegalArgumentException e) {
+            // The bitmap offered turned out not to fit after all
+            options.inBitmap = null;
+            bitmap = BitmapFactory.decodeFile(file.getPath(), options);
+        }
+        if (bitmap != null) {
+            if (options.inBitmap != null) {
+                mMetrics.thumbnailBitmapsReused.increment();
+            }
+            mMetrics.thumbnailDecodeTime.record((System.nanoTime() - startNanos) / 1000);
+        }
+        return bitmap;
+    }
+
+    /**
+     * Returns the largest power of two the image can be scaled down by while both its sides
+     * stay at least the target size, which is what a centre cropped view needs.
+     */
+    static int sampleSize(int width, int height, int targetSize) {
+        int sampleSize = 1;
+        while (width / (sampleSize * 2) >= targetSize && height / (sampleSize * 2) >= targetSize) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    /**
+     * Show a bitmap already retained for the given view.
+     */
+    private void show(ImageView view, Bitmap bitmap) {
+        view.setImageBitmap(bitmap);
+        mShown.put(view, bitmap);
+    }
+
+    private void retain(Bitmap bitmap) {
+        synchronized (mShowCounts) {
+            Integer count = mShowCounts.get(bitmap);
+            mShowCounts.put(bitmap, count == null ? 1 : count + 1);
+        }
+    }
+
+    /**
+     * Called when a view stops showing the given bitmap, or a load for a view is dropped.
+     */
+    private void release(Bitmap bitmap) {
+        synchronized (mShowCounts) {
+            Integer count = mShowCounts.get(bitmap);
+            if (count == null) {
+                return;
+            }
+            if (count > 1) {
+                mShowCounts.put(bitmap, count - 1);
+                return;
+            }
+            mShowCounts.remove(bitmap);
+            if (mDroppedWhileShown.remove(bitmap)) {
+                addReusable(bitmap);
+            }
+        }
+    }
+
+    /**
+     * Called when the memory cache lets go of the given bitmap.
+     */
+    private void onDropped(Bitmap bitmap) {
+        synchronized (mShowCounts) {
+            if (mShowCounts.containsKey(bitmap)) {
+                mDroppedWhileShown.add(bitmap);
+            } else {
+                addReusable(bitmap);
+            }
+        }
+    }
+
+    private void addReusable(Bitmap bitmap) {
+        if (!bitmap.isMutable()) {
+            return;
+        }
+        if (mReusable.size() >= MAX_REUSABLE_BITMAPS) {
+            mReusable.remove(0);
+        }
+        mReusable.add(bitmap);
+    }
+
+    /**
+     * Remove and return an unused bitmap that the image described by the given options can be
+     * decoded into, or null if there is none.
+     */
+    private Bitmap takeReusable(BitmapFactory.Options options) {
+        synchronized (mShowCounts) {
+            for (int i = 0; i < mReusable.size(); i++) {
+                Bitmap candidate = mReusable.get(i);
+                if (canReuse(candidate, options)) {
+                    mReusable.remove(i);
+                    return candidate;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Before KitKat a bitmap can only be decoded into if it is exactly the size of the image
+     * and the image isn't scaled; after, if it has at least as many bytes as needed.
+     */
+    private static boolean canReuse(Bitmap candidate, BitmapFactory.Options options) {
+        int sampleSize = Math.max(1, options.inSampleSize);
+        int width = options.outWidth / sampleSize;
+        int height = options.outHeight / sampleSize;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            // RGB_565, two bytes per pixel
+            return width * height * 2 <= candidate.getAllocationByteCount();
+        }
+        return sampleSize == 1 && candidate.getWidth() == width
+                && candidate.getHeight() == height
+                && candidate.getConfig() == options.inPreferredConfig;
+    }
+}
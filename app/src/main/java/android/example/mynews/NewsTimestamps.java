@@ -0,0 +1,127 @@
+package android.example.mynews;
+
+/**
+ * Converts between the Guardian's publication dates and epoch milliseconds.
+ * <p>
+ * The API always sends UTC timestamps of the form {@code 2019-06-14T12:00:05Z}, so this
+ * parses that one fixed layout by hand instead of going through {@link java.text.DateFormat},
+ * which is slow and not thread safe.
+ */
+final class NewsTimestamps {
+
+    /**
+     * Returned by {@link #parse(String)} when the date isn't in the expected layout
+     */
+    static final long UNKNOWN = Long.MIN_VALUE;
+
+    private static final int LENGTH = "2019-06-14T12:00:05Z".length();
+
+    private static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+
+    private NewsTimestamps() {
+    }
+
+    /**
+     * Returns the given {@code yyyy-MM-ddTHH:mm:ssZ} date in milliseconds since the epoch,
+     * or {@link #UNKNOWN} if it isn't in that layout.
+     */
+    static long parse(String date) {
+        if (date == null || date.length() != LENGTH
+                || date.charAt(4) != '-' || date.charAt(7) != '-' || date.charAt(10) != 'T'
+                || date.charAt(13) != ':' || date.charAt(16) != ':' || date.charAt(19) != 'Z') {
+            return UNKNOWN;
+        }
+        int year = digits(date, 0, 4);
+        int month = digits(date, 5, 2);
+        int day = digits(date, 8, 2);
+        int hour = digits(date, 11, 2);
+        int minute = digits(date, 14, 2);
+        int second = digits(date, 17, 2);
+        if (year < 0 || month < 1 || month > 12 || day < 1 || day > 31
+                || hour < 0 || hour > 23 || minute < 0 || minute > 59 || second < 0 || second > 59) {
+            return UNKNOWN;
+        }
+        return daysFromCivil(year, month, day) * MILLIS_PER_DAY
+                + ((hour * 60L + minute) * 60L + second) * 1000L;
+    }
+
+    /**
+     * Returns the given time in milliseconds since the epoch as a {@code yyyy-MM-ddTHH:mm:ssZ}
+     * date, dropping any fraction of a second.
+     */
+    static String format(long millis) {
+        long days = floorDiv(millis, MILLIS_PER_DAY);
+        long secondOfDay = (millis - days * MILLIS_PER_DAY) / 1000;
+
+        // Inverse of daysFromCivil
+        long z = days + 719468;
+        long era = floorDiv(z, 146097);
+        long dayOfEra = z - era * 146097;
+        long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        long mp = (5 * dayOfYear + 2) / 153;
+        int day = (int) (dayOfYear - (153 * mp + 2) / 5 + 1);
+        int month = (int) (mp < 10 ? mp + 3 : mp - 9);
+        long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+
+        char[] out = new char[LENGTH];
+        putDigits(out, 0, (int) year, 4);
+        out[4] = '-';
+        putDigits(out, 5, month, 2);
+        out[7] = '-';
+        putDigits(out, 8, day, 2);
+        out[10] = 'T';
+        putDigits(out, 11, (int) (secondOfDay / 3600), 2);
+        out[13] = ':';
+        putDigits(out, 14, (int) (secondOfDay / 60 % 60), 2);
+        out[16] = ':';
+        putDigits(out, 17, (int) (secondOfDay % 60), 2);
+        out[19] = 'Z';
+        return new String(out);
+    }
+
+    /**
+     * Returns the number of days between 1970-01-01 and the given proleptic Gregorian date.
+     */
+    private static long daysFromCivil(int year, int month, int day) {
+        long y = month <= 2 ? year - 1 : year;
+        long era = floorDiv(y, 400);
+        long yearOfEra = y - era * 400;
+        long dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+
+    /**
+     * Integer division rounding towards negative infinity (Math.floorDiv needs API level 24).
+     */
+    private static long floorDiv(long dividend, long divisor) {
+        long quotient = dividend / divisor;
+        if ((dividend % divisor != 0) && ((dividend < 0) != (divisor < 0))) {
+            quotient--;
+        }
+        return quotient;
+    }
+
+    /**
+     * Returns the decimal number in the given range of the string, or -1 if it isn't one.
+     */
+    private static int digits(String value, int start, int count) {
+        int result = 0;
+        for (int i = start; i < start + count; i++) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            result = result * 10 + (c - '0');
+        }
+        return result;
+    }
+
+    private static void putDigits(char[] out, int start, int value, int count) {
+        for (int i = start + count - 1; i >= start; i--) {
+            out[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+    }
+}
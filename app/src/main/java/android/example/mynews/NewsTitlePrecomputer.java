@@ -0,0 +1,154 @@
+package android.example.mynews;
+
+import android.os.Build;
+import android.support.v4.text.PrecomputedTextCompat;
+import android.util.LruCache;
+import android.support.v4.widget.TextViewCompat;
+import android.widget.TextView;
+
+import java.util.List;
+
+/**
+ * Measures the text layout of article titles off the UI thread, so binding a row of the news
+ * list only hands a ready-made layout to its title view instead of measuring the text.
+ * <p>
+ * Titles are measured with {@link PrecomputedTextCompat}, which needs the text metrics of the
+ * view the title will be shown in: its paint, text direction, break strategy and hyphenation.
+ * The adapter registers them from the first row it creates, and again whenever they change,
+ * e.g. after the font scale did. Until then nothing is measured. The loader then measures the
+ * titles of each batch of articles as it is parsed.
+ * <p>
+ * The measured layouts are kept here, by web URL, and only for the
+ * {@link #DEFAULT_MAX_TITLES} articles measured most recently, rather than on the articles
+ * themselves: articles live on in caches and the search index long after they left the
+ * screen, and a layout is much larger than the title it was measured from. Layouts measured
+ * with metrics that no longer apply are dropped when the metrics change.
+ * <p>
+ * A title measured with other metrics than the row's can't be shown, so
+ * {@link #bindTitle(TextView, PrecomputedTextCompat.Params, News)} falls back to plain text
+ * for it, as it does for a title that was dropped or has changed since it was measured.
+ */
+final class NewsTitlePrecomputer {
+
+    /**
+     * Titles kept by default, more than the rows of the pages the list keeps in memory
+     */
+    static final int DEFAULT_MAX_TITLES = 200;
+
+    private static final NewsTitlePrecomputer sInstance =
+            new NewsTitlePrecomputer(DEFAULT_MAX_TITLES);
+
+    /**
+     * Returns the precomputer shared by the list and its loaders.
+     */
+    static NewsTitlePrecomputer getInstance() {
+        return sInstance;
+    }
+
+    /**
+     * Text metrics of the title view of the list's rows, or null until a row has been created
+     */
+    private volatile PrecomputedTextCompat.Params mParams;
+
+    /**
+     * Measured titles by web URL, least recently used first
+     */
+    private final LruCache<String, Measured> mTitles;
+
+    /**
+     * A title and its layout.
+     */
+    private static final class Measured {
+        final String title;
+        final PrecomputedTextCompat text;
+
+        Measured(String title, PrecomputedTextCompat text) {
+            this.title = title;
+            this.text = text;
+        }
+    }
+
+    /**
+     * Constructs a new {@link NewsTitlePrecomputer}.
+     *
+     * @param maxTitles is the number of the most recently measured titles kept
+     */
+    NewsTitlePrecomputer(int maxTitles) {
+        mTitles = new LruCache<>(maxTitles);
+    }
+
+    /**
+     * Returns the text metrics of the given title view. Call on the UI thread.
+     */
+    static PrecomputedTextCompat.Params paramsOf(TextView title) {
+        return TextViewCompat.getTextMetricsParams(title);
+    }
+
+    /**
+     * Measure titles from now on for title views with the given text metrics.
+     */
+    void setParams(PrecomputedTextCompat.Params params) {
+        if (!params.equals(mParams)) {
+            mParams = params;
+            // None of them can be shown any more
+            mTitles.evictAll();
+        }
+    }
+
+    /**
+     * Measure the title of every article that hasn't been measured with the current text
+     * metrics. Call on a background thread; does nothing if no row has been created yet.
+     */
+    void precomputeAll(List<News> news) {
+        PrecomputedTextCompat.Params params = mParams;
+        if (news == null || params == null) {
+            return;
+        }
+        for (News article : news) {
+            String url = article.getNewsArticleUrl();
+            String title = article.getNewsArticleTitle();
+            if (url == null || title == null || find(url, title, params) != null) {
+                continue;
+            }
+            mTitles.put(url, new Measured(title, PrecomputedTextCompat.create(title, params)));
+        }
+    }
+
+    /**
+     * Returns the layout of the given title of the article with the given web URL measured
+     * with the given metrics, or null if there is none.
+     */
+    private PrecomputedTextCompat find(String url, String title,
+                                       PrecomputedTextCompat.Params params) {
+        Measured measured = mTitles.get(url);
+        if (measured == null || !measured.title.equals(title)
+                || !measured.text.getParams().equals(params)) {
+            return null;
+        }
+        return measured.text;
+    }
+
+    /**
+     * Show the title of the given article in the given view, whose text metrics are given,
+     * and return true if it was measured for them already, or show it as plain text and return
+     * false if not. Call on the UI thread.
+     */
+    boolean bindTitle(TextView title, PrecomputedTextCompat.Params params, News news) {
+        String text = news.getNewsArticleTitle();
+        String url = news.getNewsArticleUrl();
+        PrecomputedTextCompat precomputed =
+                url != null && text != null ? find(url, text, params) : null;
+        if (precomputed != null) {
+            // Like TextViewCompat.setPrecomputedText(), without reading the view's metrics
+            // again for every row
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P) {
+                title.setText(precomputed.getPrecomputedText());
+            } else {
+                title.setText(precomputed);
+            }
+            return true;
+        }
+        title.setText(text);
+        return false;
+    }
+}
@@ -15,12 +15,42 @@ import java.net.URL;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
 
 
 public final class QueryUtils {
 
     private static final String LOG_TAG = QueryUtils.class.getSimpleName();
 
+    /**
+     * Client shared by every request, so connections are reused between them
+     */
+    private static volatile NewsHttpClient sHttpClient = new NewsHttpClient(
+            NewsHttpClient.DEFAULT_CONNECT_TIMEOUT_MILLIS, NewsHttpClient.DEFAULT_READ_TIMEOUT_MILLIS);
+
+    /**
+     * The articles most recently fetched or read from the cache, so they can be searched
+     * offline
+     */
+    private static final NewsSearchIndex sSearchIndex = new NewsSearchIndex();
+
+    /**
+     * Where the phases of every request are recorded
+     */
+    private static final NewsMetrics sMetrics = NewsMetrics.getInstance();
+
+    /**
+     * Learns how fast the network is from the timings of every request
+     */
+    private static final NewsFetchPolicy sFetchPolicy = new NewsFetchPolicy();
+
+    /**
+     * Shares one fetch between identical queries made at the same time or in quick succession
+     */
+    private static final NewsRequestCoalescer sCoalescer = new NewsRequestCoalescer(
+            NewsRequestCoalescer.DEFAULT_TTL_MILLIS, NewsRequestCoalescer.DEFAULT_MAX_ENTRIES,
+            NewsClock.SYSTEM);
+
     private QueryUtils() {
     }
 
@@ -28,22 +58,170 @@ public final class QueryUtils {
      * Query the Guardian's dataset and return a list  {@link News} article objects.
      */
     public static List<News> fetchNewsArticleData(String requestUrl) {
-        // Create URL object
-        URL url = createUrl(requestUrl);
+        return fetchNewsArticleData(requestUrl, null);
+    }
+
+    /**
+     * Query the Guardian's dataset and return a list of {@link News} article objects,
+     * revalidating and updating the copy kept in the given cache (which may be null).
+     * <p>
+     * If the server answers 304 Not Modified, or can't be reached at all, the cached articles
+     * are returned instead.
+     * <p>
+     * Concurrent calls for the same query and cache share one request, and a query fetched
+     * for the same cache in the last few seconds is answered from memory; the list returned
+     * can't be modified.
+     */
+    static List<News> fetchNewsArticleData(final String requestUrl, final NewsDiskCache cache) {
+        long startNanos = System.nanoTime();
+        try {
+            return sCoalescer.fetch(requestUrl, cache, new Callable<List<News>>() {
+                @Override
+                public List<News> call() {
+                    return fetchNewsArticleData(createUrl(requestUrl), requestUrl, cache,
+                            NewsCancellation.NONE, null);
+                }
+            });
+        } finally {
+            sMetrics.fetchTime.record((System.nanoTime() - startNanos) / 1000);
+        }
+    }
+
+    /**
+     * Like {@link #fetchNewsArticleData(String, NewsDiskCache)}, but stops early when the
+     * given cancellation does. If its deadline is reached, the articles parsed by then are
+     * returned, or the cached articles if none were; they aren't cached as the results of the
+     * query. If it is cancelled, what is returned is incomplete and meant to be dropped.
+     * <p>
+     * Such a fetch is answered from memory when the query was fetched for the same cache
+     * moments ago, but doesn't share a fetch in progress with other calls, since it may be
+     * abandoned half way.
+     */
+    static List<News> fetchNewsArticleData(String requestUrl, NewsDiskCache cache,
+                                           NewsCancellation cancellation) {
+        return fetchNewsArticleData(requestUrl, cache, cancellation, null);
+    }
+
+    /**
+     * Like {@link #fetchNewsArticleData(String, NewsDiskCache, NewsCancellation)}, but also
+     * hands the articles of a response to the given consumer, which may be null, in batches as
+     * they are parsed. Articles answered from memory, from the cache or by a 304 don't go
+     * through the consumer, nor do any fetched without a cancellation, which may come from a
+     * fetch shared with other calls; only the list returned holds those.
+     */
+    static List<News> fetchNewsArticleData(String requestUrl, NewsDiskCache cache,
+                                           NewsCancellation cancellation,
+                                           NewsIngestPipeline.Consumer consumer) {
+        if (cancellation == NewsCancellation.NONE) {
+            return fetchNewsArticleData(requestUrl, cache);
+        }
+        long startNanos = System.nanoTime();
+        try {
+            List<News> recent = sCoalescer.peek(requestUrl, cache);
+            if (recent != null) {
+                sMetrics.memoryCacheHits.increment();
+                return recent;
+            }
+            List<News> news = fetchNewsArticleData(createUrl(requestUrl), requestUrl, cache,
+                    cancellation, consumer);
+            if (news != null && !cancellation.isStopped()) {
+                news = sCoalescer.put(requestUrl, cache, news);
+            }
+            return news;
+        } finally {
+            sMetrics.fetchTime.record((System.nanoTime() - startNanos) / 1000);
+        }
+    }
 
-        // Perform HTTP request to the URL and receive a JSON response back
-        String jsonResponse = null;
+    private static List<News> fetchNewsArticleData(URL url, String requestUrl,
+                                                   NewsDiskCache cache,
+                                                   NewsCancellation cancellation,
+                                                   NewsIngestPipeline.Consumer consumer) {
+        NewsDiskCache.Entry cached = cache != null ? cache.get(requestUrl) : null;
+
+        // Perform HTTP request to the URL and stream the relevant fields of the JSON
+        // response into a list of {@link News}s
+        NewsDiskCache.Entry fetched = null;
         try {
-            jsonResponse = makeHttpRequest(url);
+            fetched = makeHttpRequest(url, cached, cancellation, consumer);
         } catch (IOException e) {
             Log.e(LOG_TAG, "Problem making the HTTP request.", e);
         }
 
-        // Extract relevant fields from the JSON response and create a list of {@link News}s
-        List<News> news = extractFeatureFromJson(jsonResponse);
+        if (cancellation.isStopped()) {
+            if (cancellation.isCancelled()) {
+                sMetrics.cancelledRequests.increment();
+            } else {
+                sMetrics.deadlinesReached.increment();
+            }
+            // Partial results are shown but not kept as the answer to the query; they were
+            // indexed as they were parsed
+            if (fetched != null && !fetched.news.isEmpty()) {
+                return fetched.news;
+            }
+            fetched = null;
+        }
+
+        if (fetched == null) {
+            // Work offline from the last results we have
+            if (cached == null) {
+                return null;
+            }
+            sMetrics.offlineFallbacks.increment();
+            sSearchIndex.addAll(cached.news);
+            return cached.news;
+        }
+        if (cache != null) {
+            cache.put(requestUrl, fetched);
+        }
+        // Parsed articles are already indexed, but a 304 answers with the cached ones
+        sSearchIndex.addAll(fetched.news);
 
         // Return the list of {@link News} articles
-        return news;
+        return fetched.news;
+    }
+
+    /**
+     * Returns the entry cached for the given URL, without touching the network.
+     */
+    static NewsDiskCache.Entry readCachedNewsArticleData(String requestUrl, NewsDiskCache cache) {
+        NewsDiskCache.Entry cached = cache.get(requestUrl);
+        if (cached != null) {
+            sMetrics.cacheHits.increment();
+            sSearchIndex.addAll(cached.news);
+        } else {
+            sMetrics.cacheMisses.increment();
+        }
+        return cached;
+    }
+
+    /**
+     * Forget the results kept in memory for the given URL, so the next fetch goes to the
+     * network (or the disk cache) even if it was fetched moments ago.
+     */
+    static void invalidateRecentNewsArticleData(String requestUrl) {
+        sCoalescer.invalidate(requestUrl);
+    }
+
+    /**
+     * Returns the index of every article fetched so far.
+     */
+    static NewsSearchIndex getSearchIndex() {
+        return sSearchIndex;
+    }
+
+    /**
+     * Returns the policy that decides what to fetch from how previous requests went.
+     */
+    static NewsFetchPolicy getFetchPolicy() {
+        return sFetchPolicy;
+    }
+
+    /**
+     * Replace the client used for every request, e.g. to change its timeouts.
+     */
+    static void setHttpClient(NewsHttpClient httpClient) {
+        sHttpClient = httpClient;
     }
 
     /**
@@ -60,51 +238,88 @@ public final class QueryUtils {
     }
 
     /**
-     * Make an HTTP request to the given URL and return a String as the response.
+     * Make an HTTP request to the given URL and parse the response body as it arrives,
+     * handing the articles to the search index, and to the given consumer if there is one,
+     * in batches as they are parsed. If a cached entry is given, the request is made conditional
+     * on its validators and the entry is returned again, with a fresh fetch time, when the server
+     * answers 304.
+     * Returns null if the request failed, and an entry with only the articles parsed before
+     * the cancellation stopped if it did.
      */
-    private static String makeHttpRequest(URL url) throws IOException {
-        String jsonResponse = "";
+    private static NewsDiskCache.Entry makeHttpRequest(URL url, NewsDiskCache.Entry cached,
+                                                       NewsCancellation cancellation,
+                                                       NewsIngestPipeline.Consumer consumer)
+            throws IOException {
+        NewsDiskCache.Entry entry = null;
 
         // If the URL is null, then return early.
         if (url == null) {
-            return jsonResponse;
+            return entry;
         }
 
-        HttpURLConnection urlConnection = null;
-        InputStream inputStream = null;
+        NewsHttpClient.Response response = null;
+        long bodyMicros = 0;
         try {
-            urlConnection = (HttpURLConnection) url.openConnection();
-            urlConnection.setReadTimeout(10000 /* milliseconds */);
-            urlConnection.setConnectTimeout(15000 /* milliseconds */);
-            urlConnection.setRequestMethod("GET");
-            urlConnection.connect();
+            sMetrics.requests.increment();
+            response = sHttpClient.get(url,
+                    cached != null ? cached.etag : null,
+                    cached != null ? cached.lastModified : null, cancellation);
 
             // If the request was successful (response code 200),
-            // then read the input stream and parse the response.
-            if (urlConnection.getResponseCode() == 200) {
-                inputStream = urlConnection.getInputStream();
-                jsonResponse = readFromStream(inputStream);
+            // then parse the response straight from the input stream.
+            if (response.getResponseCode() == HttpURLConnection.HTTP_OK) {
+                long bodyStartNanos = System.nanoTime();
+                NewsIngestPipeline pipeline = new NewsIngestPipeline()
+                        .addConsumer(new NewsIngestPipeline.Consumer() {
+                            @Override
+                            public void onBatch(List<News> batch) {
+                                sSearchIndex.addAll(batch);
+                            }
+                        });
+                if (consumer != null) {
+                    pipeline.addConsumer(consumer);
+                }
+                List<News> news = pipeline.ingest(response.getBody(), cancellation);
+                bodyMicros = (System.nanoTime() - bodyStartNanos) / 1000;
+                entry = new NewsDiskCache.Entry(response.getEtag(), response.getLastModified(),
+                        System.currentTimeMillis(), news);
+            } else if (response.isNotModified() && cached != null) {
+                // Our copy is still current, nothing to download or parse
+                sMetrics.notModified.increment();
+                entry = new NewsDiskCache.Entry(cached.etag, cached.lastModified,
+                        System.currentTimeMillis(), cached.news);
             } else {
-                Log.e(LOG_TAG, "Error response code: " + urlConnection.getResponseCode());
+                Log.e(LOG_TAG, "Error response code: " + response.getResponseCode());
             }
         } catch (IOException e) {
-            Log.e(LOG_TAG, "Problem retrieving the news article JSON results.", e);
+            if (cancellation.isStopped()) {
+                Log.d(LOG_TAG, "Stopped retrieving the news article JSON results: " + e);
+            } else {
+                Log.e(LOG_TAG, "Problem retrieving the news article JSON results.", e);
+            }
         } finally {
-            if (urlConnection != null) {
-                urlConnection.disconnect();
+            // Closing without disconnecting hands the connection back to the keep-alive pool
+            if (response != null) {
+                response.close();
+                sFetchPolicy.onResponse(response.getStats());
             }
-            if (inputStream != null) {
-                inputStream.close();
+            if (entry == null) {
+                sMetrics.requestFailures.increment();
+            } else if (response.getResponseCode() == HttpURLConnection.HTTP_OK) {
+                sMetrics.recordResponse(response.getStats(), bodyMicros, entry.news.size());
             }
         }
-        return jsonResponse;
+        return entry;
     }
 
     /**
      * Convert the {@link InputStream} into a String which contains the
      * whole JSON response from the server.
+     * <p>
+     * The network path streams through {@link NewsJsonStreamParser}; this is kept as the
+     * reference implementation the streaming parser is checked against.
      */
-    private static String readFromStream(InputStream inputStream) throws IOException {
+    static String readFromStream(InputStream inputStream) throws IOException {
         StringBuilder output = new StringBuilder();
         if (inputStream != null) {
             InputStreamReader inputStreamReader = new InputStreamReader(inputStream, Charset.forName("UTF-8"));
@@ -122,7 +337,7 @@ public final class QueryUtils {
      * Return a list of {@link News} article objects that has been built up from
      * parsing the given JSON response.
      */
-    private static List<News> extractFeatureFromJson(String newsArticleJSON) {
+    static List<News> extractFeatureFromJson(String newsArticleJSON) {
         String title;
         String author;
         String date;
@@ -149,47 +364,68 @@ public final class QueryUtils {
             JSONArray newsArticleResultsArray = newsArticleResponse.getJSONArray("results");
 
 
-            // For each news article in the newsArticleResultsArray, create an {@link News} article object
+            // For each news article in the newsArticleResultsArray, create an {@link News} article object.
+            // A result that can't be read is skipped and counted, and the ones after it are still read.
             for (int i = 0; i < newsArticleResultsArray.length(); i++) {
+                try {
 
-                // Get a single news article at position i within the list of news articles
-                JSONObject currentNewsArticle = newsArticleResultsArray.getJSONObject(i);
+                    // Get a single news article at position i within the list of news articles
+                    JSONObject currentNewsArticle = newsArticleResultsArray.getJSONObject(i);
 
-                // Extract the value for the key called "sectionName"
-                String NewsArticleSectionName = currentNewsArticle.getString("sectionName");
+                    // Extract the value for the key called "sectionName"
+                    String NewsArticleSectionName = currentNewsArticle.getString("sectionName");
 
-                // Extract the value for the key called "webTitle"
-                String NewsArticleTitle = currentNewsArticle.getString("webTitle");
+                    // Extract the value for the key called "webTitle"
+                    String NewsArticleTitle = currentNewsArticle.getString("webTitle");
 
 
-                // Extract the value for the key called "webTitle" in the array "tags".
-                // This allows us to get the author's name.
-                String NewsArticleAuthor = "";
-                // Extract the value for the key called "webPublicationDate"
+                    // Extract the value for the key called "webTitle" in the array "tags".
+                    // This allows us to get the author's name.
+                    String NewsArticleAuthor = "";
+                    // Extract the value for the key called "webPublicationDate"
 
-                String NewsArticlePublicationDate = currentNewsArticle.getString("webPublicationDate");
+                    String NewsArticlePublicationDate = currentNewsArticle.getString("webPublicationDate");
 
-                // Extract the value for the key called "webUrl"
-                String NewsArticleUrl = currentNewsArticle.getString("webUrl");
+                    // Extract the value for the key called "webUrl"
+                    String NewsArticleUrl = currentNewsArticle.getString("webUrl");
 
-                // Check if array object "tags" has any value
-                if (currentNewsArticle.getJSONArray("tags").length() > 0) {
-                    // If so, extract its (webTitle) value for the author's name
-                    NewsArticleAuthor = currentNewsArticle.getJSONArray("tags").getJSONObject(0).getString("webTitle");
-                } else {
-                    NewsArticleAuthor = "No Author Listed";
-                }
+                    // Check if array object "tags" has any value
+                    if (currentNewsArticle.getJSONArray("tags").length() > 0) {
+                        // If so, extract its (webTitle) value for the author's name
+                        NewsArticleAuthor = currentNewsArticle.getJSONArray("tags").getJSONObject(0).getString("webTitle");
+                    } else {
+                        NewsArticleAuthor = "No Author Listed";
+                    }
+
+
+                    // Extract the thumbnail from the object "fields", which is only sent when
+                    // asked for with show-fields=thumbnail
+                    String NewsArticleThumbnailUrl = null;
+                    JSONObject fields = currentNewsArticle.optJSONObject("fields");
+                    if (fields != null && fields.has("thumbnail")) {
+                        NewsArticleThumbnailUrl = fields.getString("thumbnail");
+                    }
 
+                    String problem = NewsJsonStreamParser.missingField(NewsArticleSectionName,
+                            NewsArticleTitle, NewsArticlePublicationDate, NewsArticleUrl, true);
+                    if (problem != null) {
+                        throw new JSONException(problem);
+                    }
 
-                // Create a new {@link News} object with the news_article_section_name, NewsArticleTitle, NewsArticlePublicationDate,
-                // and NewsArticleUrl from the JSON response.
-                News newsfeed = new News(NewsArticleSectionName, NewsArticleTitle, NewsArticleAuthor, NewsArticlePublicationDate, NewsArticleUrl);
+                    // Create a new {@link News} object with the news_article_section_name, NewsArticleTitle, NewsArticlePublicationDate,
+                    // and NewsArticleUrl from the JSON response.
+                    News newsfeed = new News(NewsArticleSectionName, NewsArticleTitle, NewsArticleAuthor, NewsArticlePublicationDate, NewsArticleUrl, NewsArticleThumbnailUrl);
 
-                // Add the new {@link News} to the list of news articles.
-                news.add(newsfeed);
+                    // Add the new {@link News} to the list of news articles.
+                    news.add(newsfeed);
+                } catch (JSONException e) {
+                    Log.w(LOG_TAG, "Skipping news article JSON result " + i + ": " + e.getMessage());
+                    sMetrics.malformedResults.increment();
+                }
             }
 
         } catch (JSONException e) {
+            // Only a response without a results array gets here
             Log.e("QueryUtils", "Problem parsing the news article JSON results", e);
         }
 
@@ -197,10 +433,4 @@ public final class QueryUtils {
         return news;
     }
 
-
-    private static String formatDate(String NewsArticlePublicationDate) {
-
-        return NewsArticlePublicationDate;
-    }
-
 }
\ No newline at end of file
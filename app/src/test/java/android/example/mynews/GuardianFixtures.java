@@ -0,0 +1,410 @@
+package android.example.mynews;
+
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+
+/**
+ * Builds Guardian search responses shaped like the ones recorded from
+ * content.guardianapis.com with {@code show-tags=contributor&show-references=author}.
+ * <p>
+ * Results carry all the fields the API sends back (ids, api urls, pillar, full contributor
+ * tags and references), not just the five the app reads, so parsers see realistic payloads.
+ */
+final class GuardianFixtures {
+
+    private static final String[] SECTIONS = {
+            "US news", "World news", "Environment", "Sport", "Politics", "Business",
+            "Opinion", "Technology", "Culture", "Travel"
+    };
+
+    private static final String[] AUTHORS = {
+            "Tom Dart", "Lois Beckett", "Oliver Milman", "Sam Levin", "Julia Carrie Wong",
+            "Amanda Holpuch", "Jessica Glenza", "Adam Gabbatt", "Mona Chalabi", "Martin Pengelly"
+    };
+
+    private static final String[] WORDS = {
+            "Arizona", "border", "wildfire", "Phoenix", "desert", "heat", "election", "senate",
+            "water", "drought", "Tucson", "migrants", "canyon", "governor", "\"record\"",
+            "café", "night", "storm", "court", "vote", "Navajo", "mine", "copper", "sun"
+    };
+
+    private GuardianFixtures() {
+    }
+
+    static byte[] searchResponseBytes(int count) {
+        return searchResponse(count).getBytes(Charset.forName("UTF-8"));
+    }
+
+    /**
+     * Returns a search response with the given number of results.
+     */
+    static String searchResponse(int count) {
+        return searchResponse(0, count);
+    }
+
+    static byte[] searchResponseBytes(int first, int count) {
+        return searchResponse(first, count).getBytes(Charset.forName("UTF-8"));
+    }
+
+    /**
+     * Returns a search response holding the results with indexes first to first + count - 1.
+     * The same index always produces the same article, so responses can overlap.
+     */
+    static String searchResponse(int first, int count) {
+        return searchResponse(first, count, false);
+    }
+
+    static byte[] searchResponseBytes(int first, int count, boolean thumbnails) {
+        return searchResponse(first, count, thumbnails).getBytes(Charset.forName("UTF-8"));
+    }
+
+    /**
+     * Returns a search response holding the results with indexes first to first + count - 1,
+     * each with a {@code fields} object holding its thumbnail if thumbnails is set, as sent for
+     * {@code show-fields=thumbnail}.
+     */
+    static String searchResponse(int first, int count, boolean thumbnails) {
+        return searchResponse(first, count, thumbnails ? "thumbnail" : null, "contributor",
+                "author");
+    }
+
+    /**
+     * Returns a search response holding the results with indexes first to first + count - 1,
+     * as the API sends it for the given {@code show-fields}, {@code show-tags} and
+     * {@code show-references} parameters, any of which may be null. Fields and tag types are
+     * comma separated, and "all" asks for every one.
+     */
+    static String searchResponse(int first, int count, String showFields, String showTags,
+                                 String showReferences) {
+        StringBuilder json = new StringBuilder(count * 1500);
+        json.append("{\"response\":{\"status\":\"ok\",\"userTier\":\"developer\",\"total\":")
+                .append(count)
+                .append(",\"startIndex\":").append(first + 1)
+                .append(",\"pageSize\":").append(count)
+                .append(",\"currentPage\":1,\"pages\":1,\"orderBy\":\"newest\",\n\"results\":[\n");
+        for (int i = first; i < first + count; i++) {
+            if (i > first) {
+                json.append(",\n");
+            }
+            appendResult(json, i, showFields, showTags, showReferences);
+        }
+        json.append("]}}");
+        return json.toString();
+    }
+
+    /**
+     * Kinds of damage done to a result by {@link #searchResponseWithMalformedResults}
+     */
+    static final int MALFORMED_KINDS = 6;
+
+    /**
+     * Returns a search response holding the results with indexes 0 to count - 1, except that
+     * every result whose index is one less than a multiple of malformedEvery is damaged in one
+     * of {@link #MALFORMED_KINDS} ways, in turn: no webUrl, a null webTitle, tags that aren't
+     * an array, a sectionName that is an object, an empty webPublicationDate, or a string
+     * instead of an object. The response is still valid JSON.
+     */
+    static String searchResponseWithMalformedResults(int count, int malformedEvery) {
+        StringBuilder json = new StringBuilder(count * 1500);
+        json.append("{\"response\":{\"status\":\"ok\",\"total\":").append(count)
+                .append(",\"startIndex\":1,\"pageSize\":").append(count)
+                .append(",\"currentPage\":1,\"pages\":1,\"orderBy\":\"newest\",\n\"results\":[\n");
+        StringBuilder result = new StringBuilder(1500);
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                json.append(",\n");
+            }
+            result.setLength(0);
+            appendResult(result, i, null, "contributor", "author");
+            if (isMalformed(i, malformedEvery)) {
+                int kind = (i / malformedEvery) % MALFORMED_KINDS;
+                json.append(malformed(result.toString(), i, kind));
+            } else {
+                json.append(result);
+            }
+        }
+        json.append("]}}");
+        return json.toString();
+    }
+
+    /**
+     * Returns true if the result with the given index is damaged in a response made by
+     * {@link #searchResponseWithMalformedResults(int, int)}.
+     */
+    static boolean isMalformed(int index, int malformedEvery) {
+        return index % malformedEvery == malformedEvery - 1;
+    }
+
+    private static String malformed(String result, int index, int kind) {
+        // Matches a JSON string, escaped quotes and all
+        String string = "\"(?:[^\"\\\\]|\\\\.)*\"";
+        switch (kind) {
+            case 0:
+                return result.replaceFirst("\"webUrl\":" + string + ",", "");
+            case 1:
+                return result.replaceFirst("\"webTitle\":" + string, "\"webTitle\":null");
+            case 2:
+                return result.replaceFirst("\"tags\":\\[", "\"tags\":\"contributor\",\"oldTags\":[");
+            case 3:
+                return result.replaceFirst("\"sectionName\":" + string,
+                        "\"sectionName\":{\"id\":\"us-news\"}");
+            case 4:
+                return result.replaceFirst("\"webPublicationDate\":" + string,
+                        "\"webPublicationDate\":\"\"");
+            default:
+                return "\"" + slug(index) + "\"";
+        }
+    }
+
+    /**
+     * Returns the webUrl of the result at the given index.
+     */
+    static String webUrl(int index) {
+        return "https://www.theguardian.com/" + slug(index);
+    }
+
+    /**
+     * Returns the thumbnail URL of the result at the given index.
+     */
+    static String thumbnailUrl(int index) {
+        return "https://media.guim.co.uk/" + Integer.toHexString(index * 7919)
+                + "/0_0_3000_1800/500.jpg";
+    }
+
+    /**
+     * Returns count synthetic articles as a feed sees them across sections and updates: most
+     * are new stories, some are a story seen earlier under a reworded title (one word
+     * replaced, added or dropped), and some repeat an earlier article under another section
+     * with a tracking parameter on its URL. Titles are drawn from a vocabulary of a few
+     * thousand made up words. {@link #storyOf(News)} tells which story each one belongs to.
+     */
+    static List<News> syntheticStories(int count, long seed) {
+        Random random = new Random(seed);
+        String[] vocabulary = new String[5000];
+        for (int i = 0; i < vocabulary.length; i++) {
+            StringBuilder word = new StringBuilder();
+            int letters = 3 + random.nextInt(7);
+            for (int l = 0; l < letters; l++) {
+                word.append((char) ('a' + random.nextInt(26)));
+            }
+            vocabulary[i] = word.toString();
+        }
+
+        List<News> news = new ArrayList<>(count);
+        List<List<String>> titles = new ArrayList<>();
+        int[] versions = new int[count];
+        for (int i = 0; i < count; i++) {
+            int kind = random.nextInt(10);
+            String section = SECTIONS[random.nextInt(SECTIONS.length)];
+            if (kind == 0 && !news.isEmpty()) {
+                // The same article again, listed under another section
+                News earlier = news.get(random.nextInt(news.size()));
+                news.add(new News(section, earlier.getNewsArticleTitle(),
+                        earlier.getNewsArticleAuthor(), earlier.getNewsArticlePublicationTime(),
+                        earlier.getNewsArticleUrl() + "?CMP=share_btn_link"));
+                continue;
+            }
+            List<String> words;
+            int story;
+            if (kind <= 2 && !titles.isEmpty()) {
+                // An update of an earlier story under a reworded title
+                story = random.nextInt(titles.size());
+                words = new ArrayList<>(titles.get(story));
+                int edit = random.nextInt(3);
+                String word = vocabulary[random.nextInt(vocabulary.length)];
+                if (edit == 0) {
+                    words.set(random.nextInt(words.size()), word);
+                } else if (edit == 1) {
+                    words.add(random.nextInt(words.size() + 1), word);
+                } else {
+                    words.remove(random.nextInt(words.size()));
+                }
+            } else {
+                story = titles.size();
+                words = new ArrayList<>();
+                int length = 8 + random.nextInt(6);
+                for (int w = 0; w < length; w++) {
+                    words.add(vocabulary[random.nextInt(vocabulary.length)]);
+                }
+                titles.add(words);
+            }
+            StringBuilder title = new StringBuilder();
+            for (String word : words) {
+                if (title.length() > 0) {
+                    title.append(' ');
+                }
+                title.append(word);
+            }
+            news.add(new News(section, title.toString(),
+                    AUTHORS[random.nextInt(AUTHORS.length)], 1560513605000L - i * 60000L,
+                    "https://www.theguardian.com/world/story-" + story + "/v" + versions[story]++));
+        }
+        return news;
+    }
+
+    /**
+     * Returns the story an article made by {@link #syntheticStories(int, long)} belongs to.
+     */
+    static int storyOf(News news) {
+        String url = news.getNewsArticleUrl();
+        int start = url.indexOf("/story-") + "/story-".length();
+        return Integer.parseInt(url.substring(start, url.indexOf('/', start)));
+    }
+
+    private static void appendResult(StringBuilder json, int index, String showFields,
+                                     String showTags, String showReferences) {
+        Random random = new Random(index);
+        String section = SECTIONS[random.nextInt(SECTIONS.length)];
+        String sectionId = section.toLowerCase(Locale.US).replace(' ', '-');
+        String slug = slug(index);
+        json.append("{\"id\":\"").append(slug)
+                .append("\",\"type\":\"article\",\"sectionId\":\"").append(sectionId)
+                .append("\",\"sectionName\":\"").append(section)
+                .append("\",\"webPublicationDate\":\"").append(publicationDate(index))
+                .append("\",\"webTitle\":\"").append(title(random))
+                .append("\",\"webUrl\":\"").append(webUrl(index))
+                .append("\",\"apiUrl\":\"https://content.guardianapis.com/").append(slug)
+                .append("\",\"tags\":[");
+        // Roughly one article in ten has no contributor
+        int tagCount = random.nextInt(10) == 0 ? 0 : 1 + random.nextInt(2);
+        if (!asksFor(showTags, "contributor")) {
+            tagCount = 0;
+        }
+        for (int t = 0; t < tagCount; t++) {
+            if (t > 0) {
+                json.append(',');
+            }
+            String author = AUTHORS[random.nextInt(AUTHORS.length)];
+            String profile = "profile/" + author.toLowerCase(Locale.US).replace(' ', '-');
+            json.append("{\"id\":\"").append(profile)
+                    .append("\",\"type\":\"contributor\",\"webTitle\":\"").append(author)
+                    .append("\",\"webUrl\":\"https://www.theguardian.com/").append(profile)
+                    .append("\",\"apiUrl\":\"https://content.guardianapis.com/").append(profile)
+                    .append("\",\"references\":[],\"bio\":\"<p>").append(author)
+                    .append(" is a Guardian US reporter based in Phoenix</p>\",")
+                    .append("\"bylineImageUrl\":\"https://uploads.guim.co.uk/2017/10/")
+                    .append(index).append(".jpg\",\"firstName\":\"")
+                    .append(author.substring(0, author.indexOf(' ')))
+                    .append("\",\"lastName\":\"").append(author.substring(author.indexOf(' ') + 1))
+                    .append("\"}");
+        }
+        if (asksFor(showTags, "keyword")) {
+            appendKeywordTags(json, index, tagCount > 0);
+        }
+        json.append(']');
+        if (showReferences != null) {
+            json.append(",\"references\":[");
+            for (int r = 0; r < tagCount; r++) {
+                if (r > 0) {
+                    json.append(',');
+                }
+                json.append("{\"id\":\"author/").append(index).append('-').append(r)
+                        .append("\",\"type\":\"author\"}");
+            }
+            json.append(']');
+        }
+        if (showFields != null) {
+            appendFields(json, index, showFields);
+        }
+        json.append(",\"isHosted\":false,\"pillarId\":\"pillar/news\",\"pillarName\":\"News\"}");
+    }
+
+    /**
+     * Returns true if the given comma separated show parameter asks for the given value.
+     */
+    private static boolean asksFor(String show, String value) {
+        if (show == null) {
+            return false;
+        }
+        for (String asked : show.split(",")) {
+            if (asked.equals(value) || asked.equals("all")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void appendKeywordTags(StringBuilder json, int index, boolean afterOthers) {
+        Random random = new Random(index * 31L + 7);
+        for (int k = 0; k < 6; k++) {
+            if (afterOthers || k > 0) {
+                json.append(',');
+            }
+            String word = WORDS[random.nextInt(WORDS.length)].replace("\"", "");
+            String id = "us-news/" + word.toLowerCase(Locale.US);
+            json.append("{\"id\":\"").append(id)
+                    .append("\",\"type\":\"keyword\",\"sectionId\":\"us-news\"")
+                    .append(",\"sectionName\":\"US news\",\"webTitle\":\"").append(word)
+                    .append("\",\"webUrl\":\"https://www.theguardian.com/").append(id)
+                    .append("\",\"apiUrl\":\"https://content.guardianapis.com/").append(id)
+                    .append("\",\"references\":[]}");
+        }
+    }
+
+    private static void appendFields(StringBuilder json, int index, String showFields) {
+        Random random = new Random(index * 17L + 3);
+        json.append(",\"fields\":{");
+        int length = json.length();
+        if (asksFor(showFields, "headline")) {
+            json.append("\"headline\":\"").append(title(random)).append("\",");
+        }
+        if (asksFor(showFields, "trailText")) {
+            json.append("\"trailText\":\"").append(title(random)).append(' ')
+                    .append(title(random)).append("\",");
+        }
+        if (asksFor(showFields, "byline")) {
+            json.append("\"byline\":\"").append(AUTHORS[random.nextInt(AUTHORS.length)])
+                    .append("\",");
+        }
+        if (asksFor(showFields, "wordcount")) {
+            json.append("\"wordcount\":\"").append(300 + random.nextInt(1500)).append("\",");
+        }
+        if (asksFor(showFields, "thumbnail")) {
+            json.append("\"thumbnail\":\"").append(thumbnailUrl(index)).append("\",");
+        }
+        if (asksFor(showFields, "bodyText")) {
+            json.append("\"bodyText\":\"");
+            for (int p = 0; p < 12; p++) {
+                json.append(title(random)).append(". ");
+            }
+            json.append("\",");
+        }
+        if (json.length() > length) {
+            // Drop the trailing comma
+            json.setLength(json.length() - 1);
+        }
+        json.append('}');
+    }
+
+    private static String slug(int index) {
+        return String.format(Locale.US, "us-news/2019/jun/%02d/arizona-story-%d",
+                1 + index % 28, index);
+    }
+
+    private static String publicationDate(int index) {
+        // Newest first, one article every 7 minutes
+        long seconds = 1560513605L - index * 420L;
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return format.format(new Date(seconds * 1000L));
+    }
+
+    private static String title(Random random) {
+        int words = 6 + random.nextInt(10);
+        StringBuilder title = new StringBuilder();
+        for (int w = 0; w < words; w++) {
+            if (w > 0) {
+                title.append(' ');
+            }
+            String word = WORDS[random.nextInt(WORDS.length)];
+            title.append(word.replace("\"", "\\\""));
+        }
+        return title.toString();
+    }
+}
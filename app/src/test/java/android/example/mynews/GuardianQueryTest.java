@@ -0,0 +1,212 @@
+package android.example.mynews;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that {@link GuardianQuery} builds one canonical URL per query, and that asking only
+ * for what the list renders makes responses smaller.
+ */
+public class GuardianQueryTest {
+
+    private static final String API_KEY = "test-key";
+
+    private static final int PAGE_SIZE = 50;
+
+    private HttpServer mServer;
+
+    /**
+     * Size of the last response body sent
+     */
+    private final AtomicLong mBodyBytes = new AtomicLong();
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        // Answers like the API, with only the fields, tags and references asked for
+        mServer.createContext("/search", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                Map<String, String> parameters = parameters(exchange.getRequestURI().getRawQuery());
+                String pageSize = parameters.get("page-size");
+                byte[] body = GuardianFixtures.searchResponse(0,
+                        pageSize != null ? Integer.parseInt(pageSize) : 10,
+                        parameters.get("show-fields"), parameters.get("show-tags"),
+                        parameters.get("show-references")).getBytes(Charset.forName("UTF-8"));
+                mBodyBytes.set(body.length);
+                exchange.sendResponseHeaders(200, body.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(body);
+                out.close();
+            }
+        });
+        mServer.start();
+    }
+
+    @After
+    public void tearDown() {
+        mServer.stop(0);
+    }
+
+    @Test
+    public void toUrl_doesNotDependOnTheOrderFieldsAreSet() {
+        GuardianQuery first = new GuardianQuery.Builder(API_KEY)
+                .terms("arizona")
+                .section("us-news")
+                .section("environment")
+                .showField("trailText")
+                .pageSize(20)
+                .page(2)
+                .build();
+        GuardianQuery second = new GuardianQuery.Builder(API_KEY)
+                .page(2)
+                .pageSize(20)
+                .showField("trailText")
+                .section("Environment")
+                .section("us-news")
+                .section("us-news")
+                .terms(" arizona ")
+                .build();
+
+        assertEquals(first.toUrl(), second.toUrl());
+        assertEquals(first, second);
+        assertEquals("https://content.guardianapis.com/search?api-key=test-key&order-by=newest"
+                        + "&page-size=20&page=2&q=arizona&section=environment%7Cus-news"
+                        + "&show-fields=thumbnail%2CtrailText&show-tags=contributor",
+                first.toUrl());
+    }
+
+    @Test
+    public void toUrl_isAlreadyNormalized() {
+        GuardianQuery query = new GuardianQuery.Builder(API_KEY)
+                .terms("border wall")
+                .fromDate(NewsTimestamps.parse("2012-02-01T00:00:00Z"))
+                .toDate(NewsTimestamps.parse("2019-06-14T23:59:59Z"))
+                .pageSize(20)
+                .page(3)
+                .build();
+
+        // So the coalescer, disk cache and sync schedule all key it the same way
+        assertEquals(query.toUrl(), NewsRequestCoalescer.normalize(query.toUrl()));
+        assertTrue(query.toUrl().contains("&from-date=2012-02-01&"));
+        assertTrue(query.toUrl().contains("&to-date=2019-06-14"));
+        assertTrue(query.toUrl().contains("&q=border%20wall&"));
+    }
+
+    @Test
+    public void withPage_changesOnlyThePage() {
+        GuardianQuery query = new GuardianQuery.Builder(API_KEY).terms("arizona").build();
+
+        assertNotEquals(query, query.withPage(2));
+        assertEquals(2, query.withPage(2).getPage());
+        assertEquals(query, query.withPage(2).withPage(1));
+    }
+
+    @Test
+    public void toBuilder_keepsEveryField() {
+        GuardianQuery query = new GuardianQuery.Builder(API_KEY)
+                .baseUrl("http://127.0.0.1/search")
+                .terms("arizona")
+                .section("us-news")
+                .fromDate(0)
+                .orderBy(GuardianQuery.Order.RELEVANCE)
+                .pageSize(5)
+                .showTag("keyword")
+                .build();
+
+        assertEquals(query.toUrl(), query.toBuilder().build().toUrl());
+    }
+
+    @Test
+    public void builder_rejectsOutOfRangeValues() {
+        try {
+            new GuardianQuery.Builder(API_KEY).page(0);
+            fail("Page 0 accepted");
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            new GuardianQuery.Builder(API_KEY).pageSize(GuardianQuery.MAX_PAGE_SIZE + 1);
+            fail("Page size over the maximum accepted");
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            new GuardianQuery.Builder(API_KEY).baseUrl("https://a/search?q=x");
+            fail("Base URL with a query accepted");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void askingOnlyForRenderedFields_shrinksThePayload() {
+        String base = "http://127.0.0.1:" + mServer.getAddress().getPort() + "/search";
+        // What the app used to ask for, and everything the API can attach to a result
+        List<News> expected = fetch(base + "?q=arizona&show-tags=contributor&order-by=newest"
+                + "&show-references=author&page-size=" + PAGE_SIZE + "&show-fields=thumbnail"
+                + "&api-key=" + API_KEY);
+        long handWritten = mBodyBytes.get();
+        fetch(base + "?q=arizona&show-fields=all&show-tags=all&show-references=all"
+                + "&page-size=" + PAGE_SIZE + "&api-key=" + API_KEY);
+        long everything = mBodyBytes.get();
+
+        GuardianQuery query = new GuardianQuery.Builder(API_KEY)
+                .baseUrl(base)
+                .terms("arizona")
+                .pageSize(PAGE_SIZE)
+                .build();
+        List<News> news = fetch(query.toUrl());
+        long minimal = mBodyBytes.get();
+
+        assertTrue(minimal < handWritten);
+        assertTrue(minimal * 3 < everything);
+
+        // Nothing the list shows is lost
+        for (int i = 0; i < news.size(); i++) {
+            assertEquals(expected.get(i).getNewsArticleTitle(), news.get(i).getNewsArticleTitle());
+            assertEquals(expected.get(i).getNewsArticleAuthor(), news.get(i).getNewsArticleAuthor());
+            assertEquals(expected.get(i).getNewsArticleUrl(), news.get(i).getNewsArticleUrl());
+            assertNotNull(news.get(i).getNewsArticleThumbnailUrl());
+        }
+    }
+
+    private static List<News> fetch(String url) {
+        List<News> news = QueryUtils.fetchNewsArticleData(url);
+        assertEquals(PAGE_SIZE, news.size());
+        return news;
+    }
+
+    private static Map<String, String> parameters(String query) throws IOException {
+        Map<String, String> parameters = new HashMap<>();
+        if (query == null) {
+            return parameters;
+        }
+        for (String parameter : query.split("&")) {
+            int equals = parameter.indexOf('=');
+            if (equals > 0) {
+                parameters.put(parameter.substring(0, equals),
+                        URLDecoder.decode(parameter.substring(equals + 1), "UTF-8"));
+            }
+        }
+        return parameters;
+    }
+}
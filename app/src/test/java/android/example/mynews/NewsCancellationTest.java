@@ -0,0 +1,323 @@
+package android.example.mynews;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that a {@link NewsCancellation} stops a fetch quickly wherever it is, that little is
+ * downloaded once it has, and that a deadline delivers the articles parsed until then.
+ * <p>
+ * The server streams a large response a chunk at a time with a pause between chunks, like a
+ * slow mobile network, so a fetch is always stopped half way through the body.
+ */
+public class NewsCancellationTest {
+
+    private static final int RESULTS = 200;
+
+    private static final int CHUNK_BYTES = 2048;
+
+    private static final long CHUNK_PAUSE_MILLIS = 20;
+
+    /**
+     * Most a stopped fetch may take to return; streaming the whole body takes seconds
+     */
+    private static final long MAX_STOP_LATENCY_MILLIS = 250;
+
+    private final byte[] mBody = GuardianFixtures.searchResponseBytes(RESULTS);
+
+    private HttpServer mServer;
+
+    private ExecutorService mExecutor;
+
+    /**
+     * Body bytes the server has written so far
+     */
+    private final AtomicLong mBytesSent = new AtomicLong();
+
+    private final AtomicInteger mRequests = new AtomicInteger();
+
+    /**
+     * True once the server saw the client go away in the middle of the body
+     */
+    private final AtomicBoolean mClientWentAway = new AtomicBoolean();
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        mServer.createContext("/slow", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                mRequests.incrementAndGet();
+                exchange.sendResponseHeaders(200, 0);
+                OutputStream out = exchange.getResponseBody();
+                try {
+                    for (int offset = 0; offset < mBody.length; offset += CHUNK_BYTES) {
+                        int length = Math.min(CHUNK_BYTES, mBody.length - offset);
+                        out.write(mBody, offset, length);
+                        out.flush();
+                        mBytesSent.addAndGet(length);
+                        Thread.sleep(CHUNK_PAUSE_MILLIS);
+                    }
+                    out.close();
+                } catch (IOException e) {
+                    mClientWentAway.set(true);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        mServer.createContext("/stall", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                mRequests.incrementAndGet();
+                exchange.sendResponseHeaders(200, 0);
+                OutputStream out = exchange.getResponseBody();
+                try {
+                    out.write(mBody, 0, CHUNK_BYTES);
+                    out.flush();
+                    Thread.sleep(5000);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        mServer.setExecutor(Executors.newCachedThreadPool());
+        mServer.start();
+        mExecutor = Executors.newSingleThreadExecutor();
+        NewsMetrics.getInstance().reset();
+    }
+
+    @After
+    public void tearDown() {
+        mExecutor.shutdownNow();
+        mServer.stop(0);
+    }
+
+    @Test
+    public void cancel_stopsTheFetchWithinOneChunk() throws Exception {
+        final String url = url();
+        final NewsCancellation cancellation = new NewsCancellation();
+        Future<List<News>> fetch = mExecutor.submit(new Callable<List<News>>() {
+            @Override
+            public List<News> call() {
+                return QueryUtils.fetchNewsArticleData(url, null, cancellation);
+            }
+        });
+        waitForBytesSent(mBody.length / 4);
+
+        long cancelledAt = System.nanoTime();
+        cancellation.cancel();
+        fetch.get(5, TimeUnit.SECONDS);
+        long latencyMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - cancelledAt);
+
+        assertTrue(latencyMillis < MAX_STOP_LATENCY_MILLIS);
+        assertEquals(1, NewsMetrics.getInstance().cancelledRequests.get());
+    }
+
+    @Test
+    public void cancel_stopsDownloadingTheBody() throws Exception {
+        NewsHttpClient client = new NewsHttpClient(
+                NewsHttpClient.DEFAULT_CONNECT_TIMEOUT_MILLIS,
+                NewsHttpClient.DEFAULT_READ_TIMEOUT_MILLIS);
+        final NewsCancellation cancellation = new NewsCancellation();
+        final NewsHttpClient.Response response = client.get(new URL(url()), null, null,
+                cancellation);
+        Future<List<News>> parse = mExecutor.submit(new Callable<List<News>>() {
+            @Override
+            public List<News> call() throws IOException {
+                return NewsJsonStreamParser.parse(response.getBody(), cancellation);
+            }
+        });
+        waitForBytesSent(mBody.length / 4);
+
+        long sentAtCancel = mBytesSent.get();
+        cancellation.cancel();
+        List<News> parsed = parse.get(5, TimeUnit.SECONDS);
+        response.close();
+        long received = response.getStats().bytesReceived;
+        // Give the server time to notice, had it kept on sending
+        Thread.sleep(10 * CHUNK_PAUSE_MILLIS);
+        long sentAfterCancel = mBytesSent.get() - sentAtCancel;
+
+        // At most what was in flight when the fetch was cancelled is read
+        assertTrue(received <= sentAtCancel + 2 * CHUNK_BYTES);
+        // And the server stops sending instead of streaming the rest into a dead connection
+        assertTrue(mClientWentAway.get() || sentAfterCancel < mBody.length / 4);
+        assertTrue(received < mBody.length / 2);
+        assertTrue(parsed.size() < RESULTS);
+    }
+
+    @Test
+    public void deadline_deliversTheArticlesParsedSoFar() throws Exception {
+        String url = url();
+        long deadlineMillis = 500;
+        NewsCancellation cancellation = NewsCancellation.withTimeout(deadlineMillis);
+
+        long start = System.nanoTime();
+        List<News> news = QueryUtils.fetchNewsArticleData(url, null, cancellation);
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertTrue(elapsedMillis < deadlineMillis + MAX_STOP_LATENCY_MILLIS);
+        assertTrue(cancellation.isDeadlineReached());
+        assertFalse(cancellation.isCancelled());
+        assertTrue(news.size() > 0);
+        assertTrue(news.size() < RESULTS);
+        // In order, and each one whole
+        for (int i = 0; i < news.size(); i++) {
+            assertEquals(GuardianFixtures.webUrl(i), news.get(i).getNewsArticleUrl());
+            assertNotNull(news.get(i).getNewsArticleTitle());
+        }
+        assertEquals(1, NewsMetrics.getInstance().deadlinesReached.get());
+
+        // Partial results aren't kept as the answer to the query, so this goes to the network
+        assertEquals(RESULTS, QueryUtils.fetchNewsArticleData(url, null,
+                NewsCancellation.withTimeout(60 * 1000)).size());
+        assertEquals(2, mRequests.get());
+    }
+
+    @Test
+    public void deadline_boundsAStalledRead() throws Exception {
+        String url = "http://127.0.0.1:" + mServer.getAddress().getPort() + "/stall";
+        long deadlineMillis = 500;
+        NewsCancellation cancellation = NewsCancellation.withTimeout(deadlineMillis);
+
+        long start = System.nanoTime();
+        List<News> news = QueryUtils.fetchNewsArticleData(url, null, cancellation);
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        // The server stalls for seconds, far longer than the deadline
+        assertTrue(elapsedMillis < deadlineMillis + MAX_STOP_LATENCY_MILLIS);
+        // Whatever came before the stall is kept
+        assertTrue(news.size() > 0);
+        assertEquals(GuardianFixtures.webUrl(0), news.get(0).getNewsArticleUrl());
+    }
+
+    @Test
+    public void cancel_neverBlocksTheCaller() throws Exception {
+        final String url = "http://127.0.0.1:" + mServer.getAddress().getPort() + "/stall";
+        final NewsCancellation cancellation = new NewsCancellation();
+        mExecutor.submit(new Callable<List<News>>() {
+            @Override
+            public List<News> call() {
+                return QueryUtils.fetchNewsArticleData(url, null, cancellation);
+            }
+        });
+        // The fetch is now blocked waiting for the rest of the body
+        Thread.sleep(300);
+
+        long start = System.nanoTime();
+        cancellation.cancel();
+        long cancelMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        // As the loader cancels from the main thread
+        assertTrue(cancelMillis < 50);
+        assertTrue(cancellation.isStopped());
+    }
+
+    @Test
+    public void cancelledBeforeStarting_neverConnects() {
+        NewsCancellation cancellation = new NewsCancellation();
+        cancellation.cancel();
+
+        assertNull(QueryUtils.fetchNewsArticleData(url(), null, cancellation));
+        assertEquals(0, mRequests.get());
+    }
+
+    @Test
+    public void listener_runsOnceWhenStopped() throws Exception {
+        final Semaphore runs = new Semaphore(0);
+        Runnable listener = new Runnable() {
+            @Override
+            public void run() {
+                runs.release();
+            }
+        };
+        NewsCancellation cancellation = NewsCancellation.withTimeout(50);
+        cancellation.setOnStopListener(listener);
+        assertEquals(50, cancellation.clampTimeoutMillis(60 * 1000), 10);
+        assertEquals(10, cancellation.clampTimeoutMillis(10));
+
+        assertTrue(runs.tryAcquire(1, TimeUnit.SECONDS));
+        cancellation.cancel();
+
+        assertTrue(cancellation.isDeadlineReached());
+        assertEquals(1, cancellation.clampTimeoutMillis(60 * 1000));
+        try {
+            cancellation.throwIfStopped();
+            fail("Stopped cancellation didn't throw");
+        } catch (InterruptedIOException expected) {
+        }
+        // Registered after stopping, it runs straight away
+        cancellation.setOnStopListener(listener);
+        assertTrue(runs.tryAcquire(1, TimeUnit.SECONDS));
+        assertFalse(runs.tryAcquire(100, TimeUnit.MILLISECONDS));
+
+        NewsCancellation.NONE.cancel();
+        assertFalse(NewsCancellation.NONE.isStopped());
+    }
+
+    @Test
+    public void release_takesTheDeadlineOffTheTimer() throws Exception {
+        final Semaphore runs = new Semaphore(0);
+        NewsCancellation cancellation = NewsCancellation.withTimeout(50);
+        cancellation.setOnStopListener(new Runnable() {
+            @Override
+            public void run() {
+                runs.release();
+            }
+        });
+        cancellation.release();
+
+        assertFalse(runs.tryAcquire(200, TimeUnit.MILLISECONDS));
+        assertTrue(cancellation.isDeadlineReached());
+        assertFalse(cancellation.isCancelled());
+    }
+
+    private String url() {
+        // Every test gets its own query, so none is answered from an earlier test's results
+        return "http://127.0.0.1:" + mServer.getAddress().getPort() + "/slow?test="
+                + System.nanoTime();
+    }
+
+    private void waitForBytesSent(long bytes) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (mBytesSent.get() < bytes) {
+            if (System.nanoTime() > deadline) {
+                fail("Server never sent " + bytes + " bytes");
+            }
+            Thread.sleep(5);
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package android.example.mynews;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that {@link NewsDeduplicator} groups the same article and reworded updates of a
+ * story together, keeps unrelated stories apart, and that lookups stay cheap as it grows.
+ */
+public class NewsDeduplicatorTest {
+
+    @Test
+    public void canonicalUrl_ignoresHowTheArticleWasLinked() {
+        String canonical = "https://www.theguardian.com/us-news/2019/jun/14/arizona-wildfire";
+
+        assertEquals(canonical, NewsDeduplicator.canonicalUrl(canonical));
+        assertEquals(canonical, NewsDeduplicator.canonicalUrl(
+                "http://WWW.TheGuardian.com/us-news/2019/jun/14/arizona-wildfire/"));
+        assertEquals(canonical, NewsDeduplicator.canonicalUrl(canonical + "?CMP=share_btn_tw"));
+        assertEquals(canonical, NewsDeduplicator.canonicalUrl(canonical + "#comments"));
+        assertEquals(canonical, NewsDeduplicator.canonicalUrl(
+                "https://amp.theguardian.com/us-news/2019/jun/14/arizona-wildfire"));
+        // Paths are case sensitive
+        assertNotEquals(canonical, NewsDeduplicator.canonicalUrl(canonical.toUpperCase()));
+    }
+
+    @Test
+    public void add_groupsTheSameArticleUnderAnotherSection() {
+        NewsDeduplicator deduplicator = new NewsDeduplicator();
+        int story = deduplicator.add(news("Arizona wildfire forces evacuations", "a"));
+
+        assertEquals(story, deduplicator.add(new News("World news",
+                "Arizona wildfire forces evacuations", "Tom Dart", 0,
+                "https://www.theguardian.com/a?CMP=fb_gu")));
+        assertEquals(1, deduplicator.size());
+        assertEquals(1, deduplicator.getStoryCount());
+    }
+
+    @Test
+    public void add_groupsRewordedUpdatesOfAStory() {
+        NewsDeduplicator deduplicator = new NewsDeduplicator();
+        int story = deduplicator.add(news(
+                "Arizona wildfire: thousands evacuated as blaze spreads near Phoenix", "v1"));
+        int unrelated = deduplicator.add(news(
+                "Senate votes on border wall funding bill", "other"));
+
+        assertEquals(story, deduplicator.add(news(
+                "Arizona wildfire: thousands evacuated as blaze spreads towards Phoenix", "v2")));
+        assertEquals(story, deduplicator.add(news(
+                "Arizona wildfire: thousands more evacuated as the blaze spreads near Phoenix",
+                "v3")));
+        assertNotEquals(story, unrelated);
+        assertNotEquals(story, deduplicator.add(news(
+                "Arizona heatwave: Phoenix breaks temperature record", "heat")));
+        assertEquals(3, deduplicator.getStoryCount());
+    }
+
+    @Test
+    public void add_onlyMatchesShortTitlesByUrl() {
+        NewsDeduplicator deduplicator = new NewsDeduplicator();
+        int first = deduplicator.add(news("Sport live", "a"));
+
+        assertNotEquals(first, deduplicator.add(news("Sport live", "b")));
+    }
+
+    @Test
+    public void find_doesNotAdd() {
+        NewsDeduplicator deduplicator = new NewsDeduplicator();
+        int story = deduplicator.add(news("Copper mine expansion approved by Arizona", "a"));
+
+        assertEquals(story, deduplicator.find(news("Copper mine expansion approved in Arizona",
+                "b")));
+        assertEquals(-1, deduplicator.find(news("Navajo Nation water rights case heard", "c")));
+        assertEquals(1, deduplicator.size());
+    }
+
+    @Test
+    public void dedupe_keepsTheFirstArticleOfEachStoryInOrder() {
+        NewsDeduplicator deduplicator = new NewsDeduplicator();
+        News first = news("Arizona wildfire: thousands evacuated as blaze spreads", "a");
+        News other = news("Senate votes on border wall funding bill", "b");
+        News update = news("Arizona wildfire: thousands evacuated as blaze spreads again", "c");
+        News repeat = news("Senate votes on border wall funding bill", "b?CMP=share");
+        List<News> feed = Arrays.asList(first, other, update, repeat);
+
+        List<News> unique = deduplicator.dedupe(feed);
+
+        assertEquals(Arrays.asList(first, other), unique);
+        // A redelivery of the same feed gives the same answer
+        assertEquals(unique, deduplicator.dedupe(feed));
+        // Without the first article, its update stands for the story
+        List<News> later = deduplicator.dedupe(Arrays.asList(update, other));
+        assertSame(update, later.get(0));
+        assertEquals(2, later.size());
+    }
+
+    @Test
+    public void retain_forgetsArticlesThatLeftTheFeed() {
+        NewsDeduplicator deduplicator = new NewsDeduplicator();
+        News first = news("Arizona wildfire: thousands evacuated as blaze spreads", "a");
+        News other = news("Senate votes on border wall funding bill", "b");
+        News update = news("Arizona wildfire: thousands evacuated as blaze spreads again", "c");
+        News gone = news("Navajo Nation water rights case heard", "d");
+        deduplicator.dedupe(Arrays.asList(first, other, update, gone));
+
+        deduplicator.retain(Arrays.asList(other, update));
+
+        assertEquals(2, deduplicator.size());
+        assertEquals(2, deduplicator.getStoryCount());
+        assertEquals(-1, deduplicator.find(gone));
+        // The update now leads its story, and later versions still join it
+        int story = deduplicator.add(update);
+        assertEquals(story, deduplicator.add(news(
+                "Arizona wildfire: thousands more evacuated as blaze spreads again", "e")));
+        assertNotEquals(story, deduplicator.add(other));
+        assertEquals(Arrays.asList(other, update), deduplicator.dedupe(
+                Arrays.asList(other, update)));
+    }
+
+    @Test
+    public void dedupe_findsSyntheticDuplicatesAccurately() {
+        List<News> feed = GuardianFixtures.syntheticStories(20000, 42);
+        NewsDeduplicator deduplicator = new NewsDeduplicator();
+
+        // Every article should land in the story of the first article of its true story
+        Map<Integer, Integer> firstOfStory = new HashMap<>();
+        int correct = 0;
+        for (News article : feed) {
+            int story = deduplicator.add(article);
+            Integer expected = firstOfStory.get(GuardianFixtures.storyOf(article));
+            if (expected == null) {
+                firstOfStory.put(GuardianFixtures.storyOf(article), story);
+                if (story == deduplicator.size() - 1) {
+                    correct++;
+                }
+            } else if (expected == story) {
+                correct++;
+            }
+        }
+
+        double accuracy = correct / (double) feed.size();
+        assertTrue(accuracy > 0.99);
+    }
+
+    @Test
+    public void add_comparesAboutAsManySignaturesAtAnySize() {
+        List<News> feed = GuardianFixtures.syntheticStories(100000, 7);
+        NewsDeduplicator deduplicator = new NewsDeduplicator();
+        List<Long> comparisonsPerTenThousand = new ArrayList<>();
+        long comparisons = 0;
+        for (int i = 0; i < feed.size(); i++) {
+            deduplicator.add(feed.get(i));
+            if ((i + 1) % 10000 == 0) {
+                comparisonsPerTenThousand.add(deduplicator.getComparisonCount() - comparisons);
+                comparisons = deduplicator.getComparisonCount();
+            }
+        }
+
+        long first = comparisonsPerTenThousand.get(0);
+        long last = comparisonsPerTenThousand.get(comparisonsPerTenThousand.size() - 1);
+        // Comparing against everything would make the last ten thousand cost 19 times the first
+        assertTrue(last < 3 * first);
+    }
+
+    private static News news(String title, String path) {
+        return new News("US news", title, "Tom Dart", 0, "https://www.theguardian.com/" + path);
+    }
+}
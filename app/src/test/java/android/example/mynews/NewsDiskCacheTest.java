@@ -0,0 +1,194 @@
+package android.example.mynews;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Checks {@link NewsDiskCache} and the conditional requests {@link QueryUtils} makes with it.
+ */
+public class NewsDiskCacheTest {
+
+    private static final int WRITERS = 8;
+
+    private static final String ETAG = "\"v1\"";
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private HttpServer mServer;
+
+    private final AtomicInteger mFullResponses = new AtomicInteger();
+
+    private final AtomicInteger mNotModifiedResponses = new AtomicInteger();
+
+    @Before
+    public void startServer() throws IOException {
+        mServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        mServer.createContext("/search", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                if (ETAG.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                    mNotModifiedResponses.incrementAndGet();
+                    exchange.sendResponseHeaders(304, -1);
+                    exchange.close();
+                    return;
+                }
+                mFullResponses.incrementAndGet();
+                byte[] body = GuardianFixtures.searchResponseBytes(20);
+                exchange.getResponseHeaders().set("ETag", ETAG);
+                exchange.sendResponseHeaders(200, body.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(body);
+                out.close();
+            }
+        });
+        mServer.start();
+    }
+
+    @After
+    public void stopServer() {
+        mServer.stop(0);
+    }
+
+    @Test
+    public void cache_roundTripsEntries() throws IOException {
+        NewsDiskCache cache = new NewsDiskCache(mFolder.newFolder());
+        List<News> news = NewsJsonStreamParser.parse(
+                new ByteArrayInputStream(GuardianFixtures.searchResponseBytes(0, 50, true)));
+
+        cache.put("https://example.com/a", new NewsDiskCache.Entry(ETAG, null, 42L, news));
+        NewsDiskCache.Entry entry = cache.get("https://example.com/a");
+
+        assertEquals(ETAG, entry.etag);
+        assertNull(entry.lastModified);
+        assertEquals(42L, entry.fetchedAtMillis);
+        assertEquals(news.size(), entry.news.size());
+        for (int i = 0; i < news.size(); i++) {
+            assertEquals(news.get(i).getNewsArticleTitle(), entry.news.get(i).getNewsArticleTitle());
+            assertEquals(news.get(i).getNewsArticleUrl(), entry.news.get(i).getNewsArticleUrl());
+            assertEquals(news.get(i).getNewsArticleThumbnailUrl(),
+                    entry.news.get(i).getNewsArticleThumbnailUrl());
+        }
+        assertNull(cache.get("https://example.com/b"));
+    }
+
+    @Test
+    public void cache_keepsMostRecentEntries() throws IOException {
+        NewsDiskCache cache = new NewsDiskCache(mFolder.newFolder(), 2);
+        List<News> empty = Collections.emptyList();
+
+        for (int i = 0; i < 5; i++) {
+            cache.put("https://example.com/" + i, new NewsDiskCache.Entry(null, null, i, empty));
+        }
+
+        int kept = 0;
+        for (int i = 0; i < 5; i++) {
+            if (cache.get("https://example.com/" + i) != null) {
+                kept++;
+            }
+        }
+        assertEquals(2, kept);
+    }
+
+    @Test
+    public void cache_survivesConcurrentWritersOfOneEntry() throws Exception {
+        final File directory = mFolder.newFolder();
+        assertSame(NewsDiskCache.getInstance(directory), NewsDiskCache.getInstance(
+                new File(directory.getPath())));
+        final List<News> news = NewsJsonStreamParser.parse(
+                new ByteArrayInputStream(GuardianFixtures.searchResponseBytes(0, 200, true)));
+        final CyclicBarrier barrier = new CyclicBarrier(WRITERS);
+        ExecutorService writers = Executors.newFixedThreadPool(WRITERS);
+        List<Future<?>> writes = new ArrayList<>();
+        for (int i = 0; i < WRITERS; i++) {
+            // Entries of different lengths, so interleaved writes can't look whole
+            final long fetchedAtMillis = i;
+            final List<News> page = news.subList(0, 60 + i * 20);
+            writes.add(writers.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    // An instance each, which the app avoids; only the temp files keep them apart
+                    NewsDiskCache cache = new NewsDiskCache(directory);
+                    barrier.await();
+                    for (int j = 0; j < 20; j++) {
+                        cache.put("https://example.com/a",
+                                new NewsDiskCache.Entry(ETAG, null, fetchedAtMillis, page));
+                        assertWhole(cache.get("https://example.com/a"), news);
+                    }
+                    return null;
+                }
+            }));
+        }
+        for (Future<?> write : writes) {
+            write.get();
+        }
+        writers.shutdown();
+
+        assertWhole(new NewsDiskCache(directory).get("https://example.com/a"), news);
+        assertEquals(1, directory.list().length);
+    }
+
+    /**
+     * Checks the given entry is one of those written by the test above, not a mix of them.
+     */
+    private static void assertWhole(NewsDiskCache.Entry entry, List<News> news) {
+        assertEquals(60 + entry.fetchedAtMillis * 20, entry.news.size());
+        for (int i = 0; i < entry.news.size(); i++) {
+            assertEquals(news.get(i).getNewsArticleUrl(), entry.news.get(i).getNewsArticleUrl());
+        }
+    }
+
+    @Test
+    public void fetch_revalidatesWithEtag() throws IOException {
+        NewsDiskCache cache = new NewsDiskCache(mFolder.newFolder());
+        String url = "http://127.0.0.1:" + mServer.getAddress().getPort() + "/search";
+
+        List<News> first = QueryUtils.fetchNewsArticleData(url, cache);
+        QueryUtils.invalidateRecentNewsArticleData(url);
+        List<News> second = QueryUtils.fetchNewsArticleData(url, cache);
+
+        assertEquals(20, first.size());
+        assertEquals(20, second.size());
+        assertEquals(1, mFullResponses.get());
+        assertEquals(1, mNotModifiedResponses.get());
+    }
+
+    @Test
+    public void fetch_fallsBackToCacheWhenOffline() throws IOException {
+        NewsDiskCache cache = new NewsDiskCache(mFolder.newFolder());
+        String url = "http://127.0.0.1:" + mServer.getAddress().getPort() + "/search";
+        QueryUtils.fetchNewsArticleData(url, cache);
+
+        mServer.stop(0);
+        QueryUtils.invalidateRecentNewsArticleData(url);
+        List<News> offline = QueryUtils.fetchNewsArticleData(url, cache);
+
+        assertEquals(20, offline.size());
+    }
+}
@@ -0,0 +1,136 @@
+package android.example.mynews;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs {@link NewsFanOutFetcher} against a local HTTP server that delays each endpoint.
+ */
+public class NewsFanOutFetcherTest {
+
+    private static final long DELAY_MILLIS = 400;
+
+    private HttpServer mServer;
+
+    private ExecutorService mServerExecutor;
+
+    private NewsFanOutFetcher mFetcher;
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        // Endpoints a, b and c overlap: a holds results 0-29, b 20-49 and c 40-69
+        mServer.createContext("/a", new DelayedSearch(DELAY_MILLIS, 0, 30));
+        mServer.createContext("/b", new DelayedSearch(DELAY_MILLIS, 20, 30));
+        mServer.createContext("/c", new DelayedSearch(DELAY_MILLIS, 40, 30));
+        mServer.createContext("/slow", new DelayedSearch(DELAY_MILLIS * 10, 100, 30));
+        mServerExecutor = Executors.newCachedThreadPool();
+        mServer.setExecutor(mServerExecutor);
+        mServer.start();
+        mFetcher = new NewsFanOutFetcher(4, null);
+    }
+
+    @After
+    public void tearDown() {
+        mFetcher.shutdown();
+        mServer.stop(0);
+        mServerExecutor.shutdownNow();
+    }
+
+    @Test
+    public void fetch_takesAboutAsLongAsTheSlowestQuery() {
+        long start = System.nanoTime();
+        List<News> news = mFetcher.fetch(Arrays.asList(url("/a"), url("/b"), url("/c")), 5000);
+        long elapsedMillis = (System.nanoTime() - start) / 1000000;
+
+        assertEquals(70, news.size());
+        // Run one after another the three queries would take at least 3 * DELAY_MILLIS
+        assertTrue("took " + elapsedMillis + "ms", elapsedMillis < 2 * DELAY_MILLIS);
+    }
+
+    @Test
+    public void fetch_mergesWithoutDuplicatesNewestFirst() {
+        List<News> news = mFetcher.fetch(Arrays.asList(url("/c"), url("/a"), url("/b")), 5000);
+
+        Set<String> urls = new HashSet<>();
+        for (int i = 0; i < news.size(); i++) {
+            assertTrue(urls.add(news.get(i).getNewsArticleUrl()));
+            if (i > 0) {
+                assertTrue(news.get(i - 1).getNewsArticlePublicationDate()
+                        .compareTo(news.get(i).getNewsArticlePublicationDate()) >= 0);
+            }
+        }
+        assertEquals(GuardianFixtures.webUrl(0), news.get(0).getNewsArticleUrl());
+        assertEquals(GuardianFixtures.webUrl(69), news.get(69).getNewsArticleUrl());
+    }
+
+    @Test
+    public void fetch_dropsQueriesPastTheirDeadline() {
+        long start = System.nanoTime();
+        List<News> news = mFetcher.fetch(Arrays.asList(url("/a"), url("/slow")), DELAY_MILLIS * 3);
+        long elapsedMillis = (System.nanoTime() - start) / 1000000;
+
+        assertEquals(30, news.size());
+        assertTrue("took " + elapsedMillis + "ms", elapsedMillis < DELAY_MILLIS * 5);
+    }
+
+    @Test
+    public void fetchEach_keepsTheOrderOfTheQueries() {
+        List<List<News>> news = mFetcher.fetchEach(
+                Arrays.asList(url("/slow"), url("/b"), url("/a")), DELAY_MILLIS * 3);
+
+        assertEquals(3, news.size());
+        assertNull(news.get(0));
+        assertEquals(GuardianFixtures.webUrl(20), news.get(1).get(0).getNewsArticleUrl());
+        assertEquals(GuardianFixtures.webUrl(0), news.get(2).get(0).getNewsArticleUrl());
+    }
+
+    private String url(String path) {
+        return "http://127.0.0.1:" + mServer.getAddress().getPort() + path;
+    }
+
+    /**
+     * Answers with a fixed range of fixture results after a delay.
+     */
+    private static final class DelayedSearch implements HttpHandler {
+        private final long mDelayMillis;
+        private final byte[] mBody;
+
+        DelayedSearch(long delayMillis, int first, int count) {
+            mDelayMillis = delayMillis;
+            mBody = GuardianFixtures.searchResponseBytes(first, count);
+        }
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                Thread.sleep(mDelayMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            exchange.sendResponseHeaders(200, mBody.length);
+            OutputStream out = exchange.getResponseBody();
+            out.write(mBody);
+            out.close();
+        }
+    }
+}
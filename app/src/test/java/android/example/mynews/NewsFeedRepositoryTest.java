@@ -0,0 +1,229 @@
+package android.example.mynews;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that {@link NewsFeedRepository} merges articles newest first without losing any,
+ * and that readers get consistent snapshots quickly while many threads publish at once.
+ */
+public class NewsFeedRepositoryTest {
+
+    private static final long MINUTE_MILLIS = 60000L;
+
+    private static final String GUARDIAN = "https://www.theguardian.com/";
+
+    @Test
+    public void publish_mergesNewestFirstAndReplacesByUrl() {
+        NewsFeedRepository repository = new NewsFeedRepository(100);
+        repository.publish(Arrays.asList(news("a", 1, "A"), news("c", 3, "C")));
+        NewsFeedRepository.Snapshot snapshot = repository.publish(Arrays.asList(
+                news("b", 2, "B"), news("a", 1, "A, updated")));
+
+        assertEquals(Arrays.asList("c", "b", "a"), paths(snapshot));
+        assertEquals("A, updated", snapshot.get(2).getNewsArticleTitle());
+        assertEquals(2, snapshot.getVersion());
+        assertSame(snapshot, repository.getSnapshot());
+    }
+
+    @Test
+    public void publish_keepsTheNewestArticlesWithinBudget() {
+        NewsFeedRepository repository = new NewsFeedRepository(2);
+        repository.publish(Arrays.asList(news("a", 1, "A"), news("b", 2, "B")));
+        NewsFeedRepository.Snapshot before = repository.getSnapshot();
+
+        // Older than everything kept, so nothing changes
+        assertSame(before, repository.publish(Arrays.asList(news("old", 0, "Old"))));
+        NewsFeedRepository.Snapshot after = repository.publish(Arrays.asList(news("c", 3, "C")));
+
+        assertEquals(Arrays.asList("c", "b"), paths(after));
+    }
+
+    @Test
+    public void publish_ofWhatIsAlreadyThereChangesNothing() {
+        NewsFeedRepository repository = new NewsFeedRepository(100);
+        final AtomicInteger changes = new AtomicInteger();
+        repository.addListener(new NewsFeedRepository.Listener() {
+            @Override
+            public void onFeedChanged(NewsFeedRepository.Snapshot snapshot) {
+                changes.incrementAndGet();
+            }
+        });
+        NewsFeedRepository.Snapshot first = repository.publish(Arrays.asList(news("a", 1, "A")));
+
+        // Equal articles, e.g. the same page parsed again
+        assertSame(first, repository.publish(Arrays.asList(news("a", 1, "A"))));
+        assertEquals(1, changes.get());
+    }
+
+    @Test
+    public void retainPublishedBetween_dropsTheArticlesOutside() {
+        NewsFeedRepository repository = new NewsFeedRepository(100);
+        repository.publish(Arrays.asList(news("a", 1, "A"), news("b", 2, "B"),
+                news("c", 3, "C"), news("d", 4, "D")));
+        long version = repository.getSnapshot().getVersion();
+
+        repository.retainPublishedBetween(news("b", 2, "B").getNewsArticlePublicationTime(),
+                news("c", 3, "C").getNewsArticlePublicationTime());
+        assertEquals(Arrays.asList("c", "b"), paths(repository.getSnapshot()));
+        assertEquals(version + 1, repository.getSnapshot().getVersion());
+
+        // Nothing outside any more, so no new snapshot
+        NewsFeedRepository.Snapshot trimmed = repository.getSnapshot();
+        repository.retainPublishedBetween(NewsTimestamps.UNKNOWN, Long.MAX_VALUE);
+        assertSame(trimmed, repository.getSnapshot());
+    }
+
+    @Test
+    public void snapshot_cannotBeModified() {
+        NewsFeedRepository repository = new NewsFeedRepository(100);
+        NewsFeedRepository.Snapshot snapshot = repository.publish(
+                Arrays.asList(news("a", 1, "A")));
+        try {
+            snapshot.add(news("b", 2, "B"));
+            fail("Snapshot was modified");
+        } catch (UnsupportedOperationException expected) {
+        }
+        repository.clear();
+
+        assertEquals(1, snapshot.size());
+        assertEquals(0, repository.getSnapshot().size());
+    }
+
+    /**
+     * Writers publish overlapping batches as fast as they can while a reader keeps taking
+     * snapshots. Every snapshot must be sorted with distinct URLs, versions must never go
+     * back, and in the end every article published must be there.
+     */
+    @Test
+    public void stress_concurrentWritersAndAReader() throws Exception {
+        final int writers = 8;
+        final int batches = 400;
+        final int batchSize = 20;
+        // Each writer's articles overlap the next writer's, so merges replace as well as add
+        final int articlesPerWriter = 2000;
+        final NewsFeedRepository repository = new NewsFeedRepository(
+                writers * articlesPerWriter + articlesPerWriter);
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch writersDone = new CountDownLatch(writers);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        List<Thread> threads = new ArrayList<>();
+        for (int w = 0; w < writers; w++) {
+            final int writer = w;
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int b = 0; b < batches; b++) {
+                            List<News> batch = new ArrayList<>(batchSize);
+                            for (int i = 0; i < batchSize; i++) {
+                                int index = writer * articlesPerWriter
+                                        + (b * batchSize + i) % (articlesPerWriter * 3 / 2);
+                                batch.add(news("article-" + index, index, "Title " + index));
+                            }
+                            repository.publish(batch);
+                        }
+                    } catch (Throwable t) {
+                        failure.compareAndSet(null, t);
+                    } finally {
+                        writersDone.countDown();
+                    }
+                }
+            }));
+        }
+
+        final NewsMetrics.Histogram readNanos = new NewsMetrics.Histogram("read", "ns");
+        final AtomicInteger snapshotsChecked = new AtomicInteger();
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                long lastVersion = -1;
+                NewsFeedRepository.Snapshot checked = null;
+                try {
+                    start.await();
+                    while (writersDone.getCount() > 0) {
+                        long before = System.nanoTime();
+                        NewsFeedRepository.Snapshot snapshot = repository.getSnapshot();
+                        readNanos.record(System.nanoTime() - before);
+                        assertTrue(snapshot.getVersion() >= lastVersion);
+                        lastVersion = snapshot.getVersion();
+                        if (snapshot != checked) {
+                            checkConsistent(snapshot);
+                            checked = snapshot;
+                            snapshotsChecked.incrementAndGet();
+                        }
+                    }
+                } catch (Throwable t) {
+                    failure.compareAndSet(null, t);
+                }
+            }
+        });
+
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        reader.start();
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        reader.join();
+        assertNull(failure.get());
+
+        NewsFeedRepository.Snapshot last = repository.getSnapshot();
+        checkConsistent(last);
+        Set<String> expected = new HashSet<>();
+        for (int w = 0; w < writers; w++) {
+            for (int n = 0; n < batches * batchSize; n++) {
+                expected.add("article-"
+                        + (w * articlesPerWriter + n % (articlesPerWriter * 3 / 2)));
+            }
+        }
+        assertEquals(expected, new HashSet<>(paths(last)));
+
+        assertTrue(snapshotsChecked.get() > 0);
+        // A read is a volatile load, whatever the writers are doing
+        assertTrue(readNanos.getPercentile(0.99) < 10000);
+    }
+
+    private static void checkConsistent(NewsFeedRepository.Snapshot snapshot) {
+        Set<String> seen = new HashSet<>();
+        for (int i = 0; i < snapshot.size(); i++) {
+            News news = snapshot.get(i);
+            assertTrue(seen.add(news.getNewsArticleUrl()));
+            if (i > 0) {
+                assertTrue(snapshot.get(i - 1).getNewsArticlePublicationTime()
+                        >= news.getNewsArticlePublicationTime());
+            }
+        }
+    }
+
+    private static List<String> paths(List<News> news) {
+        List<String> paths = new ArrayList<>();
+        for (News article : news) {
+            paths.add(article.getNewsArticleUrl().substring(GUARDIAN.length()));
+        }
+        return paths;
+    }
+
+    private static News news(String path, long minutes, String title) {
+        return new News("US news", title, "Tom Dart", 1560513605000L + minutes * MINUTE_MILLIS,
+                GUARDIAN + path);
+    }
+}
@@ -0,0 +1,302 @@
+package android.example.mynews;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Drives {@link NewsFetchPolicy} with the timings of pages and thumbnails fetched over
+ * simulated links, and compares its plans with always fetching full pages with thumbnails:
+ * the time until the first article shows on a cold start, until the next page shows while
+ * the thumbnails of the screen are downloading, until the top row has its thumbnail, and the
+ * bytes the first screen costs.
+ */
+public class NewsFetchPolicyTest {
+
+    private static final GuardianQuery QUERY = new GuardianQuery.Builder("test")
+            .terms("arizona")
+            .pageSize(NewsFetchPolicy.FULL_PAGE_SIZE)
+            .build();
+
+    /**
+     * Time the server takes to start answering
+     */
+    private static final long SERVER_MICROS = 50000;
+
+    /**
+     * Rows on the first screen, whose thumbnails are downloaded straight away
+     */
+    private static final int VISIBLE_ROWS = 6;
+
+    /**
+     * Size of a thumbnail image on the wire
+     */
+    private static final long THUMBNAIL_BYTES = 20 * 1024;
+
+    private static final Link WIFI = new Link("wifi", 20000000, 20000, false);
+    private static final Link LTE_METERED = new Link("metered LTE", 10000000, 50000, true);
+    private static final Link THREE_G = new Link("3G", 1000000, 200000, false);
+    private static final Link EDGE = new Link("EDGE", 200000, 500000, false);
+    private static final Link SATELLITE = new Link("satellite", 5000000, 1200000, false);
+
+    @Test
+    public void plan_followsTheLink() throws IOException {
+        assertEquals(NewsFetchPolicy.FAST_PLAN, measured(WIFI).plan(WIFI.metered));
+        assertEquals(NewsFetchPolicy.SLOW_PLAN, measured(LTE_METERED).plan(LTE_METERED.metered));
+        assertEquals(NewsFetchPolicy.MODERATE_PLAN, measured(THREE_G).plan(THREE_G.metered));
+        assertEquals(NewsFetchPolicy.SLOW_PLAN, measured(EDGE).plan(EDGE.metered));
+        assertEquals(NewsFetchPolicy.SLOW_PLAN, measured(SATELLITE).plan(SATELLITE.metered));
+    }
+
+    @Test
+    public void estimates_convergeOnTheLink() throws IOException {
+        for (Link link : new Link[]{WIFI, THREE_G, EDGE, SATELLITE}) {
+            NewsFetchPolicy policy = measured(link);
+            assertWithin(link.latencyMicros + SERVER_MICROS, policy.getLatencyMicros(), 0.1);
+            assertWithin(link.bitsPerSecond, policy.getBitsPerSecond(), 0.1);
+        }
+    }
+
+    @Test
+    public void plan_isModerateUntilSomethingIsMeasured() {
+        NewsFetchPolicy policy = new NewsFetchPolicy();
+        assertEquals(NewsFetchPolicy.LinkQuality.UNKNOWN, policy.getLinkQuality());
+        assertEquals(NewsFetchPolicy.MODERATE_PLAN, policy.plan(false));
+        assertEquals(NewsFetchPolicy.SLOW_PLAN, policy.plan(true));
+
+        // A failed connection says nothing about the link
+        policy.onResponse(new NewsHttpClient.RequestStats());
+        assertEquals(NewsFetchPolicy.LinkQuality.UNKNOWN, policy.getLinkQuality());
+    }
+
+    @Test
+    public void estimates_ignoreSmallBodiesAndSingleSlowRequests() throws IOException {
+        NewsFetchPolicy policy = measured(WIFI);
+
+        // A page arrives in one go, so its read time says nothing about the bandwidth
+        NewsHttpClient.RequestStats page = WIFI.request(pageBytes(NewsFetchPolicy.FAST_PLAN),
+                false);
+        page.readMicros *= 50;
+        policy.onResponse(page);
+        assertWithin(WIFI.bitsPerSecond, policy.getBitsPerSecond(), 0.01);
+
+        // One thumbnail stuck behind something else doesn't throw away the thumbnails
+        policy.onResponse(EDGE.request(THUMBNAIL_BYTES, false));
+        assertEquals(NewsFetchPolicy.FAST_PLAN, policy.plan(false));
+
+        // A link that stays slow for a few screens does
+        for (int i = 0; i < 3; i++) {
+            fetchScreen(policy, EDGE, policy.plan(false), false);
+        }
+        assertEquals(NewsFetchPolicy.SLOW_PLAN, policy.plan(false));
+
+        policy.reset();
+        assertEquals(NewsFetchPolicy.LinkQuality.UNKNOWN, policy.getLinkQuality());
+    }
+
+    @Test
+    public void textOnlyPlans_measureTheBandwidthAgainNowAndThen() throws IOException {
+        // The link was slow for a while, then got better
+        NewsFetchPolicy policy = measured(EDGE);
+        assertEquals(NewsFetchPolicy.SLOW_PLAN, policy.plan(false));
+        int pages = 0;
+        while (policy.plan(false).textOnly) {
+            fetchScreen(policy, WIFI, policy.plan(false), false);
+            pages++;
+        }
+        assertTrue(pages <= NewsFetchPolicy.BANDWIDTH_SAMPLE_LIFETIME);
+        fetchScreen(policy, WIFI, policy.plan(false), false);
+        assertEquals(NewsFetchPolicy.FAST_PLAN, policy.plan(false));
+
+        // A link that is still slow goes back to text only straight after
+        policy = measured(EDGE);
+        pages = 0;
+        while (policy.plan(false).textOnly) {
+            fetchScreen(policy, EDGE, policy.plan(false), false);
+            pages++;
+        }
+        assertTrue(pages <= NewsFetchPolicy.BANDWIDTH_SAMPLE_LIFETIME);
+        assertEquals(NewsFetchPolicy.MODERATE_PLAN, policy.plan(false));
+        fetchScreen(policy, EDGE, policy.plan(false), false);
+        assertEquals(NewsFetchPolicy.SLOW_PLAN, policy.plan(false));
+    }
+
+    @Test
+    public void applyTo_asksForTheFieldsAndPageSizeOfThePlan() {
+        GuardianQuery slow = NewsFetchPolicy.SLOW_PLAN.applyTo(QUERY);
+        assertEquals(NewsFetchPolicy.SMALL_PAGE_SIZE, slow.getPageSize());
+        assertTrue(slow.getFields().isEmpty());
+        assertFalse(slow.toUrl().contains("show-fields"));
+        assertTrue(slow.getTags().contains(GuardianQuery.TAG_CONTRIBUTOR));
+
+        GuardianQuery fast = NewsFetchPolicy.FAST_PLAN.applyTo(QUERY);
+        assertEquals(QUERY, fast);
+    }
+
+    @Test
+    public void timeToFirstArticle_underEachProfile() throws IOException {
+        NewsFetchPolicy.Plan fixed = NewsFetchPolicy.FAST_PLAN;
+        for (Link link : new Link[]{WIFI, LTE_METERED, THREE_G, EDGE, SATELLITE}) {
+            NewsFetchPolicy.Plan plan = measured(link).plan(link.metered);
+
+            long fixedFirst = link.timeToFirstArticle(fixed);
+            long adaptiveFirst = link.timeToFirstArticle(plan);
+            long fixedNext = link.timeToNextPage(fixed);
+            long adaptiveNext = link.timeToNextPage(plan);
+            long fixedRow = fixedFirst + link.firstThumbnailMicros(fixed);
+            long adaptiveRow = adaptiveFirst + link.firstThumbnailMicros(plan);
+
+            assertTrue(link.name, adaptiveFirst <= fixedFirst);
+            assertTrue(link.name, adaptiveNext <= fixedNext);
+            if (!plan.textOnly) {
+                assertTrue(link.name, adaptiveRow <= fixedRow);
+            } else {
+                // The first screen costs a fraction of the bytes
+                assertTrue(link.name, screenBytes(plan) < screenBytes(fixed) / 10);
+            }
+            if (link == EDGE) {
+                // Without thumbnails in the way, the next page over a narrow link comes in a
+                // lot sooner
+                assertTrue(adaptiveNext < fixedNext * 3 / 4);
+            }
+        }
+    }
+
+    /**
+     * Returns a policy that has seen a few screens fetched over the given link, with the plan
+     * it had at the time.
+     */
+    private static NewsFetchPolicy measured(Link link) throws IOException {
+        NewsFetchPolicy policy = new NewsFetchPolicy();
+        for (int i = 0; i < 8; i++) {
+            fetchScreen(policy, link, policy.plan(link.metered), i == 0);
+        }
+        return policy;
+    }
+
+    /**
+     * Tell the policy about a page fetched over the given link with the given plan, and the
+     * thumbnails of its first screen if the plan has any.
+     */
+    private static void fetchScreen(NewsFetchPolicy policy, Link link,
+                                    NewsFetchPolicy.Plan plan, boolean newConnection)
+            throws IOException {
+        policy.onResponse(link.request(pageBytes(plan), newConnection));
+        if (plan.textOnly) {
+            return;
+        }
+        int sharing = Math.min(VISIBLE_ROWS, plan.maxConcurrentDownloads);
+        for (int i = 0; i < VISIBLE_ROWS; i++) {
+            NewsHttpClient.RequestStats thumbnail = link.request(THUMBNAIL_BYTES, false);
+            thumbnail.readMicros *= sharing;
+            policy.onResponse(thumbnail, sharing);
+        }
+    }
+
+    /**
+     * Returns the gzipped size of a page fetched with the given plan.
+     */
+    private static long pageBytes(NewsFetchPolicy.Plan plan) throws IOException {
+        String json = GuardianFixtures.searchResponse(0, plan.pageSize,
+                plan.textOnly ? null : GuardianQuery.FIELD_THUMBNAIL,
+                GuardianQuery.TAG_CONTRIBUTOR, null);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        GZIPOutputStream gzip = new GZIPOutputStream(bytes);
+        try {
+            gzip.write(json.getBytes(Charset.forName("UTF-8")));
+        } finally {
+            gzip.close();
+        }
+        return bytes.size();
+    }
+
+    /**
+     * Returns the bytes downloaded for the first screen with the given plan.
+     */
+    private static long screenBytes(NewsFetchPolicy.Plan plan) throws IOException {
+        return pageBytes(plan) + (plan.textOnly ? 0 : VISIBLE_ROWS * THUMBNAIL_BYTES);
+    }
+
+    private static void assertWithin(long expected, long actual, double fraction) {
+        assertTrue("Expected about " + expected + " but was " + actual,
+                Math.abs(actual - expected) <= expected * fraction);
+    }
+
+    /**
+     * A network link with a fixed bandwidth and round trip time.
+     */
+    private static final class Link {
+        final String name;
+        final long bitsPerSecond;
+        final long latencyMicros;
+        final boolean metered;
+
+        Link(String name, long bitsPerSecond, long latencyMicros, boolean metered) {
+            this.name = name;
+            this.bitsPerSecond = bitsPerSecond;
+            this.latencyMicros = latencyMicros;
+            this.metered = metered;
+        }
+
+        /**
+         * Returns the timings of a request for the given number of body bytes, on a new
+         * connection, which takes a round trip for TCP and one for TLS, or a pooled one.
+         */
+        NewsHttpClient.RequestStats request(long bytes, boolean newConnection) {
+            NewsHttpClient.RequestStats stats = new NewsHttpClient.RequestStats();
+            stats.responseCode = 200;
+            stats.gzipped = true;
+            stats.bytesReceived = bytes;
+            stats.connectMicros = newConnection ? 2 * latencyMicros : 0;
+            stats.firstByteMicros = latencyMicros + SERVER_MICROS;
+            stats.readMicros = transferMicros(bytes);
+            stats.headersMillis = (stats.connectMicros + stats.firstByteMicros) / 1000;
+            stats.totalMillis = stats.headersMillis + stats.readMicros / 1000;
+            return stats;
+        }
+
+        /**
+         * Returns the time from a cold start until the first page is parsed and shown, which
+         * needs a new connection and the whole page.
+         */
+        long timeToFirstArticle(NewsFetchPolicy.Plan plan) throws IOException {
+            NewsHttpClient.RequestStats stats = request(pageBytes(plan), true);
+            return stats.connectMicros + stats.firstByteMicros + stats.readMicros;
+        }
+
+        /**
+         * Returns the time until the next page is shown when it is asked for while the
+         * thumbnails of the screen are downloading, which it shares the bandwidth with.
+         */
+        long timeToNextPage(NewsFetchPolicy.Plan plan) throws IOException {
+            int sharing = 1 + (plan.textOnly ? 0
+                    : Math.min(VISIBLE_ROWS, plan.maxConcurrentDownloads));
+            NewsHttpClient.RequestStats stats = request(pageBytes(plan), false);
+            return stats.firstByteMicros + stats.readMicros * sharing;
+        }
+
+        /**
+         * Returns the time from showing the first screen until the thumbnail of its top row
+         * has been downloaded, sharing the bandwidth with the other downloads started with it,
+         * or 0 if the plan has no thumbnails.
+         */
+        long firstThumbnailMicros(NewsFetchPolicy.Plan plan) {
+            if (plan.textOnly) {
+                return 0;
+            }
+            int sharing = Math.min(VISIBLE_ROWS, plan.maxConcurrentDownloads);
+            return latencyMicros + SERVER_MICROS + transferMicros(sharing * THUMBNAIL_BYTES);
+        }
+
+        private long transferMicros(long bytes) {
+            return bytes * 8 * 1000000 / bitsPerSecond;
+        }
+    }
+}
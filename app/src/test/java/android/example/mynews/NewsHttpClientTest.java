@@ -0,0 +1,150 @@
+package android.example.mynews;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Runs {@link NewsHttpClient} against a local HTTP server that speaks gzip and ETags.
+ */
+public class NewsHttpClientTest {
+
+    private static final String ETAG = "\"page-1\"";
+
+    private HttpServer mServer;
+
+    private final byte[] mBody = GuardianFixtures.searchResponseBytes(200);
+
+    /**
+     * Client ports seen by the server, one per TCP connection
+     */
+    private final Set<Integer> mClientPorts = Collections.synchronizedSet(new HashSet<Integer>());
+
+    private NewsHttpClient mClient;
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        mServer.createContext("/search", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                mClientPorts.add(exchange.getRemoteAddress().getPort());
+                if (ETAG.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                    exchange.sendResponseHeaders(304, -1);
+                    exchange.close();
+                    return;
+                }
+                byte[] body = mBody;
+                String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+                if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+                    ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+                    GZIPOutputStream gzip = new GZIPOutputStream(gzipped);
+                    gzip.write(body);
+                    gzip.close();
+                    body = gzipped.toByteArray();
+                    exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+                }
+                exchange.getResponseHeaders().set("ETag", ETAG);
+                exchange.sendResponseHeaders(200, body.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(body);
+                out.close();
+            }
+        });
+        mServer.createContext("/stall", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    Thread.sleep(2000);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                exchange.sendResponseHeaders(204, -1);
+                exchange.close();
+            }
+        });
+        mServer.start();
+        mClient = new NewsHttpClient(1000, 1000);
+    }
+
+    @After
+    public void tearDown() {
+        mServer.stop(0);
+    }
+
+    @Test
+    public void get_decodesGzipAndCountsBytes() throws IOException {
+        NewsHttpClient.Response response = mClient.get(url("/search"), null, null);
+        List<News> news;
+        try {
+            news = NewsJsonStreamParser.parse(response.getBody());
+        } finally {
+            response.close();
+        }
+
+        NewsHttpClient.RequestStats stats = response.getStats();
+        assertEquals(200, news.size());
+        assertTrue(stats.gzipped);
+        assertEquals(mBody.length, stats.bytesDecoded);
+        assertTrue(stats.bytesReceived < mBody.length / 3);
+    }
+
+    @Test
+    public void get_notModifiedSkipsTheBody() throws IOException {
+        NewsHttpClient.Response response = mClient.get(url("/search"), ETAG, null);
+        response.close();
+
+        assertTrue(response.isNotModified());
+        assertNull(response.getBody());
+        assertEquals(0, response.getStats().bytesReceived);
+    }
+
+    @Test
+    public void get_reusesConnections() throws IOException {
+        for (int i = 0; i < 5; i++) {
+            NewsHttpClient.Response response = mClient.get(url("/search"), null, null);
+            NewsJsonStreamParser.parse(response.getBody());
+            response.close();
+        }
+
+        assertEquals(5, mClient.getRequestCount());
+        assertEquals(1, mClientPorts.size());
+    }
+
+    @Test
+    public void get_honoursReadTimeout() throws IOException {
+        long start = System.nanoTime();
+        try {
+            mClient.get(url("/stall"), null, null).close();
+            fail("Expected the read to time out");
+        } catch (SocketTimeoutException expected) {
+            long elapsedMillis = (System.nanoTime() - start) / 1000000;
+            assertTrue("took " + elapsedMillis + "ms", elapsedMillis < 1900);
+        }
+    }
+
+    private URL url(String path) throws IOException {
+        return new URL("http://127.0.0.1:" + mServer.getAddress().getPort() + path);
+    }
+}
@@ -0,0 +1,222 @@
+package android.example.mynews;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that {@link NewsIngestPipeline} ingests every valid article of a response with
+ * malformed results in one pass, hands them on in batches while the response is still being
+ * read, and resumes a response that failed half way without handing anything on twice.
+ */
+public class NewsIngestPipelineTest {
+
+    private static final int RESULTS = 10000;
+
+    /**
+     * One result in this many is malformed
+     */
+    private static final int MALFORMED_EVERY = 7;
+
+    private final byte[] mPayload = GuardianFixtures.searchResponseWithMalformedResults(
+            RESULTS, MALFORMED_EVERY).getBytes(Charset.forName("UTF-8"));
+
+    @Before
+    public void setUp() {
+        NewsMetrics.getInstance().reset();
+    }
+
+    @Test
+    public void ingest_keepsEveryValidArticleInOnePass() throws IOException {
+        NewsIngestPipeline pipeline = new NewsIngestPipeline();
+        final List<News> consumed = new ArrayList<>();
+        pipeline.addConsumer(new NewsIngestPipeline.Consumer() {
+            @Override
+            public void onBatch(List<News> batch) {
+                consumed.addAll(batch);
+            }
+        });
+
+        List<News> news = pipeline.ingest(new ByteArrayInputStream(mPayload),
+                NewsCancellation.NONE);
+
+        assertEquals(validUrls(RESULTS), urls(news));
+        assertEquals(news, consumed);
+        int malformed = RESULTS / MALFORMED_EVERY;
+        assertEquals(malformed, pipeline.getMalformedCount());
+        assertEquals(malformed, NewsMetrics.getInstance().malformedResults.get());
+        assertEquals(RESULTS, pipeline.getCommittedCount());
+        int valid = RESULTS - malformed;
+        assertEquals((valid + NewsIngestPipeline.DEFAULT_BATCH_SIZE - 1)
+                / NewsIngestPipeline.DEFAULT_BATCH_SIZE, pipeline.getBatchCount());
+    }
+
+    @Test
+    public void ingest_handsOnBatchesWhileTheResponseIsRead() throws IOException {
+        final CountingInputStream in = new CountingInputStream(
+                new ByteArrayInputStream(mPayload));
+        final List<Long> bytesReadAtBatch = new ArrayList<>();
+        new NewsIngestPipeline()
+                .addConsumer(new NewsIngestPipeline.Consumer() {
+                    @Override
+                    public void onBatch(List<News> batch) {
+                        bytesReadAtBatch.add(in.mCount);
+                    }
+                })
+                .ingest(in, NewsCancellation.NONE);
+
+        // The first batch is a small part of the response, and is handed on right after it
+        assertTrue(bytesReadAtBatch.get(0) < mPayload.length / 20);
+    }
+
+    @Test
+    public void ingest_keepsGoingWhenAConsumerFails() throws IOException {
+        final int[] consumed = new int[1];
+        NewsIngestPipeline pipeline = new NewsIngestPipeline()
+                .addConsumer(new NewsIngestPipeline.Consumer() {
+                    @Override
+                    public void onBatch(List<News> batch) {
+                        throw new IllegalStateException("Store is full");
+                    }
+                })
+                .addConsumer(new NewsIngestPipeline.Consumer() {
+                    @Override
+                    public void onBatch(List<News> batch) {
+                        consumed[0] += batch.size();
+                    }
+                });
+
+        List<News> news = pipeline.ingest(new ByteArrayInputStream(mPayload),
+                NewsCancellation.NONE);
+
+        assertEquals(news.size(), consumed[0]);
+        assertEquals(pipeline.getBatchCount(), pipeline.getConsumerFailureCount());
+    }
+
+    @Test
+    public void ingest_resumesAfterAFailedRead() throws IOException {
+        NewsIngestPipeline pipeline = new NewsIngestPipeline();
+        final List<News> consumed = new ArrayList<>();
+        pipeline.addConsumer(new NewsIngestPipeline.Consumer() {
+            @Override
+            public void onBatch(List<News> batch) {
+                consumed.addAll(batch);
+            }
+        });
+
+        // The connection drops a third of the way through the body
+        try {
+            pipeline.ingest(new FailingInputStream(new ByteArrayInputStream(mPayload),
+                    mPayload.length / 3), NewsCancellation.NONE);
+            fail("Ingesting a broken response didn't throw");
+        } catch (IOException expected) {
+        }
+        int firstPass = consumed.size();
+        int committed = pipeline.getCommittedCount();
+        assertTrue(firstPass > 0);
+        assertEquals(validUrls(committed), urls(consumed));
+
+        // Fetched again, only what wasn't handed on the first time goes through
+        List<News> news = pipeline.ingest(new ByteArrayInputStream(mPayload),
+                NewsCancellation.NONE);
+
+        assertEquals(validUrls(RESULTS), urls(news));
+        assertEquals(news, consumed);
+        assertEquals(news.size(), new HashSet<>(urls(consumed)).size());
+        assertEquals(RESULTS / MALFORMED_EVERY, pipeline.getMalformedCount());
+    }
+
+    /**
+     * Returns the web URLs of the valid results among the first count.
+     */
+    private static List<String> validUrls(int count) {
+        List<String> urls = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            if (!GuardianFixtures.isMalformed(i, MALFORMED_EVERY)) {
+                urls.add(GuardianFixtures.webUrl(i));
+            }
+        }
+        return urls;
+    }
+
+    private static List<String> urls(List<News> news) {
+        List<String> urls = new ArrayList<>(news.size());
+        for (News article : news) {
+            urls.add(article.getNewsArticleUrl());
+        }
+        return urls;
+    }
+
+    private static final class CountingInputStream extends FilterInputStream {
+
+        private long mCount;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                mCount++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            if (read > 0) {
+                mCount += read;
+            }
+            return read;
+        }
+    }
+
+    /**
+     * Fails every read after the given number of bytes, like a dropped connection.
+     */
+    private static final class FailingInputStream extends FilterInputStream {
+
+        private int mRemaining;
+
+        FailingInputStream(InputStream in, int bytes) {
+            super(in);
+            mRemaining = bytes;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (mRemaining <= 0) {
+                throw new IOException("Connection reset");
+            }
+            mRemaining--;
+            return super.read();
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (mRemaining <= 0) {
+                throw new IOException("Connection reset");
+            }
+            int read = super.read(buffer, offset, Math.min(length, mRemaining));
+            if (read > 0) {
+                mRemaining -= read;
+            }
+            return read;
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package android.example.mynews;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks {@link NewsJsonStreamParser} against the tree based parser in {@link QueryUtils}.
+ */
+public class NewsJsonStreamParserTest {
+
+    @Test
+    public void streamingParser_matchesTreeParser() throws IOException {
+        for (int count : new int[]{0, 1, 10, 200, 2000}) {
+            byte[] payload = GuardianFixtures.searchResponseBytes(count);
+
+            List<News> expected = QueryUtils.extractFeatureFromJson(
+                    QueryUtils.readFromStream(new ByteArrayInputStream(payload)));
+            List<News> actual = NewsJsonStreamParser.parse(new ByteArrayInputStream(payload));
+
+            assertEquals(count, expected.size());
+            assertSameNews(expected, actual);
+        }
+    }
+
+    @Test
+    public void streamingParser_readsThumbnails() throws IOException {
+        byte[] payload = GuardianFixtures.searchResponseBytes(0, 20, true);
+
+        List<News> expected = QueryUtils.extractFeatureFromJson(
+                QueryUtils.readFromStream(new ByteArrayInputStream(payload)));
+        List<News> actual = NewsJsonStreamParser.parse(new ByteArrayInputStream(payload));
+
+        assertSameNews(expected, actual);
+        for (int i = 0; i < actual.size(); i++) {
+            assertEquals(GuardianFixtures.thumbnailUrl(i), actual.get(i).getNewsArticleThumbnailUrl());
+        }
+        assertNull(NewsJsonStreamParser.parse(new ByteArrayInputStream(
+                GuardianFixtures.searchResponseBytes(1))).get(0).getNewsArticleThumbnailUrl());
+    }
+
+    @Test
+    public void streamingParser_skipsResultMissingRequiredField() throws IOException {
+        String json = "{\"response\":{\"results\":["
+                + "{\"sectionName\":\"US news\",\"webTitle\":\"First\",\"tags\":[],"
+                + "\"webPublicationDate\":\"2019-06-14T12:00:05Z\",\"webUrl\":\"https://a\"},"
+                + "{\"sectionName\":\"US news\",\"webTitle\":\"No url\",\"tags\":[],"
+                + "\"webPublicationDate\":\"2019-06-14T12:00:05Z\"},"
+                + "{\"sectionName\":\"US news\",\"webTitle\":\"Third\",\"tags\":[],"
+                + "\"webPublicationDate\":\"2019-06-14T12:00:05Z\",\"webUrl\":\"https://c\"}]}}";
+
+        List<News> news = NewsJsonStreamParser.parse(new ByteArrayInputStream(json.getBytes("UTF-8")));
+
+        assertEquals(2, news.size());
+        assertEquals("No Author Listed", news.get(0).getNewsArticleAuthor());
+        assertEquals("https://c", news.get(1).getNewsArticleUrl());
+    }
+
+    @Test
+    public void streamingParser_skipsMalformedResultsLikeTreeParser() throws IOException {
+        String json = GuardianFixtures.searchResponseWithMalformedResults(600, 5);
+
+        List<News> expected = QueryUtils.extractFeatureFromJson(json);
+        List<News> actual = NewsJsonStreamParser.parse(
+                new ByteArrayInputStream(json.getBytes("UTF-8")));
+
+        assertEquals(600 - 600 / 5, actual.size());
+        assertSameNews(expected, actual);
+    }
+
+    @Test
+    public void streamingParser_allocatesLessThanTreeParser() throws IOException {
+        byte[] payload = GuardianFixtures.searchResponseBytes(10000);
+
+        // Warm both paths up so class loading and JIT don't count against either of them
+        for (int i = 0; i < 3; i++) {
+            treeParse(payload);
+            NewsJsonStreamParser.parse(new ByteArrayInputStream(payload));
+        }
+
+        long treeBytes = allocatedBytes();
+        treeParse(payload);
+        treeBytes = allocatedBytes() - treeBytes;
+
+        long streamBytes = allocatedBytes();
+        NewsJsonStreamParser.parse(new ByteArrayInputStream(payload));
+        streamBytes = allocatedBytes() - streamBytes;
+
+        assertTrue(streamBytes < treeBytes / 2);
+    }
+
+    private static List<News> treeParse(byte[] payload) throws IOException {
+        return QueryUtils.extractFeatureFromJson(
+                QueryUtils.readFromStream(new ByteArrayInputStream(payload)));
+    }
+
+    /**
+     * Returns the number of bytes allocated so far by the current thread.
+     */
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static void assertSameNews(List<News> expected, List<News> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            News e = expected.get(i);
+            News a = actual.get(i);
+            assertEquals(e.getNewsArticleSectionName(), a.getNewsArticleSectionName());
+            assertEquals(e.getNewsArticleTitle(), a.getNewsArticleTitle());
+            assertEquals(e.getNewsArticleAuthor(), a.getNewsArticleAuthor());
+            assertEquals(e.getNewsArticlePublicationDate(), a.getNewsArticlePublicationDate());
+            assertEquals(e.getNewsArticleUrl(), a.getNewsArticleUrl());
+            assertEquals(e.getNewsArticleThumbnailUrl(), a.getNewsArticleThumbnailUrl());
+        }
+    }
+}
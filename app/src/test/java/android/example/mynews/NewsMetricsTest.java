@@ -0,0 +1,186 @@
+package android.example.mynews;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the {@link NewsMetrics} histograms, and that a fetch through {@link QueryUtils}
+ * records each of its phases.
+ */
+public class NewsMetricsTest {
+
+    private static final long HEADERS_DELAY_MILLIS = 150;
+
+    private static final long BODY_DELAY_MILLIS = 150;
+
+    private HttpServer mServer;
+
+    private final byte[] mBody = GuardianFixtures.searchResponseBytes(50);
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        // Waits before the headers, then sends half the body and waits again
+        mServer.createContext("/slow", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                sleep(HEADERS_DELAY_MILLIS);
+                exchange.sendResponseHeaders(200, mBody.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(mBody, 0, mBody.length / 2);
+                out.flush();
+                sleep(BODY_DELAY_MILLIS);
+                out.write(mBody, mBody.length / 2, mBody.length - mBody.length / 2);
+                out.close();
+            }
+        });
+        mServer.createContext("/missing", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                exchange.sendResponseHeaders(404, -1);
+                exchange.close();
+            }
+        });
+        mServer.start();
+        NewsMetrics.getInstance().reset();
+    }
+
+    @After
+    public void tearDown() {
+        mServer.stop(0);
+    }
+
+    @Test
+    public void histogram_percentilesAreWithinABucket() {
+        NewsMetrics.Histogram histogram = new NewsMetrics.Histogram("test", "us");
+        long[] values = new long[10000];
+        Random random = new Random(12);
+        for (int i = 0; i < values.length; i++) {
+            // Spread over six orders of magnitude
+            values[i] = (long) Math.pow(10, random.nextDouble() * 6);
+            histogram.record(values[i]);
+        }
+        Arrays.sort(values);
+
+        for (double fraction : new double[]{0.5, 0.9, 0.99}) {
+            long exact = values[(int) Math.ceil(fraction * values.length) - 1];
+            long reported = histogram.getPercentile(fraction);
+            assertTrue(fraction + ": " + reported + " vs " + exact,
+                    reported >= exact && reported <= exact * 1.25 + 1);
+        }
+        assertEquals(values[values.length - 1], histogram.getMax());
+        assertEquals(values.length, histogram.getCount());
+    }
+
+    @Test
+    public void histogram_bucketsCoverEveryValue() {
+        long[] values = {0, 1, 3, 4, 5, 7, 8, 1000, 1023, 1024, Long.MAX_VALUE / 2, Long.MAX_VALUE};
+        for (long value : values) {
+            int bucket = NewsMetrics.Histogram.bucketOf(value);
+            assertTrue(value + " above its bucket", value <= NewsMetrics.Histogram.upperBoundOf(bucket));
+            if (bucket > 0) {
+                assertTrue(value + " below its bucket",
+                        value > NewsMetrics.Histogram.upperBoundOf(bucket - 1));
+            }
+        }
+    }
+
+    @Test
+    public void histogram_countsEveryConcurrentRecord() throws InterruptedException {
+        final NewsMetrics.Histogram histogram = new NewsMetrics.Histogram("test", "us");
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            final int offset = t;
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < 100000; i++) {
+                        histogram.record(i + offset);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(800000, histogram.getCount());
+        assertEquals(99999 + 7, histogram.getMax());
+    }
+
+    @Test
+    public void fetch_recordsEveryPhase() throws Exception {
+        List<News> news = QueryUtils.fetchNewsArticleData(url("/slow"));
+
+        NewsMetrics metrics = NewsMetrics.getInstance();
+        assertEquals(50, news.size());
+        assertEquals(1, metrics.requests.get());
+        assertEquals(0, metrics.requestFailures.get());
+        assertEquals(1, metrics.connectTime.getCount());
+        assertTrue(metrics.firstByteTime.getMax() >= HEADERS_DELAY_MILLIS * 1000);
+        // The first half of the body is parsed while the rest is on its way, so the delay is
+        // spent either waiting in a read or parsing
+        assertTrue(metrics.readTime.getMax() + metrics.parseTime.getMax()
+                >= BODY_DELAY_MILLIS * 1000);
+        // Parsing 50 results doesn't take anywhere near as long as waiting for the body
+        assertTrue(metrics.parseTime.getMax() < BODY_DELAY_MILLIS * 1000);
+        assertEquals(mBody.length, metrics.bytesReceived.getMax());
+        assertEquals(50, metrics.resultCount.getMax());
+        assertTrue(metrics.fetchTime.getMax()
+                >= (HEADERS_DELAY_MILLIS + BODY_DELAY_MILLIS) * 1000);
+
+        JSONObject json = metrics.toJson();
+        JSONObject firstByte = json.getJSONObject("histograms").getJSONObject("http.first_byte");
+        assertEquals(1, firstByte.getLong("count"));
+        assertEquals("us", firstByte.getString("unit"));
+        assertEquals(1, json.getJSONObject("counters").getLong("http.requests"));
+    }
+
+    @Test
+    public void fetch_countsFailures() {
+        assertNull(QueryUtils.fetchNewsArticleData(url("/missing")));
+
+        NewsMetrics metrics = NewsMetrics.getInstance();
+        assertEquals(1, metrics.requestFailures.get());
+        assertEquals(0, metrics.resultCount.getCount());
+        assertEquals(1, metrics.fetchTime.getCount());
+    }
+
+    private String url(String path) {
+        return "http://127.0.0.1:" + mServer.getAddress().getPort() + path;
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package android.example.mynews;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks the paging and eviction rules of {@link NewsPageWindow}.
+ */
+public class NewsPageWindowTest {
+
+    private static final int PAGE_SIZE = 10;
+
+    @Test
+    public void window_prefetchesNextPageNearTheEnd() {
+        NewsPageWindow window = new NewsPageWindow(PAGE_SIZE, 3, 4);
+        window.setPage(1, page(1, PAGE_SIZE));
+
+        assertEquals(0, window.getPageToPrefetch(0, 5, PAGE_SIZE));
+        assertEquals(2, window.getPageToPrefetch(2, 5, PAGE_SIZE));
+    }
+
+    @Test
+    public void window_prefetchesNearTheEndOfAShorterList() {
+        NewsPageWindow window = new NewsPageWindow(PAGE_SIZE, 3, 4);
+        for (int number = 1; number <= 3; number++) {
+            window.setPage(number, page(number, PAGE_SIZE));
+        }
+
+        // A third of the rows were duplicates, so the list ends well before the window does
+        int shown = PAGE_SIZE * 2;
+        assertEquals(0, window.getPageToPrefetch(10, 5, shown));
+        assertEquals(4, window.getPageToPrefetch(12, 5, shown));
+    }
+
+    @Test
+    public void window_staysBoundedWhileScrollingForward() {
+        NewsPageWindow window = new NewsPageWindow(PAGE_SIZE, 3, 4);
+        for (int number = 1; number <= 100; number++) {
+            window.setPage(number, page(number, PAGE_SIZE));
+            assertEquals(Math.min(number, 3) * PAGE_SIZE, window.getNews().size());
+        }
+
+        assertEquals(98, window.getFirstPage());
+        assertEquals(100, window.getLastPage());
+        assertEquals("98-0", window.getNews().get(0).getNewsArticleTitle());
+        assertEquals(99, window.getPageAt(PAGE_SIZE));
+        assertEquals(PAGE_SIZE * 2, window.getPageStart(100));
+    }
+
+    @Test
+    public void window_reloadsEvictedPagesWhenScrollingBack() {
+        NewsPageWindow window = new NewsPageWindow(PAGE_SIZE, 3, 4);
+        for (int number = 1; number <= 5; number++) {
+            window.setPage(number, page(number, PAGE_SIZE));
+        }
+
+        assertEquals(2, window.getPageToPrefetch(1, 5, 3 * PAGE_SIZE));
+        window.setPage(2, page(2, PAGE_SIZE));
+
+        assertEquals(2, window.getFirstPage());
+        assertEquals(4, window.getLastPage());
+        assertEquals(5, window.getPageToPrefetch(25, 5, 3 * PAGE_SIZE));
+    }
+
+    @Test
+    public void window_replacesPageDeliveredTwice() {
+        NewsPageWindow window = new NewsPageWindow(PAGE_SIZE, 3, 4);
+        window.setPage(1, page(1, PAGE_SIZE));
+        window.setPage(2, page(2, PAGE_SIZE));
+
+        window.setPage(2, page(2, PAGE_SIZE));
+
+        assertEquals(2 * PAGE_SIZE, window.getNews().size());
+    }
+
+    @Test
+    public void window_stopsAtShortOrMissingPage() {
+        NewsPageWindow window = new NewsPageWindow(PAGE_SIZE, 3, 4);
+        window.setPage(1, page(1, PAGE_SIZE));
+        window.setPage(2, page(2, 3));
+
+        assertEquals(0, window.getPageToPrefetch(10, 3, PAGE_SIZE + 3));
+
+        window.clear();
+        window.setPage(1, page(1, PAGE_SIZE));
+        window.setPage(2, null);
+
+        assertEquals(0, window.getPageToPrefetch(5, 5, PAGE_SIZE));
+    }
+
+    private static List<News> page(int number, int size) {
+        List<News> news = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            news.add(new News("US news", number + "-" + i, "Tom Dart", "2019-06-14T12:00:05Z",
+                    "https://www.theguardian.com/" + number + "/" + i));
+        }
+        return news;
+    }
+}
@@ -0,0 +1,247 @@
+package android.example.mynews;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Checks that {@link NewsRequestCoalescer} turns bursts of identical queries into one fetch.
+ */
+public class NewsRequestCoalescerTest {
+
+    private static final int THREADS = 32;
+
+    private HttpServer mServer;
+
+    private ExecutorService mServerExecutor;
+
+    private final AtomicInteger mServerHits = new AtomicInteger();
+
+    private final FakeClock mClock = new FakeClock();
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        mServer.createContext("/search", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                mServerHits.incrementAndGet();
+                try {
+                    // Long enough for every caller to pile up behind the first one
+                    Thread.sleep(300);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                byte[] body = GuardianFixtures.searchResponseBytes(20);
+                exchange.sendResponseHeaders(200, body.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(body);
+                out.close();
+            }
+        });
+        mServerExecutor = Executors.newCachedThreadPool();
+        mServer.setExecutor(mServerExecutor);
+        mServer.start();
+    }
+
+    @After
+    public void tearDown() {
+        mServer.stop(0);
+        mServerExecutor.shutdownNow();
+    }
+
+    @Test
+    public void fetchNewsArticleData_hitsTheNetworkOnceForABurst() throws Exception {
+        // The same query, with its parameters in two different orders
+        final String[] urls = {
+                "http://127.0.0.1:" + port() + "/search?q=arizona&page=1",
+                "HTTP://127.0.0.1:" + port() + "/search?page=1&q=arizona"
+        };
+        final CyclicBarrier barrier = new CyclicBarrier(THREADS);
+        ExecutorService callers = Executors.newFixedThreadPool(THREADS);
+        List<Future<List<News>>> results = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            final String url = urls[i % urls.length];
+            results.add(callers.submit(new Callable<List<News>>() {
+                @Override
+                public List<News> call() throws Exception {
+                    barrier.await();
+                    return QueryUtils.fetchNewsArticleData(url);
+                }
+            }));
+        }
+
+        List<News> first = results.get(0).get();
+        for (Future<List<News>> result : results) {
+            assertSame(first, result.get());
+        }
+        callers.shutdown();
+        assertEquals(20, first.size());
+        assertEquals(1, mServerHits.get());
+
+        // Asked again straight after, the answer comes from memory
+        assertSame(first, QueryUtils.fetchNewsArticleData(urls[1]));
+        assertEquals(1, mServerHits.get());
+    }
+
+    @Test
+    public void fetch_callsTheFetcherOnceUnderContention() throws Exception {
+        final NewsRequestCoalescer coalescer = new NewsRequestCoalescer(1000, 4, mClock);
+        final AtomicInteger calls = new AtomicInteger();
+        final CyclicBarrier barrier = new CyclicBarrier(THREADS);
+        final Callable<List<News>> fetcher = new Callable<List<News>>() {
+            @Override
+            public List<News> call() throws Exception {
+                calls.incrementAndGet();
+                Thread.sleep(200);
+                return news("a");
+            }
+        };
+        ExecutorService callers = Executors.newFixedThreadPool(THREADS);
+        List<Future<List<News>>> results = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            results.add(callers.submit(new Callable<List<News>>() {
+                @Override
+                public List<News> call() throws Exception {
+                    barrier.await();
+                    return coalescer.fetch("https://a/search?q=x", fetcher);
+                }
+            }));
+        }
+        for (Future<List<News>> result : results) {
+            assertEquals(1, result.get().size());
+        }
+        callers.shutdown();
+
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    public void fetch_forgetsResultsAfterTheirTtl() throws Exception {
+        NewsRequestCoalescer coalescer = new NewsRequestCoalescer(1000, 4, mClock);
+        CountingFetcher fetcher = new CountingFetcher();
+
+        coalescer.fetch("https://a/1", fetcher);
+        mClock.mNow += 999;
+        coalescer.fetch("https://a/1", fetcher);
+        assertEquals(1, fetcher.mCalls);
+
+        mClock.mNow += 1;
+        coalescer.fetch("https://a/1", fetcher);
+        assertEquals(2, fetcher.mCalls);
+    }
+
+    @Test
+    public void fetch_evictsTheLeastRecentlyUsed() throws Exception {
+        NewsRequestCoalescer coalescer = new NewsRequestCoalescer(1000, 2, mClock);
+        CountingFetcher fetcher = new CountingFetcher();
+
+        coalescer.fetch("https://a/1", fetcher);
+        coalescer.fetch("https://a/2", fetcher);
+        coalescer.fetch("https://a/1", fetcher);
+        // /2 is now the least recently used and makes room for /3
+        coalescer.fetch("https://a/3", fetcher);
+        assertEquals(3, fetcher.mCalls);
+
+        coalescer.fetch("https://a/1", fetcher);
+        assertEquals(3, fetcher.mCalls);
+        coalescer.fetch("https://a/2", fetcher);
+        assertEquals(4, fetcher.mCalls);
+    }
+
+    @Test
+    public void fetch_doesNotKeepFailures() throws Exception {
+        NewsRequestCoalescer coalescer = new NewsRequestCoalescer(1000, 2, mClock);
+        final AtomicInteger calls = new AtomicInteger();
+        Callable<List<News>> failing = new Callable<List<News>>() {
+            @Override
+            public List<News> call() {
+                calls.incrementAndGet();
+                return null;
+            }
+        };
+
+        assertNull(coalescer.fetch("https://a/1", failing));
+        assertNull(coalescer.fetch("https://a/1", failing));
+        assertEquals(2, calls.get());
+    }
+
+    @Test
+    public void fetch_sharesOnlyWithinAScope() throws Exception {
+        NewsRequestCoalescer coalescer = new NewsRequestCoalescer(1000, 4, mClock);
+        CountingFetcher fetcher = new CountingFetcher();
+        Object cache = new Object();
+
+        coalescer.fetch("https://a/1", null, fetcher);
+        coalescer.fetch("https://a/1", cache, fetcher);
+        coalescer.fetch("https://a/1", new Object(), fetcher);
+        assertEquals(3, fetcher.mCalls);
+
+        coalescer.fetch("https://a/1", cache, fetcher);
+        coalescer.fetch("https://a/1", fetcher);
+        assertEquals(3, fetcher.mCalls);
+
+        coalescer.invalidate("https://a/1");
+        coalescer.fetch("https://a/1", cache, fetcher);
+        coalescer.fetch("https://a/1", null, fetcher);
+        assertEquals(5, fetcher.mCalls);
+    }
+
+    @Test
+    public void normalize_ignoresParameterOrderCaseAndDefaultPorts() {
+        assertEquals("https://content.guardianapis.com/search?order-by=newest&page=2&q=Arizona",
+                NewsRequestCoalescer.normalize(
+                        "HTTPS://Content.GuardianAPIs.com:443/search?q=Arizona&page=2&order-by=newest#top"));
+        assertEquals("http://a/", NewsRequestCoalescer.normalize("http://a:80"));
+        assertEquals("http://a:8080/Search?x=1", NewsRequestCoalescer.normalize("http://a:8080/Search?&x=1"));
+    }
+
+    private int port() {
+        return mServer.getAddress().getPort();
+    }
+
+    private static List<News> news(String url) {
+        return new ArrayList<>(Collections.singletonList(
+                new News("US news", "Title", "Tom Dart", 0L, url)));
+    }
+
+    private static final class CountingFetcher implements Callable<List<News>> {
+        int mCalls;
+
+        @Override
+        public List<News> call() {
+            mCalls++;
+            return news("https://a/" + mCalls);
+        }
+    }
+
+    private static final class FakeClock implements NewsClock {
+        long mNow = 1000000;
+
+        @Override
+        public long currentTimeMillis() {
+            return mNow;
+        }
+    }
+}
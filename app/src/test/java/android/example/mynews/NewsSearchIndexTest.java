@@ -0,0 +1,125 @@
+package android.example.mynews;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks matching and ranking of {@link NewsSearchIndex}. How quickly it is built and
+ * answers at 10k, 100k and 1M articles is measured by NewsSearchIndexBenchmark.
+ */
+public class NewsSearchIndexTest {
+
+    private static final long HOUR_MILLIS = 3600000L;
+
+    @Test
+    public void search_matchesWordPrefixes() {
+        NewsSearchIndex index = new NewsSearchIndex();
+        index.add(news("Wildfire spreads near Phoenix", "US news", "Tom Dart", 0, "a"));
+        index.add(news("Phoenix Suns win again", "Sport", "Bryan Armen Graham", 0, "b"));
+
+        assertEquals(urls("a"), urls(index.search("wildf", 10)));
+        assertEquals(urls("a"), urls(index.search("PHOENIX wild", 10)));
+        assertEquals(2, index.search("phoe", 10).size());
+        assertTrue(index.search("wildfire suns", 10).isEmpty());
+        assertTrue(index.search("  ,, ", 10).isEmpty());
+    }
+
+    @Test
+    public void search_ranksTitleOverAuthorOverSection() {
+        NewsSearchIndex index = new NewsSearchIndex();
+        index.add(news("Budget vote delayed", "Arizona", "Jo Bloggs", 3 * HOUR_MILLIS, "section"));
+        index.add(news("Budget vote delayed", "Politics", "Arizona Desk", 2 * HOUR_MILLIS, "author"));
+        index.add(news("Arizona budget vote delayed", "Politics", "Jo Bloggs", HOUR_MILLIS, "title"));
+
+        assertEquals(urls("title", "author", "section"), urls(index.search("arizona", 10)));
+    }
+
+    @Test
+    public void search_ranksWholeWordsOverPrefixesThenNewestFirst() {
+        NewsSearchIndex index = new NewsSearchIndex();
+        index.add(news("Heatwave warning", "US news", "Tom Dart", 3 * HOUR_MILLIS, "prefix"));
+        index.add(news("Heat records fall", "US news", "Tom Dart", HOUR_MILLIS, "older"));
+        index.add(news("Heat records fall again", "US news", "Tom Dart", 2 * HOUR_MILLIS, "newer"));
+
+        assertEquals(urls("newer", "older", "prefix"), urls(index.search("heat", 10)));
+        assertEquals(urls("newer", "older"), urls(index.search("heat", 2)));
+    }
+
+    @Test
+    public void add_skipsArticlesAlreadyIndexed() {
+        NewsSearchIndex index = new NewsSearchIndex();
+        index.add(news("Heat records fall", "US news", "Tom Dart", 0, "a"));
+        index.addAll(Arrays.asList(news("Heat records fall", "US news", "Tom Dart", 0, "a"),
+                news("Heat records fall", "US news", "Tom Dart", 0, "b")));
+
+        assertEquals(2, index.size());
+        assertEquals(2, index.search("heat", 10).size());
+    }
+
+    @Test
+    public void add_indexesChangedArticlesAgain() {
+        NewsSearchIndex index = new NewsSearchIndex();
+        index.add(news("Heat records fall", "US news", "Tom Dart", 0, "a"));
+        index.add(news("Monsoon brings relief", "US news", "Tom Dart", 0, "a"));
+
+        assertEquals(1, index.size());
+        assertTrue(index.search("heat", 10).isEmpty());
+        assertEquals(urls("a"), urls(index.search("monsoon", 10)));
+    }
+
+    @Test
+    public void add_dropsTheOldestArticlesOverBudget() {
+        NewsSearchIndex index = new NewsSearchIndex(10);
+        for (int i = 0; i < 95; i++) {
+            index.add(news("Heat story " + i, "US news", "Tom Dart", i * HOUR_MILLIS,
+                    String.valueOf(i)));
+            // Rewritten headlines replace what they were indexed as, and count once
+            index.add(news("Heat story " + i + " updated", "US news", "Tom Dart",
+                    i * HOUR_MILLIS, String.valueOf(i)));
+        }
+
+        assertEquals(10, index.size());
+        List<News> results = index.search("heat", 100);
+        assertEquals(urls("94", "93", "92", "91", "90", "89", "88", "87", "86", "85"),
+                urls(results));
+        assertTrue(index.search("story 84", 10).isEmpty());
+        assertEquals(urls("90"), urls(index.search("90 updated", 10)));
+    }
+
+    @Test
+    public void search_findsParsedArticles() throws IOException {
+        List<News> parsed = NewsJsonStreamParser.parse(
+                new ByteArrayInputStream(GuardianFixtures.searchResponseBytes(200)));
+        NewsSearchIndex index = new NewsSearchIndex();
+        index.addAll(parsed);
+
+        News wanted = parsed.get(123);
+        List<String> words = NewsSearchIndex.tokenize(wanted.getNewsArticleTitle());
+        List<News> results = index.search(words.get(0) + " " + words.get(words.size() - 1), 200);
+        assertTrue(results.contains(wanted));
+    }
+
+    private static News news(String title, String section, String author, long time, String url) {
+        return new News(section, title, author, time, url);
+    }
+
+    private static List<String> urls(String... urls) {
+        return Arrays.asList(urls);
+    }
+
+    private static List<String> urls(List<News> news) {
+        List<String> urls = new ArrayList<>();
+        for (News article : news) {
+            urls.add(article.getNewsArticleUrl());
+        }
+        return urls;
+    }
+}
@@ -0,0 +1,203 @@
+package android.example.mynews;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that {@link NewsSnapshotCodec} gives back every field as encoded, reads records one
+ * at a time, refuses what it didn't write, and is smaller than the JSON the articles came in.
+ */
+public class NewsSnapshotCodecTest {
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private static final List<News> FEED = Arrays.asList(
+            new News("US news", "Arizona wildfire forces evacuations", "Tom Dart",
+                    1560513605000L, "https://www.theguardian.com/a",
+                    "https://media.guim.co.uk/a/500.jpg"),
+            new News("World news", "Border wall funding vote", null,
+                    "14 June, sometime", "https://www.theguardian.com/b", null),
+            new News("US news", "Zürich café owners — «ça suffit» 日本", "Lauren Aratani",
+                    1560510005000L, "https://www.theguardian.com/c"),
+            // Older than the base time, so the difference is negative
+            new News("Opinion", "A column", "Tom Dart", 1260510005000L,
+                    "https://www.theguardian.com/d", "https://media.guim.co.uk/d/500.jpg"));
+
+    @Test
+    public void decode_givesBackEveryField() throws IOException {
+        List<News> decoded = NewsSnapshotCodec.decode(
+                ByteBuffer.wrap(NewsSnapshotCodec.encode(FEED)));
+
+        assertEquals(FEED.size(), decoded.size());
+        for (int i = 0; i < FEED.size(); i++) {
+            assertSameArticle(FEED.get(i), decoded.get(i));
+        }
+        assertNull(decoded.get(1).getNewsArticleAuthor());
+        assertNull(decoded.get(1).getNewsArticleThumbnailUrl());
+        assertEquals(NewsTimestamps.UNKNOWN, decoded.get(1).getNewsArticlePublicationTime());
+        assertEquals("14 June, sometime", decoded.get(1).getNewsArticlePublicationDate());
+    }
+
+    @Test
+    public void decode_ofAnEmptyListIsEmpty() throws IOException {
+        assertTrue(NewsSnapshotCodec.decode(
+                ByteBuffer.wrap(NewsSnapshotCodec.encode(FEED.subList(0, 0)))).isEmpty());
+    }
+
+    @Test
+    public void get_decodesOnlyTheRecordAskedFor() throws IOException {
+        List<News> feed = GuardianFixtures.syntheticStories(1000, 1);
+        byte[] bytes = NewsSnapshotCodec.encode(feed);
+        // Cut the last record short; the others must still read
+        NewsSnapshotCodec.Snapshot snapshot = NewsSnapshotCodec.decode(
+                ByteBuffer.wrap(bytes, 0, bytes.length - 10));
+
+        assertEquals(1000, snapshot.size());
+        assertSameArticle(feed.get(0), snapshot.get(0));
+        assertSameArticle(feed.get(500), snapshot.get(500));
+        assertSameArticle(feed.get(998), snapshot.get(998));
+        try {
+            snapshot.get(999);
+            fail("Read a damaged record");
+        } catch (IndexOutOfBoundsException expected) {
+        }
+        try {
+            snapshot.get(1000);
+            fail("Read past the end");
+        } catch (IndexOutOfBoundsException expected) {
+        }
+    }
+
+    @Test
+    public void decode_refusesWhatItDidNotWrite() {
+        byte[] bytes = NewsSnapshotCodec.encode(FEED);
+
+        byte[] otherMagic = bytes.clone();
+        otherMagic[0] = 'X';
+        assertRefused(otherMagic);
+
+        byte[] otherVersion = bytes.clone();
+        otherVersion[4] = NewsSnapshotCodec.FORMAT_VERSION + 1;
+        assertRefused(otherVersion);
+
+        assertRefused(new byte[0]);
+        assertRefused(Arrays.copyOf(bytes, 3));
+        assertRefused(Arrays.copyOf(bytes, 20));
+        assertRefused("{\"response\":{}}".getBytes());
+    }
+
+    @Test
+    public void decode_refusesNegativeLengths() throws IOException {
+        // Ten bytes of varint overflow into the sign bit and decode to -1
+        byte[] negative = {(byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff,
+                (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, 0x01};
+
+        byte[] header = Arrays.copyOf(NewsSnapshotCodec.encode(FEED), 5);
+        assertRefused(concat(header, negative));
+
+        // The same as the length of the title of the only record
+        List<News> feed = FEED.subList(0, 1);
+        byte[] bytes = NewsSnapshotCodec.encode(feed);
+        byte[] title = feed.get(0).getNewsArticleTitle().getBytes("UTF-8");
+        int titleStart = indexOf(bytes, title);
+        assertEquals(title.length + 1, bytes[titleStart - 1]);
+        byte[] damaged = concat(Arrays.copyOf(bytes, titleStart - 1), negative,
+                Arrays.copyOfRange(bytes, titleStart, bytes.length));
+        NewsSnapshotCodec.Snapshot snapshot = NewsSnapshotCodec.decode(ByteBuffer.wrap(damaged));
+        try {
+            snapshot.get(0);
+            fail("Read a record with a negative length");
+        } catch (IndexOutOfBoundsException expected) {
+        }
+    }
+
+    @Test
+    public void map_readsAFile() throws IOException {
+        List<News> feed = GuardianFixtures.syntheticStories(200, 2);
+        File file = mFolder.newFile();
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(NewsSnapshotCodec.encode(feed));
+        } finally {
+            out.close();
+        }
+
+        List<News> mapped = NewsSnapshotCodec.map(file);
+
+        assertEquals(feed.size(), mapped.size());
+        for (int i = 0; i < feed.size(); i++) {
+            assertSameArticle(feed.get(i), mapped.get(i));
+        }
+    }
+
+    @Test
+    public void encode_isSmallerThanTheJson() throws IOException {
+        int count = 10000;
+        byte[] json = GuardianFixtures.searchResponseBytes(count);
+        List<News> feed = NewsJsonStreamParser.parse(new ByteArrayInputStream(json));
+
+        byte[] snapshot = NewsSnapshotCodec.encode(feed);
+
+        assertTrue(snapshot.length < json.length / 2);
+        List<News> decoded = NewsSnapshotCodec.decode(ByteBuffer.wrap(snapshot));
+        assertSameArticle(feed.get(count - 1), decoded.get(count - 1));
+    }
+
+    private static void assertSameArticle(News expected, News actual) {
+        assertEquals(expected.getNewsArticleSectionName(), actual.getNewsArticleSectionName());
+        assertEquals(expected.getNewsArticleTitle(), actual.getNewsArticleTitle());
+        assertEquals(expected.getNewsArticleAuthor(), actual.getNewsArticleAuthor());
+        assertEquals(expected.getNewsArticlePublicationTime(),
+                actual.getNewsArticlePublicationTime());
+        assertEquals(expected.getNewsArticlePublicationDate(),
+                actual.getNewsArticlePublicationDate());
+        assertEquals(expected.getNewsArticleUrl(), actual.getNewsArticleUrl());
+        assertEquals(expected.getNewsArticleThumbnailUrl(), actual.getNewsArticleThumbnailUrl());
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        int length = 0;
+        for (byte[] part : parts) {
+            length += part.length;
+        }
+        byte[] bytes = new byte[length];
+        int offset = 0;
+        for (byte[] part : parts) {
+            System.arraycopy(part, 0, bytes, offset, part.length);
+            offset += part.length;
+        }
+        return bytes;
+    }
+
+    private static int indexOf(byte[] bytes, byte[] part) {
+        for (int i = 0; i + part.length <= bytes.length; i++) {
+            if (Arrays.equals(Arrays.copyOfRange(bytes, i, i + part.length), part)) {
+                return i;
+            }
+        }
+        throw new AssertionError("Not found");
+    }
+
+    private static void assertRefused(byte[] bytes) {
+        try {
+            NewsSnapshotCodec.decode(ByteBuffer.wrap(bytes));
+            fail("Decoded " + bytes.length + " bytes that aren't a snapshot");
+        } catch (IOException expected) {
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package android.example.mynews;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that {@link NewsStartupSnapshot} gives back the top of the feed as written, stays
+ * small, and never fails a start because of a missing or damaged file.
+ */
+public class NewsStartupSnapshotTest {
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void read_givesBackTheArticlesWritten() throws IOException {
+        NewsStartupSnapshot snapshot = new NewsStartupSnapshot(mFolder.newFile());
+        List<News> feed = Arrays.asList(
+                new News("US news", "Arizona wildfire forces evacuations", "Tom Dart",
+                        1560513605000L, "https://www.theguardian.com/a",
+                        "https://media.guim.co.uk/a/500.jpg"),
+                new News("World news", "Border wall funding vote", "Tom Dart",
+                        "14 June, sometime", "https://www.theguardian.com/b", null),
+                new News("US news", "Copper mine expansion approved", "Lauren Aratani",
+                        1560510005000L, "https://www.theguardian.com/c"));
+
+        snapshot.write(feed);
+        List<News> read = snapshot.read();
+
+        assertEquals(feed.size(), read.size());
+        for (int i = 0; i < feed.size(); i++) {
+            News expected = feed.get(i);
+            News actual = read.get(i);
+            assertEquals(expected.getNewsArticleSectionName(), actual.getNewsArticleSectionName());
+            assertEquals(expected.getNewsArticleTitle(), actual.getNewsArticleTitle());
+            assertEquals(expected.getNewsArticleAuthor(), actual.getNewsArticleAuthor());
+            assertEquals(expected.getNewsArticlePublicationTime(),
+                    actual.getNewsArticlePublicationTime());
+            assertEquals(expected.getNewsArticlePublicationDate(),
+                    actual.getNewsArticlePublicationDate());
+            assertEquals(expected.getNewsArticleUrl(), actual.getNewsArticleUrl());
+            assertEquals(expected.getNewsArticleThumbnailUrl(),
+                    actual.getNewsArticleThumbnailUrl());
+        }
+        assertNull(read.get(1).getNewsArticleThumbnailUrl());
+    }
+
+    @Test
+    public void write_keepsOnlyTheTopOfTheFeed() throws IOException {
+        File file = mFolder.newFile();
+        NewsStartupSnapshot snapshot = new NewsStartupSnapshot(file);
+        List<News> feed = GuardianFixtures.syntheticStories(500, 1);
+
+        snapshot.write(feed);
+        List<News> read = snapshot.read();
+
+        assertEquals(NewsStartupSnapshot.DEFAULT_MAX_ARTICLES, read.size());
+        assertEquals(feed.get(0).getNewsArticleUrl(), read.get(0).getNewsArticleUrl());
+        // Small enough to read on the main thread before the first frame
+        assertTrue(file.length() < 16 * 1024);
+    }
+
+    @Test
+    public void read_ofAMissingOrDamagedFileIsEmpty() throws IOException {
+        File file = new File(mFolder.getRoot(), "startup.snapshot");
+        NewsStartupSnapshot snapshot = new NewsStartupSnapshot(file);
+        assertTrue(snapshot.read().isEmpty());
+
+        snapshot.write(GuardianFixtures.syntheticStories(10, 1));
+        byte[] truncated = new byte[(int) file.length() / 2];
+        FileInputStream in = new FileInputStream(file);
+        try {
+            assertEquals(truncated.length, in.read(truncated));
+        } finally {
+            in.close();
+        }
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(truncated);
+        } finally {
+            out.close();
+        }
+        assertTrue(snapshot.read().isEmpty());
+
+        snapshot.delete();
+        assertTrue(snapshot.read().isEmpty());
+    }
+
+    @Test
+    public void writeAsync_copiesTheArticlesFirst() throws Exception {
+        NewsStartupSnapshot snapshot = new NewsStartupSnapshot(mFolder.newFile());
+        List<News> feed = new ArrayList<>(GuardianFixtures.syntheticStories(10, 1));
+        String first = feed.get(0).getNewsArticleUrl();
+
+        snapshot.writeAsync(feed);
+        feed.clear();
+
+        long deadline = System.nanoTime() + 5000000000L;
+        List<News> read = snapshot.read();
+        while (read.isEmpty() && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+            read = snapshot.read();
+        }
+        assertEquals(10, read.size());
+        assertEquals(first, read.get(0).getNewsArticleUrl());
+    }
+}
@@ -0,0 +1,270 @@
+package android.example.mynews;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Drives {@link NewsSyncScheduler} with a fake clock against a local HTTP server whose
+ * newest article can be moved forward.
+ */
+public class NewsSyncSchedulerTest {
+
+    private static final long INTERVAL = NewsSyncScheduler.DEFAULT_INTERVAL_MILLIS;
+
+    private static final int PAGE_SIZE = 20;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private HttpServer mServer;
+
+    private final FakeClock mClock = new FakeClock();
+
+    private final List<String> mQueries = Collections.synchronizedList(new ArrayList<String>());
+
+    /**
+     * Fixture index of the newest article the server has published
+     */
+    private volatile int mNewest = 10;
+
+    private volatile boolean mFailing;
+
+    private NewsDiskCache mCache;
+
+    private File mStateFile;
+
+    private NewsSyncScheduler mScheduler;
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        mServer.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                mQueries.add(exchange.getRequestURI().getPath() + "?"
+                        + exchange.getRequestURI().getRawQuery());
+                if (mFailing) {
+                    exchange.sendResponseHeaders(503, -1);
+                    exchange.close();
+                    return;
+                }
+                // Every fixture article is from the same day, so a from-date changes nothing
+                byte[] body = GuardianFixtures.searchResponseBytes(mNewest, PAGE_SIZE);
+                exchange.sendResponseHeaders(200, body.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(body);
+                out.close();
+            }
+        });
+        mServer.start();
+        mCache = new NewsDiskCache(mFolder.newFolder("cache"));
+        mStateFile = new File(mFolder.getRoot(), "sync");
+        mScheduler = new NewsSyncScheduler(mCache, mStateFile, INTERVAL, mClock);
+    }
+
+    @After
+    public void tearDown() {
+        mServer.stop(0);
+    }
+
+    @Test
+    public void syncDue_waitsForTheInterval() {
+        mScheduler.subscribe(url("/a"));
+
+        NewsSyncScheduler.Result result = mScheduler.syncDue();
+
+        assertEquals(0, result.synced);
+        assertTrue(mQueries.isEmpty());
+        assertEquals(mClock.mNow + INTERVAL, mScheduler.getNextSyncTime());
+    }
+
+    @Test
+    public void syncDue_fetchesTheWholePageFirst() {
+        mScheduler.subscribe(url("/a"));
+        mClock.mNow += INTERVAL;
+
+        NewsSyncScheduler.Result result = mScheduler.syncDue();
+
+        assertEquals(1, result.synced);
+        assertEquals(PAGE_SIZE, result.newArticles);
+        assertFalse(mQueries.get(0).contains("from-date"));
+        assertEquals(indexes(10, PAGE_SIZE), urls(mCache.get(url("/a")).news));
+        assertEquals(mClock.mNow + INTERVAL, mScheduler.getNextSyncTime());
+    }
+
+    @Test
+    public void syncDue_thenFetchesOnlyWhatIsNew() {
+        mScheduler.subscribe(url("/a"));
+        mClock.mNow += INTERVAL;
+        mScheduler.syncDue();
+
+        // Five articles are published before the next sync
+        mNewest = 5;
+        mClock.mNow += INTERVAL;
+        NewsSyncScheduler.Result result = mScheduler.syncDue();
+
+        assertEquals(1, result.synced);
+        assertEquals(5, result.newArticles);
+        assertTrue(mQueries.get(1), mQueries.get(1).endsWith("&from-date=2019-06-14"));
+        NewsDiskCache.Entry entry = mCache.get(url("/a"));
+        assertEquals(indexes(5, PAGE_SIZE), urls(entry.news));
+        assertEquals(mClock.mNow, entry.fetchedAtMillis);
+
+        // Nothing new the time after
+        mClock.mNow += INTERVAL;
+        result = mScheduler.syncDue();
+        assertEquals(0, result.newArticles);
+        assertEquals(indexes(5, PAGE_SIZE), urls(mCache.get(url("/a")).news));
+        assertEquals(mClock.mNow, mCache.get(url("/a")).fetchedAtMillis);
+    }
+
+    @Test
+    public void syncDue_storesOnlyNewArticles() {
+        final List<News> stored = new ArrayList<>();
+        NewsSyncScheduler scheduler = new NewsSyncScheduler(mCache, mStateFile, INTERVAL, mClock,
+                new NewsIngestPipeline.Consumer() {
+                    @Override
+                    public void onBatch(List<News> batch) {
+                        stored.addAll(batch);
+                    }
+                });
+        scheduler.subscribe(url("/a"));
+        mClock.mNow += INTERVAL;
+        scheduler.syncDue();
+        assertEquals(indexes(10, PAGE_SIZE), urls(stored));
+
+        stored.clear();
+        mNewest = 5;
+        mClock.mNow += INTERVAL;
+        scheduler.syncDue();
+        assertEquals(indexes(5, 5), urls(stored));
+    }
+
+    @Test
+    public void syncDue_backsOffOnFailure() {
+        mScheduler.subscribe(url("/a"));
+        mClock.mNow += INTERVAL;
+        mFailing = true;
+
+        long[] expected = {60000, 120000, 240000, 480000};
+        for (long backoff : expected) {
+            NewsSyncScheduler.Result result = mScheduler.syncDue();
+            assertEquals(1, result.failed);
+            assertEquals(mClock.mNow + backoff, mScheduler.getNextSyncTime());
+            mClock.mNow = mScheduler.getNextSyncTime();
+        }
+
+        mFailing = false;
+        assertEquals(1, mScheduler.syncDue().synced);
+        assertEquals(mClock.mNow + INTERVAL, mScheduler.getNextSyncTime());
+    }
+
+    @Test
+    public void backoff_isCapped() {
+        assertEquals(NewsSyncScheduler.MAX_BACKOFF_MILLIS, NewsSyncScheduler.backoffMillis(40));
+    }
+
+    @Test
+    public void syncDue_batchesQueriesThatAreNearlyDue() {
+        mScheduler.subscribe(url("/a"));
+        mClock.mNow += INTERVAL / 6;
+        mScheduler.subscribe(url("/b"));
+        mClock.mNow += INTERVAL / 6;
+        mScheduler.subscribe(url("/c"));
+
+        // /a is due, /b five minutes later and /c ten minutes later
+        mClock.mNow += INTERVAL * 2 / 3;
+        NewsSyncScheduler.Result result = mScheduler.syncDue();
+
+        assertEquals(2, result.synced);
+        assertEquals(mClock.mNow + INTERVAL / 3, mScheduler.getNextSyncTime());
+    }
+
+    @Test
+    public void subscriptions_surviveARestart() {
+        mScheduler.subscribe(url("/a"));
+        mScheduler.subscribe(url("/b"));
+        mScheduler.unsubscribe(url("/a"));
+
+        NewsSyncScheduler restarted = new NewsSyncScheduler(mCache, mStateFile, INTERVAL, mClock);
+
+        assertEquals(Collections.singletonList(url("/b")), restarted.getSubscriptions());
+        assertEquals(mScheduler.getNextSyncTime(), restarted.getNextSyncTime());
+    }
+
+    @Test
+    public void subscribe_replacesTheSameQueryAskedForAnotherWay() {
+        mScheduler.subscribe(url("/a?page-size=20"));
+        mScheduler.subscribe(url("/b"));
+        List<String> plans = Arrays.asList(url("/a?page-size=20"), url("/a?page-size=10"));
+
+        mScheduler.subscribe(url("/a?page-size=10"), plans);
+        assertEquals(Arrays.asList(url("/b"), url("/a?page-size=10")),
+                mScheduler.getSubscriptions());
+
+        mScheduler.subscribe(url("/a?page-size=20"), plans);
+        assertEquals(Arrays.asList(url("/b"), url("/a?page-size=20")),
+                new NewsSyncScheduler(mCache, mStateFile, INTERVAL, mClock).getSubscriptions());
+    }
+
+    @Test
+    public void withFromDate_replacesAnyEarlierDate() {
+        long time = NewsTimestamps.parse("2019-06-14T12:00:05Z");
+
+        assertEquals("https://a/search?q=x&page=1&from-date=2019-06-14",
+                NewsSyncScheduler.withFromDate("https://a/search?q=x&from-date=2012-02-01&page=1",
+                        time));
+        assertEquals("https://a/search?from-date=2019-06-14",
+                NewsSyncScheduler.withFromDate("https://a/search", time));
+    }
+
+    private String url(String path) {
+        return "http://127.0.0.1:" + mServer.getAddress().getPort() + path
+                + "?q=arizona&page-size=" + PAGE_SIZE + "&page=1";
+    }
+
+    private static List<String> indexes(int first, int count) {
+        List<String> urls = new ArrayList<>();
+        for (int i = first; i < first + count; i++) {
+            urls.add(GuardianFixtures.webUrl(i));
+        }
+        return urls;
+    }
+
+    private static List<String> urls(List<News> news) {
+        List<String> urls = new ArrayList<>();
+        for (News article : news) {
+            urls.add(article.getNewsArticleUrl());
+        }
+        return urls;
+    }
+
+    private static final class FakeClock implements NewsClock {
+        long mNow = 1560513605000L + 3600000L;
+
+        @Override
+        public long currentTimeMillis() {
+            return mNow;
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package android.example.mynews;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the compact {@link News} model and measures how much heap it saves.
+ */
+public class NewsTest {
+
+    @Test
+    public void news_keepsEveryField() {
+        News news = new News("US news", "Heat records fall across Arizona – again", "Tom Dart",
+                "2019-06-14T12:00:05Z", "https://www.theguardian.com/us-news/2019/jun/14/a");
+
+        assertEquals("US news", news.getNewsArticleSectionName());
+        assertEquals("Heat records fall across Arizona – again", news.getNewsArticleTitle());
+        assertEquals("Tom Dart", news.getNewsArticleAuthor());
+        assertEquals("2019-06-14T12:00:05Z", news.getNewsArticlePublicationDate());
+        assertEquals(1560513605000L, news.getNewsArticlePublicationTime());
+        assertEquals("https://www.theguardian.com/us-news/2019/jun/14/a", news.getNewsArticleUrl());
+    }
+
+    @Test
+    public void news_decodesTitleAndUrlOnce() {
+        News news = new News("US news", "Title", "Tom Dart", "2019-06-14T12:00:05Z", "https://a");
+
+        assertSame(news.getNewsArticleTitle(), news.getNewsArticleTitle());
+        assertSame(news.getNewsArticleUrl(), news.getNewsArticleUrl());
+    }
+
+    @Test
+    public void news_keepsUnparseableDates() {
+        News news = new News("US news", "Title", "Tom Dart", "14 June 2019", "https://a");
+
+        assertEquals("14 June 2019", news.getNewsArticlePublicationDate());
+        assertEquals(NewsTimestamps.UNKNOWN, news.getNewsArticlePublicationTime());
+    }
+
+    @Test
+    public void news_sharesRepeatedNames() {
+        News first = new News(new String("US news"), "A", new String("Tom Dart"),
+                "2019-06-14T12:00:05Z", "https://a");
+        News second = new News(new String("US news"), "B", new String("Tom Dart"),
+                "2019-06-14T12:00:05Z", "https://b");
+
+        assertSame(first.getNewsArticleSectionName(), second.getNewsArticleSectionName());
+        assertSame(first.getNewsArticleAuthor(), second.getNewsArticleAuthor());
+    }
+
+    @Test
+    public void timestamps_matchSimpleDateFormat() throws Exception {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        Random random = new Random(6);
+        for (int i = 0; i < 10000; i++) {
+            // Any second between 1900 and 2100
+            long millis = (long) ((random.nextDouble() * 200 - 70) * 365.25 * 86400) * 1000L;
+            String date = format.format(new Date(millis));
+
+            assertEquals(date, millis, NewsTimestamps.parse(date));
+            assertEquals(date, NewsTimestamps.format(millis));
+        }
+    }
+
+    /**
+     * Heap benchmark: retained bytes per article for 10k parsed articles, held as five Strings
+     * the way News used to be, and as the compact News.
+     */
+    @Test
+    public void news_usesLessHeapThanFiveStrings() throws IOException {
+        byte[] payload = GuardianFixtures.searchResponseBytes(10000);
+        List<News> parsed = NewsJsonStreamParser.parse(new ByteArrayInputStream(payload));
+
+        long before = usedHeap();
+        List<FiveStringNews> legacy = new ArrayList<>(parsed.size());
+        for (News news : parsed) {
+            legacy.add(new FiveStringNews(news));
+        }
+        long legacyBytes = usedHeap() - before;
+
+        parsed = null;
+        before = usedHeap();
+        List<News> compact = NewsJsonStreamParser.parse(new ByteArrayInputStream(payload));
+        long compactBytes = usedHeap() - before;
+
+        // Both lists are still reachable here, so neither was collected while it was measured
+        assertEquals(legacy.size(), compact.size());
+        assertTrue(compactBytes < legacyBytes * 3 / 4);
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * The original layout of News: one String instance per field.
+     */
+    private static final class FiveStringNews {
+        final String mSectionName;
+        final String mTitle;
+        final String mAuthor;
+        final String mPublicationDate;
+        final String mUrl;
+
+        FiveStringNews(News news) {
+            // Fresh copies, the way every parse used to produce them
+            mSectionName = new String(news.getNewsArticleSectionName());
+            mTitle = news.getNewsArticleTitle();
+            mAuthor = new String(news.getNewsArticleAuthor());
+            mPublicationDate = news.getNewsArticlePublicationDate();
+            mUrl = news.getNewsArticleUrl();
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package android.example.mynews;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that {@link NewsThumbnailDiskCache} keeps the most recently used images within its
+ * byte budget, also across restarts.
+ */
+public class NewsThumbnailDiskCacheTest {
+
+    private static final int IMAGE_BYTES = 1000;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void put_storesTheWholeImage() throws IOException {
+        NewsThumbnailDiskCache cache = new NewsThumbnailDiskCache(mFolder.newFolder(), 10000);
+
+        File file = cache.put("https://media.guim.co.uk/a.jpg", image(IMAGE_BYTES));
+
+        assertEquals(IMAGE_BYTES, file.length());
+        assertEquals(file, cache.get("https://media.guim.co.uk/a.jpg"));
+        assertNull(cache.get("https://media.guim.co.uk/b.jpg"));
+        assertEquals(IMAGE_BYTES, cache.size());
+    }
+
+    @Test
+    public void put_evictsTheLeastRecentlyUsedOverBudget() throws IOException {
+        NewsThumbnailDiskCache cache =
+                new NewsThumbnailDiskCache(mFolder.newFolder(), 3 * IMAGE_BYTES);
+
+        cache.put("https://a/1", image(IMAGE_BYTES));
+        cache.put("https://a/2", image(IMAGE_BYTES));
+        cache.put("https://a/3", image(IMAGE_BYTES));
+        // /1 is now more recently used than /2, which makes room for /4
+        assertNotNull(cache.get("https://a/1"));
+        cache.put("https://a/4", image(IMAGE_BYTES));
+
+        assertNotNull(cache.get("https://a/1"));
+        assertNull(cache.get("https://a/2"));
+        assertNotNull(cache.get("https://a/3"));
+        assertNotNull(cache.get("https://a/4"));
+        assertEquals(3 * IMAGE_BYTES, cache.size());
+    }
+
+    @Test
+    public void put_replacesAnImageWithoutCountingItTwice() throws IOException {
+        NewsThumbnailDiskCache cache = new NewsThumbnailDiskCache(mFolder.newFolder(), 10000);
+
+        cache.put("https://a/1", image(IMAGE_BYTES));
+        cache.put("https://a/1", image(2 * IMAGE_BYTES));
+
+        assertEquals(2 * IMAGE_BYTES, cache.size());
+        assertEquals(2 * IMAGE_BYTES, cache.get("https://a/1").length());
+    }
+
+    @Test
+    public void cache_picksUpWhatAnEarlierRunLeft() throws IOException {
+        File directory = mFolder.newFolder();
+        NewsThumbnailDiskCache cache = new NewsThumbnailDiskCache(directory, 10000);
+        File first = cache.put("https://a/1", image(IMAGE_BYTES));
+        File second = cache.put("https://a/2", image(IMAGE_BYTES));
+        // Modification times are only precise to the second on some file systems
+        assertTrue(first.setLastModified(1000000000L));
+        assertTrue(second.setLastModified(2000000000L));
+        File leftover = new File(directory, "half-written.tmp");
+        assertTrue(leftover.createNewFile());
+
+        // A smaller budget than what is on disk: the older image goes
+        NewsThumbnailDiskCache restarted = new NewsThumbnailDiskCache(directory, IMAGE_BYTES);
+
+        assertEquals(IMAGE_BYTES, restarted.size());
+        assertNull(restarted.get("https://a/1"));
+        assertNotNull(restarted.get("https://a/2"));
+        assertFalse(leftover.exists());
+    }
+
+    @Test
+    public void get_forgetsFilesDeletedBehindItsBack() throws IOException {
+        NewsThumbnailDiskCache cache = new NewsThumbnailDiskCache(mFolder.newFolder(), 10000);
+        File file = cache.put("https://a/1", image(IMAGE_BYTES));
+
+        assertTrue(file.delete());
+
+        assertNull(cache.get("https://a/1"));
+        assertEquals(0, cache.size());
+    }
+
+    private static ByteArrayInputStream image(int size) {
+        byte[] bytes = new byte[size];
+        for (int i = 0; i < size; i++) {
+            bytes[i] = (byte) i;
+        }
+        return new ByteArrayInputStream(bytes);
+    }
+}
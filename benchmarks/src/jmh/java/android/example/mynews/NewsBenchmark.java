@@ -0,0 +1,69 @@
+package android.example.mynews;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures building {@link News} articles from the strings a parser extracts, and reading
+ * every field back the way binding a row does.
+ */
+@State(Scope.Benchmark)
+public class NewsBenchmark {
+
+    /**
+     * Number of articles built or read per operation
+     */
+    @Param({"10", "200", "10000"})
+    public int results;
+
+    private String[][] mFields;
+
+    private List<News> mNews;
+
+    @Setup
+    public void setUp() throws IOException {
+        mNews = NewsJsonStreamParser.parse(
+                new ByteArrayInputStream(GuardianFixtures.searchResponseBytes(results)));
+        mFields = new String[mNews.size()][];
+        for (int i = 0; i < mFields.length; i++) {
+            News news = mNews.get(i);
+            // Fresh copies, as a parser would produce them
+            mFields[i] = new String[]{
+                    new String(news.getNewsArticleSectionName()),
+                    news.getNewsArticleTitle(),
+                    new String(news.getNewsArticleAuthor()),
+                    news.getNewsArticlePublicationDate(),
+                    news.getNewsArticleUrl()
+            };
+        }
+    }
+
+    @Benchmark
+    public List<News> construct() {
+        List<News> news = new ArrayList<>(mFields.length);
+        for (String[] fields : mFields) {
+            news.add(new News(fields[0], fields[1], fields[2], fields[3], fields[4]));
+        }
+        return news;
+    }
+
+    @Benchmark
+    public void readFields(Blackhole blackhole) {
+        for (News news : mNews) {
+            blackhole.consume(news.getNewsArticleSectionName());
+            blackhole.consume(news.getNewsArticleTitle());
+            blackhole.consume(news.getNewsArticleAuthor());
+            blackhole.consume(news.getNewsArticlePublicationDate());
+            blackhole.consume(news.getNewsArticleUrl());
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package android.example.mynews;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures grouping synthetic feeds into stories with {@link NewsDeduplicator}: clustering a
+ * whole feed from scratch, and looking one more article up in a deduplicator that already
+ * holds the feed, which should cost about the same at every size.
+ */
+@State(Scope.Benchmark)
+public class NewsDeduplicatorBenchmark {
+
+    private static final int LOOKUPS = 1000;
+
+    /**
+     * Number of articles in the feed
+     */
+    @Param({"10000", "100000"})
+    public int articles;
+
+    private List<News> mFeed;
+
+    private NewsDeduplicator mDeduplicator;
+
+    /**
+     * Articles that aren't in the feed, half of them updates of stories that are
+     */
+    private List<News> mLookups;
+
+    private int mNext;
+
+    @Setup
+    public void setUp() {
+        mFeed = GuardianFixtures.syntheticStories(articles, 42);
+        mDeduplicator = new NewsDeduplicator();
+        for (News news : mFeed) {
+            mDeduplicator.add(news);
+        }
+        mLookups = new ArrayList<>();
+        List<News> unrelated = GuardianFixtures.syntheticStories(LOOKUPS / 2, 43);
+        for (int i = 0; i < LOOKUPS / 2; i++) {
+            // The title of an article in the feed without its last word
+            String title = mFeed.get(i * (articles / (LOOKUPS / 2))).getNewsArticleTitle();
+            mLookups.add(lookup(title.substring(0, title.lastIndexOf(' ')), 2 * i));
+            mLookups.add(lookup(unrelated.get(i).getNewsArticleTitle(), 2 * i + 1));
+        }
+    }
+
+    private static News lookup(String title, int index) {
+        return new News("World news", title, "Tom Dart", 0,
+                "https://www.theguardian.com/world/lookup-" + index);
+    }
+
+    @Benchmark
+    public int cluster() {
+        NewsDeduplicator deduplicator = new NewsDeduplicator();
+        for (News news : mFeed) {
+            deduplicator.add(news);
+        }
+        return deduplicator.getStoryCount();
+    }
+
+    @Benchmark
+    public int find() {
+        mNext = (mNext + 1) % mLookups.size();
+        return mDeduplicator.find(mLookups.get(mNext));
+    }
+}
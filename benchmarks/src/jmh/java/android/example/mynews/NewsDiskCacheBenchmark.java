@@ -0,0 +1,67 @@
+package android.example.mynews;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Measures writing and reading one cached page of {@link News} articles.
+ */
+@State(Scope.Benchmark)
+public class NewsDiskCacheBenchmark {
+
+    private static final String URL = "https://content.guardianapis.com/search?q=arizona";
+
+    /**
+     * Number of articles in the cached page
+     */
+    @Param({"10", "200", "10000"})
+    public int results;
+
+    private File mDirectory;
+
+    private NewsDiskCache mCache;
+
+    private NewsDiskCache.Entry mEntry;
+
+    @Setup
+    public void setUp() throws IOException {
+        List<News> news = NewsJsonStreamParser.parse(
+                new ByteArrayInputStream(GuardianFixtures.searchResponseBytes(results)));
+        mEntry = new NewsDiskCache.Entry("\"etag\"", null, System.currentTimeMillis(), news);
+        mDirectory = File.createTempFile("news_cache", "");
+        mDirectory.delete();
+        mCache = new NewsDiskCache(mDirectory);
+        mCache.put(URL, mEntry);
+    }
+
+    @TearDown
+    public void tearDown() {
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDirectory.delete();
+    }
+
+    @Benchmark
+    public NewsDiskCache.Entry get() {
+        return mCache.get(URL);
+    }
+
+    @Benchmark
+    public NewsDiskCache.Entry put() {
+        mCache.put(URL, mEntry);
+        return mEntry;
+    }
+}
@@ -0,0 +1,91 @@
+package android.example.mynews;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Measures building a {@link NewsSearchIndex} over generated articles, and answering two word
+ * queries with the second word typed halfway, as the search box asks while it is typed in.
+ */
+@State(Scope.Benchmark)
+public class NewsSearchIndexBenchmark {
+
+    private static final int QUERIES = 1000;
+
+    /**
+     * Number of articles indexed
+     */
+    @Param({"10000", "100000", "1000000"})
+    public int articles;
+
+    private List<News> mArticles;
+
+    private NewsSearchIndex mIndex;
+
+    private String[] mQueries;
+
+    private int mNext;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(articles);
+        String[] vocabulary = new String[20000];
+        for (int i = 0; i < vocabulary.length; i++) {
+            vocabulary[i] = word(random);
+        }
+
+        mArticles = new ArrayList<>(articles);
+        for (int i = 0; i < articles; i++) {
+            StringBuilder title = new StringBuilder();
+            for (int w = 0; w < 8; w++) {
+                title.append(zipf(random, vocabulary)).append(' ');
+            }
+            mArticles.add(new News("Section " + random.nextInt(30), title.toString(),
+                    "Author " + random.nextInt(1000), i * 60000L, "https://example.com/" + i));
+        }
+        mIndex = index();
+
+        mQueries = new String[QUERIES];
+        for (int q = 0; q < QUERIES; q++) {
+            String second = zipf(random, vocabulary);
+            mQueries[q] = zipf(random, vocabulary) + " "
+                    + second.substring(0, Math.max(1, second.length() / 2));
+        }
+    }
+
+    @Benchmark
+    public NewsSearchIndex index() {
+        NewsSearchIndex index = new NewsSearchIndex(articles);
+        index.addAll(mArticles);
+        return index;
+    }
+
+    @Benchmark
+    public List<News> search() {
+        mNext = (mNext + 1) % QUERIES;
+        return mIndex.search(mQueries[mNext], 20);
+    }
+
+    /**
+     * Pick a word, with a few words much more common than the rest as in real headlines.
+     */
+    private static String zipf(Random random, String[] vocabulary) {
+        double r = random.nextDouble();
+        return vocabulary[(int) (vocabulary.length * r * r * r)];
+    }
+
+    private static String word(Random random) {
+        char[] letters = new char[3 + random.nextInt(8)];
+        for (int i = 0; i < letters.length; i++) {
+            letters[i] = (char) ('a' + random.nextInt(26));
+        }
+        return new String(letters);
+    }
+}
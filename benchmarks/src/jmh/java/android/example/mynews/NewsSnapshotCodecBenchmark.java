@@ -0,0 +1,75 @@
+package android.example.mynews;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Measures encoding and decoding a snapshot of {@link News} articles with
+ * {@link NewsSnapshotCodec}, against parsing the same articles from the search response JSON.
+ */
+@State(Scope.Benchmark)
+public class NewsSnapshotCodecBenchmark {
+
+    /**
+     * Number of articles in the snapshot
+     */
+    @Param({"10", "200", "10000"})
+    public int results;
+
+    private byte[] mJson;
+
+    private List<News> mNews;
+
+    private byte[] mSnapshot;
+
+    @Setup
+    public void setUp() throws IOException {
+        mJson = GuardianFixtures.searchResponseBytes(results);
+        mNews = NewsJsonStreamParser.parse(new ByteArrayInputStream(mJson));
+        mSnapshot = NewsSnapshotCodec.encode(mNews);
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return NewsSnapshotCodec.encode(mNews);
+    }
+
+    /**
+     * Opens the snapshot and decodes every article.
+     */
+    @Benchmark
+    public int decodeAll() throws IOException {
+        NewsSnapshotCodec.Snapshot snapshot = NewsSnapshotCodec.decode(ByteBuffer.wrap(mSnapshot));
+        int hash = 0;
+        for (int i = 0; i < snapshot.size(); i++) {
+            hash += snapshot.get(i).getNewsArticleUrlBytes().length;
+        }
+        return hash;
+    }
+
+    /**
+     * Opens the snapshot and decodes the article in the middle, as showing one screen of a
+     * large snapshot does.
+     */
+    @Benchmark
+    public News decodeOne() throws IOException {
+        NewsSnapshotCodec.Snapshot snapshot = NewsSnapshotCodec.decode(ByteBuffer.wrap(mSnapshot));
+        return snapshot.get(results / 2);
+    }
+
+    /**
+     * Parses the same articles from JSON, what reading them costs without a snapshot.
+     */
+    @Benchmark
+    public List<News> parseJson() throws IOException {
+        return NewsJsonStreamParser.parse(new ByteArrayInputStream(mJson));
+    }
+}
@@ -0,0 +1,58 @@
+package android.example.mynews;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.List;
+
+/**
+ * Measures turning a Guardian response body into {@link News} articles: the original
+ * read-everything-then-parse path of {@link QueryUtils}, each of its two halves, and the
+ * streaming parser the network path uses now.
+ */
+@State(Scope.Benchmark)
+public class QueryUtilsBenchmark {
+
+    /**
+     * Number of results in the response
+     */
+    @Param({"10", "200", "10000"})
+    public int results;
+
+    private byte[] mPayload;
+
+    private String mJson;
+
+    @Setup
+    public void setUp() {
+        mPayload = GuardianFixtures.searchResponseBytes(results);
+        mJson = new String(mPayload, Charset.forName("UTF-8"));
+    }
+
+    @Benchmark
+    public String readFromStream() throws IOException {
+        return QueryUtils.readFromStream(new ByteArrayInputStream(mPayload));
+    }
+
+    @Benchmark
+    public List<News> extractFeatureFromJson() {
+        return QueryUtils.extractFeatureFromJson(mJson);
+    }
+
+    @Benchmark
+    public List<News> readAndExtract() throws IOException {
+        return QueryUtils.extractFeatureFromJson(
+                QueryUtils.readFromStream(new ByteArrayInputStream(mPayload)));
+    }
+
+    @Benchmark
+    public List<News> streamParse() throws IOException {
+        return NewsJsonStreamParser.parse(new ByteArrayInputStream(mPayload));
+    }
+}
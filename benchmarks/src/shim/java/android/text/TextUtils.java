@@ -0,0 +1,18 @@
+package android.text;
+
+/**
+ * Stand-in for the Android text utilities used by the app sources under benchmark.
+ */
+public final class TextUtils {
+
+    private TextUtils() {
+    }
+
+    public static boolean isEmpty(CharSequence str) {
+        return str == null || str.length() == 0;
+    }
+
+    public static boolean equals(CharSequence a, CharSequence b) {
+        return a == b || (a != null && b != null && a.toString().equals(b.toString()));
+    }
+}